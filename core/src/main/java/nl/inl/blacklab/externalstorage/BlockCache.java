@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.externalstorage;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of decoded content store blocks, keyed by block number.
+ *
+ * Lookups don't lock. The cache is bounded by the (estimated) memory
+ * the decoded blocks take up; when it grows too large, blocks that
+ * haven't been used since the previous eviction sweep are removed
+ * (the "clock" algorithm, an approximation of LRU).
+ *
+ * Blocks may be reused after a document is deleted, so the content store
+ * must invalidate a block after writing new contents to it.
+ */
+class BlockCache {
+
+	/** Estimated memory overhead per cached block (map entry, String object, etc.) */
+	private static final int ENTRY_OVERHEAD_BYTES = 100;
+
+	/** A cached block */
+	private static class Entry {
+
+		/** The decoded contents of the block */
+		final String contents;
+
+		/** Was this entry used since the last eviction sweep? */
+		volatile boolean referenced;
+
+		Entry(String contents) {
+			this.contents = contents;
+		}
+	}
+
+	/** The cached blocks */
+	private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+	/** Estimated memory used by the cached blocks */
+	private final AtomicLong sizeBytes = new AtomicLong();
+
+	/** Maximum memory to use for cached blocks */
+	private volatile long maxSizeBytes;
+
+	/** Incremented whenever a block is invalidated */
+	private final AtomicLong generation = new AtomicLong();
+
+	/** Where the eviction sweep continues (guarded by this) */
+	private Iterator<Map.Entry<Integer, Entry>> clockHand;
+
+	/**
+	 * @param maxSizeBytes maximum memory to use for cached blocks
+	 */
+	BlockCache(long maxSizeBytes) {
+		this.maxSizeBytes = maxSizeBytes;
+	}
+
+	/**
+	 * Set the maximum memory to use for cached blocks.
+	 *
+	 * @param maxSizeBytes the maximum size in bytes, or 0 to disable caching
+	 */
+	void setMaxSize(long maxSizeBytes) {
+		this.maxSizeBytes = maxSizeBytes;
+		evict();
+	}
+
+	/**
+	 * Get the current generation.
+	 *
+	 * Read this before reading a block from disk, and pass it to put(),
+	 * so we don't cache a block that was overwritten in the meantime.
+	 *
+	 * @return the current generation
+	 */
+	long generation() {
+		return generation.get();
+	}
+
+	/**
+	 * Get a decoded block from the cache.
+	 *
+	 * @param blockNumber the block to get
+	 * @return the decoded block, or null if it's not in the cache
+	 */
+	String get(int blockNumber) {
+		Entry entry = entries.get(blockNumber);
+		if (entry == null)
+			return null;
+		entry.referenced = true;
+		return entry.contents;
+	}
+
+	/**
+	 * Add a decoded block to the cache.
+	 *
+	 * @param blockNumber the block number
+	 * @param contents the decoded block
+	 * @param generationBeforeRead value of generation() before the block was read
+	 */
+	void put(int blockNumber, String contents, long generationBeforeRead) {
+		long size = sizeOf(contents);
+		if (size > maxSizeBytes)
+			return;
+		if (entries.containsKey(blockNumber) || generation.get() != generationBeforeRead)
+			return;
+		Entry entry = new Entry(contents);
+		if (entries.putIfAbsent(blockNumber, entry) != null)
+			return;
+		sizeBytes.addAndGet(size);
+		if (generation.get() != generationBeforeRead) {
+			// A block was invalidated while we were reading; it may have been this one.
+			remove(blockNumber, entry);
+			return;
+		}
+		if (sizeBytes.get() > maxSizeBytes)
+			evict();
+	}
+
+	/**
+	 * Remove a block from the cache because it was overwritten.
+	 *
+	 * @param blockNumber the block to invalidate
+	 */
+	void invalidate(int blockNumber) {
+		generation.incrementAndGet();
+		Entry entry = entries.get(blockNumber);
+		if (entry != null)
+			remove(blockNumber, entry);
+	}
+
+	/**
+	 * Remove all blocks from the cache.
+	 */
+	synchronized void clear() {
+		generation.incrementAndGet();
+		for (Integer blockNumber: entries.keySet()) {
+			Entry entry = entries.get(blockNumber);
+			if (entry != null)
+				remove(blockNumber, entry);
+		}
+		clockHand = null;
+	}
+
+	/**
+	 * Get the estimated memory used by the cached blocks.
+	 *
+	 * @return the size in bytes
+	 */
+	long sizeBytes() {
+		return sizeBytes.get();
+	}
+
+	private void remove(int blockNumber, Entry entry) {
+		if (entries.remove(blockNumber, entry))
+			sizeBytes.addAndGet(-sizeOf(entry.contents));
+	}
+
+	/**
+	 * Remove blocks until we're below the maximum size again.
+	 */
+	private synchronized void evict() {
+		// Sweep at most twice: the first sweep may only clear the referenced flags
+		int maxSteps = entries.size() * 2 + 1;
+		for (int i = 0; i < maxSteps && sizeBytes.get() > maxSizeBytes; i++) {
+			if (clockHand == null || !clockHand.hasNext()) {
+				clockHand = entries.entrySet().iterator();
+				if (!clockHand.hasNext())
+					break;
+			}
+			Map.Entry<Integer, Entry> mapEntry = clockHand.next();
+			Entry entry = mapEntry.getValue();
+			if (entry.referenced)
+				entry.referenced = false; // give it another chance
+			else
+				remove(mapEntry.getKey(), entry);
+		}
+	}
+
+	private static long sizeOf(String contents) {
+		return (long)contents.length() * Character.BYTES + ENTRY_OVERHEAD_BYTES;
+	}
+
+}
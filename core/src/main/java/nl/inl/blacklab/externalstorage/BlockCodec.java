@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.externalstorage;
+
+/**
+ * Compresses and decompresses the blocks of a content store.
+ *
+ * The codec a content store uses is recorded in its version file, so
+ * it can be read back using the same codec.
+ *
+ * Implementations must be thread-safe.
+ */
+public abstract class BlockCodec {
+
+	/** Name of the default codec */
+	public static final String DEFAULT_CODEC = BlockCodecDeflate.NAME;
+
+	/**
+	 * Get a codec by name.
+	 *
+	 * @param name codec name ("deflate" or "lz4"), or null for the default codec
+	 * @return the codec
+	 */
+	public static BlockCodec fromName(String name) {
+		if (name == null)
+			name = DEFAULT_CODEC;
+		switch (name) {
+		case BlockCodecDeflate.NAME:
+			return new BlockCodecDeflate();
+		case BlockCodecLz4.NAME:
+			return new BlockCodecLz4();
+		default:
+			throw new IllegalArgumentException("Unknown content store codec: " + name);
+		}
+	}
+
+	/**
+	 * Get the name of this codec, as recorded in the version file.
+	 *
+	 * @return the codec name
+	 */
+	public abstract String getName();
+
+	/**
+	 * Compress data.
+	 *
+	 * @param input the data to compress
+	 * @param inputLength number of bytes to compress
+	 * @param output where to write the compressed data
+	 * @return the compressed length, or -1 if the output buffer was too small
+	 */
+	public abstract int compress(byte[] input, int inputLength, byte[] output);
+
+	/**
+	 * Decompress data.
+	 *
+	 * The input may be followed by padding; the codec must be able to tell
+	 * where the compressed data ends.
+	 *
+	 * @param input the compressed data
+	 * @param offset where the compressed data starts
+	 * @param length number of bytes available (including any padding)
+	 * @param output where to write the decompressed data
+	 * @return the decompressed length
+	 */
+	public abstract int decompress(byte[] input, int offset, int length, byte[] output);
+
+	/**
+	 * Free any resources held by this codec.
+	 */
+	public void close() {
+		// Default: nothing to free
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.externalstorage;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import nl.inl.util.SimpleResourcePool;
+
+/**
+ * Block codec using java.util.zip's Deflate.
+ *
+ * Compresses well, but is relatively slow. This is the codec used by
+ * content stores created before codecs could be chosen.
+ */
+class BlockCodecDeflate extends BlockCodec {
+
+	static final String NAME = "deflate";
+
+	/** How many Deflaters/Inflaters to keep around */
+	private static final int POOL_SIZE = 10;
+
+	private SimpleResourcePool<Deflater> compresserPool;
+
+	private SimpleResourcePool<Inflater> decompresserPool;
+
+	BlockCodecDeflate() {
+		compresserPool = new SimpleResourcePool<Deflater>(POOL_SIZE){
+			@Override
+			public Deflater createResource() {
+				return new Deflater();
+			}
+
+			@Override
+			public void destroyResource(Deflater resource) {
+				resource.end();
+			}
+		};
+		decompresserPool = new SimpleResourcePool<Inflater>(POOL_SIZE){
+			@Override
+			public Inflater createResource() {
+				return new Inflater();
+			}
+
+			@Override
+			public void destroyResource(Inflater resource) {
+				resource.end();
+			}
+		};
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int compress(byte[] input, int inputLength, byte[] output) {
+		Deflater compresser = compresserPool.acquire();
+		try {
+			compresser.reset();
+			compresser.setInput(input, 0, inputLength);
+			compresser.finish();
+			int compressedDataLength = compresser.deflate(output, 0, output.length, Deflater.FULL_FLUSH);
+			if (compressedDataLength <= 0) {
+				throw new RuntimeException("Error, deflate returned " + compressedDataLength);
+			}
+			if (compressedDataLength == output.length) {
+				// Output buffer full; the compressed data may not fit
+				return -1;
+			}
+			return compressedDataLength;
+		} finally {
+			compresserPool.release(compresser);
+		}
+	}
+
+	@Override
+	public int decompress(byte[] input, int offset, int length, byte[] output) {
+		try {
+			Inflater decompresser = decompresserPool.acquire();
+			try {
+				decompresser.reset();
+				decompresser.setInput(input, offset, length);
+				int resultLength = decompresser.inflate(output);
+				if (resultLength <= 0) {
+					throw new RuntimeException("Error, inflate returned " + resultLength);
+				}
+				if (!decompresser.finished()) {
+					// This shouldn't happen because our max block size prevents it
+					throw new RuntimeException("Unzip buffer size insufficient");
+				}
+				return resultLength;
+			} finally {
+				decompresserPool.release(decompresser);
+			}
+		} catch (DataFormatException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		compresserPool.close();
+		decompresserPool.close();
+	}
+
+}
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.externalstorage;
+
+import java.util.Arrays;
+
+import nl.inl.util.SimpleResourcePool;
+
+/**
+ * Fast block codec using the LZ4 block format (pure Java, no dependencies).
+ *
+ * Compresses less than Deflate, but compression and especially decompression
+ * are a lot faster. Useful if making snippets and concordances from the
+ * original content is CPU-bound and a somewhat larger content store is
+ * acceptable.
+ *
+ * Each compressed block starts with the length of the LZ4 data (a 4-byte int),
+ * so we know where the data ends and the block padding starts.
+ */
+class BlockCodecLz4 extends BlockCodec {
+
+	static final String NAME = "lz4";
+
+	/** Size of the header containing the compressed length */
+	private static final int HEADER_BYTES = 4;
+
+	/** Minimum match length */
+	private static final int MIN_MATCH = 4;
+
+	/** The last bytes of the input are always literals (part of the LZ4 format) */
+	private static final int LAST_LITERALS = 5;
+
+	/** The last match must start at least this many bytes before the end (part of the LZ4 format) */
+	private static final int MF_LIMIT = 12;
+
+	/** Maximum distance of a match */
+	private static final int MAX_OFFSET = 65535;
+
+	/** Number of bits in the hash of 4 input bytes */
+	private static final int HASH_LOG = 12;
+
+	/** How many misses before we start skipping ahead faster (on incompressible data) */
+	private static final int SKIP_TRIGGER = 6;
+
+	/** Match length or literal length value that indicates more length bytes follow */
+	private static final int RUN_MASK = 15;
+
+	/** How many hash tables to keep around */
+	private static final int POOL_SIZE = 10;
+
+	/** Hash tables of recent positions, used while compressing */
+	private SimpleResourcePool<int[]> hashTablePool;
+
+	BlockCodecLz4() {
+		hashTablePool = new SimpleResourcePool<int[]>(POOL_SIZE){
+			@Override
+			public int[] createResource() {
+				return new int[1 << HASH_LOG];
+			}
+		};
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int compress(byte[] input, int inputLength, byte[] output) {
+		int[] hashTable = hashTablePool.acquire();
+		try {
+			Arrays.fill(hashTable, -1);
+			int outPos = HEADER_BYTES;
+			int anchor = 0; // start of the literals we haven't written yet
+			if (inputLength > MF_LIMIT) {
+				int matchLimit = inputLength - LAST_LITERALS;
+				int mfLimit = inputLength - MF_LIMIT;
+				int pos = 0;
+				while (pos < mfLimit) {
+					// Look for an earlier occurrence of the next 4 bytes
+					int sequence = readInt(input, pos);
+					int hash = hash(sequence);
+					int ref = hashTable[hash];
+					hashTable[hash] = pos;
+					if (ref < 0 || pos - ref > MAX_OFFSET || readInt(input, ref) != sequence) {
+						pos += 1 + ((pos - anchor) >>> SKIP_TRIGGER);
+						continue;
+					}
+
+					// Found a match; extend it backwards and forwards
+					while (pos > anchor && ref > 0 && input[pos - 1] == input[ref - 1]) {
+						pos--;
+						ref--;
+					}
+					int matchLength = MIN_MATCH;
+					while (pos + matchLength < matchLimit && input[pos + matchLength] == input[ref + matchLength]) {
+						matchLength++;
+					}
+
+					outPos = writeSequence(input, anchor, pos - anchor, pos - ref, matchLength, output, outPos);
+					if (outPos < 0)
+						return -1;
+					pos += matchLength;
+					anchor = pos;
+				}
+			}
+
+			// Write the remaining literals
+			outPos = writeSequence(input, anchor, inputLength - anchor, 0, 0, output, outPos);
+			if (outPos < 0)
+				return -1;
+			writeInt(output, 0, outPos - HEADER_BYTES);
+			return outPos;
+		} finally {
+			hashTablePool.release(hashTable);
+		}
+	}
+
+	/**
+	 * Write a sequence: literals, optionally followed by a match.
+	 *
+	 * @param input the input data
+	 * @param literalStart where the literals start
+	 * @param literalLength number of literals
+	 * @param matchOffset distance back to the match
+	 * @param matchLength length of the match, or 0 for the last sequence (literals only)
+	 * @param output where to write the sequence
+	 * @param outPos where to write the sequence
+	 * @return the new output position, or -1 if the output buffer was too small
+	 */
+	private static int writeSequence(byte[] input, int literalStart, int literalLength, int matchOffset,
+			int matchLength, byte[] output, int outPos) {
+		int maxSize = 1 + literalLength / 255 + 1 + literalLength + 2 + matchLength / 255 + 1;
+		if (outPos + maxSize > output.length)
+			return -1;
+
+		// Token: literal length and match length (each max. 15; more length bytes follow if needed)
+		int matchLengthCode = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+		int tokenPos = outPos++;
+		output[tokenPos] = (byte)((Math.min(literalLength, RUN_MASK) << 4) | Math.min(matchLengthCode, RUN_MASK));
+		if (literalLength >= RUN_MASK)
+			outPos = writeLength(literalLength - RUN_MASK, output, outPos);
+		System.arraycopy(input, literalStart, output, outPos, literalLength);
+		outPos += literalLength;
+		if (matchLength == 0)
+			return outPos;
+
+		// Match offset (little-endian) and the rest of the match length
+		output[outPos++] = (byte)matchOffset;
+		output[outPos++] = (byte)(matchOffset >>> 8);
+		if (matchLengthCode >= RUN_MASK)
+			outPos = writeLength(matchLengthCode - RUN_MASK, output, outPos);
+		return outPos;
+	}
+
+	private static int writeLength(int length, byte[] output, int outPos) {
+		while (length >= 255) {
+			output[outPos++] = (byte)255;
+			length -= 255;
+		}
+		output[outPos++] = (byte)length;
+		return outPos;
+	}
+
+	@Override
+	public int decompress(byte[] input, int offset, int length, byte[] output) {
+		int compressedLength = readInt(input, offset);
+		if (compressedLength <= 0 || compressedLength > length - HEADER_BYTES)
+			throw new RuntimeException("Invalid LZ4 block length " + compressedLength);
+		int inPos = offset + HEADER_BYTES;
+		int inEnd = inPos + compressedLength;
+		int outPos = 0;
+		try {
+			while (true) {
+				int token = input[inPos++] & 0xFF;
+
+				// Copy literals
+				int literalLength = token >>> 4;
+				if (literalLength == RUN_MASK) {
+					int b;
+					do {
+						b = input[inPos++] & 0xFF;
+						literalLength += b;
+					} while (b == 255);
+				}
+				if (outPos + literalLength > output.length)
+					throw new RuntimeException("Unzip buffer size insufficient");
+				System.arraycopy(input, inPos, output, outPos, literalLength);
+				inPos += literalLength;
+				outPos += literalLength;
+				if (inPos >= inEnd)
+					break; // last sequence has no match
+
+				// Copy match
+				int matchOffset = (input[inPos] & 0xFF) | ((input[inPos + 1] & 0xFF) << 8);
+				inPos += 2;
+				if (matchOffset == 0 || matchOffset > outPos)
+					throw new RuntimeException("Invalid LZ4 match offset " + matchOffset);
+				int matchLength = token & RUN_MASK;
+				if (matchLength == RUN_MASK) {
+					int b;
+					do {
+						b = input[inPos++] & 0xFF;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += MIN_MATCH;
+				if (outPos + matchLength > output.length)
+					throw new RuntimeException("Unzip buffer size insufficient");
+				int ref = outPos - matchOffset;
+				if (matchOffset >= matchLength) {
+					System.arraycopy(output, ref, output, outPos, matchLength);
+				} else {
+					// Overlapping match (repeats the last matchOffset bytes); copy byte by byte
+					for (int i = 0; i < matchLength; i++) {
+						output[outPos + i] = output[ref + i];
+					}
+				}
+				outPos += matchLength;
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new RuntimeException("Corrupt LZ4 block", e);
+		}
+		return outPos;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (Integer.SIZE - HASH_LOG);
+	}
+
+	private static int readInt(byte[] buf, int pos) {
+		return ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16) | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+	}
+
+	private static void writeInt(byte[] buf, int pos, int value) {
+		buf[pos] = (byte)(value >>> 24);
+		buf[pos + 1] = (byte)(value >>> 16);
+		buf[pos + 2] = (byte)(value >>> 8);
+		buf[pos + 3] = (byte)value;
+	}
+
+}
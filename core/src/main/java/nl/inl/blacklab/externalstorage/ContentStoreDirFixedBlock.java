@@ -16,7 +16,6 @@
 package nl.inl.blacklab.externalstorage;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
@@ -29,9 +28,6 @@ import java.util.AbstractSet;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 import org.eclipse.collections.api.iterator.IntIterator;
 import org.eclipse.collections.api.iterator.MutableIntIterator;
@@ -40,15 +36,18 @@ import org.eclipse.collections.api.set.primitive.MutableIntSet;
 import org.eclipse.collections.impl.factory.primitive.IntObjectMaps;
 import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
 
+import nl.inl.util.ArrayUtil;
 import nl.inl.util.CollUtil;
 import nl.inl.util.ExUtil;
 import nl.inl.util.SimpleResourcePool;
+import nl.inl.util.VersionFile;
 
 /**
  * Store string content by id in a compound file and a TOC file. Quickly retrieve
  * (parts of) the string content.
  *
- * Stores files in a file containing fixed-length (4K) blocks of zipped UTF-8.
+ * Stores files in a file containing fixed-length (4K) blocks of compressed UTF-8.
+ * The compression codec (Deflate by default) is recorded in the version file.
  * A file allocation table keeps track of each file's blocks as well as the
  * character offset associated with each block so we can quickly access the data.
  * Free blocks will be re-used to save space.
@@ -59,8 +58,14 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	/** The type of content store. Written to version file and detected when opening. */
 	private static final String CONTENT_STORE_TYPE_NAME = "fixedblock";
 
-	/** Version of this type of content store. Written to version file and detected when opening. */
-	private static final String CURRENT_VERSION = "1";
+	/**
+	 * Version of this type of content store. Written to version file and detected when opening.
+	 * Version 1 always uses Deflate; version 2 records the codec in the version file.
+	 */
+	private static final String CURRENT_VERSION = "2";
+
+	/** Version we write when using Deflate, so older versions of BlackLab can still read the store */
+	private static final String VERSION_WITHOUT_CODEC = "1";
 
 	/** Name of the version file */
 	private static final String VERSION_FILE_NAME = "version.dat";
@@ -110,6 +115,12 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	/** How many available characters will trigger a block write. */
 	private static final int WRITE_BLOCK_WHEN_CHARACTERS_AVAILABLE = (int)(BLOCK_SIZE_BYTES * MAX_COMPRESSION_FACTOR);
 
+	/** Size of the chunks we map the contents file in. A multiple of BLOCK_SIZE_BYTES, so blocks never straddle two chunks. */
+	private static final long CONTENTS_MAP_CHUNK_BYTES = 1L << 30; // 1G
+
+	/** Default maximum memory to use for caching decoded blocks */
+	private static final long DEFAULT_BLOCK_CACHE_SIZE_BYTES = 32L * 1024 * 1024; // 32M
+
 	/** Table of contents entry */
 	static class TocEntry {
 
@@ -195,6 +206,20 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 			return blockIndices[blockNumber];
 		}
 
+		/**
+		 * Find the block containing the specified character.
+		 *
+		 * @param charOffset
+		 *            character offset in the document
+		 * @return index of the block (in blockIndices) containing the character
+		 */
+		public int findBlock(int charOffset) {
+			int i = Arrays.binarySearch(blockCharOffsets, charOffset);
+			if (i >= 0)
+				return i; // block starts with this character
+			return -i - 2; // last block that starts before this character
+		}
+
 		/**
 		 * Size of this entry serialized
 		 *
@@ -251,6 +276,9 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	/** Next content ID */
 	private int nextId = 1;
 
+	/** Codec used to compress the blocks */
+	private BlockCodec codec;
+
 	/** The file containing all the original file contents */
 	File contentsFile;
 
@@ -260,6 +288,30 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	/** Channel into the contents file */
 	FileChannel fchContentsFile;
 
+	/**
+	 * Read-only memory mapping of the contents file, in chunks of CONTENTS_MAP_CHUNK_BYTES
+	 * (the last chunk may be smaller). Null if not mapped yet. The array is replaced (never
+	 * modified) when we remap, so readers can use it without locking.
+	 */
+	private volatile ByteBuffer[] contentsFileChunks;
+
+	/** Lock held while (re)mapping the contents file */
+	private final Object contentsFileMapLock = new Object();
+
+	/** Cache of decoded blocks, so we don't decode the same block again for each snippet */
+	private BlockCache blockCache = new BlockCache(DEFAULT_BLOCK_CACHE_SIZE_BYTES);
+
+	/**
+	 * Set the maximum amount of memory to use for caching decoded blocks.
+	 *
+	 * The default is 32M bytes.
+	 *
+	 * @param blockCacheSize size of the cache in bytes, or 0 to disable it
+	 */
+	public void setBlockCacheSize(long blockCacheSize) {
+		blockCache.setMaxSize(blockCacheSize);
+	}
+
 	/** Keeps track of how many chars were in the blocks we've already written.
 	 *  Used by store() to calculate the total content length in chars.
 	 */
@@ -297,9 +349,32 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	 * @param create if true, create a new content store
 	 */
 	public ContentStoreDirFixedBlock(File dir, boolean create) {
+		this(dir, create, null);
+	}
+
+	/**
+	 * @param dir content store dir
+	 * @param create if true, create a new content store
+	 * @param codecName codec to use if creating a new content store ("deflate" or "lz4"),
+	 *   or null for the default. An existing content store always uses the codec it was
+	 *   created with.
+	 */
+	public ContentStoreDirFixedBlock(File dir, boolean create, String codecName) {
 		this.dir = dir;
 		if (!dir.exists())
 			dir.mkdir();
+		if (!create && VersionFile.exists(dir)) {
+			VersionFile vf = getStoreTypeVersion(dir);
+			if (vf.getVersion().equals(VERSION_WITHOUT_CODEC))
+				codecName = BlockCodecDeflate.NAME;
+			else if (vf.getVersion().equals(CURRENT_VERSION))
+				codecName = vf.getCodec();
+			else
+				throw new UnsupportedOperationException("Unknown " + CONTENT_STORE_TYPE_NAME + " content store version " + vf.getVersion());
+		}
+		codec = BlockCodec.fromName(codecName);
+		if (!create && !VersionFile.exists(dir))
+			setStoreType(); // make sure we know the codec when reopening
 		tocFile = new File(dir, TOC_FILE_NAME);
 		contentsFile = new File(dir, CONTENTS_FILE_NAME);
 		if (create && tocFile.exists()) {
@@ -333,32 +408,16 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 		blockCharOffsetsWhileStoring = new IntArrayList();
 
 		final int POOL_SIZE = 10;
-		compresserPool = new SimpleResourcePool<Deflater>(POOL_SIZE){
-			@Override
-			public Deflater createResource() {
-				return new Deflater();
-			}
-
-			@Override
-			public void destroyResource(Deflater resource) {
-				resource.end();
-			}
-		};
-		decompresserPool = new SimpleResourcePool<Inflater>(POOL_SIZE){
-			@Override
-			public Inflater createResource() {
-				return new Inflater();
-			}
-
+		zipbufPool = new SimpleResourcePool<byte[]>(POOL_SIZE){
 			@Override
-			public void destroyResource(Inflater resource) {
-				resource.end();
+			public byte[] createResource() {
+				return new byte[MAX_BLOCK_SIZE_BYTES+1]; // one larger to detect when buffer space was insufficient
 			}
 		};
-		zipbufPool = new SimpleResourcePool<byte[]>(POOL_SIZE){
+		blockbufPool = new SimpleResourcePool<byte[]>(POOL_SIZE){
 			@Override
 			public byte[] createResource() {
-				return new byte[MAX_BLOCK_SIZE_BYTES+1]; // one larger to detect when buffer space was insufficient
+				return new byte[BLOCK_SIZE_BYTES];
 			}
 		};
 	}
@@ -369,6 +428,8 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	@Override
 	public void clear() {
 		closeContentsFile();
+		contentsFileChunks = null;
+		blockCache.clear();
 
 		// delete contents file and empty TOC
 		if (contentsFile.exists())
@@ -485,17 +546,70 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	 */
 	@Override
 	public void close() {
-		compresserPool.close();
-		decompresserPool.close();
+		codec.close();
 		zipbufPool.close();
+		blockbufPool.close();
 
 		closeContentsFile();
+		contentsFileChunks = null;
+		blockCache.clear();
 		if (tocModified) {
 			writeToc();
 		}
 		closeMappedToc();
 	}
 
+	/**
+	 * Recompress a content store using a (different) codec.
+	 *
+	 * All documents are copied to a new content store, keeping their ids, which then
+	 * replaces the original. Deleted documents are kept as (empty) deleted entries,
+	 * so their space is reclaimed.
+	 *
+	 * The content store must not be opened by anyone else while this is running.
+	 *
+	 * @param dir content store dir
+	 * @param codecName codec to use ("deflate" or "lz4")
+	 */
+	public static void recompress(File dir, String codecName) {
+		BlockCodec.fromName(codecName).close(); // make sure the codec exists before we start
+		File newDir = new File(dir.getParentFile(), dir.getName() + ".recompress");
+		ContentStoreDirFixedBlock source = new ContentStoreDirFixedBlock(dir, false);
+		try {
+			ContentStoreDirFixedBlock target = new ContentStoreDirFixedBlock(newDir, true, codecName);
+			try {
+				for (int id = 1; id < source.nextId; id++) {
+					TocEntry e = source.toc.get(id);
+					if (e == null)
+						continue;
+					target.nextId = id; // keep the same id
+					if (e.deleted) {
+						target.store("");
+						target.delete(id);
+					} else {
+						target.store(source.retrieve(id));
+					}
+				}
+			} finally {
+				target.close();
+			}
+		} finally {
+			source.close();
+		}
+
+		// Replace the original files with the recompressed ones
+		for (String name: Arrays.asList(CONTENTS_FILE_NAME, TOC_FILE_NAME, VERSION_FILE_NAME)) {
+			File oldFile = new File(dir, name);
+			File newFile = new File(newDir, name);
+			if (oldFile.exists() && !oldFile.delete())
+				throw new RuntimeException("Could not delete " + oldFile);
+			if (newFile.exists() && !newFile.renameTo(oldFile))
+				throw new RuntimeException("Could not move " + newFile + " to " + oldFile);
+		}
+		if (!newDir.delete())
+			throw new RuntimeException("Could not delete " + newDir);
+	}
+
 	/**
 	 * Encode and write the block we've compiled so far and reset for next block
 	 * @param writeLastBlock if true, we'll write the last block too even if it's not full
@@ -543,6 +657,9 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 			// pad block with garbage
 			buf = ByteBuffer.wrap(blockPadding, 0, BLOCK_SIZE_BYTES - encoded.length);
 			fchContentsFile.write(buf);
+
+			// If this block was used before, make sure we don't return its old contents
+			blockCache.invalidate(freeBlock);
 			return freeBlock;
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -650,8 +767,11 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	 * Retrieve one or more substrings from the specified content.
 	 *
 	 * This is more efficient than retrieving the whole content, or retrieving parts in separate
-	 * calls, because the file is only opened once and random access is used to read only the
-	 * required parts.
+	 * calls, because only the required blocks are read, and each block is only decoded once, even
+	 * if several parts need it.
+	 *
+	 * Blocks are read from a memory mapping of the contents file, and decoded blocks are cached,
+	 * so concurrent calls don't have to wait for each other.
 	 *
 	 * NOTE: if offset and length are both -1, retrieves the whole content. This is used by the
 	 * retrieve(id) method.
@@ -667,87 +787,92 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	 * @return the parts
 	 */
 	@Override
-	public synchronized String[] retrieveParts(int contentId, int[] start, int[] end) {
+	public String[] retrieveParts(int contentId, int[] start, int[] end) {
 		try {
 			// Find the correct TOC entry
-			TocEntry e = toc.get(contentId);
-			if (e == null || e.deleted)
-				return null;
+			TocEntry e;
+			synchronized (this) {
+				// (the TOC may be modified by store() and delete())
+				e = toc.get(contentId);
+				if (e == null || e.deleted)
+					return null;
+			}
 
 			// Sanity-check parameters
 			int n = start.length;
 			if (n != end.length)
 				throw new IllegalArgumentException("start and end must be of equal length");
 
-			// Create array for results
+			// Check and normalize the requested ranges
+			int[] from = new int[n];
+			int[] to = new int[n];
+			long[] sortKeys = new long[n];
+			for (int i = 0; i < n; i++) {
+				int a = start[i];
+				int b = end[i];
+
+				if (a == -1)
+					a = 0;
+				if (b == -1)
+					b = e.entryLengthCharacters;
+
+				// Check values
+				if (a < 0 || b < 0) {
+					throw new IllegalArgumentException("Illegal values, start = " + a + ", end = " + b);
+				}
+				if (a > e.entryLengthCharacters || b > e.entryLengthCharacters) {
+					throw new IllegalArgumentException("Value(s) out of range, start = " + a
+							+ ", end = " + b + ", content length = " + e.entryLengthCharacters);
+				}
+				if (b <= a) {
+					throw new IllegalArgumentException(
+							"Tried to read empty or negative length snippet (from " + a
+									+ " to " + b + ")");
+				}
+				from[i] = a;
+				to[i] = b;
+				sortKeys[i] = a;
+			}
+
+			// Handle the ranges in order of start position, so we can decode each block only
+			// once, and forget about blocks before the current range.
+			int[] order = n == 1 ? new int[] { 0 } : ArrayUtil.sortedIndexes(sortKeys, n);
+			String[] decodedBlocks = new String[e.blockIndices.length];
+			int firstUsefulBlock = 0;
 			String[] result = new String[n];
+			for (int i: order) {
+				int a = from[i];
+				int b = to[i];
+
+				// 1 - determine what blocks we need
+				int firstBlock = e.findBlock(a);
+				int lastBlock = e.findBlock(b - 1);
+
+				// Later ranges start at or after this one, so they won't need earlier blocks
+				for (; firstUsefulBlock < firstBlock; firstUsefulBlock++) {
+					decodedBlocks[firstUsefulBlock] = null;
+				}
 
-			// Open the file
-			try (FileInputStream fileInputStream = new FileInputStream(contentsFile)) {
-				try (FileChannel fileChannel = fileInputStream.getChannel()) {
-					// Retrieve the strings requested
-					for (int i = 0; i < n; i++) {
-						int a = start[i];
-						int b = end[i];
-
-						if (a == -1)
-							a = 0;
-						if (b == -1)
-							b = e.entryLengthCharacters;
-
-						// Check values
-						if (a < 0 || b < 0) {
-							throw new IllegalArgumentException("Illegal values, start = " + a + ", end = " + b);
-						}
-						if (a > e.entryLengthCharacters || b > e.entryLengthCharacters) {
-							throw new IllegalArgumentException("Value(s) out of range, start = " + a
-									+ ", end = " + b + ", content length = " + e.entryLengthCharacters);
-						}
-						if (b <= a) {
-							throw new IllegalArgumentException(
-									"Tried to read empty or negative length snippet (from " + a
-											+ " to " + b + ")");
-						}
-
-						// 1 - determine what blocks to read
-						int firstBlock = -1, lastBlock = -1;
-						int bl = 0;
-						int charOffset = -1;
-						for (int offs: e.blockCharOffsets) {
-							if (offs <= a) {
-								firstBlock = bl; // last block that starts before a
-								charOffset = offs;
-							}
-							if (offs > b && lastBlock == -1) {
-								lastBlock = bl - 1;  // first block that ends after b
-								break;
-							}
-							bl++;
-						}
-						if (lastBlock == -1)
-							lastBlock = bl - 1; // last available block
-
-						// 2 - read and decode blocks
-						StringBuilder decoded = new StringBuilder();
-						for (int j = firstBlock; j <= lastBlock; j++) {
-							long blockNum = e.getBlockNumber(j);
-							long readStartOffset = blockNum * BLOCK_SIZE_BYTES;
-							int bytesToRead = BLOCK_SIZE_BYTES;
-							ByteBuffer buffer = ByteBuffer.allocate(bytesToRead);
-							int bytesRead = fileChannel.read(buffer, readStartOffset);
-							if (bytesRead < bytesToRead) {
-								// Apparently, something went wrong.
-								throw new RuntimeException("Not enough bytes read, " + bytesRead
-										+ " < " + bytesToRead);
-							}
-							String decodedBlock = decodeBlock(buffer.array(), 0, bytesRead);
-							decoded.append(decodedBlock);
-						}
-
-						// 3 - take just what we need
-						int firstChar = a - charOffset;
-						result[i] = decoded.substring(firstChar, firstChar + b - a);
+				// 2 - decode the blocks we don't have yet (or get them from the cache)
+				for (int j = firstBlock; j <= lastBlock; j++) {
+					if (decodedBlocks[j] == null)
+						decodedBlocks[j] = readBlock(e.getBlockNumber(j));
+				}
+
+				// 3 - cut the range from the blocks
+				if (firstBlock == lastBlock) {
+					int blockStart = e.blockCharOffsets[firstBlock];
+					result[i] = decodedBlocks[firstBlock].substring(a - blockStart, b - blockStart);
+				} else {
+					StringBuilder snippet = new StringBuilder(b - a);
+					for (int j = firstBlock; j <= lastBlock; j++) {
+						int blockStart = e.blockCharOffsets[j];
+						String block = decodedBlocks[j];
+						int blockFrom = Math.max(a - blockStart, 0);
+						int blockTo = Math.min(b - blockStart, block.length());
+						snippet.append(block, blockFrom, blockTo);
 					}
+					result[i] = snippet.toString();
 				}
 			}
 			return result;
@@ -756,6 +881,94 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 		}
 	}
 
+	/**
+	 * Get a decoded block, from the cache if possible.
+	 *
+	 * @param blockNumber the block to get
+	 * @return the decoded block
+	 */
+	private String readBlock(int blockNumber) {
+		long generationBeforeRead = blockCache.generation();
+		String decoded = blockCache.get(blockNumber);
+		if (decoded == null) {
+			ByteBuffer encoded = getEncodedBlock(blockNumber);
+			byte[] blockbuf = blockbufPool.acquire();
+			try {
+				encoded.get(blockbuf, 0, BLOCK_SIZE_BYTES);
+				decoded = decodeBlock(blockbuf, 0, BLOCK_SIZE_BYTES);
+			} finally {
+				blockbufPool.release(blockbuf);
+			}
+			blockCache.put(blockNumber, decoded, generationBeforeRead);
+		}
+		return decoded;
+	}
+
+	/**
+	 * Get a buffer containing an encoded block from the contents file.
+	 *
+	 * The buffer is a view on the memory mapping of the contents file, with its
+	 * own position and limit, so it is safe to use from several threads at once.
+	 *
+	 * @param blockNumber the block to get
+	 * @return the buffer, positioned at the start of the block
+	 */
+	private ByteBuffer getEncodedBlock(int blockNumber) {
+		long offset = (long)blockNumber * BLOCK_SIZE_BYTES;
+		ByteBuffer[] chunks = contentsFileChunks;
+		if (chunks == null || mappedLength(chunks) < offset + BLOCK_SIZE_BYTES) {
+			// Not mapped yet, or the file has grown since we mapped it
+			chunks = mapContentsFile(offset + BLOCK_SIZE_BYTES);
+		}
+		ByteBuffer block = chunks[(int)(offset / CONTENTS_MAP_CHUNK_BYTES)].duplicate();
+		int offsetInChunk = (int)(offset % CONTENTS_MAP_CHUNK_BYTES);
+		block.limit(offsetInChunk + BLOCK_SIZE_BYTES);
+		block.position(offsetInChunk);
+		return block;
+	}
+
+	private static long mappedLength(ByteBuffer[] chunks) {
+		if (chunks.length == 0)
+			return 0;
+		return (chunks.length - 1) * CONTENTS_MAP_CHUNK_BYTES + chunks[chunks.length - 1].capacity();
+	}
+
+	/**
+	 * (Re)map the contents file so at least the specified number of bytes is mapped.
+	 *
+	 * Chunks that were already completely mapped are reused.
+	 *
+	 * @param minimumLength number of bytes that must be mapped
+	 * @return the new mapping
+	 */
+	private ByteBuffer[] mapContentsFile(long minimumLength) {
+		synchronized (contentsFileMapLock) {
+			ByteBuffer[] chunks = contentsFileChunks;
+			if (chunks != null && mappedLength(chunks) >= minimumLength)
+				return chunks; // another thread already remapped
+			try (RandomAccessFile raf = new RandomAccessFile(contentsFile, "r");
+					FileChannel fch = raf.getChannel()) {
+				long fileLength = fch.size();
+				if (fileLength < minimumLength)
+					throw new RuntimeException("Contents file too short: " + fileLength + " < " + minimumLength);
+				int numberOfChunks = (int)((fileLength + CONTENTS_MAP_CHUNK_BYTES - 1) / CONTENTS_MAP_CHUNK_BYTES);
+				ByteBuffer[] newChunks = new ByteBuffer[numberOfChunks];
+				for (int i = 0; i < numberOfChunks; i++) {
+					long chunkStart = i * CONTENTS_MAP_CHUNK_BYTES;
+					long chunkLength = Math.min(CONTENTS_MAP_CHUNK_BYTES, fileLength - chunkStart);
+					if (chunks != null && i < chunks.length && chunks[i].capacity() == chunkLength)
+						newChunks[i] = chunks[i]; // still valid
+					else
+						newChunks[i] = fch.map(MapMode.READ_ONLY, chunkStart, chunkLength);
+				}
+				contentsFileChunks = newChunks;
+				return newChunks;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
 	@Override
 	public synchronized void delete(int id) {
 		TocEntry e = toc.get(id);
@@ -782,14 +995,24 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 		return toc.get(id).entryLengthCharacters;
 	}
 
-	SimpleResourcePool<Deflater> compresserPool;
-
-	SimpleResourcePool<Inflater> decompresserPool;
-
 	SimpleResourcePool<byte[]> zipbufPool;
 
+	SimpleResourcePool<byte[]> blockbufPool;
+
 	protected void setStoreType() {
-		setStoreType(CONTENT_STORE_TYPE_NAME, CURRENT_VERSION);
+		if (codec.getName().equals(BlockCodecDeflate.NAME))
+			setStoreType(CONTENT_STORE_TYPE_NAME, VERSION_WITHOUT_CODEC);
+		else
+			setStoreType(CONTENT_STORE_TYPE_NAME, CURRENT_VERSION, codec.getName());
+	}
+
+	/**
+	 * Get the codec used to compress the blocks.
+	 *
+	 * @return the codec
+	 */
+	public BlockCodec getCodec() {
+		return codec;
 	}
 
 	protected byte[] encodeBlock() {
@@ -799,7 +1022,6 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 		if (length > available)
 			length = available;
 
-		Deflater compresser = compresserPool.acquire();
 		byte[] zipbuf = zipbufPool.acquire();
 		boolean doMinCheck = true;
 		try {
@@ -823,15 +1045,9 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 				}
 
 				// Compress
-				compresser.reset();
-				compresser.setInput(encoded);
-				compresser.finish();
-				int compressedDataLength = compresser.deflate(zipbuf, 0, zipbuf.length, Deflater.FULL_FLUSH);
-				if (compressedDataLength <= 0) {
-					throw new RuntimeException("Error, deflate returned " + compressedDataLength);
-				}
-				if (compressedDataLength == zipbuf.length) {
-					throw new RuntimeException("Error, deflate returned size of zipbuf, this indicates insufficient space");
+				int compressedDataLength = codec.compress(encoded, encoded.length, zipbuf);
+				if (compressedDataLength < 0) {
+					throw new RuntimeException("Error, " + codec + " compressed data doesn't fit in zipbuf");
 				}
 
 				// Check the size
@@ -862,34 +1078,20 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 				}
 			}
 		} finally {
-			compresserPool.release(compresser);
 			zipbufPool.release(zipbuf);
 		}
 	}
 
 	protected String decodeBlock(byte[] buf, int offset, int length) {
+		byte[] zipbuf = zipbufPool.acquire();
 		try {
-			// unzip block
-			Inflater decompresser = decompresserPool.acquire();
-			byte[] zipbuf = zipbufPool.acquire();
-			try {
-				decompresser.reset();
-				decompresser.setInput(buf, offset, length);
-				int resultLength = decompresser.inflate(zipbuf);
-				if (resultLength <= 0) {
-					throw new RuntimeException("Error, inflate returned " + resultLength);
-				}
-				if (!decompresser.finished()) {
-					// This shouldn't happen because our max block size prevents it
-					throw new RuntimeException("Unzip buffer size insufficient");
-				}
-				return new String(zipbuf, 0, resultLength, DEFAULT_CHARSET);
-			} finally {
-				decompresserPool.release(decompresser);
-				zipbufPool.release(zipbuf);
+			int resultLength = codec.decompress(buf, offset, length, zipbuf);
+			if (resultLength <= 0) {
+				throw new RuntimeException("Error, " + codec + " decompress returned " + resultLength);
 			}
-		} catch (DataFormatException e) {
-			throw new RuntimeException(e);
+			return new String(zipbuf, 0, resultLength, DEFAULT_CHARSET);
+		} finally {
+			zipbufPool.release(zipbuf);
 		}
 	}
 
@@ -0,0 +1,450 @@
+package nl.inl.blacklab.forwardindex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.collections.api.iterator.IntIterator;
+import org.eclipse.collections.impl.list.mutable.primitive.BooleanArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+
+import nl.inl.util.ExUtil;
+
+/**
+ * Stores the character offsets of each token position in a document.
+ *
+ * This is a "forward index" of character offsets: for each document, we store
+ * the start and end character offset of each token position, so we can look up
+ * the offsets of a few positions directly, instead of iterating over the whole
+ * term vector of the document.
+ *
+ * Documents are identified by the forward index id (fiid) of the main property
+ * of the complex field, so we don't need an extra id field in the Lucene index.
+ * Like the forward index, we store only the first value at any position; positions
+ * without a value have offsets of -1.
+ *
+ * The offsets file is append-only; space taken by deleted documents is not reused.
+ * In search mode, it is memory-mapped in chunks, and reading is thread-safe.
+ */
+public class CharOffsetsStore {
+
+	/** Java has as limit of 2GB for MappedByteBuffer; use 1GB chunks, like the forward index. */
+	static int preferredChunkSizeBytes = Integer.MAX_VALUE / 2;
+
+	/** Size of a long in bytes. */
+	private static final int SIZEOF_LONG = Long.SIZE / Byte.SIZE;
+
+	/** Size of an int in bytes. */
+	private static final int SIZEOF_INT = Integer.SIZE / Byte.SIZE;
+
+	/** Number of ints we store per position (start and end offset) */
+	private static final int INTS_PER_POSITION = 2;
+
+	/** Offset stored for a position without a value */
+	private static final int NO_OFFSET = -1;
+
+	/** The table of contents (TOC) file, docs.dat */
+	private File tocFile;
+
+	/** The offsets file, offsets.dat */
+	private File offsetsFile;
+
+	/** Where each document starts in the offsets file (in positions) */
+	private LongArrayList docOffset = new LongArrayList();
+
+	/** Number of positions in each document */
+	private IntArrayList docLength = new IntArrayList();
+
+	/** Lowest start offset in each document */
+	private IntArrayList docFirstChar = new IntArrayList();
+
+	/** Highest end offset in each document */
+	private IntArrayList docLastChar = new IntArrayList();
+
+	/** Which documents have been deleted (or were never added) */
+	private BooleanArrayList docDeleted = new BooleanArrayList();
+
+	/** End of the offsets file (in positions) */
+	private long offsetsFileEndPosition = 0;
+
+	/** Has the table of contents been modified? */
+	private boolean tocModified = false;
+
+	/** Are we in index mode (i.e. writing to the store) or not? */
+	private boolean indexMode;
+
+	/** Handle for the offsets file (index mode only) */
+	private RandomAccessFile writeOffsetsFp;
+
+	/** File channel for the offsets file (index mode only) */
+	private FileChannel writeOffsetsFileChannel;
+
+	/** Mappings into the offsets file (search mode only). Chunk i starts at byte offset i * offsetsFileChunkSizeBytes. */
+	private IntBuffer[] offsetsFileChunks;
+
+	/** Size of each chunk (except the last, which may be smaller) in bytes */
+	private long offsetsFileChunkSizeBytes;
+
+	/**
+	 * Open a character offsets store.
+	 *
+	 * @param dir directory of the store
+	 * @param indexMode open in index mode (for writing) or search mode
+	 * @param create if true, create a new store (deleting any existing one)
+	 * @return the store
+	 */
+	public static CharOffsetsStore open(File dir, boolean indexMode, boolean create) {
+		return new CharOffsetsStore(dir, indexMode, create);
+	}
+
+	CharOffsetsStore(File dir, boolean indexMode, boolean create) {
+		if (!indexMode && create)
+			throw new IllegalArgumentException("Tried to create new offsets store, but not in index mode");
+		if (!dir.exists()) {
+			if (!create)
+				throw new IllegalArgumentException("Offsets store doesn't exist: " + dir);
+			dir.mkdir();
+		}
+		this.indexMode = indexMode;
+		tocFile = new File(dir, "docs.dat");
+		offsetsFile = new File(dir, "offsets.dat");
+		if (create) {
+			if (tocFile.exists())
+				tocFile.delete();
+			if (offsetsFile.exists())
+				offsetsFile.delete();
+		}
+		try {
+			if (tocFile.exists()) {
+				readToc();
+			} else {
+				if (!indexMode)
+					throw new IllegalArgumentException("No TOC found, and not in index mode!");
+				offsetsFile.createNewFile();
+				tocModified = true;
+			}
+			if (indexMode) {
+				// (append after anything that's in the file, even if it's no longer in the TOC)
+				long fileEndPosition = offsetsFile.length() / (INTS_PER_POSITION * SIZEOF_INT);
+				if (fileEndPosition > offsetsFileEndPosition)
+					offsetsFileEndPosition = fileEndPosition;
+				writeOffsetsFp = new RandomAccessFile(offsetsFile, "rw");
+				writeOffsetsFileChannel = writeOffsetsFp.getChannel();
+			} else {
+				openOffsetsFileForReading();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Memory-map the offsets file for reading.
+	 *
+	 * Like the forward index, we map the file in consecutive chunks of a fixed size,
+	 * so we can find the chunk for a file offset by simple division.
+	 *
+	 * @throws IOException
+	 */
+	private void openOffsetsFileForReading() throws IOException {
+		try (RandomAccessFile fp = new RandomAccessFile(offsetsFile, "r");
+				FileChannel fc = fp.getChannel()) {
+			// Make sure chunks always end at a position boundary (and hold at least one position)
+			int bytesPerPosition = INTS_PER_POSITION * SIZEOF_INT;
+			offsetsFileChunkSizeBytes = Math.max(bytesPerPosition, preferredChunkSizeBytes - preferredChunkSizeBytes % bytesPerPosition);
+			long fileEndBytes = offsetsFileEndPosition * INTS_PER_POSITION * SIZEOF_INT;
+			int numberOfChunks = (int) ((fileEndBytes + offsetsFileChunkSizeBytes - 1) / offsetsFileChunkSizeBytes);
+			offsetsFileChunks = new IntBuffer[numberOfChunks];
+			for (int i = 0; i < numberOfChunks; i++) {
+				long chunkStartBytes = i * offsetsFileChunkSizeBytes;
+				long sizeBytes = Math.min(offsetsFileChunkSizeBytes, fileEndBytes - chunkStartBytes);
+				offsetsFileChunks[i] = fc.map(MapMode.READ_ONLY, chunkStartBytes, sizeBytes).asIntBuffer();
+			}
+		}
+	}
+
+	/**
+	 * Read the table of contents from the file
+	 */
+	private void readToc() {
+		try (RandomAccessFile raf = new RandomAccessFile(tocFile, "r");
+			FileChannel fc = raf.getChannel()) {
+			MappedByteBuffer buf = fc.map(MapMode.READ_ONLY, 0, tocFile.length());
+			int n = buf.getInt();
+			long[] offset = new long[n];
+			int[] length = new int[n];
+			int[] firstChar = new int[n];
+			int[] lastChar = new int[n];
+			byte[] deleted = new byte[n];
+			LongBuffer lb = buf.asLongBuffer();
+			lb.get(offset);
+			buf.position(buf.position() + SIZEOF_LONG * n);
+			IntBuffer ib = buf.asIntBuffer();
+			ib.get(length);
+			ib.get(firstChar);
+			ib.get(lastChar);
+			buf.position(buf.position() + SIZEOF_INT * n * 3);
+			buf.get(deleted);
+			docOffset = LongArrayList.newListWith(offset);
+			docLength = IntArrayList.newListWith(length);
+			docFirstChar = IntArrayList.newListWith(firstChar);
+			docLastChar = IntArrayList.newListWith(lastChar);
+			docDeleted = new BooleanArrayList(n);
+			for (int i = 0; i < n; i++) {
+				docDeleted.add(deleted[i] != 0);
+				long end = offset[i] + length[i];
+				if (end > offsetsFileEndPosition)
+					offsetsFileEndPosition = end;
+			}
+		} catch (Exception e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Write the table of contents to the file
+	 */
+	private void writeToc() {
+		if (!indexMode)
+			throw new RuntimeException("Cannot write ToC, not in index mode");
+		int n = docOffset.size();
+		byte[] deleted = new byte[n];
+		for (int i = 0; i < n; i++) {
+			deleted[i] = (byte) (docDeleted.get(i) ? 1 : 0);
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(tocFile, "rw");
+			FileChannel fc = raf.getChannel()) {
+			long fileSize = SIZEOF_INT + (SIZEOF_LONG + SIZEOF_INT * 3 + 1) * n;
+			fc.truncate(fileSize);
+			MappedByteBuffer buf = fc.map(MapMode.READ_WRITE, 0, fileSize);
+			buf.putInt(n);
+			LongBuffer lb = buf.asLongBuffer();
+			lb.put(docOffset.toArray());
+			buf.position(buf.position() + SIZEOF_LONG * n);
+			IntBuffer ib = buf.asIntBuffer();
+			ib.put(docLength.toArray());
+			ib.put(docFirstChar.toArray());
+			ib.put(docLastChar.toArray());
+			buf.position(buf.position() + SIZEOF_INT * n * 3);
+			buf.put(deleted);
+		} catch (Exception e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+		tocModified = false;
+	}
+
+	/**
+	 * Close the store, writing the table of contents if it was modified.
+	 */
+	public void close() {
+		try {
+			if (tocModified)
+				writeToc();
+			if (writeOffsetsFileChannel != null)
+				writeOffsetsFileChannel.close();
+			if (writeOffsetsFp != null)
+				writeOffsetsFp.close();
+		} catch (Exception e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Store the character offsets for a document.
+	 *
+	 * Values and position increments should be the same as those passed to the
+	 * forward index for the main property; the start and end characters correspond
+	 * to the values.
+	 *
+	 * @param fiid forward index id of the document in the main property's forward index
+	 * @param startChars start character offset for each value
+	 * @param endChars end character offset for each value
+	 * @param posIncr position increment for each value, or null if always 1
+	 */
+	public synchronized void addDocument(int fiid, IntArrayList startChars, IntArrayList endChars, List<Integer> posIncr) {
+		if (!indexMode)
+			throw new RuntimeException("Cannot add document, not in index mode");
+
+		// Determine the offsets for each position
+		int numberOfValues = startChars.size();
+		IntArrayList offsets = new IntArrayList(numberOfValues * INTS_PER_POSITION);
+		int firstChar = NO_OFFSET, lastChar = NO_OFFSET;
+		Iterator<Integer> posIncrIt = posIncr == null ? null : posIncr.iterator();
+		IntIterator startIt = startChars.intIterator();
+		IntIterator endIt = endChars.intIterator();
+		while (startIt.hasNext() && endIt.hasNext()) {
+			int startChar = startIt.next();
+			int endChar = endIt.next();
+			int pi = posIncrIt == null ? 1 : posIncrIt.next();
+			if (pi == 0)
+				continue; // we only store the first value at any position, like the forward index
+			for (int i = 0; i < pi - 1; i++) {
+				// Skipped a few positions; these have no offsets
+				offsets.add(NO_OFFSET);
+				offsets.add(NO_OFFSET);
+			}
+			offsets.add(startChar);
+			offsets.add(endChar);
+			if (startChar >= 0 && (startChar < firstChar || firstChar == NO_OFFSET))
+				firstChar = startChar;
+			if (endChar > lastChar)
+				lastChar = endChar;
+		}
+		int numberOfPositions = offsets.size() / INTS_PER_POSITION;
+
+		// Append to the offsets file
+		long offset = offsetsFileEndPosition;
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(offsets.size() * SIZEOF_INT);
+			buf.asIntBuffer().put(offsets.toArray());
+			long filePos = offset * INTS_PER_POSITION * SIZEOF_INT;
+			while (buf.hasRemaining()) {
+				filePos += writeOffsetsFileChannel.write(buf, filePos);
+			}
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+		offsetsFileEndPosition += numberOfPositions;
+
+		// Update the TOC (the forward index may re-use the fiid of a deleted document)
+		while (docOffset.size() <= fiid) {
+			docOffset.add(0);
+			docLength.add(0);
+			docFirstChar.add(NO_OFFSET);
+			docLastChar.add(NO_OFFSET);
+			docDeleted.add(true);
+		}
+		docOffset.set(fiid, offset);
+		docLength.set(fiid, numberOfPositions);
+		docFirstChar.set(fiid, firstChar);
+		docLastChar.set(fiid, lastChar);
+		docDeleted.set(fiid, false);
+		tocModified = true;
+	}
+
+	/**
+	 * Delete a document from the store.
+	 *
+	 * @param fiid forward index id of the document
+	 */
+	public synchronized void deleteDocument(int fiid) {
+		if (!indexMode)
+			throw new RuntimeException("Cannot delete document, not in index mode");
+		if (fiid < docDeleted.size()) {
+			docDeleted.set(fiid, true);
+			tocModified = true;
+		}
+	}
+
+	/**
+	 * Does the store contain offsets for this document?
+	 *
+	 * @param fiid forward index id of the document
+	 * @return true iff we have offsets for this document
+	 */
+	public boolean hasDocument(int fiid) {
+		if (indexMode) {
+			synchronized (this) {
+				return fiid >= 0 && fiid < docDeleted.size() && !docDeleted.get(fiid);
+			}
+		}
+		return fiid >= 0 && fiid < docDeleted.size() && !docDeleted.get(fiid);
+	}
+
+	/**
+	 * Replace token positions with character offsets.
+	 *
+	 * Each start position is replaced with the start offset of that token, each end
+	 * position with the end offset of that token.
+	 *
+	 * @param fiid forward index id of the document
+	 * @param startsOfWords the token positions to get the start offsets for
+	 * @param endsOfWords the token positions to get the end offsets for
+	 * @param fillInDefaultsIfNotFound if true, positions without offsets get the first
+	 *   (for starts) or last (for ends) character of the document
+	 */
+	public void getCharacterOffsets(int fiid, int[] startsOfWords, int[] endsOfWords, boolean fillInDefaultsIfNotFound) {
+		if (indexMode) {
+			// The TOC may change while we're reading, so synchronize
+			synchronized (this) {
+				getCharacterOffsetsInternal(fiid, startsOfWords, endsOfWords, fillInDefaultsIfNotFound);
+			}
+		} else {
+			// In search mode, nothing changes, so we don't need to synchronize
+			getCharacterOffsetsInternal(fiid, startsOfWords, endsOfWords, fillInDefaultsIfNotFound);
+		}
+	}
+
+	private void getCharacterOffsetsInternal(int fiid, int[] startsOfWords, int[] endsOfWords, boolean fillInDefaultsIfNotFound) {
+		if (!hasDocument(fiid))
+			throw new IllegalArgumentException("No offsets stored for fiid " + fiid);
+		long offset = docOffset.get(fiid);
+		int length = docLength.get(fiid);
+		int[] pair = new int[INTS_PER_POSITION];
+		for (int i = 0; i < startsOfWords.length; i++) {
+			int pos = startsOfWords[i];
+			int startChar = pos >= 0 && pos < length ? readPosition(offset + pos, pair)[0] : NO_OFFSET;
+			if (startChar < 0) {
+				if (!fillInDefaultsIfNotFound)
+					throw new RuntimeException("Could not find all character offsets!");
+				startChar = docFirstChar.get(fiid);
+			}
+			startsOfWords[i] = startChar;
+		}
+		for (int i = 0; i < endsOfWords.length; i++) {
+			int pos = endsOfWords[i];
+			int endChar = pos >= 0 && pos < length ? readPosition(offset + pos, pair)[1] : NO_OFFSET;
+			if (endChar < 0) {
+				if (!fillInDefaultsIfNotFound)
+					throw new RuntimeException("Could not find all character offsets!");
+				endChar = docLastChar.get(fiid);
+			}
+			endsOfWords[i] = endChar;
+		}
+	}
+
+	/**
+	 * Read the start and end offset stored at a position in the offsets file.
+	 *
+	 * @param position position in the file (in positions, not bytes)
+	 * @param dest where to store the offsets
+	 * @return dest
+	 */
+	private int[] readPosition(long position, int[] dest) {
+		long intOffset = position * INTS_PER_POSITION;
+		if (indexMode) {
+			try {
+				ByteBuffer buf = ByteBuffer.allocate(INTS_PER_POSITION * SIZEOF_INT);
+				long filePos = intOffset * SIZEOF_INT;
+				while (buf.hasRemaining()) {
+					int n = writeOffsetsFileChannel.read(buf, filePos + buf.position());
+					if (n < 0)
+						throw new RuntimeException("Unexpected end of offsets file");
+				}
+				buf.flip();
+				buf.asIntBuffer().get(dest);
+			} catch (IOException e) {
+				throw ExUtil.wrapRuntimeException(e);
+			}
+			return dest;
+		}
+		// (chunks are a multiple of INTS_PER_POSITION ints, so a position never straddles two chunks)
+		long chunkSizeInts = offsetsFileChunkSizeBytes / SIZEOF_INT;
+		int chunkIndex = (int) (intOffset / chunkSizeInts);
+		int positionInChunk = (int) (intOffset % chunkSizeInts);
+		IntBuffer chunk = offsetsFileChunks[chunkIndex];
+		dest[0] = chunk.get(positionInChunk);
+		dest[1] = chunk.get(positionInChunk + 1);
+		return dest;
+	}
+
+}
@@ -1,20 +1,30 @@
 package nl.inl.blacklab.forwardindex;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.TreeMap;
 
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.uninverting.UninvertingReader;
+import org.apache.lucene.util.Bits;
 
 import nl.inl.blacklab.index.complex.ComplexFieldUtil;
 
 /**
  * Class for looking up forward index id, using DocValues or stored fields.
+ *
+ * Documents indexed with this version of BlackLab store their forward index
+ * id as NumericDocValues. For segments of older indexes that don't have
+ * these, we uninvert the (indexed) fiid field once when opening the index.
+ * Segments that contain both (i.e. old and new documents merged together)
+ * use the DocValues where present and read the stored field otherwise.
  */
 class FiidLookup {
 
@@ -24,49 +34,109 @@ class FiidLookup {
 	/** fiid field name in the Lucene index (for translating from Lucene doc id to fiid) */
 	private String fiidFieldName;
 
-	/** The DocValues per segment (keyed by docBase) */
-	private Map<Integer, NumericDocValues> cachedFiids;
+	/** The segments in our index */
+	private LeafReader[] segments;
+
+	/** Lucene doc id of the first document in each segment */
+	private int[] docStarts;
+
+	/** Uninverted fiids for segments without fiid DocValues (null for segments with DocValues) */
+	private NumericDocValues[] uninvertedFiids;
+
+	/** Do (some) segments have fiid DocValues? */
+	private boolean hasDocValues = false;
+
+	/** If true, we couldn't get the fiids from DocValues or by uninverting; read the stored field instead */
+	private boolean useStoredField = false;
+
+	/**
+	 * DocValues per segment for each thread.
+	 *
+	 * DocValues instances aren't thread-safe, so each thread gets its own.
+	 * (Uninverted fiids are cached arrays, so those are shared)
+	 */
+	private ThreadLocal<SegmentFiids[]> segmentFiids = new ThreadLocal<SegmentFiids[]>() {
+		@Override
+		protected SegmentFiids[] initialValue() {
+			try {
+				SegmentFiids[] result = new SegmentFiids[segments.length];
+				for (int i = 0; i < segments.length; i++) {
+					if (uninvertedFiids[i] != null) {
+						result[i] = new SegmentFiids(uninvertedFiids[i], null);
+					} else {
+						Bits docsWithField = segments[i].getDocsWithField(fiidFieldName);
+						result[i] = new SegmentFiids(segments[i].getNumericDocValues(fiidFieldName),
+								docsWithField instanceof Bits.MatchAllBits ? null : docsWithField);
+					}
+				}
+				return result;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	/** The fiids for one segment */
+	private static class SegmentFiids {
+
+		/** The fiids */
+		NumericDocValues fiids;
+
+		/** Which documents have a fiid, or null if all do */
+		Bits docsWithFiid;
+
+		SegmentFiids(NumericDocValues fiids, Bits docsWithFiid) {
+			this.fiids = fiids;
+			this.docsWithFiid = docsWithFiid;
+		}
+	}
 
 	public FiidLookup(IndexReader reader, String lucenePropFieldName) {
 		this.fiidFieldName = ComplexFieldUtil.forwardIndexIdField(lucenePropFieldName);
 		this.reader = reader;
 		Map<String, UninvertingReader.Type> fields = new TreeMap<>();
 		fields.put(fiidFieldName, UninvertingReader.Type.INTEGER);
-		cachedFiids = new TreeMap<>();
+		List<LeafReaderContext> leaves = reader.leaves();
+		segments = new LeafReader[leaves.size()];
+		docStarts = new int[leaves.size()];
+		uninvertedFiids = new NumericDocValues[leaves.size()];
 		try {
-			for (LeafReaderContext rc: reader.leaves()) {
+			for (int i = 0; i < segments.length; i++) {
+				LeafReaderContext rc = leaves.get(i);
 				LeafReader r = rc.reader();
-				@SuppressWarnings("resource")
-				UninvertingReader uninv = new UninvertingReader(r, fields);
-				cachedFiids.put(rc.docBase, uninv.getNumericDocValues(fiidFieldName));
+				segments[i] = r;
+				docStarts[i] = rc.docBase;
+				FieldInfo fieldInfo = r.getFieldInfos().fieldInfo(fiidFieldName);
+				if (fieldInfo != null && fieldInfo.getDocValuesType() == DocValuesType.NUMERIC) {
+					hasDocValues = true;
+				} else {
+					// Older segment without fiid DocValues; uninvert the indexed field
+					@SuppressWarnings("resource")
+					UninvertingReader uninv = new UninvertingReader(r, fields);
+					uninvertedFiids[i] = uninv.getNumericDocValues(fiidFieldName);
+				}
 			}
 
-			int numToCheck = Math.min(ForwardIndexImplV3.NUMBER_OF_CACHE_ENTRIES_TO_CHECK, reader.maxDoc());
-			if (!hasFiids(numToCheck))
-				cachedFiids = null;
+			if (!hasDocValues) {
+				// Check that uninverting worked; if not, we'll have to read the stored field
+				int numToCheck = Math.min(ForwardIndexImplV3.NUMBER_OF_CACHE_ENTRIES_TO_CHECK, reader.maxDoc());
+				if (!hasFiids(numToCheck))
+					useStoredField = true;
+			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
 	public long get(int docId) {
-		if (cachedFiids != null) {
+		if (!useStoredField) {
 			// Find the fiid in the correct segment
-			Entry<Integer, NumericDocValues> prev = null;
-			for (Entry<Integer, NumericDocValues> e: cachedFiids.entrySet()) {
-				Integer docBase = e.getKey();
-				if (docBase > docId) {
-					// Previous segment (the highest docBase lower than docId) is the right one
-					Integer prevDocBase = prev.getKey();
-					NumericDocValues prevDocValues = prev.getValue();
-					return prevDocValues.get(docId - prevDocBase);
-				}
-				prev = e;
-			}
-			// Last segment is the right one
-			Integer prevDocBase = prev.getKey();
-			NumericDocValues prevDocValues = prev.getValue();
-			return prevDocValues.get(docId - prevDocBase);
+			int segment = ReaderUtil.subIndex(docId, docStarts);
+			SegmentFiids fiids = segmentFiids.get()[segment];
+			int segmentDocId = docId - docStarts[segment];
+			if (fiids.docsWithFiid == null || fiids.docsWithFiid.get(segmentDocId))
+				return fiids.fiids.get(segmentDocId);
+			// (older document merged into a newer segment; read the stored field)
 		}
 
 		// Not cached; find fiid by reading stored value from Document now
@@ -90,4 +160,4 @@ class FiidLookup {
 		}
 		return !allZeroes;
 	}
-}
\ No newline at end of file
+}
@@ -3,8 +3,13 @@ package nl.inl.blacklab.forwardindex;
 import java.io.File;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.apache.lucene.index.IndexReader;
 
@@ -22,6 +27,9 @@ public abstract class ForwardIndex {
 	 * 3. New terms and docs file format; added reverse sort index and case-insensitive index to terms file.
 	 */
 
+	/** Precomputed term frequency tables, by metadata field ("" for corpus-wide counts) */
+	protected Map<String, TermFrequencyTable> frequencyTables = new TreeMap<>();
+
 	/**
 	 * Indicate how to translate Lucene document ids to forward index ids
 	 * (by looking them up in the index).
@@ -97,7 +105,7 @@ public abstract class ForwardIndex {
 	 * @deprecated use retrievePartsInt and getTerms().get(id)
 	 */
 	@Deprecated
-	public synchronized List<String[]> retrieveParts(int fiid, int[] start, int[] end) {
+	public List<String[]> retrieveParts(int fiid, int[] start, int[] end) {
 
 		// First, retrieve the token ids
 		List<int[]> resultInt = retrievePartsInt(fiid, start, end);
@@ -133,7 +141,7 @@ public abstract class ForwardIndex {
 	 * @deprecated
 	 */
 	@Deprecated
-	public synchronized List<int[]> retrievePartsSortOrder(int fiid, int[] start, int[] end, boolean sensitive) {
+	public List<int[]> retrievePartsSortOrder(int fiid, int[] start, int[] end, boolean sensitive) {
 		// First, retrieve the token ids
 		List<int[]> resultInt = retrievePartsInt(fiid, start, end);
 
@@ -154,7 +162,11 @@ public abstract class ForwardIndex {
 	 * NOTE: if offset and length are both -1, retrieves the whole content. This is used by the
 	 * retrieve(id) method.
 	 *
-	 * NOTE2: Mapped file IO on Windows has some issues that sometimes cause an OutOfMemoryError on
+	 * NOTE2: implementations must allow multiple threads to call this method concurrently
+	 * when the forward index is opened in search mode. Don't rely on synchronizing on the
+	 * forward index object, as that would serialize all KWIC, sort and group operations.
+	 *
+	 * NOTE3: Mapped file IO on Windows has some issues that sometimes cause an OutOfMemoryError on
 	 * the FileChannel.map() call (which makes no sense, because memory mapping only uses address
 	 * space, it doesn't try to read the whole file). Possibly this could be solved by using 64-bit
 	 * Java, but we haven't tried. For now we just disable memory mapping on Windows.
@@ -171,6 +183,42 @@ public abstract class ForwardIndex {
 	 */
 	public abstract List<int[]> retrievePartsInt(int fiid, int[] start, int[] end);
 
+	/**
+	 * Retrieve parts from (possibly) many different documents in one call, in the form of token ids.
+	 *
+	 * Instead of allocating an array per part, all parts are stored one after another in a single
+	 * buffer supplied by the caller. Part i can be found at buffer[offsets[i]] up to (but not including)
+	 * buffer[offsets[i + 1]].
+	 *
+	 * Implementations may read the parts in a different order than they were specified in (i.e. in order
+	 * of their position in the tokens file, so the file is read sequentially), but the parts are always
+	 * stored in the buffer in the order specified.
+	 *
+	 * As with retrievePartsInt(), -1 may be used to indicate start or end of document, and end points
+	 * beyond the end of the document are clipped to the document length. The start and end arrays
+	 * are not modified.
+	 *
+	 * This default implementation simply calls retrievePartsInt() for each part. Subclasses should
+	 * override this if they can do better.
+	 *
+	 * @param fiids forward index document ids
+	 * @param start the starting points of the parts to retrieve (in words)
+	 * @param end the end points (i.e. first token beyond) of the parts to retrieve (in words)
+	 * @param n how many parts to retrieve (i.e. how many elements of the arrays to use)
+	 * @param buffer where to store the token ids. Must be large enough to hold all the parts,
+	 *   i.e. at least the sum of (end[i] - start[i])
+	 * @param offsets (output) where each part starts in the buffer; must have room for n + 1
+	 *   elements, the last of which will be set to the total number of tokens retrieved
+	 */
+	public void retrievePartsIntBatch(int[] fiids, int[] start, int[] end, int n, int[] buffer, int[] offsets) {
+		offsets[0] = 0;
+		for (int i = 0; i < n; i++) {
+			int[] part = retrievePartsInt(fiids[i], new int[] { start[i] }, new int[] { end[i] }).get(0);
+			System.arraycopy(part, 0, buffer, offsets[i], part.length);
+			offsets[i + 1] = offsets[i] + part.length;
+		}
+	}
+
 	/**
 	 * Get the Terms object in order to translate ids to token strings
 	 * @return the Terms object
@@ -298,6 +346,109 @@ public abstract class ForwardIndex {
 		}
 	}
 
+	/** Minimum number of documents per task when counting terms in parallel */
+	private static final int COUNT_TERMS_MIN_DOCS_PER_TASK = 100;
+
+	/**
+	 * Count how often each term occurs in a set of documents.
+	 *
+	 * Documents are divided into ranges that are counted in parallel, each into
+	 * its own array of counts; these are added together at the end. We use at most
+	 * one range per available processor, to limit the memory needed for the arrays.
+	 *
+	 * @param fiids forward index ids of the documents to count terms in
+	 * @return number of occurrences, indexed by term id
+	 */
+	public long[] countTerms(int[] fiids) {
+		int parallelism = ForkJoinPool.getCommonPoolParallelism();
+		int docsPerTask = Math.max(COUNT_TERMS_MIN_DOCS_PER_TASK, (fiids.length + parallelism - 1) / parallelism);
+		return ForkJoinPool.commonPool().invoke(new CountTermsTask(fiids, 0, fiids.length, docsPerTask));
+	}
+
+	/**
+	 * Counts terms in a range of documents, splitting the range in parallel
+	 * subtasks if it's too large.
+	 */
+	private class CountTermsTask extends RecursiveTask<long[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private int[] fiids;
+
+		private int from;
+
+		private int to;
+
+		private int docsPerTask;
+
+		CountTermsTask(int[] fiids, int from, int to, int docsPerTask) {
+			this.fiids = fiids;
+			this.from = from;
+			this.to = to;
+			this.docsPerTask = docsPerTask;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (to - from > docsPerTask) {
+				// Split the range and count both halves in parallel
+				int middle = (from + to) >>> 1;
+				CountTermsTask right = new CountTermsTask(fiids, middle, to, docsPerTask);
+				right.fork();
+				long[] counts = new CountTermsTask(fiids, from, middle, docsPerTask).compute();
+				long[] rightCounts = right.join();
+				for (int i = 0; i < counts.length; i++) {
+					counts[i] += rightCounts[i];
+				}
+				return counts;
+			}
+			long[] counts = new long[getTerms().numberOfTerms()];
+			for (int i = from; i < to; i++) {
+				// (NOTE: retrievePartsInt() modifies start and end, so we need new arrays each time)
+				List<int[]> parts = retrievePartsInt(fiids[i], new int[] { -1 }, new int[] { -1 });
+				if (parts == null)
+					continue; // deleted document
+				for (int tokenId: parts.get(0)) {
+					if (tokenId >= 0)
+						counts[tokenId]++;
+				}
+			}
+			return counts;
+		}
+	}
+
+	/**
+	 * Get a precomputed term frequency table.
+	 *
+	 * @param metadataField metadata field the counts are grouped by, or null for corpus-wide counts
+	 * @return the table, or null if it hasn't been built
+	 */
+	public TermFrequencyTable getFrequencyTable(String metadataField) {
+		synchronized (frequencyTables) {
+			return frequencyTables.get(metadataField == null ? "" : metadataField);
+		}
+	}
+
+	/**
+	 * Get all precomputed term frequency tables.
+	 *
+	 * @return the tables
+	 */
+	public Collection<TermFrequencyTable> getFrequencyTables() {
+		synchronized (frequencyTables) {
+			return new ArrayList<>(frequencyTables.values());
+		}
+	}
+
+	/**
+	 * Store a term frequency table with this forward index.
+	 *
+	 * Replaces any existing table for the same metadata field.
+	 *
+	 * @param table the table
+	 */
+	public abstract void addFrequencyTable(TermFrequencyTable table);
+
 	public int getToken(int fiid, int pos) {
 		// Slow/naive implementation, subclasses should override
 		return retrievePartsInt(fiid, new int[] {pos}, new int[] {pos + 1}).get(0)[0];
@@ -37,6 +37,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.index.IndexReader;
 
+import nl.inl.util.ArrayUtil;
 import nl.inl.util.ExUtil;
 
 /**
@@ -59,6 +60,10 @@ class ForwardIndexImplV3 extends ForwardIndex {
 	/** Desired chunk size. Usually just MAX_DIRECT_BUFFER_SIZE, but can be
 	 *  set to be smaller (for easier testing).
 	 *
+	 *  All chunks except the last one have exactly this size, so we can
+	 *  calculate which chunk a file offset is in. Must be a multiple of
+	 *  SIZEOF_INT, so a token id never straddles two chunks.
+	 *
 	 *  NOTE: using MAX_DIRECT_BUFFER_SIZE (2GB) failed on Linux 64 bit, so
 	 *  we're using 1GB for now.
 	 */
@@ -95,17 +100,20 @@ class ForwardIndexImplV3 extends ForwardIndex {
 	/** The terms file (stores unique terms) */
 	private File termsFile;
 
+	/** Our directory (where precomputed term frequency tables are also stored) */
+	private File dir;
+
 	/** The unique terms in our index */
 	private Terms terms;
 
 	/** Handle for the tokens file */
 	private RandomAccessFile writeTokensFp;
 
-	/** Mapping into the tokens file */
-	private List<ByteBuffer> tokensFileChunks = null;
+	/** Mappings into the tokens file. Chunk i starts at byte offset i * tokensFileChunkSizeBytes. */
+	private IntBuffer[] tokensFileChunks = null;
 
-	/** Offsets of the mappings into the token file */
-	private List<Long> tokensFileChunkOffsetBytes = null;
+	/** Size of each chunk (except the last, which may be smaller) in bytes */
+	private long tokensFileChunkSizeBytes;
 
 	/** File channel for the tokens file */
 	private FileChannel writeTokensFileChannel;
@@ -153,6 +161,7 @@ class ForwardIndexImplV3 extends ForwardIndex {
 		}
 
 		this.indexMode = indexMode;
+		this.dir = dir;
 
 		termsFile = new File(dir, "terms.dat");
 		tocFile = new File(dir, "docs.dat");
@@ -164,7 +173,9 @@ class ForwardIndexImplV3 extends ForwardIndex {
 				tocFile.delete();
 			if (termsFile.exists())
 				termsFile.delete();
+			deleteFrequencyTableFiles();
 		}
+		readFrequencyTables();
 		toc = new ArrayList<>();
 		deletedTocEntries = new ArrayList<>();
 		try {
@@ -200,6 +211,41 @@ class ForwardIndexImplV3 extends ForwardIndex {
 		}
 	}
 
+	/** @return the precomputed term frequency table files in our directory */
+	private List<File> frequencyTableFiles() {
+		File[] files = dir.listFiles();
+		List<File> result = new ArrayList<>();
+		for (File f: files == null ? new File[0] : files) {
+			String name = f.getName();
+			if (name.startsWith(TermFrequencyTable.FILE_PREFIX) && name.endsWith(TermFrequencyTable.FILE_EXTENSION))
+				result.add(f);
+		}
+		return result;
+	}
+
+	private void readFrequencyTables() {
+		for (File f: frequencyTableFiles()) {
+			TermFrequencyTable table = TermFrequencyTable.read(f);
+			String metadataField = table.getMetadataField();
+			frequencyTables.put(metadataField == null ? "" : metadataField, table);
+		}
+	}
+
+	private void deleteFrequencyTableFiles() {
+		for (File f: frequencyTableFiles()) {
+			f.delete();
+		}
+	}
+
+	@Override
+	public void addFrequencyTable(TermFrequencyTable table) {
+		table.write(new File(dir, TermFrequencyTable.fileName(table.getMetadataField())));
+		synchronized (frequencyTables) {
+			String metadataField = table.getMetadataField();
+			frequencyTables.put(metadataField == null ? "" : metadataField, table);
+		}
+	}
+
 	/**
 	 * Open the tokens file for writing.
 	 * @throws IOException on error
@@ -211,57 +257,61 @@ class ForwardIndexImplV3 extends ForwardIndex {
 
 	/**
 	 * Memory-map the tokens file for reading.
+	 *
+	 * The file is mapped in consecutive, non-overlapping chunks of a fixed size,
+	 * so we can find the chunk for a file offset by simple division. Snippets that
+	 * cross a chunk boundary are read from two (or more) chunks.
+	 *
 	 * @throws IOException
 	 */
 	private void openTokensFileForReading() throws IOException {
 		try (RandomAccessFile tokensFp = new RandomAccessFile(tokensFile, "r");
 				FileChannel tokensFileChannel = tokensFp.getChannel()) {
-			// Map the tokens file in chunks of 2GB each. When retrieving documents, we always
-			// read it from just one chunk, not multiple, but because each chunk begins at a
-			// document start, documents of up to 2G tokens can be processed. We could get around
-			// this limitation by reading from multiple chunks, but this would make the code
-			// more complex.
-			tokensFileChunks = new ArrayList<>();
-			tokensFileChunkOffsetBytes = new ArrayList<>();
-			long mappedBytes = 0;
+			// Make sure chunks always end at an int boundary (and hold at least one int)
+			tokensFileChunkSizeBytes = Math.max(SIZEOF_INT, preferredChunkSizeBytes - preferredChunkSizeBytes % SIZEOF_INT);
 			long tokenFileEndBytes = tokenFileEndPosition * SIZEOF_INT;
-			while (mappedBytes < tokenFileEndBytes) {
-				// Find the last TOC entry start point that's also in the previous mapping
-				// (or right the first byte after the previous mapping).
-
-				// Look for the largest entryOffset that's no larger than mappedBytes.
-				TocEntry mapNextChunkFrom = null;
-				for (TocEntry e: toc) {
-					if (e.offset <= mappedBytes && (mapNextChunkFrom == null || e.offset > mapNextChunkFrom.offset))
-						mapNextChunkFrom = e;
-				}
-
-				// Uses binary search.
-				int min = 0, max = toc.size();
-				while (max - min > 1) {
-					int middle = (min + max) / 2;
-					long middleVal = toc.get(middle).offset * SIZEOF_INT;
-					if (middleVal <= mappedBytes) {
-						min = middle;
-					} else {
-						max = middle;
-					}
-				}
-				long startOfNextMappingBytes = toc.get(min).offset * SIZEOF_INT;
-
-				// Map this chunk
-				long sizeBytes = tokenFileEndBytes - startOfNextMappingBytes;
-				if (sizeBytes > preferredChunkSizeBytes)
-					sizeBytes = preferredChunkSizeBytes;
-
-				ByteBuffer mapping = tokensFileChannel.map(FileChannel.MapMode.READ_ONLY, startOfNextMappingBytes, sizeBytes);
-				tokensFileChunks.add(mapping);
-				tokensFileChunkOffsetBytes.add(startOfNextMappingBytes);
-				mappedBytes = startOfNextMappingBytes + sizeBytes;
+			int numberOfChunks = (int) ((tokenFileEndBytes + tokensFileChunkSizeBytes - 1) / tokensFileChunkSizeBytes);
+			tokensFileChunks = new IntBuffer[numberOfChunks];
+			for (int i = 0; i < numberOfChunks; i++) {
+				long chunkStartBytes = i * tokensFileChunkSizeBytes;
+				long sizeBytes = Math.min(tokensFileChunkSizeBytes, tokenFileEndBytes - chunkStartBytes);
+				ByteBuffer mapping = tokensFileChannel.map(FileChannel.MapMode.READ_ONLY, chunkStartBytes, sizeBytes);
+				tokensFileChunks[i] = mapping.asIntBuffer();
 			}
 		}
 	}
 
+	/**
+	 * Read token ids from the memory-mapped tokens file.
+	 *
+	 * Doesn't change the state of the shared chunk mappings, so this is safe
+	 * to call from multiple threads.
+	 *
+	 * @param offset where to start reading (in ints)
+	 * @param dest where to store the token ids
+	 * @param destOffset where in dest to start storing
+	 * @param length number of token ids to read
+	 */
+	private void readMapped(long offset, int[] dest, int destOffset, int length) {
+		long chunkSizeInts = tokensFileChunkSizeBytes / SIZEOF_INT;
+		int chunkIndex = (int) (offset / chunkSizeInts);
+		int positionInChunk = (int) (offset % chunkSizeInts);
+		int snippetOffset = destOffset;
+		int snippetEnd = destOffset + length;
+		while (snippetOffset < snippetEnd) {
+			// Use a duplicate, so we don't change the position of the shared chunk
+			IntBuffer ib = tokensFileChunks[chunkIndex].duplicate();
+			ib.position(positionInChunk);
+			int n = Math.min(snippetEnd - snippetOffset, ib.remaining());
+			ib.get(dest, snippetOffset, n);
+			snippetOffset += n;
+
+			// Snippet continues in the next chunk (if we're not done yet)
+			chunkIndex++;
+			positionInChunk = 0;
+		}
+	}
+
 	/**
 	 * Delete all content in the forward index
 	 */
@@ -283,6 +333,8 @@ class ForwardIndexImplV3 extends ForwardIndex {
 		}
 		termsFile.delete();
 		tocFile.delete();
+		deleteFrequencyTableFiles();
+		frequencyTables.clear();
 		toc.clear();
 		deletedTocEntries.clear();
 		tokenFileEndPosition = 0;
@@ -386,6 +438,14 @@ class ForwardIndexImplV3 extends ForwardIndex {
 				terms.write(termsFile);
 			}
 
+			// Write frequency tables that were updated while adding or deleting documents
+			if (indexMode) {
+				for (TermFrequencyTable table: getFrequencyTables()) {
+					if (table.isModified())
+						table.write(new File(dir, TermFrequencyTable.fileName(table.getMetadataField())));
+				}
+			}
+
 			// Close the FileChannel and RandomAccessFile (indexMode only)
 			if (writeTokensFileChannel != null) {
 				// Cannot truncate if still mapped; cannot force demapping.
@@ -551,7 +611,32 @@ class ForwardIndexImplV3 extends ForwardIndex {
 	}
 
 	@Override
-	public synchronized List<int[]> retrievePartsInt(int fiid, int[] start, int[] end) {
+	public List<int[]> retrievePartsInt(int fiid, int[] start, int[] end) {
+		if (indexMode) {
+			// The ToC and tokens file may change while we're indexing,
+			// so we have to synchronize with addDocument() and deleteDocument().
+			synchronized (this) {
+				return retrievePartsIntInternal(fiid, start, end);
+			}
+		}
+		// In search mode, the ToC and the tokens file mappings never change,
+		// and we never modify the position of the shared mappings,
+		// so we don't need to synchronize.
+		return retrievePartsIntInternal(fiid, start, end);
+	}
+
+	/**
+	 * Retrieve parts from the specified content, in the form of token ids.
+	 *
+	 * Safe to call from multiple threads in search mode, because we don't change
+	 * the state of the shared chunk mappings (see readMapped()).
+	 *
+	 * @param fiid forward index document id
+	 * @param start the starting points of the parts to retrieve (-1 for start of document)
+	 * @param end the end points of the parts to retrieve (-1 for end of document)
+	 * @return the parts
+	 */
+	private List<int[]> retrievePartsIntInternal(int fiid, int[] start, int[] end) {
 		try {
 			TocEntry e = toc.get(fiid);
 			if (e == null || e.deleted)
@@ -584,41 +669,11 @@ class ForwardIndexImplV3 extends ForwardIndex {
 									+ " to " + end[i] + ")");
 				}
 
-				// Get an IntBuffer to read the desired content
-				IntBuffer ib = null;
-				boolean mapped = false;
-				if (tokensFileChunks != null) {
-					// Yes, the tokens file has has been mapped to memory.
-					// Get an int buffer into the file.
-					mapped = true;
-
-					// Figure out which chunk to access.
-					ByteBuffer whichChunk = null;
-					long chunkOffsetBytes = -1;
-					long entryOffsetBytes = e.offset * SIZEOF_INT;
-					for (int j = 0; j < tokensFileChunkOffsetBytes.size(); j++) {
-						long offsetBytes = tokensFileChunkOffsetBytes.get(j);
-						ByteBuffer buffer = tokensFileChunks.get(j);
-						if (offsetBytes <= entryOffsetBytes + start[i] * SIZEOF_INT
-								&& offsetBytes + buffer.capacity() >= entryOffsetBytes + end[i]
-										* SIZEOF_INT) {
-							// This one!
-							whichChunk = buffer;
-							chunkOffsetBytes = offsetBytes;
-							break;
-						}
-					}
-
-					whichChunk.position((int) (e.offset * SIZEOF_INT - chunkOffsetBytes));
-					ib = whichChunk.asIntBuffer();
-				}
-
 				int snippetLength = end[i] - start[i];
 				int[] snippet = new int[snippetLength];
-				if (mapped) {
+				if (tokensFileChunks != null) {
 					// The file is mem-mapped (search mode).
-					// Position us at the correct place in the file.
-					ib.position(start[i]);
+					readMapped(e.offset + start[i], snippet, 0, snippetLength);
 				} else {
 					// Chunks are not mapped (index mode).
 					// Explicitly read the part we require from disk into an int buffer.
@@ -632,9 +687,8 @@ class ForwardIndexImplV3 extends ForwardIndex {
 								+ " < " + bytesToRead);
 					}
 					buffer.position(0);
-					ib = buffer.asIntBuffer();
+					buffer.asIntBuffer().get(snippet);
 				}
-				ib.get(snippet);
 				result.add(snippet);
 			}
 
@@ -644,6 +698,44 @@ class ForwardIndexImplV3 extends ForwardIndex {
 		}
 	}
 
+	@Override
+	public void retrievePartsIntBatch(int[] fiids, int[] start, int[] end, int n, int[] buffer, int[] offsets) {
+		if (indexMode) {
+			// Not memory-mapped, and the ToC may change; just use the simple, synchronized way.
+			super.retrievePartsIntBatch(fiids, start, end, n, buffer, offsets);
+			return;
+		}
+
+		// Determine where each part is in the tokens file, and where it goes in the buffer
+		long[] fileOffsets = new long[n];
+		offsets[0] = 0;
+		for (int i = 0; i < n; i++) {
+			TocEntry e = toc.get(fiids[i]);
+			if (e == null || e.deleted)
+				throw new IllegalArgumentException("Tried to read from deleted document (fiid " + fiids[i] + ")");
+			int partStart = start[i] == -1 ? 0 : start[i];
+			int partEnd = end[i] == -1 || end[i] > e.length ? e.length : end[i];
+			if (partStart < 0 || partEnd < 0) {
+				throw new IllegalArgumentException("Illegal values, start = " + partStart + ", end = "
+						+ partEnd);
+			}
+			if (partEnd <= partStart) {
+				throw new IllegalArgumentException(
+						"Tried to read empty or negative length snippet (from " + partStart
+								+ " to " + partEnd + ")");
+			}
+			fileOffsets[i] = e.offset + partStart;
+			offsets[i + 1] = offsets[i] + partEnd - partStart;
+		}
+		if (offsets[n] > buffer.length)
+			throw new IllegalArgumentException("Buffer too small (" + buffer.length + " < " + offsets[n] + ")");
+
+		// Read the parts in file order, so we access the file (and page cache) sequentially
+		for (int i: ArrayUtil.sortedIndexes(fileOffsets, n)) {
+			readMapped(fileOffsets[i], buffer, offsets[i], offsets[i + 1] - offsets[i]);
+		}
+	}
+
 	@Override
 	public Terms getTerms() {
 		return terms;
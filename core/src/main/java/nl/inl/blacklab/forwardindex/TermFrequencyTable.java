@@ -0,0 +1,260 @@
+package nl.inl.blacklab.forwardindex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.Bits;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+
+import nl.inl.util.ExUtil;
+
+/**
+ * Precomputed term frequencies for a forward index.
+ *
+ * Stores the number of occurrences of each term id, either for the whole
+ * corpus, or per value of a metadata field (e.g. decade or genre). The
+ * table is stored alongside the forward index and kept up to date when
+ * documents are added or deleted, so corpus-wide frequencies can be looked
+ * up without scanning the forward index.
+ *
+ * Per-value tables store an array of counts for each value, so they are
+ * intended for metadata fields with a limited number of values.
+ */
+public class TermFrequencyTable {
+
+	/** Current file format version */
+	private static final int FILE_FORMAT_VERSION = 1;
+
+	/** Group value for documents that don't have a value for the metadata field */
+	public static final String NO_VALUE = "";
+
+	/** Prefix and extension of table files in the forward index directory */
+	static final String FILE_PREFIX = "freq";
+
+	static final String FILE_EXTENSION = ".dat";
+
+	/** Metadata field the counts are grouped by, or null for corpus-wide counts */
+	private String metadataField;
+
+	/** Number of occurrences of each term id, per metadata value (only NO_VALUE if not grouped) */
+	private Map<String, long[]> counts = new TreeMap<>();
+
+	/** Has the table changed since it was read or written? */
+	private boolean modified = false;
+
+	/**
+	 * Create an empty table.
+	 *
+	 * @param metadataField metadata field to group counts by, or null for corpus-wide counts
+	 */
+	public TermFrequencyTable(String metadataField) {
+		this.metadataField = metadataField;
+	}
+
+	/**
+	 * Get the table file name for a metadata field.
+	 *
+	 * @param metadataField metadata field, or null for corpus-wide counts
+	 * @return the file name
+	 */
+	static String fileName(String metadataField) {
+		return FILE_PREFIX + (metadataField == null ? "" : "_" + metadataField) + FILE_EXTENSION;
+	}
+
+	/**
+	 * Count all terms in a forward index.
+	 *
+	 * @param fi the forward index
+	 * @param reader the index reader (to find the documents and their metadata)
+	 * @param metadataField metadata field to group counts by, or null for corpus-wide counts
+	 * @return the table
+	 */
+	public static TermFrequencyTable build(ForwardIndex fi, IndexReader reader, String metadataField) {
+		// Find the forward index ids of the (non-deleted) documents, grouped by metadata value.
+		// (we use the stored value, like updateDocument() does; DocValues may be truncated or missing)
+		Set<String> fieldsToLoad = metadataField == null ? null : Collections.singleton(metadataField);
+		Map<String, IntArrayList> fiidsPerValue = new TreeMap<>();
+		for (LeafReaderContext rc: reader.leaves()) {
+			Bits liveDocs = rc.reader().getLiveDocs();
+			for (int i = 0; i < rc.reader().maxDoc(); i++) {
+				if (liveDocs != null && !liveDocs.get(i))
+					continue;
+				int docId = rc.docBase + i;
+				String value = null;
+				if (fieldsToLoad != null) {
+					try {
+						value = reader.document(docId, fieldsToLoad).get(metadataField);
+					} catch (IOException e) {
+						throw ExUtil.wrapRuntimeException(e);
+					}
+				}
+				if (value == null)
+					value = NO_VALUE;
+				IntArrayList fiids = fiidsPerValue.get(value);
+				if (fiids == null) {
+					fiids = new IntArrayList();
+					fiidsPerValue.put(value, fiids);
+				}
+				fiids.add(fi.luceneDocIdToFiid(docId));
+			}
+		}
+
+		// Count the terms for each value
+		TermFrequencyTable table = new TermFrequencyTable(metadataField);
+		for (Map.Entry<String, IntArrayList> e: fiidsPerValue.entrySet()) {
+			table.counts.put(e.getKey(), fi.countTerms(e.getValue().toArray()));
+		}
+		table.modified = true;
+		return table;
+	}
+
+	/**
+	 * Read a table from a file.
+	 *
+	 * @param file the file
+	 * @return the table
+	 */
+	public static TermFrequencyTable read(File file) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int version = in.readInt();
+			if (version != FILE_FORMAT_VERSION)
+				throw new RuntimeException("Unknown frequency table version " + version + " in " + file);
+			String field = in.readUTF();
+			TermFrequencyTable table = new TermFrequencyTable(field.isEmpty() ? null : field);
+			int numberOfTerms = in.readInt();
+			int numberOfValues = in.readInt();
+			for (int i = 0; i < numberOfValues; i++) {
+				String value = in.readUTF();
+				long[] valueCounts = new long[numberOfTerms];
+				for (int j = 0; j < numberOfTerms; j++) {
+					valueCounts[j] = in.readLong();
+				}
+				table.counts.put(value, valueCounts);
+			}
+			return table;
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Write the table to a file.
+	 *
+	 * @param file the file
+	 */
+	public synchronized void write(File file) {
+		int numberOfTerms = 0;
+		for (long[] valueCounts: counts.values()) {
+			numberOfTerms = Math.max(numberOfTerms, valueCounts.length);
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(FILE_FORMAT_VERSION);
+			out.writeUTF(metadataField == null ? "" : metadataField);
+			out.writeInt(numberOfTerms);
+			out.writeInt(counts.size());
+			for (Map.Entry<String, long[]> e: counts.entrySet()) {
+				out.writeUTF(e.getKey());
+				long[] valueCounts = e.getValue();
+				for (int j = 0; j < numberOfTerms; j++) {
+					out.writeLong(j < valueCounts.length ? valueCounts[j] : 0);
+				}
+			}
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+		modified = false;
+	}
+
+	/**
+	 * Update the counts for a document that was added or deleted.
+	 *
+	 * @param d the Lucene document (to get the metadata value from)
+	 * @param tokenIds the document's token ids in the forward index
+	 * @param delta 1 if the document was added, -1 if it was deleted
+	 */
+	public synchronized void updateDocument(Document d, int[] tokenIds, int delta) {
+		String value = metadataField == null ? null : d.get(metadataField);
+		if (value == null)
+			value = NO_VALUE;
+		long[] valueCounts = counts.get(value);
+		int maxTokenId = -1;
+		for (int tokenId: tokenIds) {
+			maxTokenId = Math.max(maxTokenId, tokenId);
+		}
+		if (valueCounts == null || valueCounts.length <= maxTokenId) {
+			// New value or new terms; make room
+			int length = valueCounts == null ? maxTokenId + 1 : Math.max(maxTokenId + 1, valueCounts.length * 2);
+			valueCounts = valueCounts == null ? new long[length] : Arrays.copyOf(valueCounts, length);
+			counts.put(value, valueCounts);
+		}
+		for (int tokenId: tokenIds) {
+			if (tokenId >= 0)
+				valueCounts[tokenId] += delta;
+		}
+		modified = true;
+	}
+
+	/**
+	 * Get the metadata field the counts are grouped by.
+	 *
+	 * @return the metadata field, or null for corpus-wide counts
+	 */
+	public String getMetadataField() {
+		return metadataField;
+	}
+
+	/**
+	 * Get the metadata values we have counts for.
+	 *
+	 * @return the values (only NO_VALUE for corpus-wide counts)
+	 */
+	public synchronized Set<String> getValues() {
+		return new TreeSet<>(counts.keySet());
+	}
+
+	/**
+	 * Get the frequency of each term id.
+	 *
+	 * @param value metadata value to get the counts for, or null for corpus-wide counts
+	 *   (if the table is grouped, counts for all values are added)
+	 * @param numberOfTerms number of terms in the forward index (length of the result)
+	 * @return number of occurrences, indexed by term id
+	 */
+	public synchronized long[] getCounts(String value, int numberOfTerms) {
+		long[] result = new long[numberOfTerms];
+		for (Map.Entry<String, long[]> e: counts.entrySet()) {
+			if (value != null && !e.getKey().equals(value))
+				continue;
+			long[] valueCounts = e.getValue();
+			for (int i = 0; i < Math.min(numberOfTerms, valueCounts.length); i++) {
+				result[i] += valueCounts[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Has the table changed since it was read or written?
+	 *
+	 * @return true iff the table should be written
+	 */
+	public synchronized boolean isModified() {
+		return modified;
+	}
+
+}
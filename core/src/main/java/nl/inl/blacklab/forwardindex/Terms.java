@@ -107,7 +107,20 @@ public abstract class Terms {
 
 	protected abstract void setBlockBasedFile(boolean useBlockBasedTermsFile);
 
+	/**
+	 * Open a terms file.
+	 *
+	 * In search mode, the (block-based) terms file is memory-mapped instead of read into memory.
+	 *
+	 * @param indexMode if true, open for writing; otherwise, read-only
+	 * @param collators the collators to use for sorting and lookups
+	 * @param termsFile terms file to read, or null if there is none yet
+	 * @param useBlockBasedTermsFile use the block-based file format? (false for old indexes)
+	 * @return the terms object
+	 */
 	public static Terms open(boolean indexMode, Collators collators, File termsFile, boolean useBlockBasedTermsFile) {
+		if (!indexMode && useBlockBasedTermsFile && termsFile != null && termsFile.exists())
+			return new TermsReader(collators, termsFile);
 		return new TermsImplV3(indexMode, collators, termsFile, useBlockBasedTermsFile);
 	}
 
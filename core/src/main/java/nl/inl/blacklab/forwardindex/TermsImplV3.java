@@ -15,16 +15,22 @@
  *******************************************************************************/
 package nl.inl.blacklab.forwardindex;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.IntBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.text.CollationKey;
 import java.text.Collator;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -32,6 +38,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.collections.api.set.primitive.MutableIntSet;
 import org.eclipse.collections.impl.factory.Maps;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
 
 /**
  * Keeps a first-come-first-serve list of unique terms.
@@ -41,6 +48,11 @@ import org.eclipse.collections.impl.factory.Maps;
  *
  * This version of the class stores the terms in a more efficient way so it
  * saves and loads faster, and includes the case-insensitive sorting order.
+ *
+ * The block-based terms file also contains lookup tables (term ids in sorted order,
+ * the case-insensitive groups of terms and the collation keys of the terms), so
+ * TermsReader can find terms without calculating collation keys for the index terms.
+ * Readers that don't know about the lookup tables just skip them.
  */
 class TermsImplV3 extends Terms {
 	/** We set this to a lower value on Windows because we can't properly
@@ -57,6 +69,10 @@ class TermsImplV3 extends Terms {
 	/** Number of bytes per int */
 	private static final int BYTES_PER_INT = Integer.SIZE / Byte.SIZE;
 
+	/** Written after the sort buffers to indicate that lookup tables follow.
+	 *  Also indicates that the "unused" sort buffers contain the term ids in sort order. */
+	static final int LOOKUP_TABLES_MARKER = 0x4C4B5550; // "LKUP"
+
 	protected static final Logger logger = LogManager.getLogger(TermsImplV3.class);
 
 	/** First index in array and number of elements from array */
@@ -487,6 +503,7 @@ class TermsImplV3 extends Terms {
 					// Calculate the file length and map the file
 					MappedByteBuffer buf;
 					IntBuffer ib;
+					long lookupTablesPosition = -1; // where to write the lookup tables (block-based file only)
 					if (!useBlockBasedTermsFile) {
 						long fileLength = 2 * BYTES_PER_INT + (n + 1) * BYTES_PER_INT + termStringsByteSize + NUM_SORT_BUFFERS * BYTES_PER_INT * n;
 						fc.truncate(fileLength); // truncate if necessary
@@ -576,6 +593,7 @@ class TermsImplV3 extends Terms {
 						fileLength += NUM_SORT_BUFFERS * BYTES_PER_INT * n;
 						if (File.separatorChar != '\\') // causes problems on Windows
 							fc.truncate(fileLength);
+						lookupTablesPosition = fileLength;
 					}
 
 					// Write the case-sensitive sort order
@@ -584,13 +602,15 @@ class TermsImplV3 extends Terms {
 					// for 'aardvark' comes before the id for 'ape', etc.
 					int i = 0;
 					sortPositionPerId = new int[n];
+					int[] idPerSortPos = new int[n];
 					Integer[] insensitive = new Integer[n];
 					for (int id: termIndex.values()) {
 						sortPositionPerId[id] = i;
+						idPerSortPos[i] = id;
 						insensitive[i] = id; // fill this so we can re-sort later, faster b/c already partially sorted
 						i++;
 					}
-					ib.put(new int[n]); // NOT USED ANYMORE, JUST FOR FILE COMPATIBILITY
+					ib.put(idPerSortPos); // (not used by TermsImplV3, but TermsReader uses it if there's lookup tables)
 					ib.put(sortPositionPerId);
 
 					// Now, sort case-insensitively and write those arrays as well
@@ -602,18 +622,33 @@ class TermsImplV3 extends Terms {
 					});
 					// Copy into the sortPositionPerIdInsensitive array, making sure that
 					// identical values get identical sort positions!
+					// Also keep track of the groups of identical values and their collation keys,
+					// for the lookup tables.
 					sortPositionPerIdInsensitive = new int[n];
+					int[] idPerSortPosInsensitive = new int[n];
+					IntArrayList groupStarts = new IntArrayList();
+					List<byte[]> groupKeys = new ArrayList<>();
+					CollationKey prevKey = null;
 					int sortPos = 0;
 					for (i = 0; i < n; i++) {
-						if (i == 0 || collatorInsensitive.compare(terms[insensitive[i - 1]], terms[insensitive[i]]) != 0) {
+						CollationKey key = collatorInsensitive.getCollationKey(terms[insensitive[i]]);
+						if (i == 0 || key.compareTo(prevKey) != 0) {
 							// Not identical to previous value: gets its own sort position.
 							// If a value is identical to the previous one, it gets the same sort position.
 							sortPos = i;
+							groupStarts.add(i);
+							groupKeys.add(key.toByteArray());
 						}
 						sortPositionPerIdInsensitive[insensitive[i]] = sortPos;
+						idPerSortPosInsensitive[i] = insensitive[i];
+						prevKey = key;
 					}
-					ib.put(new int[n]); // NOT USED ANYMORE, JUST FOR FILE COMPATIBILITY
+					groupStarts.add(n);
+					ib.put(idPerSortPosInsensitive); // (not used by TermsImplV3, but TermsReader uses it if there's lookup tables)
 					ib.put(sortPositionPerIdInsensitive);
+
+					if (lookupTablesPosition >= 0)
+						writeLookupTables(fc, lookupTablesPosition, groupStarts.toArray(), groupKeys);
 				}
 			}
 		} catch (Exception e) {
@@ -621,6 +656,72 @@ class TermsImplV3 extends Terms {
 		}
 	}
 
+	/**
+	 * Write the lookup tables after the sort buffers.
+	 *
+	 * The lookup tables consist of:
+	 * - the marker LOOKUP_TABLES_MARKER
+	 * - the number of case-insensitive groups of terms (g)
+	 * - g + 1 start positions of the groups in the insensitive sort order (the last is the number of terms)
+	 * - the collation keys of all terms in sort order (offsets table and data block, as for term strings)
+	 * - the insensitive collation keys of the groups in sort order (idem)
+	 *
+	 * If the collation keys are too large to map, the lookup tables are not written.
+	 *
+	 * @param fc the terms file channel
+	 * @param position where to write the lookup tables
+	 * @param groupStarts start of each insensitive group, plus the number of terms
+	 * @param groupKeys insensitive collation key for each group
+	 * @throws IOException on error
+	 */
+	private void writeLookupTables(FileChannel fc, long position, int[] groupStarts, List<byte[]> groupKeys) throws IOException {
+		// Calculate the collation key offsets
+		int n = termIndex.size();
+		int[] keyOffsets = new int[n + 1];
+		long keysSize = 0;
+		int i = 0;
+		for (CollationKey key: termIndex.keySet()) {
+			keyOffsets[i] = (int)keysSize;
+			keysSize += key.toByteArray().length;
+			i++;
+		}
+		keyOffsets[n] = (int)keysSize;
+		int numberOfGroups = groupKeys.size();
+		int[] groupKeyOffsets = new int[numberOfGroups + 1];
+		long groupKeysSize = 0;
+		for (i = 0; i < numberOfGroups; i++) {
+			groupKeyOffsets[i] = (int)groupKeysSize;
+			groupKeysSize += groupKeys.get(i).length;
+		}
+		groupKeyOffsets[numberOfGroups] = (int)groupKeysSize;
+		if (keysSize > maxMapSize || groupKeysSize > maxMapSize) {
+			logger.warn("Collation keys too large to store in terms file; lookups will be slower");
+			return;
+		}
+
+		// Write the lookup tables
+		fc.position(position);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(fc)));
+		out.writeInt(LOOKUP_TABLES_MARKER);
+		out.writeInt(numberOfGroups);
+		for (int groupStart: groupStarts) {
+			out.writeInt(groupStart);
+		}
+		for (int offset: keyOffsets) {
+			out.writeInt(offset);
+		}
+		for (CollationKey key: termIndex.keySet()) {
+			out.write(key.toByteArray());
+		}
+		for (int offset: groupKeyOffsets) {
+			out.writeInt(offset);
+		}
+		for (byte[] key: groupKeys) {
+			out.write(key);
+		}
+		out.flush(); // (don't close, that would close the channel)
+	}
+
 	@Override
 	public String get(Integer index) {
 		assert index >= 0 && index < numberOfTerms : "Term index out of range (" + index + ", numterms = " + numberOfTerms + ")";
@@ -0,0 +1,430 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.forwardindex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.text.Collator;
+import java.util.Arrays;
+
+import org.eclipse.collections.api.set.primitive.MutableIntSet;
+
+/**
+ * Read-only terms for search mode, that keeps the terms file memory-mapped
+ * instead of reading all the term strings into memory.
+ *
+ * Term strings are decoded from the mapped blocks when they are requested.
+ * There are no maps from term string to id; lookups are done by binary search
+ * through the term ids in sorted order.
+ *
+ * Reads the block-based terms file written by TermsImplV3. If the file contains
+ * lookup tables (see TermsImplV3.writeLookupTables()), the sorted term ids and the
+ * case-insensitive groups are mapped as well, so opening takes hardly any time, and lookups
+ * compare stored collation keys instead of calculating collation keys for the index terms.
+ * Note that this assumes the collator rules haven't changed since the file was written
+ * (which the stored sort positions assume as well).
+ */
+class TermsReader extends Terms {
+
+	/** Number of bytes per int */
+	private static final int BYTES_PER_INT = Integer.SIZE / Byte.SIZE;
+
+	/** How many terms total are there? */
+	private int numberOfTerms;
+
+	/** Id of the first term in each block of term strings */
+	private int[] blockFirstTerm;
+
+	/** Term string offsets for each block (numTermsThisBlock + 1 values; the last one is the data block size) */
+	private IntBuffer[] blockTermOffsets;
+
+	/** Term string data for each block */
+	private ByteBuffer[] blockTermStrings;
+
+	/** The sorting position for each term id (mapped) */
+	private IntBuffer sortPositionPerId;
+
+	/** The case-insensitive sorting position for each term id (mapped) */
+	private IntBuffer sortPositionPerIdInsensitive;
+
+	/** The term id at each sorting position. Inverse of sortPositionPerId. */
+	private IntBuffer idPerSortPosition;
+
+	/** The term id at each case-insensitive sorting position. Terms with the same
+	 *  sort position are stored in adjacent positions. */
+	private IntBuffer idPerSortPositionInsensitive;
+
+	/** Do we have the lookup tables below? */
+	private boolean hasLookupTables;
+
+	/** Lookup tables: start of each case-insensitive group of terms in idPerSortPositionInsensitive
+	 *  (number of groups + 1 values; the last one is the number of terms) */
+	private IntBuffer groupStart;
+
+	/** Lookup tables: offsets of the collation key of each term in sort order (numberOfTerms + 1 values) */
+	private IntBuffer keyOffsets;
+
+	/** Lookup tables: collation keys of all terms in sort order */
+	private ByteBuffer keys;
+
+	/** Lookup tables: offsets of the insensitive collation key of each group (number of groups + 1 values) */
+	private IntBuffer groupKeyOffsets;
+
+	/** Lookup tables: insensitive collation keys of the groups in sort order */
+	private ByteBuffer groupKeys;
+
+	/** Collator to use for string comparisons */
+	private final Collator collator;
+
+	/** Collator to use for insensitive string comparisons */
+	private final Collator collatorInsensitive;
+
+	TermsReader(Collators collators, File termsFile) {
+		this.collator = collators.get(true, true);
+		this.collatorInsensitive = collators.get(false, false);
+		read(termsFile);
+	}
+
+	private void read(File termsFile) {
+		try (RandomAccessFile raf = new RandomAccessFile(termsFile, "r");
+				FileChannel fc = raf.getChannel()) {
+			long position = 0;
+			int n = readInt(fc, position);
+			position += BYTES_PER_INT;
+			numberOfTerms = n;
+
+			// Map the blocks of term strings
+			// (we don't know the number of blocks beforehand, but there can't be more than n)
+			int[] firstTerm = new int[n];
+			IntBuffer[] termOffsets = new IntBuffer[n];
+			ByteBuffer[] termStrings = new ByteBuffer[n];
+			int numberOfBlocks = 0;
+			int currentTerm = 0;
+			while (currentTerm < n) {
+				int numTermsThisBlock = readInt(fc, position);
+				position += BYTES_PER_INT;
+				// NOTE: the term string offsets are followed by the data block size,
+				// which doubles as the offset after the last term
+				long offsetsLength = (long)BYTES_PER_INT * (numTermsThisBlock + 1);
+				termOffsets[numberOfBlocks] = fc.map(MapMode.READ_ONLY, position, offsetsLength).asIntBuffer();
+				int dataBlockSize = termOffsets[numberOfBlocks].get(numTermsThisBlock);
+				position += offsetsLength;
+				termStrings[numberOfBlocks] = fc.map(MapMode.READ_ONLY, position, dataBlockSize);
+				position += dataBlockSize;
+				firstTerm[numberOfBlocks] = currentTerm;
+				currentTerm += numTermsThisBlock;
+				numberOfBlocks++;
+			}
+			blockFirstTerm = Arrays.copyOf(firstTerm, numberOfBlocks);
+			blockTermOffsets = Arrays.copyOf(termOffsets, numberOfBlocks);
+			blockTermStrings = Arrays.copyOf(termStrings, numberOfBlocks);
+
+			// Map the sort order arrays
+			long arrayLength = (long)BYTES_PER_INT * n;
+			sortPositionPerId = fc.map(MapMode.READ_ONLY, position + arrayLength, arrayLength).asIntBuffer();
+			sortPositionPerIdInsensitive = fc.map(MapMode.READ_ONLY, position + 3 * arrayLength, arrayLength).asIntBuffer();
+
+			// Do we have lookup tables? If so, the sortPos -> id arrays are valid as well
+			long lookupTablesPosition = position + 4 * arrayLength;
+			hasLookupTables = lookupTablesPosition + BYTES_PER_INT <= fc.size()
+					&& readInt(fc, lookupTablesPosition) == TermsImplV3.LOOKUP_TABLES_MARKER;
+			if (hasLookupTables) {
+				idPerSortPosition = fc.map(MapMode.READ_ONLY, position, arrayLength).asIntBuffer();
+				idPerSortPositionInsensitive = fc.map(MapMode.READ_ONLY, position + 2 * arrayLength, arrayLength).asIntBuffer();
+				readLookupTables(fc, lookupTablesPosition + BYTES_PER_INT);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (!hasLookupTables) {
+			// Older terms file, where the sortPos -> id arrays weren't used.
+			// Invert the sort position arrays, so we can do a binary search through our
+			// terms to find a specific one.
+			int n = numberOfTerms;
+			int[] idPerSortPos = new int[n];
+			int[] idPerSortPosInsensitive = new int[n];
+			Arrays.fill(idPerSortPosInsensitive, -1);
+			for (int i = 0; i < n; i++) {
+				idPerSortPos[sortPositionPerId.get(i)] = i;
+				int x = sortPositionPerIdInsensitive.get(i);
+				// Multiple terms can have the same (case-insensitive)
+				// sort position. Skip over previous terms so each term is
+				// in the array and we can look at adjacent terms to recover all
+				// the terms with the same sort position later.
+				while (idPerSortPosInsensitive[x] >= 0)
+					x++;
+				idPerSortPosInsensitive[x] = i;
+			}
+			idPerSortPosition = IntBuffer.wrap(idPerSortPos);
+			idPerSortPositionInsensitive = IntBuffer.wrap(idPerSortPosInsensitive);
+		}
+	}
+
+	/**
+	 * Map the lookup tables (insensitive groups and collation keys).
+	 *
+	 * @param fc the terms file channel
+	 * @param position where the lookup tables start (after the marker)
+	 * @throws IOException on error
+	 */
+	private void readLookupTables(FileChannel fc, long position) throws IOException {
+		int numberOfGroups = readInt(fc, position);
+		position += BYTES_PER_INT;
+		long groupStartLength = (long)BYTES_PER_INT * (numberOfGroups + 1);
+		groupStart = fc.map(MapMode.READ_ONLY, position, groupStartLength).asIntBuffer();
+		position += groupStartLength;
+
+		long keyOffsetsLength = (long)BYTES_PER_INT * (numberOfTerms + 1);
+		keyOffsets = fc.map(MapMode.READ_ONLY, position, keyOffsetsLength).asIntBuffer();
+		position += keyOffsetsLength;
+		int keysSize = keyOffsets.get(numberOfTerms);
+		keys = fc.map(MapMode.READ_ONLY, position, keysSize);
+		position += keysSize;
+
+		long groupKeyOffsetsLength = (long)BYTES_PER_INT * (numberOfGroups + 1);
+		groupKeyOffsets = fc.map(MapMode.READ_ONLY, position, groupKeyOffsetsLength).asIntBuffer();
+		position += groupKeyOffsetsLength;
+		int groupKeysSize = groupKeyOffsets.get(numberOfGroups);
+		groupKeys = fc.map(MapMode.READ_ONLY, position, groupKeysSize);
+	}
+
+	/**
+	 * Find a collation key in a sorted table of collation keys.
+	 *
+	 * @param key the key to find
+	 * @param offsets offsets of the keys in the table (number of keys + 1)
+	 * @param data the key data
+	 * @return index of the key in the table, or -1 if not found
+	 */
+	private static int findKey(byte[] key, IntBuffer offsets, ByteBuffer data) {
+		int min = 0, max = offsets.limit() - 2;
+		while (max >= min) {
+			int middle = (min + max) >>> 1;
+			int cmp = compareKey(key, data, offsets.get(middle), offsets.get(middle + 1));
+			if (cmp == 0)
+				return middle;
+			if (cmp < 0)
+				max = middle - 1;
+			else
+				min = middle + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Compare a collation key to a stored collation key.
+	 *
+	 * Collation keys are compared as unsigned bytes, which gives the same
+	 * result as CollationKey.compareTo().
+	 *
+	 * @param key the key
+	 * @param data the stored key data
+	 * @param start start of the stored key in data
+	 * @param end end of the stored key in data
+	 * @return negative if key is smaller, zero if equal, positive if key is larger
+	 */
+	private static int compareKey(byte[] key, ByteBuffer data, int start, int end) {
+		int length = end - start;
+		int n = Math.min(key.length, length);
+		for (int i = 0; i < n; i++) {
+			int cmp = (key[i] & 0xFF) - (data.get(start + i) & 0xFF);
+			if (cmp != 0)
+				return cmp;
+		}
+		return key.length - length;
+	}
+
+	/**
+	 * Read an int from a file channel.
+	 *
+	 * @param fc the channel
+	 * @param position where to read
+	 * @return the int read
+	 * @throws IOException on error
+	 */
+	private static int readInt(FileChannel fc, long position) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(BYTES_PER_INT);
+		while (buf.hasRemaining()) {
+			if (fc.read(buf, position + buf.position()) < 0)
+				throw new IOException("Unexpected end of terms file");
+		}
+		return buf.getInt(0);
+	}
+
+	@Override
+	public String get(Integer id) {
+		assert id >= 0 && id < numberOfTerms : "Term index out of range (" + id + ", numterms = " + numberOfTerms + ")";
+
+		// Find the block this term is in
+		int block = Arrays.binarySearch(blockFirstTerm, id);
+		if (block < 0)
+			block = -block - 2; // not the first term in a block; use the block before the insertion point
+
+		// Decode the term string
+		// (use a duplicate, so we don't change the position of the shared buffer)
+		int indexInBlock = id - blockFirstTerm[block];
+		IntBuffer offsets = blockTermOffsets[block];
+		int offset = offsets.get(indexInBlock);
+		int length = offsets.get(indexInBlock + 1) - offset;
+		byte[] bytes = new byte[length];
+		ByteBuffer strings = blockTermStrings[block].duplicate();
+		strings.position(offset);
+		strings.get(bytes);
+		return new String(bytes, DEFAULT_CHARSET);
+	}
+
+	@Override
+	public int indexOf(String term) {
+		if (hasLookupTables) {
+			// Find the collation key in the stored, sorted keys
+			int sortPosition = findKey(collator.getCollationKey(term).toByteArray(), keyOffsets, keys);
+			return sortPosition < 0 ? NO_TERM : idPerSortPosition.get(sortPosition);
+		}
+
+		// Binary search through the sorted terms
+		int min = 0, max = numberOfTerms - 1;
+		while (max >= min) {
+			int guessedOrdinal = (min + max) >>> 1;
+			int guessedIndex = idPerSortPosition.get(guessedOrdinal);
+			int cmp = collator.compare(term, get(guessedIndex));
+			if (cmp == 0)
+				return guessedIndex; // found
+			if (cmp < 0)
+				max = guessedOrdinal - 1;
+			else
+				min = guessedOrdinal + 1;
+		}
+		return NO_TERM; // not found
+	}
+
+	@Override
+	public void indexOf(MutableIntSet results, String term, boolean caseSensitive, boolean diacSensitive) {
+		// NOTE: we don't do diacritics and case-sensitivity separately, but could in the future.
+		//  right now, diacSensitive is ignored and caseSensitive is used for both.
+		if (caseSensitive) {
+			int id = indexOf(term);
+			if (id != NO_TERM)
+				results.add(id);
+			return;
+		}
+		if (hasLookupTables) {
+			// Find the group of matching terms from the stored insensitive collation keys
+			int group = findKey(collatorInsensitive.getCollationKey(term).toByteArray(), groupKeyOffsets, groupKeys);
+			if (group >= 0) {
+				int end = groupStart.get(group + 1);
+				for (int i = groupStart.get(group); i < end; i++) {
+					results.add(idPerSortPositionInsensitive.get(i));
+				}
+			}
+			return;
+		}
+
+		// Binary search through the sorted terms
+		IntBuffer idLookup = idPerSortPositionInsensitive;
+		Collator coll = collatorInsensitive;
+		int min = 0, max = numberOfTerms - 1;
+		while (max >= min) {
+			int guessedOrdinal = (min + max) >>> 1;
+			int guessedIndex = idLookup.get(guessedOrdinal);
+			int cmp = coll.compare(term, get(guessedIndex));
+			if (cmp == 0) {
+				// Found a match. Look both ways to see if there's more matching terms.
+				results.add(guessedIndex);
+				for (int testOrdinal = guessedOrdinal - 1; testOrdinal >= min; testOrdinal--) {
+					int testIndex = idLookup.get(testOrdinal);
+					if (coll.compare(term, get(testIndex)) != 0)
+						break;
+					results.add(testIndex);
+				}
+				for (int testOrdinal = guessedOrdinal + 1; testOrdinal <= max; testOrdinal++) {
+					int testIndex = idLookup.get(testOrdinal);
+					if (coll.compare(term, get(testIndex)) != 0)
+						break;
+					results.add(testIndex);
+				}
+				return;
+			}
+			if (cmp < 0)
+				max = guessedOrdinal - 1;
+			else
+				min = guessedOrdinal + 1;
+		}
+		// not found
+	}
+
+	@Override
+	public boolean termsEqual(int[] termId, boolean caseSensitive, boolean diacSensitive) {
+		// NOTE: we don't do diacritics and case-sensitivity separately, but could in the future.
+		//  right now, diacSensitive is ignored and caseSensitive is used for both.
+		IntBuffer idLookup = caseSensitive ? sortPositionPerId : sortPositionPerIdInsensitive;
+		int id0 = idLookup.get(termId[0]);
+		for (int i = 1; i < termId.length; i++) {
+			if (termId[i] == -1 || id0 != idLookup.get(termId[i]))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		throw new RuntimeException("Cannot clear, not in index mode");
+	}
+
+	@Override
+	public void write(File termsFile) {
+		throw new RuntimeException("Term.write(): not in index mode!");
+	}
+
+	@Override
+	public int numberOfTerms() {
+		return numberOfTerms;
+	}
+
+	@Override
+	public void toSortOrder(int[] tokenId, int[] sortOrder, boolean sensitive) {
+		IntBuffer sortPositions = sensitive ? sortPositionPerId : sortPositionPerIdInsensitive;
+		for (int i = 0; i < tokenId.length; i++) {
+			if (tokenId[i] == NO_TERM)
+				sortOrder[i] = NO_TERM;
+			else
+				sortOrder[i] = sortPositions.get(tokenId[i]);
+		}
+	}
+
+	@Override
+	public int compareSortPosition(int tokenId1, int tokenId2, boolean sensitive) {
+		IntBuffer sortPositions = sensitive ? sortPositionPerId : sortPositionPerIdInsensitive;
+		return sortPositions.get(tokenId1) - sortPositions.get(tokenId2);
+	}
+
+	@Override
+	public int idToSortPosition(int id, boolean sensitive) {
+		return sensitive ? sortPositionPerId.get(id) : sortPositionPerIdInsensitive.get(id);
+	}
+
+	@Override
+	protected void setBlockBasedFile(boolean useBlockBasedTermsFile) {
+		if (!useBlockBasedTermsFile)
+			throw new UnsupportedOperationException("TermsReader only supports the block-based terms file");
+	}
+
+}
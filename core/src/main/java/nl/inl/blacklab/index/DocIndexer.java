@@ -37,6 +37,9 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.util.BytesRef;
 
 import nl.inl.blacklab.index.complex.ComplexFieldProperty.SensitivitySetting;
 import nl.inl.blacklab.index.complex.ComplexFieldUtil;
@@ -44,6 +47,7 @@ import nl.inl.blacklab.search.BLRuntimeException;
 import nl.inl.blacklab.search.indexstructure.FieldType;
 import nl.inl.blacklab.search.indexstructure.IndexStructure;
 import nl.inl.blacklab.search.indexstructure.MetadataFieldDesc;
+import nl.inl.blacklab.search.lucene.DocStringFieldGetter;
 import nl.inl.util.UnicodeStream;
 
 /**
@@ -350,8 +354,12 @@ public abstract class DocIndexer implements AutoCloseable {
             type = shouldBeType;
         }
 
+        // Only the first value of a field gets DocValues (like Document.get())
+        boolean firstValue = currentLuceneDoc.getField(name) == null;
         if (type != FieldType.NUMERIC) {
             currentLuceneDoc.add(new Field(name, value, luceneTypeFromIndexStructType(type)));
+            if (firstValue && value != null)
+                addMetadataDocValues(name, value);
         }
         if (type == FieldType.NUMERIC || numericFields.contains(name)) {
             String numFieldName = name;
@@ -369,9 +377,43 @@ public abstract class DocIndexer implements AutoCloseable {
             }
             IntField nf = new IntField(numFieldName, n, Store.YES);
             currentLuceneDoc.add(nf);
+            if (type == FieldType.NUMERIC && firstValue)
+                addMetadataDocValues(name, Integer.toString(n));
         }
     }
 
+    /**
+     * Add the forward index id for a property to the current Lucene document.
+     *
+     * The id is indexed and stored, and also added as NumericDocValues so we
+     * can quickly look it up (see ForwardIndex.luceneDocIdToFiid()).
+     *
+     * @param fieldName the property field name
+     * @param fiid the forward index id
+     */
+    protected void addForwardIndexIdField(String fieldName, int fiid) {
+        String fiidFieldName = ComplexFieldUtil.forwardIndexIdField(fieldName);
+        currentLuceneDoc.add(new IntField(fiidFieldName, fiid, Store.YES));
+        currentLuceneDoc.add(new NumericDocValuesField(fiidFieldName, fiid));
+    }
+
+    /**
+     * Add a metadata value as SortedDocValues as well.
+     *
+     * This allows us to sort, group and facet on metadata fields using the
+     * field's ordinals, instead of reading the stored field from each document.
+     *
+     * @param name field name
+     * @param value (first) value of the field in this document
+     */
+    protected void addMetadataDocValues(String name, String value) {
+        // (DocValues have a maximum length; very long values are truncated. DocStringFieldGetter
+        //  won't use the DocValues for such a field, as one ordinal could stand for several values)
+        if (value.length() > DocStringFieldGetter.MAX_VALUE_LENGTH)
+            value = value.substring(0, DocStringFieldGetter.MAX_VALUE_LENGTH);
+        currentLuceneDoc.add(new SortedDocValuesField(name, new BytesRef(value)));
+    }
+
     /**
      * If any metadata fields were supplied in the indexer parameters,
      * add them now.
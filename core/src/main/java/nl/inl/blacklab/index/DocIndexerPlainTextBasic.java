@@ -230,7 +230,11 @@ public class DocIndexerPlainTextBasic extends DocIndexerAbstract {
 				String propName = prop.getName();
 				String fieldName = ComplexFieldUtil.propertyField(contentsField.getName(), propName);
 				int fiid = indexer.addToForwardIndex(fieldName, prop);
-				currentLuceneDoc.add(new IntField(ComplexFieldUtil.forwardIndexIdField(fieldName), fiid, Store.YES));
+				addForwardIndexIdField(fieldName, fiid);
+
+				// Store character offsets by position (keyed by the main property's fiid)
+				if (prop == contentsField.getMainProperty())
+					indexer.addToCharOffsetsStore(contentsField, fiid);
 			}
 
 			// If there's an external metadata fetcher, call it now so it can
@@ -157,8 +157,11 @@ public abstract class DocIndexerXmlHandlers extends DocIndexerAbstract {
                 String fieldName = ComplexFieldUtil.propertyField(
                         contentsField.getName(), propName);
                 int fiid = indexer.addToForwardIndex(fieldName, prop);
-                currentLuceneDoc.add(new IntField(ComplexFieldUtil
-                        .forwardIndexIdField(fieldName), fiid, Store.YES));
+                addForwardIndexIdField(fieldName, fiid);
+
+                // Store character offsets by position (keyed by the main property's fiid)
+                if (prop == contentsField.getMainProperty())
+                    indexer.addToCharOffsetsStore(contentsField, fiid);
             }
 
             // If there's an external metadata fetcher, call it now so it can
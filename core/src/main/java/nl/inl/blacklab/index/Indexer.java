@@ -41,8 +41,10 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 
 import nl.inl.blacklab.externalstorage.ContentStore;
+import nl.inl.blacklab.forwardindex.CharOffsetsStore;
 import nl.inl.blacklab.forwardindex.ForwardIndex;
 import nl.inl.blacklab.index.DocIndexerFactory.Format;
+import nl.inl.blacklab.index.complex.ComplexField;
 import nl.inl.blacklab.index.complex.ComplexFieldProperty;
 import nl.inl.blacklab.index.config.ConfigInputFormat;
 import nl.inl.blacklab.search.Searcher;
@@ -567,6 +569,7 @@ public class Indexer {
      */
     public void add(Document document) throws CorruptIndexException, IOException {
         searcher.getWriter().addDocument(document);
+        searcher.updateFrequencyTables(document, 1);
         getListener().luceneDocumentAdded();
     }
 
@@ -579,7 +582,11 @@ public class Indexer {
      * @throws IOException
      */
     public void update(Term term, Document document) throws CorruptIndexException, IOException {
+        // Subtract the document(s) we're replacing from the frequency tables first
+        // (updating doesn't remove them from the forward index, so we can still read them)
+        searcher.updateFrequencyTables(term, -1);
         searcher.getWriter().updateDocument(term, document);
+        searcher.updateFrequencyTables(document, 1);
         getListener().luceneDocumentAdded();
     }
 
@@ -598,6 +605,24 @@ public class Indexer {
         return forwardIndex.addDocument(prop.getValues(), prop.getPositionIncrements());
     }
 
+    /**
+     * Store the character offsets of each token position in a complex field.
+     *
+     * The offsets are stored under the main property's forward index id, so
+     * call this after adding the main property to its forward index.
+     *
+     * @param field the complex field to get the offsets and position increments from
+     * @param fiid forward index id of the main property for this document
+     */
+    public void addToCharOffsetsStore(ComplexField field, int fiid) {
+        CharOffsetsStore store = searcher.getCharOffsetsStore(field.getName());
+        if (store == null)
+            return; // existing index without an offsets store; we'll use the term vector instead
+
+        store.addDocument(fiid, field.getStartChars(), field.getEndChars(),
+                field.getMainProperty().getPositionIncrements());
+    }
+
     /**
      * Index a document or archive from an InputStream.
      *
@@ -119,6 +119,14 @@ public class ComplexField {
 		end.add(endChar);
 	}
 
+	public IntArrayList getStartChars() {
+		return start;
+	}
+
+	public IntArrayList getEndChars() {
+		return end;
+	}
+
 	public void addToLuceneDoc(Document doc) {
 		for (ComplexFieldProperty p : properties.values()) {
 			p.addToLuceneDoc(doc, fieldName, start, end);
@@ -373,8 +373,11 @@ public abstract class DocIndexerBase extends DocIndexer {
                         complexField.getName(), propName);
                 if (indexer != null) {
                     int fiid = indexer.addToForwardIndex(fieldName, prop);
-                    currentLuceneDoc.add(new IntField(ComplexFieldUtil
-                            .forwardIndexIdField(fieldName), fiid, Store.YES));
+                    addForwardIndexIdField(fieldName, fiid);
+
+                    // Store character offsets by position (keyed by the main property's fiid)
+                    if (prop == complexField.getMainProperty())
+                        indexer.addToCharOffsetsStore(complexField, fiid);
                 }
             }
 
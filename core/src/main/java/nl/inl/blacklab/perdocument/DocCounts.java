@@ -83,6 +83,29 @@ public class DocCounts implements Iterable<DocCount> {
 		}
 	}
 
+	/**
+	 * Constructor. Uses counts that were already calculated.
+	 *
+	 * @param docResults
+	 *            the results that were counted.
+	 * @param countBy
+	 *            the criterium that was counted.
+	 * @param counts
+	 *            the count per property value
+	 */
+	DocCounts(DocResults docResults, DocProperty countBy, Map<HitPropValue, DocCount> counts) {
+		this.docResults = docResults;
+		searcher = docResults.getSearcher();
+		this.countBy = countBy;
+		this.counts = counts;
+		for (DocCount c: counts.values()) {
+			orderedGroups.add(c);
+			if (c.size() > largestGroupSize)
+				largestGroupSize = c.size();
+			totalResults += c.size();
+		}
+	}
+
 	public Collection<DocCount> getCounts() {
 		return Collections.unmodifiableCollection(orderedGroups);
 	}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.perdocument;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+
+import nl.inl.blacklab.search.Searcher;
+import nl.inl.blacklab.search.grouping.HitPropValue;
+import nl.inl.blacklab.search.lucene.DocStringFieldGetter;
+
+/**
+ * Counts documents for several properties (facets) in a single pass over
+ * the document results.
+ *
+ * Properties derived from a single metadata field that has ordinals (see
+ * DocPropertyFromField) are counted in an array indexed by ordinal;
+ * property values are only determined once per ordinal afterwards. Other
+ * properties are counted per property value.
+ *
+ * The document results are iterated only once. As they're read lazily, this
+ * reads the hits (if they haven't been read yet) in the same pass.
+ */
+class DocFacetCollector {
+
+	/** Counts documents for one property */
+	private static abstract class FacetCounter {
+
+		protected DocProperty countBy;
+
+		FacetCounter(DocProperty countBy) {
+			this.countBy = countBy;
+		}
+
+		abstract void collect(DocResult result);
+
+		abstract Map<HitPropValue, DocCount> getCounts(Searcher searcher);
+
+		/**
+		 * Add a number of documents to the count for a property value.
+		 *
+		 * @param counts the counts
+		 * @param searcher our searcher
+		 * @param value the property value
+		 * @param n number of documents to add
+		 */
+		protected static void add(Map<HitPropValue, DocCount> counts, Searcher searcher, HitPropValue value, int n) {
+			DocCount count = counts.get(value);
+			if (count == null)
+				counts.put(value, new DocCount(searcher, value, n));
+			else
+				counts.put(value, new DocCount(searcher, value, count.size() + n));
+		}
+	}
+
+	/** Counts documents per ordinal of the property's field */
+	private static class OrdinalFacetCounter extends FacetCounter {
+
+		private DocPropertyFromField fromField;
+
+		private DocStringFieldGetter getter;
+
+		/** Number of documents per ordinal */
+		private int[] countPerOrd;
+
+		/** Number of documents without a value */
+		private int countNoValue = 0;
+
+		OrdinalFacetCounter(DocProperty countBy, DocPropertyFromField fromField, DocStringFieldGetter getter) {
+			super(countBy);
+			this.fromField = fromField;
+			this.getter = getter;
+			countPerOrd = new int[getter.getValueCount()];
+		}
+
+		@Override
+		void collect(DocResult result) {
+			int ord = getter.getOrd(result.getDocId());
+			if (ord == DocStringFieldGetter.NO_VALUE)
+				countNoValue++;
+			else
+				countPerOrd[ord]++;
+		}
+
+		@Override
+		Map<HitPropValue, DocCount> getCounts(Searcher searcher) {
+			// Different field values may have the same property value (e.g. years in a decade)
+			Map<HitPropValue, DocCount> counts = new HashMap<>();
+			for (int ord = 0; ord < countPerOrd.length; ord++) {
+				if (countPerOrd[ord] > 0)
+					add(counts, searcher, fromField.getFromFieldValue(getter.lookupOrd(ord)), countPerOrd[ord]);
+			}
+			if (countNoValue > 0)
+				add(counts, searcher, fromField.getFromFieldValue(null), countNoValue);
+			return counts;
+		}
+	}
+
+	/** Counts documents per property value */
+	private static class ValueFacetCounter extends FacetCounter {
+
+		private Map<HitPropValue, int[]> countPerValue = new HashMap<>();
+
+		ValueFacetCounter(DocProperty countBy) {
+			super(countBy);
+		}
+
+		@Override
+		void collect(DocResult result) {
+			HitPropValue value = countBy.get(result);
+			int[] count = countPerValue.get(value);
+			if (count == null)
+				countPerValue.put(value, new int[] { 1 });
+			else
+				count[0]++;
+		}
+
+		@Override
+		Map<HitPropValue, DocCount> getCounts(Searcher searcher) {
+			Map<HitPropValue, DocCount> counts = new HashMap<>();
+			for (Map.Entry<HitPropValue, int[]> e: countPerValue.entrySet()) {
+				counts.put(e.getKey(), new DocCount(searcher, e.getKey(), e.getValue()[0]));
+			}
+			return counts;
+		}
+	}
+
+	/** The results to count */
+	private DocResults docResults;
+
+	/** One counter per property */
+	private List<FacetCounter> counters = new ArrayList<>();
+
+	/**
+	 * Construct a facet collector.
+	 *
+	 * @param docResults the results to count
+	 * @param countBy the properties to count
+	 */
+	DocFacetCollector(DocResults docResults, List<DocProperty> countBy) {
+		this.docResults = docResults;
+		for (DocProperty prop: countBy) {
+			DocStringFieldGetter getter = null;
+			if (prop instanceof DocPropertyFromField) {
+				IndexReader reader = docResults.getSearcher().getIndexReader();
+				getter = new DocStringFieldGetter(reader, ((DocPropertyFromField) prop).getCountingField());
+			}
+			if (getter != null && getter.hasOrdinals())
+				counters.add(new OrdinalFacetCounter(prop, (DocPropertyFromField) prop, getter));
+			else
+				counters.add(new ValueFacetCounter(prop));
+		}
+	}
+
+	/**
+	 * Count the documents for all the properties.
+	 *
+	 * @return the counts, in the same order as the properties
+	 */
+	List<DocCounts> count() {
+		for (DocResult result: docResults) {
+			for (FacetCounter counter: counters) {
+				counter.collect(result);
+			}
+		}
+		List<DocCounts> result = new ArrayList<>();
+		for (FacetCounter counter: counters) {
+			result.add(new DocCounts(docResults, counter.countBy, counter.getCounts(docResults.getSearcher())));
+		}
+		return result;
+	}
+
+}
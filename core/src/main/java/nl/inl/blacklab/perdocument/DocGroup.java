@@ -29,6 +29,9 @@ public class DocGroup {
 
 	private DocResults results;
 
+	/** Number of documents in the group if results only contains a sample of them, otherwise -1 */
+	private int size = -1;
+
 	public DocGroup(Searcher searcher, HitPropValue groupIdentity) {
 		this.groupIdentity = groupIdentity;
 		results = new DocResults(searcher);
@@ -39,6 +42,21 @@ public class DocGroup {
 		results = new DocResults(searcher, resultList);
 	}
 
+	/**
+	 * Construct a group that only contains a sample of its documents.
+	 *
+	 * Used when only counting the documents in each group (see DocResults.groupedByCounting()).
+	 *
+	 * @param searcher the searcher
+	 * @param groupIdentity grouping identity of this group
+	 * @param sample some of the documents in the group
+	 * @param size the number of documents in the group
+	 */
+	public DocGroup(Searcher searcher, HitPropValue groupIdentity, List<DocResult> sample, int size) {
+		this(searcher, groupIdentity, sample);
+		this.size = size;
+	}
+
 	public HitPropValue getIdentity() {
 		return groupIdentity;
 	}
@@ -48,7 +66,7 @@ public class DocGroup {
 	}
 
 	public int size() {
-		return results.size();
+		return size < 0 ? results.size() : size;
 	}
 
 	@Override
@@ -58,25 +58,52 @@ public class DocGroups implements Iterable<DocGroup>, DocOrHitGroups {
 	 *            the criterium to group on.
 	 */
 	DocGroups(DocResults docResults, DocProperty groupBy) {
+		this(docResults, groupBy, -1);
+	}
+
+	/**
+	 * Constructor. Fills the groups from the given document results.
+	 *
+	 * If maxSampleSize is not negative, only the group sizes and (at most) that
+	 * many results per group are kept.
+	 *
+	 * @param docResults
+	 *            the results to group.
+	 * @param groupBy
+	 *            the criterium to group on.
+	 * @param maxSampleSize
+	 *            maximum number of results to keep per group, or -1 to keep all
+	 */
+	DocGroups(DocResults docResults, DocProperty groupBy, int maxSampleSize) {
 		this.docResults = docResults;
 		searcher = docResults.getSearcher();
 		this.groupBy = groupBy;
 		//Thread currentThread = Thread.currentThread();
 		Map<HitPropValue, List<DocResult>> groupLists = new HashMap<>();
+		Map<HitPropValue, int[]> groupSizes = new HashMap<>();
 		for (DocResult r : docResults) { // TODO inconsistency compared to hits within groups, hitgroups ignore sorting of the source data, docgroups don't
 			HitPropValue groupId = groupBy.get(r);
 			List<DocResult> group = groupLists.get(groupId);
+			int[] size = groupSizes.get(groupId);
 			if (group == null) {
 				group = new ArrayList<>();
 				groupLists.put(groupId, group);
+				size = new int[1];
+				groupSizes.put(groupId, size);
 			}
-			group.add(r);
-			if (group.size() > largestGroupSize)
-				largestGroupSize = group.size();
+			size[0]++;
+			if (maxSampleSize < 0 || group.size() < maxSampleSize)
+				group.add(r);
+			if (size[0] > largestGroupSize)
+				largestGroupSize = size[0];
 			totalResults++;
 		}
 		for (Map.Entry<HitPropValue, List<DocResult>> e: groupLists.entrySet()) {
-			DocGroup docGroup = new DocGroup(searcher, e.getKey(), e.getValue());
+			DocGroup docGroup;
+			if (maxSampleSize < 0)
+				docGroup = new DocGroup(searcher, e.getKey(), e.getValue());
+			else
+				docGroup = new DocGroup(searcher, e.getKey(), e.getValue(), groupSizes.get(e.getKey())[0]);
 			groups.put(e.getKey(), docGroup);
 			orderedGroups.add(docGroup);
 		}
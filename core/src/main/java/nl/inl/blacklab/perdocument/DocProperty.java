@@ -21,8 +21,10 @@ import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
 
 import nl.inl.blacklab.search.grouping.HitPropValue;
+import nl.inl.blacklab.search.lucene.DocStringFieldGetter;
 import nl.inl.blacklab.search.grouping.PropValSerializeUtil;
 
 /**
@@ -36,6 +38,12 @@ public abstract class DocProperty {
 	/** Reverse comparison result or not? */
 	protected boolean reverse = false;
 
+	/** Index reader our field value getter was created for */
+	private IndexReader fieldValueReader;
+
+	/** Gets metadata field values for subclasses (see getFieldValueGetter()) */
+	private DocStringFieldGetter fieldValueGetter;
+
 	/**
 	 * Get the desired grouping/sorting property from the DocResult object
 	 *
@@ -55,6 +63,74 @@ public abstract class DocProperty {
 		return get(a).compareTo(get(b));
 	}
 
+	/**
+	 * Calculate a sort key for each of the results.
+	 *
+	 * Sorting the results on these keys (ascending) should give the same order
+	 * as sorting them using compare(). Properties that would have to read the
+	 * documents for each comparison implement this, so each document is only
+	 * looked at once and the comparisons are very cheap.
+	 *
+	 * @param results the results to calculate sort keys for
+	 * @return the sort keys (in the same order as the results), or null if
+	 *   this property doesn't calculate sort keys (the default)
+	 */
+	public int[] sortKeys(List<DocResult> results) {
+		return null;
+	}
+
+	/**
+	 * Get the value of a metadata field for a result.
+	 *
+	 * Uses the field's DocValues if the index has them, so we don't need to
+	 * read the stored document.
+	 *
+	 * @param result the result
+	 * @param fieldName the metadata field
+	 * @return the field value, or null if the document has no value for it
+	 */
+	protected synchronized String getFieldValue(DocResult result, String fieldName) {
+		return getFieldValueGetter(result, fieldName).getFieldValue(result.getDocId());
+	}
+
+	/**
+	 * Get the object we use to get metadata field values.
+	 *
+	 * Note that the getter is not thread-safe; synchronize on this property while
+	 * using it.
+	 *
+	 * @param result a result from the index we want to get field values from
+	 * @param fieldName the metadata field
+	 * @return the field value getter
+	 */
+	protected synchronized DocStringFieldGetter getFieldValueGetter(DocResult result, String fieldName) {
+		IndexReader reader = result.getSearcher().getIndexReader();
+		if (fieldValueGetter == null || fieldValueReader != reader) {
+			fieldValueGetter = new DocStringFieldGetter(reader, fieldName);
+			fieldValueReader = reader;
+		}
+		return fieldValueGetter;
+	}
+
+	/**
+	 * Reverse sort keys if this property is reversed.
+	 *
+	 * Integer.MAX_VALUE is used for values that should be sorted at the end
+	 * (when not reversed); this becomes Integer.MIN_VALUE when reversed, just like
+	 * compare() does.
+	 *
+	 * @param keys the sort keys to reverse (in-place)
+	 * @return the keys
+	 */
+	protected int[] reverseSortKeysIfNeeded(int[] keys) {
+		if (reverse) {
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = keys[i] == Integer.MAX_VALUE ? Integer.MIN_VALUE : -keys[i];
+			}
+		}
+		return keys;
+	}
+
 	public boolean defaultSortDescending() {
 		return false;
 	}
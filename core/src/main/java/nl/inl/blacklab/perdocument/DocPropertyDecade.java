@@ -26,7 +26,7 @@ import nl.inl.blacklab.search.grouping.PropValSerializeUtil;
  * For grouping DocResult objects by decade based on a
  * stored field containing a year.
  */
-public class DocPropertyDecade extends DocProperty {
+public class DocPropertyDecade extends DocProperty implements DocPropertyFromField {
 
 	private String fieldName;
 
@@ -36,7 +36,16 @@ public class DocPropertyDecade extends DocProperty {
 
 	@Override
 	public HitPropValueDecade get(DocResult result) {
-		String strYear = result.getDocument().get(fieldName);
+		return getFromFieldValue(getFieldValue(result, fieldName));
+	}
+
+	@Override
+	public String getCountingField() {
+		return fieldName;
+	}
+
+	@Override
+	public HitPropValueDecade getFromFieldValue(String strYear) {
 		int year;
 		try {
 			year = Integer.parseInt(strYear);
@@ -67,7 +76,7 @@ public class DocPropertyDecade extends DocProperty {
 			return reverse ? 1 : -1;
 		int year1;
 		try {
-			year1 = Integer.parseInt(strYearB);
+			year1 = Integer.parseInt(strYearA);
 			year1 -= year1 % 10;
 		} catch (NumberFormatException e) {
 			year1 = HitPropertyDocumentDecade.UNKNOWN_VALUE;
@@ -83,6 +92,28 @@ public class DocPropertyDecade extends DocProperty {
 		return reverse ? year2 - year1 : year1 - year2;
 	}
 
+	/**
+	 * Reads the year for each document once and uses the decade as the sort key.
+	 */
+	@Override
+	public int[] sortKeys(List<DocResult> results) {
+		int[] keys = new int[results.size()];
+		for (int i = 0; i < keys.length; i++) {
+			String strYear = getFieldValue(results.get(i), fieldName);
+			if (strYear == null || strYear.length() == 0) {
+				keys[i] = Integer.MAX_VALUE; // sort missing year at the end
+				continue;
+			}
+			try {
+				int year = Integer.parseInt(strYear);
+				keys[i] = year - year % 10;
+			} catch (NumberFormatException e) {
+				keys[i] = HitPropertyDocumentDecade.UNKNOWN_VALUE;
+			}
+		}
+		return reverseSortKeysIfNeeded(keys);
+	}
+
 	@Override
 	public String getName() {
 		return "decade";
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.perdocument;
+
+import nl.inl.blacklab.search.grouping.HitPropValue;
+
+/**
+ * A document property whose value is derived from the value of a single
+ * metadata field (e.g. the field value itself, or the decade of a year).
+ *
+ * Documents can then be counted per ordinal of that field, and the property
+ * value determined once per ordinal (see DocResults.countBy(List)).
+ */
+public interface DocPropertyFromField {
+
+	/**
+	 * Get the metadata field this property's value is derived from.
+	 *
+	 * @return the metadata field
+	 */
+	String getCountingField();
+
+	/**
+	 * Get the property value for a value of the metadata field.
+	 *
+	 * Should give the same value as DocProperty.get() for a document with
+	 * this field value.
+	 *
+	 * @param fieldValue value of the field, or null if the document has no value
+	 * @return the property value
+	 */
+	HitPropValue getFromFieldValue(String fieldValue);
+
+}
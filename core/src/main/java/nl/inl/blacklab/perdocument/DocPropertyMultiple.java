@@ -23,6 +23,8 @@ import java.util.List;
 import nl.inl.blacklab.search.grouping.HitPropValue;
 import nl.inl.blacklab.search.grouping.HitPropValueMultiple;
 import nl.inl.blacklab.search.grouping.PropValSerializeUtil;
+import nl.inl.util.ArrayUtil;
+import nl.inl.util.IntComparator;
 
 /**
  * A collection of GroupProperty's identifying a particular group.
@@ -105,6 +107,45 @@ public class DocPropertyMultiple extends DocProperty implements Iterable<DocProp
 		return 0;
 	}
 
+	/**
+	 * If all criteria provide sort keys, combines them into one sort key.
+	 */
+	@Override
+	public int[] sortKeys(List<DocResult> results) {
+		final int[][] critKeys = new int[criteria.size()][];
+		for (int i = 0; i < critKeys.length; i++) {
+			critKeys[i] = criteria.get(i).sortKeys(results);
+			if (critKeys[i] == null)
+				return null;
+		}
+
+		// Sort the results on the keys of all criteria, then use the rank as the key
+		int n = results.size();
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		IntComparator comparator = new IntComparator() {
+			@Override
+			public int compare(int a, int b) {
+				for (int[] keys: critKeys) {
+					int cmp = Integer.compare(keys[a], keys[b]);
+					if (cmp != 0)
+						return cmp;
+				}
+				return 0;
+			}
+		};
+		ArrayUtil.sort(order, 0, n, comparator);
+		int[] keys = new int[n];
+		int rank = 0;
+		for (int i = 0; i < n; i++) {
+			if (i > 0 && comparator.compare(order[i - 1], order[i]) != 0)
+				rank++;
+			keys[order[i]] = rank;
+		}
+		return reverseSortKeysIfNeeded(keys);
+	}
+
 	@Override
 	public String getName() {
 		StringBuilder b = new StringBuilder();
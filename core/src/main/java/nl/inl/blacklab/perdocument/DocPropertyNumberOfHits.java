@@ -43,6 +43,15 @@ public class DocPropertyNumberOfHits extends DocProperty {
 		return a.getNumberOfHits() - b.getNumberOfHits();
 	}
 
+	@Override
+	public int[] sortKeys(List<DocResult> results) {
+		int[] keys = new int[results.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = results.get(i).getNumberOfHits();
+		}
+		return reverseSortKeysIfNeeded(keys);
+	}
+
 	@Override
 	public boolean defaultSortDescending() {
 		return !reverse;
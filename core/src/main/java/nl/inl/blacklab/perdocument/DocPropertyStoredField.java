@@ -17,15 +17,20 @@ package nl.inl.blacklab.perdocument;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.TreeSet;
+
+import org.eclipse.collections.api.map.primitive.MutableObjectIntMap;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
 
 import nl.inl.blacklab.search.grouping.HitPropValueString;
+import nl.inl.blacklab.search.lucene.DocStringFieldGetter;
 import nl.inl.blacklab.search.grouping.PropValSerializeUtil;
 
 /**
  * For grouping DocResult objects by the value of a stored field in the Lucene documents. The field
  * name is given when instantiating this class, and might be "author", "year", and such.
  */
-public class DocPropertyStoredField extends DocProperty {
+public class DocPropertyStoredField extends DocProperty implements DocPropertyFromField {
 	private String fieldName;
 	private String friendlyName;
 
@@ -40,7 +45,59 @@ public class DocPropertyStoredField extends DocProperty {
 
 	@Override
 	public HitPropValueString get(DocResult result) {
-		return new HitPropValueString(result.getDocument().get(fieldName));
+		return new HitPropValueString(getFieldValue(result, fieldName));
+	}
+
+	@Override
+	public String getCountingField() {
+		return fieldName;
+	}
+
+	@Override
+	public HitPropValueString getFromFieldValue(String fieldValue) {
+		return new HitPropValueString(fieldValue);
+	}
+
+	/**
+	 * Uses the ordinals of the field values as sort keys, if available;
+	 * otherwise, reads the value for each document once and ranks them.
+	 */
+	@Override
+	public int[] sortKeys(List<DocResult> results) {
+		int n = results.size();
+		int[] keys = new int[n];
+		if (n == 0)
+			return keys;
+		synchronized (this) {
+			DocStringFieldGetter getter = getFieldValueGetter(results.get(0), fieldName);
+			if (getter.hasOrdinals()) {
+				// Ordinals sort in the same order as the values; the empty value (if any) has ordinal 0
+				int emptyOrd = getter.getValueCount() > 0 && getter.lookupOrd(0).length() == 0 ? 0 : DocStringFieldGetter.NO_VALUE;
+				for (int i = 0; i < n; i++) {
+					int ord = getter.getOrd(results.get(i).getDocId());
+					keys[i] = ord == DocStringFieldGetter.NO_VALUE || ord == emptyOrd ? Integer.MAX_VALUE : ord; // empty at the end
+				}
+			} else {
+				// No ordinals; rank the values ourselves
+				String[] values = new String[n];
+				TreeSet<String> distinctValues = new TreeSet<>();
+				for (int i = 0; i < n; i++) {
+					String value = getter.getFieldValue(results.get(i).getDocId());
+					values[i] = value == null ? "" : value;
+					distinctValues.add(values[i]);
+				}
+				MutableObjectIntMap<String> rankPerValue = new ObjectIntHashMap<>(distinctValues.size());
+				int rank = 0;
+				for (String value: distinctValues) {
+					rankPerValue.put(value, value.length() == 0 ? Integer.MAX_VALUE : rank); // empty at the end
+					rank++;
+				}
+				for (int i = 0; i < n; i++) {
+					keys[i] = rankPerValue.get(values[i]);
+				}
+			}
+		}
+		return reverseSortKeysIfNeeded(keys);
 	}
 
 	/**
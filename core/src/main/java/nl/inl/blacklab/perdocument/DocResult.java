@@ -83,6 +83,14 @@ public class DocResult {
 		return docId;
 	}
 
+	/**
+	 * Get the searcher for the index this document is from.
+	 * @return the searcher
+	 */
+	public Searcher getSearcher() {
+		return hits.getSearcher();
+	}
+
 	public float getScore() {
 		return score;
 	}
@@ -17,10 +17,12 @@ package nl.inl.blacklab.perdocument;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.NoSuchElementException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -37,6 +39,8 @@ import nl.inl.blacklab.search.Hits;
 import nl.inl.blacklab.search.Prioritizable;
 import nl.inl.blacklab.search.Searcher;
 import nl.inl.blacklab.search.grouping.HitPropValueInt;
+import nl.inl.util.ArrayUtil;
+import nl.inl.util.IntComparator;
 import nl.inl.util.ReverseComparator;
 import nl.inl.util.ThreadPriority.Level;
 
@@ -215,6 +219,9 @@ public class DocResults implements Iterable<DocResult>, Prioritizable {
 	/**
 	 * Sort the results using the given comparator.
 	 *
+	 * Large result sets are sorted using multiple threads, so the
+	 * comparator must be thread-safe.
+	 *
 	 * @param comparator
 	 *            how to sort the results
 	 */
@@ -225,7 +232,23 @@ public class DocResults implements Iterable<DocResult>, Prioritizable {
 			// Thread was interrupted; just sort the results we have.
 			// Let caller detect and deal with interruption.
 		}
-		Collections.sort(results, comparator);
+		// (like Collections.sort(), but sorts large arrays in parallel)
+		DocResult[] sorted = results.toArray(new DocResult[results.size()]);
+		Arrays.parallelSort(sorted, comparator);
+		replaceResults(sorted);
+	}
+
+	/**
+	 * Replace our results with the same results in a different order.
+	 *
+	 * @param sorted the results in the new order
+	 */
+	private void replaceResults(DocResult[] sorted) {
+		ListIterator<DocResult> it = results.listIterator();
+		for (DocResult result: sorted) {
+			it.next();
+			it.set(result);
+		}
 	}
 
 	/**
@@ -292,6 +315,36 @@ public class DocResults implements Iterable<DocResult>, Prioritizable {
 	 * @param sortReverse true iff we want to sort in reverse.
 	 */
 	public void sort(DocProperty prop, boolean sortReverse) {
+		try {
+			ensureAllResultsRead();
+		} catch (InterruptedException e) {
+			// Thread was interrupted; just sort the results we have.
+			// Let caller detect and deal with interruption.
+		}
+
+		// If the property can give us sort keys, sort on those
+		// (so we don't have to read the documents for every comparison)
+		final int[] keys = prop.sortKeys(results);
+		if (keys != null) {
+			final boolean descending = sortReverse != prop.defaultSortDescending(); // see ComparatorDocProperty
+			int n = results.size();
+			int[] order = new int[n];
+			for (int i = 0; i < n; i++)
+				order[i] = i;
+			ArrayUtil.parallelSort(order, 0, n, new IntComparator() {
+				@Override
+				public int compare(int a, int b) {
+					int cmp = Integer.compare(keys[a], keys[b]);
+					return descending ? -cmp : cmp;
+				}
+			});
+			DocResult[] sorted = new DocResult[n];
+			for (int i = 0; i < n; i++)
+				sorted[i] = results.get(order[i]);
+			replaceResults(sorted);
+			return;
+		}
+
 		Comparator<DocResult> comparator = new ComparatorDocProperty(prop);
 		if (sortReverse) {
 			comparator = new ReverseComparator<>(comparator);
@@ -331,11 +384,11 @@ public class DocResults implements Iterable<DocResult>, Prioritizable {
 	 * If we still have only partially read our Hits object,
 	 * read some more of it and add the hits.
 	 *
-	 * @param index the number of results we want to ensure have been read, or negative for all results
+	 * @param index the index of the result we want to ensure has been read, or negative for all results
 	 * @throws InterruptedException
 	 */
 	void ensureResultsRead(int index) throws InterruptedException {
-		if (sourceHitsFullyRead() || (index >= 0 && results.size() >= index))
+		if (sourceHitsFullyRead() || (index >= 0 && results.size() > index))
 			return;
 
 		while (!ensureResultsReadLock.tryLock()) {
@@ -345,7 +398,7 @@ public class DocResults implements Iterable<DocResult>, Prioritizable {
 			* So instead poll our own state, then if we're still missing results after that just count them ourselves
 			*/
 			Thread.sleep(50);
-			if (sourceHitsFullyRead() || (index >= 0 && results.size() >= index))
+			if (sourceHitsFullyRead() || (index >= 0 && results.size() > index))
 				return;
 		}
 
@@ -485,6 +538,21 @@ public class DocResults implements Iterable<DocResult>, Prioritizable {
 		return new DocGroups(this, docProp);
 	}
 
+	/**
+	 * Count the results per group, without keeping all the results in each group.
+	 *
+	 * Use this if you only need the group identities and sizes.
+	 *
+	 * @param docProp the document property to group on
+	 * @param maxSampleSize maximum number of results to keep per group (0 for none)
+	 * @return the grouped results
+	 */
+	public DocGroups groupedByCounting(DocProperty docProp, int maxSampleSize) {
+		if (maxSampleSize < 0)
+			throw new IllegalArgumentException("Sample size cannot be negative");
+		return new DocGroups(this, docProp, maxSampleSize);
+	}
+
 	/**
 	 * Get a window into the doc results
 	 * @param first first document result to include
@@ -511,6 +579,20 @@ public class DocResults implements Iterable<DocResult>, Prioritizable {
 		return new DocCounts(this, countBy);
 	}
 
+	/**
+	 * Count the number of results that have the same value for each of the
+	 * specified properties.
+	 *
+	 * All properties are counted in a single pass over the results, which is
+	 * faster than calling countBy(DocProperty) for each of them.
+	 *
+	 * @param countBy properties to count
+	 * @return the counts, in the same order as the properties
+	 */
+	public List<DocCounts> countBy(List<DocProperty> countBy) {
+		return new DocFacetCollector(this, countBy).count();
+	}
+
 	/**
 	 * Sum a property for all the documents.
 	 *
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import nl.inl.blacklab.forwardindex.ForwardIndex;
+import nl.inl.util.ArrayUtil;
+
+/**
+ * Counts the words occurring around a list of hits (collocations).
+ *
+ * Hits are partitioned by document and counted in parallel. Each task counts
+ * into its own array indexed by term id and reuses its buffers for all the
+ * documents it handles, so no objects are created per hit. The counts are
+ * added together when the tasks are joined.
+ *
+ * The size of the left and right context windows is independent of the
+ * context size used for KWICs.
+ */
+class CollocationCounter {
+
+	/** Don't split the work into tasks with fewer hits than this */
+	private static final int MIN_HITS_PER_TASK = 1000;
+
+	/** How many hit contexts to retrieve from the forward index at once */
+	private static final int BATCH_SIZE = 10000;
+
+	/** The forward index to get the context words from */
+	private ForwardIndex forwardIndex;
+
+	/** The hits to count collocations for */
+	private HitList hits;
+
+	/** Hit indexes, ordered by document */
+	private int[] order;
+
+	/** Number of words to count before each hit */
+	private int contextSizeLeft;
+
+	/** Number of words to count after each hit */
+	private int contextSizeRight;
+
+	/**
+	 * Construct a collocation counter.
+	 *
+	 * @param forwardIndex forward index to get the context words from
+	 * @param hits the hits to count collocations for
+	 * @param contextSizeLeft number of words to count before each hit
+	 * @param contextSizeRight number of words to count after each hit
+	 */
+	CollocationCounter(ForwardIndex forwardIndex, HitList hits, int contextSizeLeft, int contextSizeRight) {
+		if (contextSizeLeft < 0 || contextSizeRight < 0)
+			throw new IllegalArgumentException("Context size cannot be negative");
+		this.forwardIndex = forwardIndex;
+		this.hits = hits;
+		this.contextSizeLeft = contextSizeLeft;
+		this.contextSizeRight = contextSizeRight;
+	}
+
+	/**
+	 * Count the words in the context windows of all hits.
+	 *
+	 * Words in the hit itself are not counted. If context windows of different
+	 * hits overlap, words in the overlap are counted for each hit.
+	 *
+	 * @return number of occurrences, indexed by term id
+	 */
+	long[] count() {
+		int n = hits.size();
+		if (n == 0 || contextSizeLeft + contextSizeRight == 0)
+			return new long[forwardIndex.getTerms().numberOfTerms()];
+
+		// Order the hits by document, so each document is handled by one task
+		long[] docs = new long[n];
+		for (int i = 0; i < n; i++) {
+			docs[i] = hits.doc(i);
+		}
+		order = ArrayUtil.sortedIndexes(docs, n);
+
+		int parallelism = ForkJoinPool.getCommonPoolParallelism();
+		int hitsPerTask = Math.max(MIN_HITS_PER_TASK, (n + parallelism - 1) / parallelism);
+		return ForkJoinPool.commonPool().invoke(new CountTask(0, n, hitsPerTask));
+	}
+
+	/**
+	 * Counts collocations for a range of (document-ordered) hits, splitting
+	 * the range in parallel subtasks if it's too large.
+	 */
+	private class CountTask extends RecursiveTask<long[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private int from;
+
+		private int to;
+
+		private int hitsPerTask;
+
+		CountTask(int from, int to, int hitsPerTask) {
+			this.from = from;
+			this.to = to;
+			this.hitsPerTask = hitsPerTask;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (to - from > hitsPerTask) {
+				// Split the range at a document boundary (if there is one after the middle)
+				int middle = (from + to) >>> 1;
+				int doc = hits.doc(order[middle - 1]);
+				while (middle < to && hits.doc(order[middle]) == doc)
+					middle++;
+				if (middle < to) {
+					// Count both halves in parallel
+					CountTask right = new CountTask(middle, to, hitsPerTask);
+					right.fork();
+					long[] counts = new CountTask(from, middle, hitsPerTask).compute();
+					long[] rightCounts = right.join();
+					for (int i = 0; i < counts.length; i++) {
+						counts[i] += rightCounts[i];
+					}
+					return counts;
+				}
+			}
+			return countRange();
+		}
+
+		private long[] countRange() {
+			long[] counts = new long[forwardIndex.getTerms().numberOfTerms()];
+			int maxBatchSize = Math.min(to - from, BATCH_SIZE);
+			int[] fiids = new int[maxBatchSize];
+			int[] startsOfSnippets = new int[maxBatchSize];
+			int[] endsOfSnippets = new int[maxBatchSize];
+			int[] offsets = new int[maxBatchSize + 1];
+			int[] buffer = null;
+			int prevDoc = -1;
+			int fiid = -1;
+			for (int batchStart = from; batchStart < to; batchStart += maxBatchSize) {
+				// Determine the snippets to retrieve (window plus hit)
+				int batchSize = Math.min(maxBatchSize, to - batchStart);
+				int bufferSize = 0;
+				for (int i = 0; i < batchSize; i++) {
+					int hit = order[batchStart + i];
+					int doc = hits.doc(hit);
+					if (doc != prevDoc) {
+						fiid = forwardIndex.luceneDocIdToFiid(doc);
+						prevDoc = doc;
+					}
+					fiids[i] = fiid;
+					int start = hits.start(hit);
+					startsOfSnippets[i] = contextSizeLeft >= start ? 0 : start - contextSizeLeft;
+					endsOfSnippets[i] = hits.end(hit) + contextSizeRight;
+					bufferSize += endsOfSnippets[i] - startsOfSnippets[i];
+				}
+				if (buffer == null || buffer.length < bufferSize)
+					buffer = new int[bufferSize];
+				forwardIndex.retrievePartsIntBatch(fiids, startsOfSnippets, endsOfSnippets, batchSize, buffer, offsets);
+
+				// Count the words around the hits (but not in the hits themselves)
+				for (int i = 0; i < batchSize; i++) {
+					int hit = order[batchStart + i];
+					int hitStart = offsets[i] + hits.start(hit) - startsOfSnippets[i];
+					int hitEnd = offsets[i] + hits.end(hit) - startsOfSnippets[i];
+					for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+						if (j < hitStart || j >= hitEnd)
+							counts[buffer[j]]++;
+					}
+				}
+			}
+			return counts;
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+/**
+ * Receives the hits from Hits.forEachBatch().
+ */
+public interface HitBatchHandler {
+
+	/**
+	 * Handle a batch of hits.
+	 *
+	 * Batches are passed in the original order of the hits. The batch
+	 * has the settings of the Hits object it came from, but no context.
+	 * It is not used after this method returns, so it may be discarded.
+	 *
+	 * @param batch the hits in this batch
+	 */
+	void handle(Hits batch);
+
+	/**
+	 * Called after the last batch, with the totals for all the hits.
+	 *
+	 * @param hitsCounted number of hits counted
+	 * @param docsCounted number of documents counted
+	 * @param maxHitsRetrieved whether we stopped retrieving hits because we reached the maximum
+	 * @param maxHitsCounted whether we stopped counting hits because we reached the maximum
+	 */
+	void done(int hitsCounted, int docsCounted, boolean maxHitsRetrieved, boolean maxHitsCounted);
+
+}
@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import org.eclipse.collections.api.map.primitive.MutableObjectIntMap;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+
+/**
+ * A list of hits, stored in primitive arrays instead of as Hit objects.
+ *
+ * The document, start and end of the hits are stored in separate int arrays,
+ * and the captured groups (if any) in a single int array with a start and end
+ * for each group of each hit. This takes much less memory than a list of Hit
+ * objects and a map of captured groups, and doesn't create millions of objects
+ * for the garbage collector to keep track of.
+ *
+ * Hit objects are created when hits are requested from the list. Because Hit
+ * implements equals() and hashCode(), this is transparent for most uses, but
+ * don't rely on getting the same Hit object twice, and don't modify the Hit
+ * objects you get (it won't affect the list).
+ */
+public class HitList extends AbstractList<Hit> implements RandomAccess {
+
+	/** Number of ints per captured group (start and end) */
+	private static final int INTS_PER_GROUP = 2;
+
+	/** Value stored for the start and end of a group that wasn't captured */
+	private static final int NO_GROUP = -1;
+
+	/** Document of each hit */
+	private IntArrayList docs;
+
+	/** Start of each hit */
+	private IntArrayList starts;
+
+	/** End of each hit */
+	private IntArrayList ends;
+
+	/** Number of captured groups per hit (0 if we have no captured groups) */
+	private int numberOfCapturedGroups = 0;
+
+	/** Start and end of the captured groups of each hit, or null if we have no captured groups */
+	private IntArrayList capturedGroups = null;
+
+	/** Are our hits sorted by document, start and end? (so we can binary search in indexOf()) */
+	private boolean sorted = true;
+
+	/** If our hits are not sorted, this maps hits to their index; created when needed */
+	private MutableObjectIntMap<Hit> hitIndex = null;
+
+	/**
+	 * Construct an empty hit list.
+	 */
+	public HitList() {
+		this(10);
+	}
+
+	/**
+	 * Construct an empty hit list.
+	 *
+	 * @param initialCapacity number of hits to reserve space for
+	 */
+	public HitList(int initialCapacity) {
+		docs = new IntArrayList(initialCapacity);
+		starts = new IntArrayList(initialCapacity);
+		ends = new IntArrayList(initialCapacity);
+	}
+
+	/**
+	 * Construct a hit list containing the specified hits.
+	 *
+	 * @param hits the hits to add
+	 */
+	public HitList(Collection<Hit> hits) {
+		this(hits.size());
+		for (Hit hit: hits) {
+			add(hit);
+		}
+	}
+
+	@Override
+	public int size() {
+		return docs.size();
+	}
+
+	@Override
+	public Hit get(int index) {
+		return new Hit(docs.get(index), starts.get(index), ends.get(index));
+	}
+
+	/**
+	 * Get the document of a hit.
+	 *
+	 * @param index hit index
+	 * @return the document id
+	 */
+	public int doc(int index) {
+		return docs.get(index);
+	}
+
+	/**
+	 * Get the start of a hit.
+	 *
+	 * @param index hit index
+	 * @return the start position
+	 */
+	public int start(int index) {
+		return starts.get(index);
+	}
+
+	/**
+	 * Get the end of a hit.
+	 *
+	 * @param index hit index
+	 * @return the end position
+	 */
+	public int end(int index) {
+		return ends.get(index);
+	}
+
+	@Override
+	public boolean add(Hit hit) {
+		add(hit.doc, hit.start, hit.end);
+		return true;
+	}
+
+	/**
+	 * Add a hit.
+	 *
+	 * @param doc document of the hit
+	 * @param start start of the hit
+	 * @param end end of the hit
+	 */
+	public void add(int doc, int start, int end) {
+		int n = docs.size();
+		if (sorted && n > 0 && compare(docs.get(n - 1), starts.get(n - 1), ends.get(n - 1), doc, start, end) > 0)
+			sorted = false;
+		docs.add(doc);
+		starts.add(start);
+		ends.add(end);
+		if (capturedGroups != null) {
+			for (int i = 0; i < numberOfCapturedGroups * INTS_PER_GROUP; i++) {
+				capturedGroups.add(NO_GROUP);
+			}
+		}
+		hitIndex = null;
+		modCount++;
+	}
+
+	/**
+	 * Add a hit with its captured groups.
+	 *
+	 * @param hit the hit
+	 * @param groups the captured groups (elements may be null for groups that weren't captured),
+	 *   or null if this hit has no captured groups
+	 */
+	public void add(Hit hit, Span[] groups) {
+		if (groups != null && capturedGroups == null) {
+			// First hit with captured groups; reserve space for the previous hits as well
+			numberOfCapturedGroups = groups.length;
+			capturedGroups = new IntArrayList(Math.max(10, docs.size() * numberOfCapturedGroups * INTS_PER_GROUP));
+			for (int i = 0; i < docs.size() * numberOfCapturedGroups * INTS_PER_GROUP; i++) {
+				capturedGroups.add(NO_GROUP);
+			}
+		}
+		add(hit);
+		if (groups != null) {
+			if (groups.length != numberOfCapturedGroups)
+				throw new IllegalArgumentException("Expected " + numberOfCapturedGroups + " captured groups, got " + groups.length);
+			int offset = (docs.size() - 1) * numberOfCapturedGroups * INTS_PER_GROUP;
+			for (int i = 0; i < groups.length; i++) {
+				if (groups[i] != null) {
+					capturedGroups.set(offset + i * INTS_PER_GROUP, groups[i].start);
+					capturedGroups.set(offset + i * INTS_PER_GROUP + 1, groups[i].end);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Do we have captured groups?
+	 *
+	 * @return true if any hit was added with captured groups
+	 */
+	public boolean hasCapturedGroups() {
+		return capturedGroups != null;
+	}
+
+	/**
+	 * Get the captured groups of a hit.
+	 *
+	 * @param index hit index
+	 * @return the captured groups (elements are null for groups that weren't captured),
+	 *   or null if we have no captured groups
+	 */
+	public Span[] capturedGroups(int index) {
+		if (capturedGroups == null)
+			return null;
+		Span[] groups = new Span[numberOfCapturedGroups];
+		int offset = index * numberOfCapturedGroups * INTS_PER_GROUP;
+		for (int i = 0; i < numberOfCapturedGroups; i++) {
+			int start = capturedGroups.get(offset + i * INTS_PER_GROUP);
+			if (start != NO_GROUP)
+				groups[i] = new Span(start, capturedGroups.get(offset + i * INTS_PER_GROUP + 1));
+		}
+		return groups;
+	}
+
+	/**
+	 * Find the index of a hit.
+	 *
+	 * If the hits are sorted (as they are when read from a query), this is a
+	 * binary search. Otherwise, a map from hit to index is built the first time
+	 * it's needed.
+	 *
+	 * @param o the hit to find
+	 * @return the index of the (first occurrence of the) hit, or -1 if not found
+	 */
+	@Override
+	public int indexOf(Object o) {
+		if (!(o instanceof Hit))
+			return -1;
+		Hit hit = (Hit) o;
+		if (!sorted) {
+			if (hitIndex == null) {
+				hitIndex = new ObjectIntHashMap<>(docs.size());
+				for (int i = docs.size() - 1; i >= 0; i--) {
+					hitIndex.put(get(i), i); // going backwards, so we keep the first occurrence
+				}
+			}
+			return hitIndex.getIfAbsent(hit, -1);
+		}
+		int min = 0, max = docs.size() - 1;
+		while (min <= max) {
+			int middle = (min + max) >>> 1;
+			int cmp = compare(docs.get(middle), starts.get(middle), ends.get(middle), hit.doc, hit.start, hit.end);
+			if (cmp == 0) {
+				// Found; make sure we return the first occurrence
+				while (middle > 0 && compare(docs.get(middle - 1), starts.get(middle - 1), ends.get(middle - 1), hit.doc, hit.start, hit.end) == 0)
+					middle--;
+				return middle;
+			}
+			if (cmp < 0)
+				min = middle + 1;
+			else
+				max = middle - 1;
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	/**
+	 * Estimate how much memory this hit list takes.
+	 *
+	 * @return estimated memory size in bytes
+	 */
+	public long estimateSizeBytes() {
+		long ints = (long)docs.size() * 3;
+		if (capturedGroups != null)
+			ints += capturedGroups.size();
+		return ints * Integer.BYTES;
+	}
+
+	/**
+	 * Compare two hits by document, start and end (like Hit.compareTo()).
+	 *
+	 * @param doc1 document of the first hit
+	 * @param start1 start of the first hit
+	 * @param end1 end of the first hit
+	 * @param doc2 document of the second hit
+	 * @param start2 start of the second hit
+	 * @param end2 end of the second hit
+	 * @return negative, zero or positive if the first hit is smaller, equal or larger
+	 */
+	private static int compare(int doc1, int start1, int end1, int doc2, int start2, int end2) {
+		if (doc1 != doc2)
+			return doc1 < doc2 ? -1 : 1;
+		if (start1 != start2)
+			return start1 < start2 ? -1 : 1;
+		return end1 < end2 ? -1 : (end1 == end2 ? 0 : 1);
+	}
+
+}
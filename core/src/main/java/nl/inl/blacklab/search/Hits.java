@@ -14,6 +14,7 @@ import nl.inl.blacklab.search.grouping.HitGroups;
 import nl.inl.blacklab.search.grouping.HitPropValue;
 import nl.inl.blacklab.search.grouping.HitProperty;
 import nl.inl.blacklab.search.grouping.HitPropertyMultiple;
+import nl.inl.blacklab.search.grouping.ResultsCounter;
 import nl.inl.blacklab.search.grouping.ResultsGrouper;
 import nl.inl.blacklab.search.lucene.BLSpanQuery;
 import nl.inl.blacklab.search.lucene.BLSpans;
@@ -101,7 +102,8 @@ public abstract class Hits extends AbstractList<Hit> implements Cloneable, Prior
 	/**
 	 * Make a wrapper Hits object for a list of Hit objects.
 	 *
-	 * Does not copy the list, but reuses it.
+	 * If the list is a HitList, it is not copied but reused. Otherwise,
+	 * the hits are copied into a HitList (which uses less memory).
 	 *
 	 * @param searcher
 	 *            the searcher object
@@ -486,6 +488,61 @@ public abstract class Hits extends AbstractList<Hit> implements Cloneable, Prior
 		return ResultsGrouper._fromHits(this, criteria);
 	}
 
+	/**
+	 * Count these hits per group, without keeping all the hits in each group.
+	 *
+	 * Use this if you only need the group identities and sizes. Each group keeps
+	 * at most maxSampleSize hits (the first ones found), so getHits() on a group
+	 * only returns all its hits if the group is small enough.
+	 *
+	 * @param criteria
+	 *            the hit property to group on
+	 * @param maxSampleSize maximum number of hits to keep per group (0 for none)
+	 * @return a HitGroups object representing the grouped hits
+	 */
+	public HitGroups groupedByCounting(final HitProperty criteria, int maxSampleSize) {
+		return ResultsCounter._fromHits(this, criteria, maxSampleSize);
+	}
+
+	/**
+	 * Pass all hits to a handler in batches.
+	 *
+	 * This implementation retrieves all hits and passes them in batches.
+	 * HitsImpl passes hits that haven't been retrieved yet straight from the
+	 * index without storing them, so the memory needed doesn't grow with the
+	 * number of hits.
+	 *
+	 * Note that the hits in a batch don't include captured groups.
+	 *
+	 * @param batchSize maximum number of hits per batch
+	 * @param handler the handler to pass the batches to
+	 */
+	public void forEachBatch(int batchSize, HitBatchHandler handler) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Batch size must be positive");
+		int n = size();
+		for (int batchStart = 0; batchStart < n; batchStart += batchSize) {
+			HitList batch = new HitList(Math.min(batchSize, n - batchStart));
+			for (int i = batchStart; i < n && i < batchStart + batchSize; i++) {
+				batch.add(getByOriginalOrder(i));
+			}
+			handler.handle(batchHits(batch));
+		}
+		handler.done(countSoFarHitsCounted(), countSoFarDocsCounted(), maxHitsRetrieved(), maxHitsCounted());
+	}
+
+	/**
+	 * Wrap a batch of hits for forEachBatch().
+	 *
+	 * @param batch the hits in the batch
+	 * @return Hits object for the batch, with our settings
+	 */
+	protected Hits batchHits(HitList batch) {
+		Hits hits = new HitsImpl(searcher, batch);
+		hits.copySettingsFrom(this);
+		return hits;
+	}
+
 	/**
 	 * Return a per-document view of these hits.
 	 *
@@ -803,6 +860,22 @@ public abstract class Hits extends AbstractList<Hit> implements Cloneable, Prior
 	 */
 	public abstract TermFrequencyList getCollocations(String propName, QueryExecutionContext ctx);
 
+	/**
+	 * Count occurrences of context words around hit.
+	 *
+	 * The size of the windows to count is independent of the context size
+	 * used for concordances.
+	 *
+	 * @param propName the property to use for the collocations, or null if default
+	 * @param ctx query execution context, containing the sensitivity settings
+	 * @param contextSizeLeft number of words before the hit to count
+	 * @param contextSizeRight number of words after the hit to count
+	 *
+	 * @return the frequency of each occurring token
+	 */
+	public abstract TermFrequencyList getCollocations(String propName, QueryExecutionContext ctx,
+			int contextSizeLeft, int contextSizeRight);
+
 	public abstract boolean hasCapturedGroups();
 
 	/**
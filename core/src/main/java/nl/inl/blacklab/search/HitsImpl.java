@@ -16,6 +16,7 @@
 package nl.inl.blacklab.search;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -27,6 +28,11 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -42,10 +48,7 @@ import org.apache.lucene.search.spans.SpanQuery;
 import org.apache.lucene.search.spans.SpanWeight;
 import org.apache.lucene.search.spans.SpanWeight.Postings;
 import org.apache.lucene.search.spans.Spans;
-import org.eclipse.collections.api.map.primitive.MutableIntIntMap;
 import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
-import org.eclipse.collections.api.tuple.primitive.IntIntPair;
-import org.eclipse.collections.impl.factory.primitive.IntIntMaps;
 import org.eclipse.collections.impl.factory.primitive.IntObjectMaps;
 
 import nl.inl.blacklab.forwardindex.ForwardIndex;
@@ -55,7 +58,9 @@ import nl.inl.blacklab.index.complex.ComplexFieldUtil;
 import nl.inl.blacklab.search.grouping.HitProperty;
 import nl.inl.blacklab.search.lucene.BLSpanQuery;
 import nl.inl.blacklab.search.lucene.BLSpans;
-import nl.inl.util.StringUtil;
+import nl.inl.blacklab.search.lucene.HitQueryContext;
+import nl.inl.util.ArrayUtil;
+import nl.inl.util.ExUtil;
 import nl.inl.util.ThreadPriority;
 
 /**
@@ -66,15 +71,18 @@ public class HitsImpl extends Hits {
 
 	protected static final Logger logger = LogManager.getLogger(HitsImpl.class);
 
-	/**
-	 * The hits.
-	 */
-	protected List<Hit> hits;
+	/** How many hits to retrieve context for in one forward index call (limits the buffer size) */
+	private static final int CONTEXT_BATCH_SIZE = 100000;
+
+	/** Thread pool for reading index segments in parallel, shared by all searches
+	 *  (see HitsSettings.setRetrievalThreads()). Created when first needed.
+	 *  Its tasks never wait for a paused search; see SegmentHits. */
+	private static ExecutorService segmentExecutor;
 
 	/**
-	 * The captured groups, if we have any.
+	 * The hits (and their captured groups, if any).
 	 */
-	protected Map<Hit, Span[]> capturedGroups;
+	protected HitList hits;
 
 	/**
 	 * The hit contexts.
@@ -99,7 +107,7 @@ public class HitsImpl extends Hits {
 	/**
 	 * The sort order, if we've sorted, or null if not
 	 */
-	Integer[] sortOrder;
+	int[] sortOrder;
 
 	/**
 	 * The KWIC data, if it has been retrieved.
@@ -160,7 +168,7 @@ public class HitsImpl extends Hits {
 	/**
 	 * Did we completely read our Spans object?
 	 */
-	protected boolean sourceSpansFullyRead = true;
+	protected volatile boolean sourceSpansFullyRead = true;
 
 	/**
 	 * If true, we've stopped retrieving hits because there are more than
@@ -195,6 +203,21 @@ public class HitsImpl extends Hits {
 	 */
 	protected int previousHitDoc = -1;
 
+	/**
+	 * Segments being read in parallel, in index order. The first one is the segment
+	 * after atomicReaderContextIndex. Null if we're not reading segments in parallel.
+	 */
+	private ArrayDeque<SegmentHits> segmentsInProgress;
+
+	/** Futures for the segments in segmentsInProgress. */
+	private ArrayDeque<Future<SegmentHits>> segmentFutures;
+
+	/** Next segment to start reading in parallel. */
+	private int nextSegmentToRead;
+
+	/** Number of documents from the first segment in segmentsInProgress we've merged so far. */
+	private int segmentDocsMerged;
+
 	@Override
 	public Hits copy() {
 		return new HitsImpl(this);
@@ -232,7 +255,8 @@ public class HitsImpl extends Hits {
 	/**
 	 * Make a wrapper Hits object for a list of Hit objects.
 	 *
-	 * Does not copy the list, but reuses it.
+	 * If the list is a HitList, it is not copied but reused. Otherwise,
+	 * the hits are copied into a HitList.
 	 *
 	 * @param searcher
 	 *            the searcher object
@@ -240,8 +264,13 @@ public class HitsImpl extends Hits {
 	 */
 	HitsImpl(Searcher searcher, List<Hit> hits) {
 		super(searcher);
-		this.hits = hits == null ? new ArrayList<>() : hits;
-		hitsCounted = this.hits.size();
+		if (hits == null)
+			this.hits = new HitList();
+		else if (hits instanceof HitList)
+			this.hits = (HitList) hits;
+		else
+			this.hits = new HitList(hits);
+		hitsCounted = hitsAvailableCount = this.hits.size();
 		currentContextSize = -1;
 		int prevDoc = -1;
 		docsRetrieved = docsCounted = 0;
@@ -258,7 +287,7 @@ public class HitsImpl extends Hits {
 	/**
 	 * Make a wrapper Hits object for a list of Hit objects.
 	 *
-	 * Does not copy the list, but reuses it.
+	 * If the list is a HitList, it is not copied but reused.
 	 *
 	 * @param searcher
 	 *            the searcher object
@@ -425,30 +454,95 @@ public class HitsImpl extends Hits {
 
 	Lock ensureHitsReadLock = new ReentrantLock();
 
+	/**
+	 * Threads waiting for another thread to read hits wait on this monitor.
+	 * The reading thread notifies them when enough hits are available, and when it
+	 * stops reading.
+	 */
+	private final Object hitsAvailable = new Object();
+
+	/**
+	 * Number of hits read so far, published by the reading thread after adding
+	 * hits, so waiting threads can safely look at them. Without holding
+	 * ensureHitsReadLock, only look at this and sourceSpansFullyRead, never at
+	 * the HitList itself, as the reading thread may be modifying it.
+	 */
+	private volatile int hitsAvailableCount = 0;
+
+	/**
+	 * Smallest number of hits a waiting thread is waiting for
+	 * (Integer.MAX_VALUE if no thread is waiting for a number of hits).
+	 */
+	private volatile int hitsWanted = Integer.MAX_VALUE;
+
+	/**
+	 * Have we read at least this many hits (or all of them)?
+	 *
+	 * Safe to call without holding ensureHitsReadLock.
+	 *
+	 * @param number number of hits, or negative for all hits
+	 * @return true if we don't need to read any more hits
+	 */
+	private boolean enoughHitsRead(int number) {
+		return sourceSpansFullyRead || (number >= 0 && hitsAvailableCount >= number);
+	}
+
+	/**
+	 * Publish the hits we've added, and wake up threads waiting for them
+	 * if there are enough now.
+	 *
+	 * Called by the reading thread after adding hits.
+	 */
+	private void hitsAdded() {
+		int n = hits.size();
+		hitsAvailableCount = n;
+		if (n >= hitsWanted)
+			notifyHitsAvailable();
+	}
+
+	/**
+	 * Wake up all threads waiting for hits, so they can check if they
+	 * have what they need.
+	 */
+	private void notifyHitsAvailable() {
+		synchronized (hitsAvailable) {
+			hitsWanted = Integer.MAX_VALUE; // waiting threads that need more will register again
+			hitsAvailable.notifyAll();
+		}
+	}
+
 	/**
 	 * Ensure that we have read at least as many hits as specified in the parameter.
 	 *
+	 * If another thread is already reading hits, we wait for it to read the hits we need
+	 * (it notifies us as soon as they're available) instead of waiting for it to finish,
+	 * as it might be counting/retrieving all results, while we might only need a small fraction
+	 * (e.g. the first page). If it stops before we have our hits, we read them ourselves.
+	 *
 	 * @param number the minimum number of hits that will have been read when this method
 	 *   returns (unless there are fewer hits than this); if negative, reads all hits
 	 * @throws InterruptedException if the thread was interrupted during this operation
 	 */
 	void ensureHitsRead(int number) throws InterruptedException {
 		// Prevent locking when not required
-		if (sourceSpansFullyRead || (number >= 0 && hits.size() >= number))
+		if (enoughHitsRead(number))
 			return;
 
-		while (!ensureHitsReadLock.tryLock()) {
-			/*
-			 * Another thread is already counting, we don't want to straight up block until it's done
-			 * as it might be counting/retrieving all results, while we might only want trying to retrieve a small fraction
-			 * So instead poll our own state, then if we're still missing results after that just count them ourselves
-			 */
-			Thread.sleep(50);
-			if (sourceSpansFullyRead || (number >= 0 && hits.size() >= number))
-				return;
+		synchronized (hitsAvailable) {
+			while (!ensureHitsReadLock.tryLock()) {
+				// Another thread is reading; ask to be woken up when our hits are available
+				if (number >= 0 && number < hitsWanted)
+					hitsWanted = number;
+				if (enoughHitsRead(number))
+					return;
+				hitsAvailable.wait();
+				if (enoughHitsRead(number))
+					return;
+			}
 		}
 
 		boolean readAllHits = number < 0;
+		etiquette.reset(); // segment readers working for us check if we were interrupted
 		try {
 			int maxHitsToCount = settings.maxHitsToCount();
 			int maxHitsToRetrieve = settings.maxHitsToRetrieve();
@@ -460,9 +554,19 @@ public class HitsImpl extends Hits {
 				// Stop if we're at the maximum number of hits we want to count
 				if (maxHitsToCount >= 0 && hitsCounted >= maxHitsToCount) {
 					maxHitsCounted = true;
+					cancelSegments();
 					break;
 				}
 
+				if (currentSourceSpans == null && readSegmentsInParallel()) {
+					// Merge the hits from the next segment, which is being read in parallel
+					if (!mergeNextSegment(maxHitsToRetrieve, maxHitsToCount)) {
+						sourceSpansFullyRead = true;
+						return;
+					}
+					continue;
+				}
+
 				// Get the next hit from the spans, moving to the next
 				// segment when necessary.
 				while (true) {
@@ -507,9 +611,6 @@ public class HitsImpl extends Hits {
 							//    and there won't be that many segments, so it's probably ok)
 							hitQueryContext.setSpans(currentSourceSpans);
 							currentSourceSpans.setHitQueryContext(hitQueryContext); // let captured groups register themselves
-							if (capturedGroups == null && hitQueryContext.numberOfCapturedGroups() > 0) {
-								capturedGroups = new HashMap<>();
-							}
 
 							int doc = currentSourceSpans.nextDoc();
 							if (doc == DocIdSetIterator.NO_MORE_DOCS)
@@ -548,23 +649,275 @@ public class HitsImpl extends Hits {
 				if (!maxHitsRetrieved) {
 					Hit hit = currentSourceSpans.getHit();
 					Hit offsetHit = new Hit(hit.doc + currentDocBase, hit.start, hit.end);
-					if (capturedGroups != null) {
-						Span[] groups = new Span[hitQueryContext.numberOfCapturedGroups()];
+					Span[] groups = null;
+					if (hitQueryContext.numberOfCapturedGroups() > 0) {
+						groups = new Span[hitQueryContext.numberOfCapturedGroups()];
 						hitQueryContext.getCapturedGroups(groups);
-						capturedGroups.put(offsetHit, groups);
 					}
-					hits.add(offsetHit);
+					hits.add(offsetHit, groups);
 					maxHitsRetrieved = maxHitsToRetrieve >= 0 && hits.size() >= maxHitsToRetrieve;
+					hitsAdded();
 				}
 			}
 		} catch (InterruptedException e) {
 			maxHitsRetrieved = maxHitsCounted = true; // we've stopped retrieving/counting
+			cancelSegments();
 			throw e;
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		} finally {
+			etiquette.clearThread();
 			ensureHitsReadLock.unlock();
+
+			// Let waiting threads check if they have their hits now, or read them themselves
+			notifyHitsAvailable();
+		}
+	}
+
+	/**
+	 * Should we read the remaining segments in parallel?
+	 *
+	 * Only possible if we're reading from a SpanQuery, so we can get the Spans
+	 * for each segment ourselves.
+	 *
+	 * @return true if the remaining segments should be read in parallel
+	 */
+	private boolean readSegmentsInParallel() {
+		if (segmentsInProgress != null && !segmentsInProgress.isEmpty())
+			return true; // already reading in parallel; finish what we started
+		return spanQuery != null && atomicReaderContexts != null && settings.retrievalThreads() > 1;
+	}
+
+	/**
+	 * Get the thread pool to read segments with.
+	 *
+	 * @return the thread pool
+	 */
+	private static synchronized ExecutorService getSegmentExecutor() {
+		if (segmentExecutor == null) {
+			segmentExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "BlackLab-segment-reader");
+					thread.setDaemon(true); // don't keep the application from exiting
+					return thread;
+				}
+			});
+		}
+		return segmentExecutor;
+	}
+
+	/**
+	 * Merge hits from the next segment into our hits.
+	 *
+	 * Makes sure the next few segments are being read in parallel (as many as
+	 * HitsSettings.retrievalThreads()), waits for the next segment to publish
+	 * more documents and merges their hits, applying maxHitsToRetrieve and
+	 * maxHitsToCount as if we had read the segment ourselves. So the caller gets
+	 * the first hits of a segment without waiting for the whole segment to be read.
+	 *
+	 * If our search was paused (or aborted), this returns without merging anything.
+	 * The caller should do its etiquette check and call us again.
+	 *
+	 * @param maxHitsToRetrieve maximum number of hits to retrieve (-1 = no limit)
+	 * @param maxHitsToCount maximum number of hits to count (-1 = no limit)
+	 * @return false if there were no more segments, true otherwise
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	private boolean mergeNextSegment(int maxHitsToRetrieve, int maxHitsToCount) throws InterruptedException {
+		int segmentIndex = atomicReaderContextIndex + 1;
+		if (segmentIndex >= atomicReaderContexts.size())
+			return false;
+
+		// Start reading the next few segments
+		if (segmentsInProgress == null) {
+			segmentsInProgress = new ArrayDeque<>();
+			segmentFutures = new ArrayDeque<>();
+			nextSegmentToRead = segmentIndex;
+		}
+		resumeParkedSegments();
+		int maxInProgress = Math.max(1, settings.retrievalThreads());
+		while (segmentsInProgress.size() < maxInProgress && nextSegmentToRead < atomicReaderContexts.size()) {
+			// We never need more hits from a segment than we still need in total
+			// (the hits from segments before it are only going to reduce that number)
+			int segmentMaxRetrieve = maxHitsToRetrieve < 0 ? -1 : Math.max(0, maxHitsToRetrieve - hits.size());
+			int segmentMaxCount = maxHitsToCount < 0 ? -1 : Math.max(0, maxHitsToCount - hitsCounted);
+			SegmentHits segment = new SegmentHits(weight, atomicReaderContexts.get(nextSegmentToRead),
+					segmentMaxRetrieve, segmentMaxCount, etiquette);
+			segmentFutures.add(segment.submit(getSegmentExecutor()));
+			segmentsInProgress.add(segment);
+			nextSegmentToRead++;
+		}
+
+		// Wait for the next segment to read more documents (or stop)
+		SegmentHits segment = segmentsInProgress.peek();
+		int docsRead = segment.waitForDocs(segmentDocsMerged);
+		if (docsRead == segmentDocsMerged) {
+			// The segment stopped reading
+			try {
+				segmentFutures.peek().get();
+			} catch (ExecutionException e) {
+				cancelSegments();
+				if (e.getCause() instanceof InterruptedException)
+					throw (InterruptedException) e.getCause();
+				throw ExUtil.wrapRuntimeException(e.getCause());
+			}
+			if (segment.isParked()) {
+				// Our search was paused (or aborted). The segment readers don't wait for it in the
+				// shared pool; our caller does that, then we let them continue where they left off.
+				return true;
+			}
+
+			// Done with this segment; go to the next
+			segmentFutures.remove();
+			segmentsInProgress.remove();
+			segmentDocsMerged = 0;
+			atomicReaderContextIndex = segmentIndex;
+			currentDocBase = atomicReaderContexts.get(atomicReaderContextIndex).docBase;
+			return true;
+		}
+
+		synchronized (segment) {
+			// Captured groups from the segment's hit query context
+			if (segment.hits.hasCapturedGroups() && hitQueryContext.numberOfCapturedGroups() == 0) {
+				for (String name: segment.capturedGroupNames) {
+					hitQueryContext.registerCapturedGroup(name);
+				}
+			}
+
+			// Count the hits (up to the maximum) and the documents they occur in,
+			// and add the hits (up to the maximum)
+			int hitIndex = segmentDocsMerged == 0 ? 0 : segment.hitsCountedUpToDoc.get(segmentDocsMerged - 1);
+			for (; segmentDocsMerged < docsRead; segmentDocsMerged++) {
+				if (maxHitsToCount >= 0 && hitsCounted >= maxHitsToCount)
+					break;
+				docsCounted++;
+				if (!maxHitsRetrieved)
+					docsRetrieved++;
+				previousHitDoc = segment.docs.get(segmentDocsMerged);
+				int hitsUpToDoc = segment.hitsCountedUpToDoc.get(segmentDocsMerged);
+				for (; hitIndex < hitsUpToDoc; hitIndex++) {
+					if (maxHitsToCount >= 0 && hitsCounted >= maxHitsToCount)
+						break;
+					hitsCounted++;
+					if (!maxHitsRetrieved) {
+						hits.add(segment.hits.get(hitIndex), segment.hits.capturedGroups(hitIndex));
+						maxHitsRetrieved = maxHitsToRetrieve >= 0 && hits.size() >= maxHitsToRetrieve;
+					}
+				}
+			}
 		}
+		hitsAdded();
+		return true;
+	}
+
+	/**
+	 * Continue reading the segments that stopped because our search was paused.
+	 */
+	private void resumeParkedSegments() {
+		ArrayDeque<Future<SegmentHits>> futures = new ArrayDeque<>(segmentFutures.size());
+		Iterator<SegmentHits> segments = segmentsInProgress.iterator();
+		for (Future<SegmentHits> future: segmentFutures) {
+			SegmentHits segment = segments.next();
+			if (future.isDone() && segment.isParked())
+				future = segment.submit(getSegmentExecutor());
+			futures.add(future);
+		}
+		segmentFutures = futures;
+	}
+
+	/**
+	 * Stop reading segments in parallel, if we were doing so.
+	 */
+	private void cancelSegments() {
+		if (segmentsInProgress == null)
+			return;
+		for (SegmentHits segment: segmentsInProgress) {
+			segment.cancel();
+		}
+		for (Future<SegmentHits> future: segmentFutures) {
+			future.cancel(false);
+		}
+		segmentsInProgress.clear();
+		segmentFutures.clear();
+		segmentDocsMerged = 0;
+	}
+
+	/**
+	 * Pass all hits to a handler in batches.
+	 *
+	 * If we haven't started retrieving hits yet, the hits are read straight
+	 * from the index (in the same order and with the same limits as
+	 * ensureHitsRead()) without being stored in this object. Only one batch
+	 * is kept in memory at a time.
+	 *
+	 * Note that this doesn't count as retrieving the hits: calling a method
+	 * like size() afterwards will still run the query again.
+	 *
+	 * @param batchSize maximum number of hits per batch
+	 * @param handler the handler to pass the batches to
+	 */
+	@Override
+	public void forEachBatch(int batchSize, HitBatchHandler handler) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Batch size must be positive");
+		if (spanQuery == null || atomicReaderContexts == null || sourceSpansFullyRead || hits.size() > 0) {
+			// Can't stream, or have already started retrieving; use the stored hits
+			super.forEachBatch(batchSize, handler);
+			return;
+		}
+
+		int maxHitsToRetrieve = settings.maxHitsToRetrieve();
+		int maxHitsToCount = settings.maxHitsToCount();
+		int streamHitsCounted = 0, streamHitsRetrieved = 0, streamDocsCounted = 0;
+		boolean streamMaxHitsRetrieved = false, streamMaxHitsCounted = false;
+		HitList batch = new HitList(batchSize);
+		try {
+			for (LeafReaderContext context: atomicReaderContexts) {
+				BLSpans spans = (BLSpans) weight.getSpans(context, Postings.OFFSETS);
+				if (spans == null)
+					continue; // no hits in this segment
+				spans.setHitQueryContext(new HitQueryContext(spans));
+				while (!streamMaxHitsCounted && spans.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+
+					// Don't hog the CPU, don't take too long
+					etiquette.behave();
+
+					int hitsCountedBeforeDoc = streamHitsCounted;
+					while (spans.nextStartPosition() != Spans.NO_MORE_POSITIONS) {
+						if (maxHitsToCount >= 0 && streamHitsCounted >= maxHitsToCount) {
+							streamMaxHitsCounted = true;
+							break;
+						}
+						streamHitsCounted++;
+						if (streamHitsCounted == hitsCountedBeforeDoc + 1)
+							streamDocsCounted++;
+						if (streamMaxHitsRetrieved)
+							continue;
+						Hit hit = spans.getHit();
+						batch.add(hit.doc + context.docBase, hit.start, hit.end);
+						streamHitsRetrieved++;
+						streamMaxHitsRetrieved = maxHitsToRetrieve >= 0 && streamHitsRetrieved >= maxHitsToRetrieve;
+						if (batch.size() == batchSize) {
+							handler.handle(batchHits(batch));
+							batch = new HitList(batchSize);
+						}
+					}
+				}
+				if (streamMaxHitsCounted)
+					break;
+			}
+			if (batch.size() > 0)
+				handler.handle(batchHits(batch));
+		} catch (InterruptedException e) {
+			// Thread was interrupted; don't complete the operation but return
+			// and let the caller detect and deal with the interruption.
+			Thread.currentThread().interrupt();
+			return;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		handler.done(streamHitsCounted, streamDocsCounted, streamMaxHitsRetrieved, streamMaxHitsCounted);
 	}
 
 	/**
@@ -596,7 +949,7 @@ public class HitsImpl extends Hits {
 
 		// Make sure we have a sort order array of sufficient size
 		if (sortOrder == null || sortOrder.length < hits.size()) {
-			sortOrder = new Integer[hits.size()];
+			sortOrder = new int[hits.size()];
 		}
 		// Fill the array with the original hit order (0, 1, 2, ...)
 		int n = hits.size();
@@ -607,9 +960,12 @@ public class HitsImpl extends Hits {
 		List<String> requiredContext = sortProp.needsContext();
 		if (requiredContext != null)
 			findContext(requiredContext);
+		sortProp.prepareSortKeys();
 
 		// Perform the actual sort.
-		Arrays.sort(sortOrder, sortProp);
+		// (sorts the hit indexes directly, using HitProperty.compare(int, int), so no boxing;
+		//  large sets of hits are sorted using multiple threads)
+		ArrayUtil.parallelSort(sortOrder, 0, n, sortProp);
 
 		if (reverseSort) {
 			// Instead of creating a new Comparator that reverses the order of the
@@ -617,7 +973,9 @@ public class HitsImpl extends Hits {
 			// O(n log n) comparisons), just reverse the hits now (which runs
 			// in linear time).
 			for (int i = 0; i < n / 2; i++) {
+				int t = sortOrder[i];
 				sortOrder[i] = sortOrder[n - i - 1];
+				sortOrder[n - i - 1] = t;
 			}
 		}
 	}
@@ -1198,136 +1556,67 @@ public class HitsImpl extends Hits {
 		}
 
 		// Get the context
-		// Group hits per document
-		List<Hit> hitsInSameDoc = new ArrayList<>();
-		int currentDoc = -1;
-		int index = 0;
-		if (contexts == null || contexts.length < hits.size()) {
-			contexts = new int[hits.size()][];
-		}
-		for (Hit hit: hits) {
-			if (hit.doc != currentDoc) {
-				if (currentDoc >= 0) {
-					try {
-						etiquette.behave();
-					} catch (InterruptedException e) {
-						// Thread was interrupted. Just go ahead with the hits we did
-						// get, so at least we can return with valid context.
-						Thread.currentThread().interrupt();
-					}
-
-					findPartOfContext(hitsInSameDoc, index - hitsInSameDoc.size(), fis);
-
-					// Reset hits list for next doc
-					hitsInSameDoc.clear();
-				}
-				currentDoc = hit.doc; // start a new document
-			}
-			hitsInSameDoc.add(hit);
-			index++;
-		}
-		if (!hitsInSameDoc.isEmpty())
-			findPartOfContext(hitsInSameDoc, index - hitsInSameDoc.size(), fis);
+		getContextWords(settings().contextSize(), fis);
 
 		currentContextSize = settings().contextSize();
 		contextFieldsPropName = new ArrayList<>(fieldProps);
 	}
 
 	/**
-	 * Helper method for findContext(). Finds the hits in a single document and adds
-	 * context to our contexts array.
+	 * Count occurrences of context words around hit.
+	 *
+	 * Uses the current context size for the windows on either side of the hit.
 	 *
-	 * @param hitsInSameDoc the hits in one document
-	 * @param firstHitIndex index of the first hit
-	 * @param fis forward indices needed for contexts
+	 * @param propName the property to use for the collocations, or null if default
+	 * @param ctx query execution context, containing the sensitivity settings
+	 *
+	 * @return the frequency of each occurring token
 	 */
-	private void findPartOfContext(List<Hit> hitsInSameDoc, int firstHitIndex, List<ForwardIndex> fis) {
-		// Find context for the hits in the current document
-		HitsImpl hitsObj = new HitsImpl(searcher, searcher.getMainContentsFieldName(), hitsInSameDoc);
-		hitsObj.copySettingsFrom(this);
-		hitsObj.getContextWords(settings().contextSize(), fis);
-
-		// Copy the contexts from the temporary Hits object to this one
-		for (int i = 0; i < hitsInSameDoc.size(); i++) {
-			contexts[firstHitIndex + i] = hitsObj.getHitContext(i);
-		}
+	@Override
+	public TermFrequencyList getCollocations(String propName, QueryExecutionContext ctx) {
+		return getCollocations(propName, ctx, settings().contextSize(), settings().contextSize());
 	}
 
 	/**
 	 * Count occurrences of context words around hit.
 	 *
+	 * The hits are partitioned by document and counted in parallel, straight from
+	 * the forward index. Terms are merged according to the default sensitivity
+	 * settings.
+	 *
 	 * @param propName the property to use for the collocations, or null if default
 	 * @param ctx query execution context, containing the sensitivity settings
+	 * @param contextSizeLeft number of words before the hit to count
+	 * @param contextSizeRight number of words after the hit to count
 	 *
 	 * @return the frequency of each occurring token
 	 */
 	@Override
-	public synchronized TermFrequencyList getCollocations(String propName,
-			QueryExecutionContext ctx) {
+	public TermFrequencyList getCollocations(String propName, QueryExecutionContext ctx,
+			int contextSizeLeft, int contextSizeRight) {
 		if (propName == null)
 			propName = searcher.getIndexStructure().getMainContentsField().getMainProperty().getName();
 		if (ctx == null)
 			ctx = searcher.getDefaultExecutionContext(settings().concordanceField());
 		ctx = ctx.withProperty(propName);
-		findContext(Arrays.asList(ctx.luceneField(false)));
-		MutableIntIntMap coll = IntIntMaps.mutable.empty();
-		for (int j = 0; j < hits.size(); j++) {
-			int[] context = contexts[j];
-
-			// Count words
-			int contextHitStart = context[CONTEXTS_HIT_START_INDEX];
-			int contextRightStart = context[CONTEXTS_RIGHT_START_INDEX];
-			int contextLength = context[CONTEXTS_LENGTH_INDEX];
-			int indexInContent = CONTEXTS_NUMBER_OF_BOOKKEEPING_INTS;
-			for (int i = 0; i < contextLength; i++, indexInContent++) {
-				if (i >= contextHitStart && i < contextRightStart)
-					continue; // don't count words in hit itself, just around [option..?]
-				int w = context[indexInContent];
-				int n;
-				if (!coll.contains(w))
-					n = 1;
-				else
-					n = coll.get(w) + 1;
-				coll.put(w, n);
-			}
-		}
-
-		// Get the actual words from the sort positions
-		boolean caseSensitive = searcher.isDefaultSearchCaseSensitive();
-		boolean diacSensitive = searcher.isDefaultSearchDiacriticsSensitive();
-		TermFrequencyList collocations = new TermFrequencyList(coll.size());
-		Terms terms = searcher.getTerms(contextFieldsPropName.get(0));
-		Map<String, Integer> wordFreq = new HashMap<>();
-		for (IntIntPair e: coll.keyValuesView()) {
-			int key = e.getOne();
-			int value = e.getTwo();
-			String word = terms.get(key);
-			if (!diacSensitive) {
-				word = StringUtil.stripAccents(word);
-			}
-			if (!caseSensitive) {
-				word = word.toLowerCase();
-			}
-			// Note that multiple ids may map to the same word (because of sensitivity settings)
-			// Here, those groups are merged.
-			Integer n = wordFreq.get(word);
-			if (n == null) {
-				n = 0;
-			}
-			n += value;
-			wordFreq.put(word, n);
-		}
-
-		// Transfer from map to list
-		for (Map.Entry<String, Integer> e: wordFreq.entrySet()) {
-			collocations.add(new TermFrequency(e.getKey(), e.getValue()));
+		try {
+			ensureAllHitsRead();
+		} catch (InterruptedException e) {
+			// Thread was interrupted. Just go ahead with the hits we did
+			// get, so at least we can return with valid collocations.
+			Thread.currentThread().interrupt();
 		}
-		return collocations;
+		ForwardIndex forwardIndex = searcher.getForwardIndex(ctx.luceneField(false));
+		if (forwardIndex == null)
+			throw new RuntimeException("Cannot get collocations without a forward index");
+		long[] counts = new CollocationCounter(forwardIndex, hits, contextSizeLeft, contextSizeRight).count();
+		return Searcher.termFrequencyList(forwardIndex.getTerms(), counts,
+				searcher.isDefaultSearchCaseSensitive(), searcher.isDefaultSearchDiacriticsSensitive());
 	}
 
 	@Override
 	public boolean hasCapturedGroups() {
-		return capturedGroups != null;
+		return hits.hasCapturedGroups();
 	}
 
 	/**
@@ -1341,9 +1630,10 @@ public class HitsImpl extends Hits {
 	 */
 	@Override
 	public Span[] getCapturedGroups(Hit hit) {
-		if (capturedGroups == null)
+		if (!hits.hasCapturedGroups())
 			return null;
-		return capturedGroups.get(hit);
+		int index = hits.indexOf(hit);
+		return index < 0 ? null : hits.capturedGroups(index);
 	}
 
 	/**
@@ -1357,11 +1647,11 @@ public class HitsImpl extends Hits {
 	 */
 	@Override
 	public Map<String, Span> getCapturedGroupMap(Hit hit) {
-		if (capturedGroups == null)
+		Span[] groups = getCapturedGroups(hit);
+		if (groups == null)
 			return null;
 		Map<String, Span> result = new TreeMap<>(); // TreeMap to maintain group ordering
 		List<String> names = getCapturedGroupNames();
-		Span[] groups = capturedGroups.get(hit);
 		for (int i = 0; i < names.size(); i++) {
 			result.put(names.get(i), groups[i]);
 		}
@@ -1504,6 +1794,9 @@ public class HitsImpl extends Hits {
 	/**
 	 * Get context words from the forward index.
 	 *
+	 * Retrieves the context for many hits (in possibly many documents) at once,
+	 * using a single buffer per batch instead of an array per hit.
+	 *
 	 * NOTE: not synchronized because only ever called from synchronized methods!
 	 *
 	 * @param wordsAroundHit how many words of context we want
@@ -1515,54 +1808,73 @@ public class HitsImpl extends Hits {
 		int n = hits.size();
 		if (n == 0)
 			return;
-		int[] startsOfSnippets = new int[n];
-		int[] endsOfSnippets = new int[n];
-		int i = 0;
-		for (Hit h: hits) {
-			startsOfSnippets[i] = wordsAroundHit >= h.start ? 0 : h.start - wordsAroundHit;
-			endsOfSnippets[i] = h.end + wordsAroundHit;
-			i++;
+		if (contexts == null || contexts.length < n) {
+			contexts = new int[n][];
 		}
-
-		int fiNumber = 0;
-		int doc = hits.get(0).doc;
-		for (ForwardIndex forwardIndex: contextSources) {
-			// Get all the words from the forward index
-			List<int[]> words;
-			if (forwardIndex != null) {
-				// We have a forward index for this field. Use it.
-				int fiid = forwardIndex.luceneDocIdToFiid(doc);
-				words = forwardIndex.retrievePartsInt(fiid, startsOfSnippets, endsOfSnippets);
-			} else {
-				throw new RuntimeException("Cannot get context without a forward index");
+		int maxBatchSize = Math.min(n, CONTEXT_BATCH_SIZE);
+		int[] fiids = new int[maxBatchSize];
+		int[] startsOfSnippets = new int[maxBatchSize];
+		int[] endsOfSnippets = new int[maxBatchSize];
+		int[] offsets = new int[maxBatchSize + 1];
+		int[] buffer = null;
+		for (int batchStart = 0; batchStart < n; batchStart += maxBatchSize) {
+			if (batchStart > 0) {
+				try {
+					etiquette.behave();
+				} catch (InterruptedException e) {
+					// Thread was interrupted. Just go ahead with the hits we did
+					// get, so at least we can return with valid context.
+					Thread.currentThread().interrupt();
+				}
 			}
-
-			// Build the actual concordances
-			Iterator<int[]> wordsIt = words.iterator();
-			int hitNum = 0;
-			if (contexts == null || contexts.length < hits.size()) {
-				contexts = new int[hits.size()][];
+			int batchSize = Math.min(maxBatchSize, n - batchStart);
+			int bufferSize = 0;
+			for (int i = 0; i < batchSize; i++) {
+				int start = hits.start(batchStart + i);
+				startsOfSnippets[i] = wordsAroundHit >= start ? 0 : start - wordsAroundHit;
+				endsOfSnippets[i] = hits.end(batchStart + i) + wordsAroundHit;
+				bufferSize += endsOfSnippets[i] - startsOfSnippets[i];
 			}
-			for (Hit hit: hits) {
-				int[] theseWords = wordsIt.next();
-
-				// Put the concordance in the Hit object
-				int firstWordIndex = startsOfSnippets[hitNum];
-
-				if (fiNumber == 0) {
-					// Allocate context array and set hit and right start and context length
-					contexts[hitNum] = new int[CONTEXTS_NUMBER_OF_BOOKKEEPING_INTS + theseWords.length * contextSources.size()];
-					contexts[hitNum][CONTEXTS_HIT_START_INDEX] = hit.start - firstWordIndex;
-					contexts[hitNum][CONTEXTS_RIGHT_START_INDEX] = hit.end - firstWordIndex;
-					contexts[hitNum][CONTEXTS_LENGTH_INDEX] = theseWords.length;
+			if (buffer == null || buffer.length < bufferSize)
+				buffer = new int[bufferSize];
+
+			int fiNumber = 0;
+			for (ForwardIndex forwardIndex: contextSources) {
+				if (forwardIndex == null)
+					throw new RuntimeException("Cannot get context without a forward index");
+
+				// Get all the words from the forward index
+				int prevDoc = -1;
+				int fiid = -1;
+				for (int i = 0; i < batchSize; i++) {
+					int doc = hits.doc(batchStart + i);
+					if (doc != prevDoc) {
+						fiid = forwardIndex.luceneDocIdToFiid(doc);
+						prevDoc = doc;
+					}
+					fiids[i] = fiid;
+				}
+				forwardIndex.retrievePartsIntBatch(fiids, startsOfSnippets, endsOfSnippets, batchSize, buffer, offsets);
+
+				// Build the actual concordances
+				for (int i = 0; i < batchSize; i++) {
+					int hitNum = batchStart + i;
+					int length = offsets[i + 1] - offsets[i];
+					if (fiNumber == 0) {
+						// Allocate context array and set hit and right start and context length
+						int firstWordIndex = startsOfSnippets[i];
+						contexts[hitNum] = new int[CONTEXTS_NUMBER_OF_BOOKKEEPING_INTS + length * contextSources.size()];
+						contexts[hitNum][CONTEXTS_HIT_START_INDEX] = hits.start(hitNum) - firstWordIndex;
+						contexts[hitNum][CONTEXTS_RIGHT_START_INDEX] = hits.end(hitNum) - firstWordIndex;
+						contexts[hitNum][CONTEXTS_LENGTH_INDEX] = length;
+					}
+					// Copy the context we just retrieved into the context array
+					int start = fiNumber * length + CONTEXTS_NUMBER_OF_BOOKKEEPING_INTS;
+					System.arraycopy(buffer, offsets[i], contexts[hitNum], start, length);
 				}
-				// Copy the context we just retrieved into the context array
-				int start = fiNumber * theseWords.length + CONTEXTS_NUMBER_OF_BOOKKEEPING_INTS;
-				System.arraycopy(theseWords, 0, contexts[hitNum], start, theseWords.length);
-				hitNum++;
-			}
 
-			fiNumber++;
+				fiNumber++;
+			}
 		}
 	}
 
@@ -1674,10 +1986,10 @@ public class HitsImpl extends Hits {
 			Thread.currentThread().interrupt();
 			return Hits.emptyList(searcher);
 		}
-		List<Hit> hitsInDoc = new ArrayList<>();
-		for (Hit hit: hits) {
-			if (hit.doc == docid)
-				hitsInDoc.add(hit);
+		HitList hitsInDoc = new HitList();
+		for (int i = 0; i < hits.size(); i++) {
+			if (hits.doc(i) == docid)
+				hitsInDoc.add(hits.get(i), hits.capturedGroups(i));
 		}
 		Hits result = Hits.fromList(searcher, hitsInDoc);
 		result.copySettingsFrom(this);
@@ -1,6 +1,5 @@
 package nl.inl.blacklab.search;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
@@ -28,14 +27,14 @@ public abstract class HitsSample extends HitsImpl {
 	protected Random random;
 
 	protected HitsSample(Searcher searcher, float ratio, long seed) {
-		super(searcher, new ArrayList<Hit>());
+		super(searcher, new HitList());
 		this.ratioOfHitsToSelect = ratio;
 		this.seed = seed == RANDOM_SEED ? getRandomSeed() : seed;
 		this.random = new Random(seed);
 	}
 
 	protected HitsSample(Searcher searcher, int number, long seed) {
-		super(searcher, new ArrayList<Hit>());
+		super(searcher, new HitList());
 		this.numberOfHitsToSelect = number;
 		exactNumberGiven = true;
 		this.seed = seed == RANDOM_SEED ? getRandomSeed() : seed;
@@ -36,6 +36,9 @@ public class HitsSettings {
 	/** Our desired context size */
 	private int desiredContextSize;
 
+	/** How many index segments to read in parallel when retrieving hits (1 = read them one by one) */
+	private int retrievalThreads;
+
 	@SuppressWarnings("deprecation")
 	public HitsSettings(HitsSettings defaults, boolean staticHitsFieldsOverrideDefaults) {
 		concordanceFieldName = defaults.concordanceFieldName;
@@ -46,6 +49,7 @@ public class HitsSettings {
 		concPunctProps = defaults.concPunctProps;
 		concAttrProps = defaults.concAttrProps;
 		desiredContextSize = defaults.desiredContextSize;
+		retrievalThreads = defaults.retrievalThreads;
 	}
 
 	public HitsSettings() {
@@ -57,6 +61,7 @@ public class HitsSettings {
 		concPunctProps = Searcher.DEFAULT_CONC_PUNCT_PROP;
 		concAttrProps = Searcher.DEFAULT_CONC_ATTR_PROP;
 		desiredContextSize = Searcher.DEFAULT_CONTEXT_SIZE;
+		retrievalThreads = Searcher.DEFAULT_RETRIEVAL_THREADS;
 	}
 
 	/** @return the maximum number of hits to retrieve. */
@@ -161,4 +166,23 @@ public class HitsSettings {
 		desiredContextSize = n;
 	}
 
+	/** @return how many index segments to read in parallel when retrieving hits */
+	public int retrievalThreads() {
+		return retrievalThreads;
+	}
+
+	/**
+	 * Set how many index segments to read in parallel when retrieving hits.
+	 *
+	 * If larger than 1, the hits from each segment are read on a shared thread pool,
+	 * and merged in index order, so the results are the same as when reading the
+	 * segments one by one. Useful for counting all hits in large indices with many
+	 * segments.
+	 *
+	 * @param n the number of segments to read in parallel (1 = read them one by one)
+	 */
+	public void setRetrievalThreads(int n) {
+		retrievalThreads = n;
+	}
+
 }
@@ -15,8 +15,6 @@
  *******************************************************************************/
 package nl.inl.blacklab.search;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -71,14 +69,11 @@ public class HitsWindow extends HitsImpl implements ResultsWindow {
 			number = source.size() - first;
 
 		// Copy the hits we're interested in.
-		hits = new ArrayList<>();
-		if (source.hasCapturedGroups())
-			capturedGroups = new HashMap<>();
+		hits = new HitList(number);
+		boolean copyCapturedGroups = source.hasCapturedGroups();
 		for (int i = first; i < first + number; i++) {
 			Hit hit = source.get(i);
-			hits.add(hit);
-			if (capturedGroups != null)
-				capturedGroups.put(hit, source.getCapturedGroups(hit));
+			hits.add(hit, copyCapturedGroups ? source.getCapturedGroups(hit) : null);
 			// OPT: copy context as well..?
 		}
 
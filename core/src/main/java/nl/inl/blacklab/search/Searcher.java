@@ -26,13 +26,23 @@ import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.search.spans.SpanQuery;
 import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.util.Bits;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
 
 import nl.inl.blacklab.analysis.BLDutchAnalyzer;
 import nl.inl.blacklab.analysis.BLNonTokenizingAnalyzer;
@@ -40,7 +50,9 @@ import nl.inl.blacklab.analysis.BLStandardAnalyzer;
 import nl.inl.blacklab.analysis.BLWhitespaceAnalyzer;
 import nl.inl.blacklab.externalstorage.ContentStore;
 import nl.inl.blacklab.externalstorage.ContentStoresManager;
+import nl.inl.blacklab.forwardindex.CharOffsetsStore;
 import nl.inl.blacklab.forwardindex.ForwardIndex;
+import nl.inl.blacklab.forwardindex.TermFrequencyTable;
 import nl.inl.blacklab.forwardindex.Terms;
 import nl.inl.blacklab.highlight.XmlHighlighter;
 import nl.inl.blacklab.highlight.XmlHighlighter.HitCharSpan;
@@ -53,6 +65,9 @@ import nl.inl.blacklab.perdocument.DocResults;
 import nl.inl.blacklab.search.indexstructure.IndexStructure;
 import nl.inl.blacklab.search.lucene.BLSpanQuery;
 import nl.inl.blacklab.search.lucene.SpanQueryFiltered;
+import nl.inl.util.ExUtil;
+import nl.inl.util.LuceneUtil;
+import nl.inl.util.StringUtil;
 import nl.inl.util.VersionFile;
 
 public abstract class Searcher {
@@ -88,6 +103,9 @@ public abstract class Searcher {
 
 	public static final int DEFAULT_CONTEXT_SIZE = 5;
 
+	/** Number of index segments to read in parallel when retrieving hits (1 = read them one by one) */
+	public static final int DEFAULT_RETRIEVAL_THREADS = 1;
+
 	/** The collator to use for sorting. Defaults to English collator. */
 	protected static Collator defaultCollator = Collator.getInstance(new Locale("en", "GB"));
 
@@ -406,6 +424,15 @@ public abstract class Searcher {
 	 */
 	protected Map<String, ForwardIndex> forwardIndices = new HashMap<>();
 
+	/**
+	 * Character offsets stores allow us to quickly find the character offsets of a token
+	 * position, for making concordances from the content store and highlighting.
+	 *
+	 * Indexed by complex field name. Value is null if the field has no offsets store
+	 * (e.g. indexes created before we had them).
+	 */
+	protected Map<String, CharOffsetsStore> charOffsetsStores = new HashMap<>();
+
 	protected HitsSettings hitsSettings;
 
 	/**
@@ -623,6 +650,12 @@ public abstract class Searcher {
 			fi.close();
 		}
 
+		// Close the character offsets stores
+		for (CharOffsetsStore store: charOffsetsStores.values()) {
+			if (store != null)
+				store.close();
+		}
+
 	}
 
 	/**
@@ -1240,6 +1273,28 @@ public abstract class Searcher {
 
 	protected abstract ForwardIndex openForwardIndex(String fieldPropName);
 
+	/**
+	 * Get the character offsets store for the specified complex field.
+	 *
+	 * Looks for an already-opened store first. If none is found, opens (or, if we're
+	 * creating a new index, creates) it.
+	 *
+	 * @param fieldName
+	 *            the complex field for which we want the offsets store
+	 * @return the store, or null if this field doesn't have one
+	 */
+	public CharOffsetsStore getCharOffsetsStore(String fieldName) {
+		synchronized (charOffsetsStores) {
+			if (charOffsetsStores.containsKey(fieldName))
+				return charOffsetsStores.get(fieldName);
+			CharOffsetsStore store = openCharOffsetsStore(fieldName);
+			charOffsetsStores.put(fieldName, store);
+			return store;
+		}
+	}
+
+	protected abstract CharOffsetsStore openCharOffsetsStore(String fieldName);
+
 	/**
 	 * Get a number of substrings from a certain field in a certain document.
 	 *
@@ -1450,6 +1505,146 @@ public abstract class Searcher {
 		return getTerms(ComplexFieldUtil.mainPropertyField(getIndexStructure(), getMainContentsFieldName()));
 	}
 
+	/**
+	 * Count how often each term of a property occurs in a set of documents.
+	 *
+	 * If the property has a forward index, we count term ids from that (in
+	 * parallel), and only look up the term strings at the end. For case- and
+	 * diacritics-insensitive frequencies, terms are merged by their insensitive
+	 * sort position. Without a forward index, we fall back to term vectors.
+	 *
+	 * If no filter query is given, we count terms in the whole corpus. If a
+	 * corpus-wide frequency table was built for the forward index (see IndexTool),
+	 * we use that instead of counting.
+	 *
+	 * @param documentFilterQuery which documents to count terms in, or null for all documents
+	 * @param fieldName complex field name
+	 * @param propName property to count terms of
+	 * @param sensitive if false, count case- and diacritics-insensitively
+	 * @return the term frequencies
+	 */
+	public TermFrequencyList termFrequencies(Query documentFilterQuery, String fieldName, String propName, boolean sensitive) {
+		ForwardIndex fi = getForwardIndex(ComplexFieldUtil.propertyField(fieldName, propName));
+		if (documentFilterQuery == null) {
+			TermFrequencyTable table = fi == null ? null : fi.getFrequencyTable(null);
+			if (table != null) {
+				// Precomputed corpus-wide frequencies available
+				Terms terms = fi.getTerms();
+				return termFrequencyList(terms, table.getCounts(null, terms.numberOfTerms()), sensitive);
+			}
+			documentFilterQuery = new MatchAllDocsQuery();
+		}
+		if (fi == null) {
+			// No forward index; use the term vectors
+			Map<String, Integer> freq = LuceneUtil.termFrequencies(getIndexSearcher(), documentFilterQuery, fieldName,
+					propName, sensitive ? ComplexFieldUtil.SENSITIVE_ALT_NAME : ComplexFieldUtil.INSENSITIVE_ALT_NAME);
+			TermFrequencyList tfl = new TermFrequencyList(freq.size());
+			for (Map.Entry<String, Integer> e: freq.entrySet()) {
+				tfl.add(new TermFrequency(e.getKey(), e.getValue()));
+			}
+			return tfl;
+		}
+
+		// Find the forward index ids of the documents
+		IntArrayList fiids = new IntArrayList();
+		try {
+			IndexSearcher indexSearcher = getIndexSearcher();
+			Weight weight = indexSearcher.createNormalizedWeight(documentFilterQuery, false);
+			for (LeafReaderContext arc: indexSearcher.getIndexReader().leaves()) {
+				Scorer scorer = weight.scorer(arc);
+				if (scorer == null)
+					continue;
+				Bits liveDocs = arc.reader().getLiveDocs();
+				DocIdSetIterator it = scorer.iterator();
+				while (it.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+					if (liveDocs == null || liveDocs.get(it.docID()))
+						fiids.add(fi.luceneDocIdToFiid(it.docID() + arc.docBase));
+				}
+			}
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+
+		// Count the term ids
+		long[] counts = fi.countTerms(fiids.toArray());
+		return termFrequencyList(fi.getTerms(), counts, sensitive);
+	}
+
+	/**
+	 * Create a term frequency list from counts per term id.
+	 *
+	 * For case- and diacritics-insensitive frequencies, terms are merged by their
+	 * insensitive sort position.
+	 *
+	 * @param terms the terms
+	 * @param counts number of occurrences, indexed by term id
+	 * @param sensitive if false, merge case- and diacritics-insensitively
+	 * @return the term frequencies
+	 */
+	private static TermFrequencyList termFrequencyList(Terms terms, long[] counts, boolean sensitive) {
+		return termFrequencyList(terms, counts, sensitive, sensitive);
+	}
+
+	/**
+	 * Create a term frequency list from counts per term id.
+	 *
+	 * For fully insensitive frequencies, terms are merged by their insensitive
+	 * sort position. There's no precomputed sort order for the mixed cases, so
+	 * those are merged by the normalized term string.
+	 *
+	 * @param terms the terms
+	 * @param counts number of occurrences, indexed by term id
+	 * @param caseSensitive if false, merge terms that differ only in case
+	 * @param diacSensitive if false, merge terms that differ only in diacritics
+	 * @return the term frequencies
+	 */
+	static TermFrequencyList termFrequencyList(Terms terms, long[] counts, boolean caseSensitive, boolean diacSensitive) {
+		TermFrequencyList tfl = new TermFrequencyList(counts.length);
+		if (caseSensitive && diacSensitive) {
+			for (int id = 0; id < counts.length; id++) {
+				if (counts[id] > 0)
+					addTermFrequency(tfl, terms.get(id), counts[id]);
+			}
+		} else if (!caseSensitive && !diacSensitive) {
+			long[] countPerSortPos = new long[counts.length];
+			int[] idPerSortPos = new int[counts.length];
+			for (int id = 0; id < counts.length; id++) {
+				if (counts[id] > 0) {
+					int sortPos = terms.idToSortPosition(id, false);
+					countPerSortPos[sortPos] += counts[id];
+					idPerSortPos[sortPos] = id;
+				}
+			}
+			for (int sortPos = 0; sortPos < countPerSortPos.length; sortPos++) {
+				if (countPerSortPos[sortPos] > 0) {
+					String term = StringUtil.stripAccents(terms.get(idPerSortPos[sortPos])).toLowerCase();
+					addTermFrequency(tfl, term, countPerSortPos[sortPos]);
+				}
+			}
+		} else {
+			Map<String, Long> countPerTerm = new HashMap<>();
+			for (int id = 0; id < counts.length; id++) {
+				if (counts[id] > 0) {
+					String term = terms.get(id);
+					term = caseSensitive ? term : term.toLowerCase();
+					term = diacSensitive ? term : StringUtil.stripAccents(term);
+					Long n = countPerTerm.get(term);
+					countPerTerm.put(term, n == null ? counts[id] : n + counts[id]);
+				}
+			}
+			for (Map.Entry<String, Long> e: countPerTerm.entrySet()) {
+				addTermFrequency(tfl, e.getKey(), e.getValue());
+			}
+		}
+		return tfl;
+	}
+
+	private static void addTermFrequency(TermFrequencyList tfl, String term, long frequency) {
+		// Skip the empty tokens the forward index stores at the end of a document and in gaps
+		if (term.length() > 0)
+			tfl.add(new TermFrequency(term, frequency));
+	}
+
 	public boolean isDefaultSearchCaseSensitive() {
 		return defaultCaseSensitive;
 	}
@@ -1562,7 +1757,84 @@ public abstract class Searcher {
 
 	public abstract IndexSearcher getIndexSearcher();
 
+	/**
+	 * Update the precomputed term frequency tables of our forward indices
+	 * for a document that is being added or deleted.
+	 *
+	 * @param d the Lucene document (with forward index ids and metadata)
+	 * @param delta 1 if the document is being added, -1 if it's being deleted
+	 */
+	public void updateFrequencyTables(Document d, int delta) {
+		List<Map.Entry<String, ForwardIndex>> fis;
+		synchronized (forwardIndices) {
+			fis = new ArrayList<>(forwardIndices.entrySet());
+		}
+		for (Map.Entry<String, ForwardIndex> e: fis) {
+			ForwardIndex fi = e.getValue();
+			Collection<TermFrequencyTable> tables = fi.getFrequencyTables();
+			if (tables.isEmpty())
+				continue;
+			String fiid = d.get(ComplexFieldUtil.forwardIndexIdField(e.getKey()));
+			if (fiid == null)
+				continue;
+			List<int[]> parts = fi.retrievePartsInt(Integer.parseInt(fiid), new int[] { -1 }, new int[] { -1 });
+			if (parts == null)
+				continue; // (already deleted)
+			for (TermFrequencyTable table: tables) {
+				table.updateDocument(d, parts.get(0), delta);
+			}
+		}
+	}
+
+	/**
+	 * Update the precomputed term frequency tables of our forward indices
+	 * for the documents matching a term (e.g. because they're about to be
+	 * replaced).
+	 *
+	 * @param term how to find the documents
+	 * @param delta 1 if the documents are being added, -1 if they're being deleted
+	 */
+	public void updateFrequencyTables(Term term, int delta) {
+		if (!hasFrequencyTables())
+			return; // don't bother opening a reader
+		// Apply buffered deletes, so documents replaced earlier (in the same
+		// writer session) aren't found, and subtracted, again
+		try (IndexReader freshReader = DirectoryReader.open(getWriter(), true)) {
+			for (LeafReaderContext leafContext: freshReader.leaves()) {
+				PostingsEnum docs = leafContext.reader().postings(term, PostingsEnum.NONE);
+				if (docs == null)
+					continue; // term doesn't occur in this segment
+				Bits liveDocs = leafContext.reader().getLiveDocs();
+				for (int docId = docs.nextDoc(); docId != DocIdSetIterator.NO_MORE_DOCS; docId = docs.nextDoc()) {
+					if (liveDocs != null && !liveDocs.get(docId))
+						continue; // already deleted
+					updateFrequencyTables(freshReader.document(leafContext.docBase + docId), delta);
+				}
+			}
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Do any of our forward indices have precomputed term frequency tables?
+	 *
+	 * @return true iff there are tables to keep up to date
+	 */
+	private boolean hasFrequencyTables() {
+		synchronized (forwardIndices) {
+			for (ForwardIndex fi: forwardIndices.values()) {
+				if (!fi.getFrequencyTables().isEmpty())
+					return true;
+			}
+		}
+		return false;
+	}
+
 	protected void deleteFromForwardIndices(Document d) {
+		// Update frequency tables while we can still read the document from the forward indices
+		updateFrequencyTables(d, -1);
+
 		// Delete this document in all forward indices
 		for (Map.Entry<String, ForwardIndex> e: forwardIndices.entrySet()) {
 			String fieldName = e.getKey();
@@ -1571,6 +1843,16 @@ public abstract class Searcher {
 					.forwardIndexIdField(fieldName)));
 			fi.deleteDocument(fiid);
 		}
+
+		// Delete it from the character offsets stores as well (these use the main property's fiid)
+		for (Map.Entry<String, CharOffsetsStore> e: charOffsetsStores.entrySet()) {
+			if (e.getValue() == null)
+				continue;
+			String fiidField = ComplexFieldUtil.forwardIndexIdField(indexStructure, e.getKey());
+			String fiid = d.get(fiidField);
+			if (fiid != null)
+				e.getValue().deleteDocument(Integer.parseInt(fiid));
+		}
 	}
 
 	public Map<String, ForwardIndex> getForwardIndices() {
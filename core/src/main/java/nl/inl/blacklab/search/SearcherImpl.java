@@ -55,6 +55,7 @@ import org.apache.lucene.util.Bits;
 
 import nl.inl.blacklab.analysis.BLDutchAnalyzer;
 import nl.inl.blacklab.externalstorage.ContentStore;
+import nl.inl.blacklab.forwardindex.CharOffsetsStore;
 import nl.inl.blacklab.forwardindex.ForwardIndex;
 import nl.inl.blacklab.index.complex.ComplexFieldUtil;
 import nl.inl.blacklab.index.config.ConfigInputFormat;
@@ -361,6 +362,26 @@ public class SearcherImpl extends Searcher implements Closeable {
 
 		if (startsOfWords.length == 0)
 			return; // nothing to do
+
+		// If we have a character offsets store for this document, use that;
+		// it allows us to look up positions directly instead of iterating over
+		// the whole term vector.
+		// (in index mode, our fiid lookup may not know about recently added documents)
+		if (!indexMode) {
+			CharOffsetsStore offsetsStore = getCharOffsetsStore(fieldName);
+			if (offsetsStore != null) {
+				String mainPropName = indexStructure.getComplexFieldDesc(fieldName).getMainProperty().getName();
+				ForwardIndex fi = getForwardIndex(ComplexFieldUtil.propertyField(fieldName, mainPropName));
+				if (fi != null) {
+					int fiid = fi.luceneDocIdToFiid(doc);
+					if (offsetsStore.hasDocument(fiid)) {
+						offsetsStore.getCharacterOffsets(fiid, startsOfWords, endsOfWords, fillInDefaultsIfNotFound);
+						return;
+					}
+				}
+			}
+		}
+
 		try {
 			// Determine lowest and highest word position we'd like to know something about.
 			// This saves a little bit of time for large result sets.
@@ -487,6 +508,16 @@ public class SearcherImpl extends Searcher implements Closeable {
 		return contentStore;
 	}
 
+	@Override
+	protected CharOffsetsStore openCharOffsetsStore(String fieldName) {
+		File dir = new File(indexLocation, "offsets_" + fieldName);
+		if (!dir.exists() && !(isEmptyIndex && indexMode)) {
+			// Index was created before we had offsets stores; use term vectors instead
+			return null;
+		}
+		return CharOffsetsStore.open(dir, indexMode, isEmptyIndex);
+	}
+
 	/**
 	 * Opens all the forward indices, to avoid this delay later.
 	 *
@@ -604,19 +635,23 @@ public class SearcherImpl extends Searcher implements Closeable {
 				for (LeafReaderContext leafContext: freshReader.leaves()) {
 					Scorer scorer = w.scorer(leafContext);
 					if (scorer == null)
-						return; // no matching documents
+						continue; // no matching documents in this segment
 
-					// Iterate over matching docs
+					// Iterate over matching docs (skipping ones that were already deleted)
+					Bits liveDocs = leafContext.reader().getLiveDocs();
 					DocIdSetIterator it = scorer.iterator();
 					while (true) {
 						int docId;
 						try {
-							docId = it.nextDoc() + leafContext.docBase;
+							docId = it.nextDoc();
 						} catch (IOException e) {
 							throw new RuntimeException(e);
 						}
 						if (docId == DocIdSetIterator.NO_MORE_DOCS)
 							break;
+						if (liveDocs != null && !liveDocs.get(docId))
+							continue;
+						docId += leafContext.docBase;
 						Document d = freshReader.document(docId);
 
 						deleteFromForwardIndices(d);
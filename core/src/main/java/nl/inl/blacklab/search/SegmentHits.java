@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.spans.SpanWeight;
+import org.apache.lucene.search.spans.SpanWeight.Postings;
+import org.apache.lucene.search.spans.Spans;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+
+import nl.inl.blacklab.search.lucene.BLSpans;
+import nl.inl.blacklab.search.lucene.HitQueryContext;
+import nl.inl.util.ThreadPriority;
+
+/**
+ * Reads the hits from a single index segment.
+ *
+ * Used by HitsImpl to read several segments in parallel. Besides the hits
+ * retrieved, we keep track of how many hits were counted in each document,
+ * so HitsImpl can merge the segments in index order and apply its
+ * maxHitsToRetrieve / maxHitsToCount limits exactly as if the segments had
+ * been read one after another.
+ *
+ * Hits are published per document (see waitForDocs()), so HitsImpl can merge
+ * them while we're still reading, and doesn't have to wait for the whole
+ * segment before it can return the first page of hits. The results below
+ * are guarded by this object's monitor.
+ *
+ * Segments are read by a pool shared by all searches, so we never wait for
+ * our search to be resumed in a pool thread. If the search is paused, we stop
+ * (parked) and keep our state, so reading can be continued by calling call()
+ * again once HitsImpl (in the search's own thread) has waited for the search
+ * to be resumed.
+ */
+class SegmentHits implements Callable<SegmentHits> {
+
+	/** The weight to get our Spans from */
+	private SpanWeight weight;
+
+	/** The segment to read */
+	private LeafReaderContext context;
+
+	/** Maximum number of hits to retrieve from this segment (-1 = no limit) */
+	private int maxHitsToRetrieve;
+
+	/** Maximum number of hits to count in this segment (-1 = no limit) */
+	private int maxHitsToCount;
+
+	/** Etiquette of the search we're reading for (so we pause or abort with it, see isParked()) */
+	private ThreadPriority etiquette;
+
+	/** Set if our results are no longer needed */
+	private volatile boolean cancelled = false;
+
+	/** Our Spans (null if not started yet, or if there are no hits in this segment) */
+	private BLSpans spans;
+
+	/** Have we called getSpans() yet? */
+	private boolean started = false;
+
+	/** Context for getting the captured groups */
+	private HitQueryContext hitQueryContext;
+
+	/** Did we stop because our search was paused? (call() again to continue) */
+	private boolean parked = false;
+
+	/** Have we been submitted and not stopped yet? */
+	private boolean running = false;
+
+	/** Number of documents in docs whose hits have all been added */
+	private int docsRead = 0;
+
+	/** The hits retrieved (with docBase added) and their captured groups, if any */
+	HitList hits = new HitList();
+
+	/** Names of the captured groups, in index order */
+	List<String> capturedGroupNames;
+
+	/** The documents we counted hits in (with docBase added) */
+	IntArrayList docs = new IntArrayList();
+
+	/** For each document in docs, the number of hits counted up to and including that document */
+	IntArrayList hitsCountedUpToDoc = new IntArrayList();
+
+	/** Total number of hits counted in this segment */
+	private int hitsCounted = 0;
+
+	/**
+	 * Construct the segment reader.
+	 *
+	 * @param weight weight to get our Spans from
+	 * @param context segment to read
+	 * @param maxHitsToRetrieve maximum number of hits to retrieve (-1 = no limit)
+	 * @param maxHitsToCount maximum number of hits to count (-1 = no limit)
+	 * @param etiquette etiquette of the search we're reading for
+	 */
+	SegmentHits(SpanWeight weight, LeafReaderContext context, int maxHitsToRetrieve, int maxHitsToCount, ThreadPriority etiquette) {
+		this.weight = weight;
+		this.context = context;
+		this.maxHitsToRetrieve = maxHitsToRetrieve;
+		this.maxHitsToCount = maxHitsToCount;
+		this.etiquette = etiquette;
+	}
+
+	/**
+	 * Indicate that our results are no longer needed.
+	 *
+	 * We don't interrupt the thread reading the segment, as that may close
+	 * the index files it's reading from; instead, we stop at the next document.
+	 */
+	void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Did we stop reading because our search was paused?
+	 *
+	 * If so, call() should be called again (after the search is resumed) to continue.
+	 *
+	 * @return true if we're not done reading yet
+	 */
+	boolean isParked() {
+		return parked;
+	}
+
+	/**
+	 * Start (or continue) reading in the specified thread pool.
+	 *
+	 * @param executor thread pool to read the segment with
+	 * @return future for our results
+	 */
+	synchronized Future<SegmentHits> submit(ExecutorService executor) {
+		running = true;
+		return executor.submit(this);
+	}
+
+	/**
+	 * Wait until more documents have been read, or we stop reading.
+	 *
+	 * @param docsMerged number of documents the caller has already merged
+	 * @return number of documents read; if this equals docsMerged, we've stopped
+	 *   (finished, parked or failed)
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	synchronized int waitForDocs(int docsMerged) throws InterruptedException {
+		while (running && docsRead == docsMerged)
+			wait();
+		return docsRead;
+	}
+
+	@Override
+	public SegmentHits call() throws Exception {
+		try {
+			read();
+		} finally {
+			synchronized (this) {
+				running = false;
+				notifyAll();
+			}
+		}
+		return this;
+	}
+
+	private void read() throws IOException {
+		parked = false;
+		if (!started) {
+			started = true;
+			spans = (BLSpans) weight.getSpans(context, Postings.OFFSETS);
+			if (spans == null)
+				return; // no hits in this segment
+
+			// Let captured groups register themselves
+			hitQueryContext = new HitQueryContext(spans);
+			spans.setHitQueryContext(hitQueryContext);
+			capturedGroupNames = hitQueryContext.getCapturedGroupNames();
+		} else if (spans == null) {
+			return;
+		}
+		int numberOfGroups = hitQueryContext.numberOfCapturedGroups();
+
+		int docBase = context.docBase;
+		while (true) {
+
+			// Don't wait in a pool thread if our search is paused; stop and let it call us again
+			if (etiquette.shouldPause()) {
+				parked = true;
+				return;
+			}
+			if (cancelled || spans.nextDoc() == DocIdSetIterator.NO_MORE_DOCS)
+				break;
+
+			synchronized (this) {
+				int hitsCountedBefore = hitsCounted;
+				while (spans.nextStartPosition() != Spans.NO_MORE_POSITIONS) {
+					if (maxHitsToCount >= 0 && hitsCounted >= maxHitsToCount)
+						break;
+					hitsCounted++;
+					if (maxHitsToRetrieve < 0 || hits.size() < maxHitsToRetrieve) {
+						Hit hit = spans.getHit();
+						Span[] groups = null;
+						if (numberOfGroups > 0) {
+							groups = new Span[numberOfGroups];
+							hitQueryContext.getCapturedGroups(groups);
+						}
+						hits.add(new Hit(hit.doc + docBase, hit.start, hit.end), groups);
+					}
+				}
+				if (hitsCounted > hitsCountedBefore) {
+					// Publish this document's hits
+					docs.add(spans.docID() + docBase);
+					hitsCountedUpToDoc.add(hitsCounted);
+					docsRead++;
+					notifyAll();
+				}
+			}
+			if (maxHitsToCount >= 0 && hitsCounted >= maxHitsToCount)
+				break;
+		}
+	}
+
+}
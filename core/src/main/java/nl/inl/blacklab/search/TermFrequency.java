@@ -16,7 +16,7 @@ public class TermFrequency implements Comparable<TermFrequency> {
 	 * @param token a token (word, lemma, pos, etc.)
 	 * @param frequency the token's frequency in the context
 	 */
-	public TermFrequency(String token, int frequency) {
+	public TermFrequency(String token, long frequency) {
 		super();
 		this.term = token;
 		this.frequency = frequency;
@@ -28,6 +28,9 @@ import nl.inl.blacklab.search.Searcher;
 public class HitGroup extends Group {
 	Hits results;
 
+	/** Number of hits in the group if results only contains a sample of them, otherwise -1 */
+	private int size = -1;
+
 	HitGroup(Searcher searcher, HitPropValue groupIdentity, String defaultConcField) {
 		super(groupIdentity);
 		results = Hits.emptyList(searcher);
@@ -37,7 +40,7 @@ public class HitGroup extends Group {
 	/**
 	 * Wraps a list of Hit objects with the HitGroup interface.
 	 *
-	 * NOTE: the list is not copied!
+	 * NOTE: the list is only copied if it is not a HitList!
 	 *
 	 * @param searcher the searcher that produced the hits
 	 * @param groupIdentity grouping identity of this group of hits
@@ -50,17 +53,43 @@ public class HitGroup extends Group {
 		results.settings().setConcordanceField(defaultConcField);
 	}
 
+	/**
+	 * Wraps a sample of the hits in a group with the HitGroup interface.
+	 *
+	 * Used when only counting the hits in each group (see Hits.groupedByCounting()).
+	 *
+	 * NOTE: the list is only copied if it is not a HitList!
+	 *
+	 * @param searcher the searcher that produced the hits
+	 * @param groupIdentity grouping identity of this group of hits
+	 * @param defaultConcField concordance field
+	 * @param sample some of the hits in the group
+	 * @param size the number of hits in the group
+	 */
+	HitGroup(Searcher searcher, HitPropValue groupIdentity, String defaultConcField, List<Hit> sample, int size) {
+		this(searcher, groupIdentity, defaultConcField, sample);
+		this.size = size;
+	}
+
+	/**
+	 * Get the hits in this group.
+	 *
+	 * If the hits were only counted, this returns a sample of the hits, and
+	 * size() may be larger than the number of hits returned.
+	 *
+	 * @return the hits
+	 */
 	public Hits getHits() {
 		return results;
 	}
 
 	public int size() {
-		return results.size();
+		return size < 0 ? results.size() : size;
 	}
 
 	@Override
 	public String toString() {
-		return "GroupOfHits, identity = " + groupIdentity + ", size = " + results.size();
+		return "GroupOfHits, identity = " + groupIdentity + ", size = " + size();
 	}
 
 	public void setContextField(List<String> contextField) {
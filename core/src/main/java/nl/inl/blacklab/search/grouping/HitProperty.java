@@ -23,12 +23,14 @@ import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import nl.inl.blacklab.forwardindex.Terms;
 import nl.inl.blacklab.search.Hits;
+import nl.inl.util.IntComparator;
 
 /**
  * Abstract base class for a property of a hit, like document title, hit text, right context, etc.
  */
-public abstract class HitProperty implements Comparator<Object> {
+public abstract class HitProperty implements Comparator<Object>, IntComparator {
 	protected static final Logger logger = LogManager.getLogger(HitProperty.class);
 
 	/** The Hits object we're looking at */
@@ -52,19 +54,120 @@ public abstract class HitProperty implements Comparator<Object> {
 	 * the two hits. Subclasses may override this method to
 	 * provide a more efficient implementation.
 	 *
+	 * This is used for sorting hits (see ArrayUtil.sort()), so it
+	 * should be fast and shouldn't allocate objects if possible.
+	 *
+	 * @param a index of the first hit (in original order)
+	 * @param b index of the second hit (in original order)
+	 * @return 0 if equal, negative if a < b, positive if a > b.
+	 */
+	@Override
+	public int compare(int a, int b) {
+		HitPropValue hitPropValueA = get(a);
+		HitPropValue hitPropValueB = get(b);
+		return hitPropValueA.compareTo(hitPropValueB);
+	}
+
+	/**
+	 * Compares two hits on this property.
+	 *
 	 * Note that we use Object as the type instead of Hit to save
 	 * on run-time type checking. We know (slash hope :-) that this
-	 * method is only ever called to compare Hits.
+	 * method is only ever called to compare (Integer) hit indexes.
 	 *
-	 * @param a first hit
-	 * @param b second hit
+	 * Subclasses should override compare(int, int) instead.
+	 *
+	 * @param a index of the first hit
+	 * @param b index of the second hit
 	 * @return 0 if equal, negative if a < b, positive if a > b.
 	 */
 	@Override
-	public int compare(Object a, Object b) {
-		HitPropValue hitPropValueA = get((Integer)a);
-		HitPropValue hitPropValueB = get((Integer)b);
-		return hitPropValueA.compareTo(hitPropValueB);
+	public final int compare(Object a, Object b) {
+		return compare(((Integer)a).intValue(), ((Integer)b).intValue());
+	}
+
+	/**
+	 * Prepare for sorting all hits on this property.
+	 *
+	 * Called right before sorting, after the required context has been found.
+	 * Properties that are expensive to determine for a single hit (e.g. because
+	 * a stored field must be read) may calculate a sort key for each hit here,
+	 * so compare(int, int) only has to compare two ints.
+	 *
+	 * Note that hits may be sorted using multiple threads, so compare(int, int)
+	 * must be thread-safe.
+	 *
+	 * The default implementation does nothing.
+	 */
+	public void prepareSortKeys() {
+		// Nothing to prepare
+	}
+
+	/**
+	 * Value returned by groupKey() for hits that don't have a group key.
+	 */
+	public static final long NO_GROUP_KEY = Long.MIN_VALUE;
+
+	/**
+	 * Prepare for grouping all hits on this property using primitive keys.
+	 *
+	 * Called right before grouping, after the required context has been found.
+	 * Properties that can map each hit to a primitive key (e.g. term sort
+	 * positions or DocValues ordinals) return true here and implement groupKey(),
+	 * so grouping doesn't have to create a HitPropValue for each hit.
+	 *
+	 * The default implementation returns false.
+	 *
+	 * @return true iff groupKey() can be used
+	 */
+	public boolean prepareGroupKeys() {
+		return false;
+	}
+
+	/**
+	 * Get a primitive key for grouping a hit on this property.
+	 *
+	 * Hits with the same key must have the same value. Hits with different keys
+	 * may still have the same value (e.g. different years in the same decade);
+	 * the values of the groups are compared after grouping and groups with the
+	 * same value are merged.
+	 *
+	 * Only called if prepareGroupKeys() returned true.
+	 *
+	 * @param hitNumber index of the hit (in original order)
+	 * @return the key, or NO_GROUP_KEY if this hit should be grouped by value
+	 */
+	public long groupKey(int hitNumber) {
+		return NO_GROUP_KEY;
+	}
+
+	/**
+	 * Combine the sort positions of a number of context words into a single key.
+	 *
+	 * Used by groupKey() implementations for properties that consist of several
+	 * context words. Two ranges get the same key iff they have the same length
+	 * and the same sort positions.
+	 *
+	 * @param terms the terms to get the sort positions from
+	 * @param sensitive whether to use the sensitive sort positions
+	 * @param context the context array
+	 * @param from first context index to use
+	 * @param to context index after the last one to use
+	 * @return the key, or NO_GROUP_KEY if the words don't fit in a key
+	 */
+	protected static long contextWordsGroupKey(Terms terms, boolean sensitive, int[] context, int from, int to) {
+		// Every word is stored as its sort position plus one, so no word is stored as 0
+		// and ranges of different lengths get different keys
+		int bitsPerWord = 64 - Long.numberOfLeadingZeros(terms.numberOfTerms() + 1L);
+		if ((long)(to - from) * bitsPerWord > 63)
+			return NO_GROUP_KEY;
+		long key = 0;
+		for (int i = from; i < to; i++) {
+			if (context[i] < 0)
+				return NO_GROUP_KEY;
+			key = (key << bitsPerWord) | (terms.idToSortPosition(context[i], sensitive) + 1);
+		}
+		return key;
 	}
 
 	/**
@@ -192,6 +295,20 @@ public abstract class HitProperty implements Comparator<Object> {
 		return HitProperty.deserialize(newHits, serialize());
 	}
 
+	/**
+	 * Look at a different Hits object from now on.
+	 *
+	 * Unlike copyWithHits(), this keeps any state that only depends on the
+	 * index (e.g. DocValues lookups), so it's cheap to do for each batch of
+	 * hits from the same search (see ResultsCounter). State for the previous
+	 * hits (e.g. sort keys) is discarded.
+	 *
+	 * @param newHits new Hits object to use (from the same index)
+	 */
+	public void setHits(Hits newHits) {
+		hits = newHits;
+	}
+
 	/**
 	 * Is the comparison reversed?
 	 * @return true if it is, false if not
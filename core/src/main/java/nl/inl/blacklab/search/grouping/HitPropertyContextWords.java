@@ -117,6 +117,8 @@ public class HitPropertyContextWords extends HitProperty {
 
 	private Searcher searcher;
 
+	private Terms terms;
+
 	private List<ContextPart> words;
 
 	int totalWords;
@@ -135,6 +137,7 @@ public class HitPropertyContextWords extends HitProperty {
 			this.luceneFieldName = ComplexFieldUtil.propertyField(field, property);
 			this.propName = property;
 		}
+		this.terms = searcher.getTerms(luceneFieldName);
 		this.sensitive = sensitive;
 		this.words = words;
 		if (words == null) {
@@ -183,53 +186,16 @@ public class HitPropertyContextWords extends HitProperty {
 
 		int[] dest = new int[totalWords];
 		int destIndex = 0;
+		int contextStartIndex = contextLength * contextIndices.get(0) + Hits.CONTEXTS_NUMBER_OF_BOOKKEEPING_INTS;
 		for (ContextPart ctxPart: words) {
-			// Determine anchor position, direction to move in, and edge of part (left/hit/right)
-			int srcStartIndex, srcDirection, firstInvalidSrcIndex;
-            srcDirection = ctxPart.getAbsoluteDirection();
-			int firstWordSrcIndex;
-			switch (ctxPart.startFrom) {
-			case LEFT_OF_HIT:
-	            srcStartIndex = contextHitStart - 1;  // first word before hit
-				firstWordSrcIndex = srcStartIndex - ctxPart.firstWord;
-	            firstInvalidSrcIndex = srcDirection < 0 ? -1 : contextHitStart; // end/start of left context
-				break;
-			case RIGHT_OF_HIT:
-				srcStartIndex = contextRightStart;       // first word after hit
-				firstWordSrcIndex = srcStartIndex + ctxPart.firstWord;
-	            firstInvalidSrcIndex = srcDirection > 0 ? contextLength : contextRightStart - 1; // end/start of right context
-				break;
-			case HIT_TEXT_FROM_END:
-				srcStartIndex = contextRightStart - 1; // last hit word
-				firstWordSrcIndex = srcStartIndex - ctxPart.firstWord;
-	            firstInvalidSrcIndex = srcDirection < 0 ? contextHitStart : contextRightStart - 1;  // first/last hit word
-				break;
-			case HIT_TEXT_FROM_START: default:
-				srcStartIndex = contextHitStart;            // first hit word
-				firstWordSrcIndex = srcStartIndex + ctxPart.firstWord;
-	            firstInvalidSrcIndex = srcDirection > 0 ? contextRightStart : contextHitStart - 1; // last/first hit word
-				break;
-			}
-			// Determine start position, stop position
-			boolean valuesToCopy = true;
-			if (srcDirection > 0) {
-				firstInvalidSrcIndex = Math.min(firstInvalidSrcIndex, srcStartIndex + ctxPart.firstWord + ctxPart.maxLength);
-				if (firstWordSrcIndex >= firstInvalidSrcIndex)
-					valuesToCopy = false; // there are no values to copy
-			} else {
-				firstInvalidSrcIndex = Math.max(firstInvalidSrcIndex, srcStartIndex - ctxPart.firstWord - ctxPart.maxLength);
-				if (firstWordSrcIndex <= firstInvalidSrcIndex)
-					valuesToCopy = false; // there are no values to copy
-			}
 			// Copy the words we want to our dest array
+			int srcDirection = ctxPart.getAbsoluteDirection();
+			int srcIndex = firstWordIndex(ctxPart, contextHitStart, contextRightStart);
+			int valuesToCopy = numberOfWords(ctxPart, contextHitStart, contextRightStart, contextLength);
 			int valuesCopied = 0;
-			int contextStartIndex = contextLength * contextIndices.get(0) + Hits.CONTEXTS_NUMBER_OF_BOOKKEEPING_INTS;
-			if (valuesToCopy) {
-				for (int srcIndex = firstWordSrcIndex; srcIndex != firstInvalidSrcIndex; srcIndex += srcDirection) {
-					dest[destIndex] = context[contextStartIndex + srcIndex];
-					destIndex++;
-					valuesCopied++;
-				}
+			for ( ; valuesCopied < valuesToCopy; valuesCopied++, srcIndex += srcDirection) {
+				dest[destIndex] = context[contextStartIndex + srcIndex];
+				destIndex++;
 			}
 			// If we don't have enough (e.g. because the hit is shorter), add dummy values
 			for ( ; valuesCopied < ctxPart.maxLength; valuesCopied++) {
@@ -240,7 +206,140 @@ public class HitPropertyContextWords extends HitProperty {
 		return new HitPropValueContextWords(hits, propName, dest, sensitive);
 	}
 
-	// OPT: provide specific compare() method that compares contexts in-place
+	/**
+	 * Compares the context words of two hits.
+	 *
+	 * Gives the same result as comparing the values returned by get(), but
+	 * compares the contexts in-place, so we don't allocate any objects.
+	 *
+	 * @param a index of the first hit
+	 * @param b index of the second hit
+	 * @return 0 if equal, negative if a < b, positive if a > b.
+	 */
+	@Override
+	public int compare(int a, int b) {
+		int[] ca = hits.getHitContext(a);
+		int caHitStart = ca[Hits.CONTEXTS_HIT_START_INDEX];
+		int caRightStart = ca[Hits.CONTEXTS_RIGHT_START_INDEX];
+		int caLength = ca[Hits.CONTEXTS_LENGTH_INDEX];
+		int[] cb = hits.getHitContext(b);
+		int cbHitStart = cb[Hits.CONTEXTS_HIT_START_INDEX];
+		int cbRightStart = cb[Hits.CONTEXTS_RIGHT_START_INDEX];
+		int cbLength = cb[Hits.CONTEXTS_LENGTH_INDEX];
+
+		int contextIndex = contextIndices.get(0);
+		int caStartIndex = caLength * contextIndex + Hits.CONTEXTS_NUMBER_OF_BOOKKEEPING_INTS;
+		int cbStartIndex = cbLength * contextIndex + Hits.CONTEXTS_NUMBER_OF_BOOKKEEPING_INTS;
+		for (ContextPart ctxPart: words) {
+			int direction = ctxPart.getAbsoluteDirection();
+			int ai = caStartIndex + firstWordIndex(ctxPart, caHitStart, caRightStart);
+			int bi = cbStartIndex + firstWordIndex(ctxPart, cbHitStart, cbRightStart);
+			int aWords = numberOfWords(ctxPart, caHitStart, caRightStart, caLength);
+			int bWords = numberOfWords(ctxPart, cbHitStart, cbRightStart, cbLength);
+			for (int i = 0; i < ctxPart.maxLength; i++, ai += direction, bi += direction) {
+				// (missing words are compared as NO_TERM, just like in get())
+				int sortPosA = i < aWords ? sortPosition(ca[ai]) : Terms.NO_TERM;
+				int sortPosB = i < bWords ? sortPosition(cb[bi]) : Terms.NO_TERM;
+				if (sortPosA != sortPosB) {
+					int cmp = sortPosA - sortPosB;
+					return reverse ? -cmp : cmp;
+				}
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Get the sort position of a term.
+	 *
+	 * @param termId the term id, or Terms.NO_TERM
+	 * @return the sort position, or Terms.NO_TERM
+	 */
+	private int sortPosition(int termId) {
+		return termId < 0 ? Terms.NO_TERM : terms.idToSortPosition(termId, sensitive);
+	}
+
+	/**
+	 * Where in the context is the word our context part is anchored to?
+	 *
+	 * @param ctxPart the context part
+	 * @param contextHitStart start of the hit in the context
+	 * @param contextRightStart start of the right context
+	 * @return index of the anchor word in the context
+	 */
+	private static int anchorIndex(ContextPart ctxPart, int contextHitStart, int contextRightStart) {
+		switch (ctxPart.startFrom) {
+		case LEFT_OF_HIT:
+			return contextHitStart - 1;   // first word before hit
+		case RIGHT_OF_HIT:
+			return contextRightStart;     // first word after hit
+		case HIT_TEXT_FROM_END:
+			return contextRightStart - 1; // last hit word
+		case HIT_TEXT_FROM_START: default:
+			return contextHitStart;       // first hit word
+		}
+	}
+
+	/**
+	 * Where in the context is the first word of our context part?
+	 *
+	 * @param ctxPart the context part
+	 * @param contextHitStart start of the hit in the context
+	 * @param contextRightStart start of the right context
+	 * @return index of the first word in the context
+	 */
+	private static int firstWordIndex(ContextPart ctxPart, int contextHitStart, int contextRightStart) {
+		int srcStartIndex = anchorIndex(ctxPart, contextHitStart, contextRightStart);
+		switch (ctxPart.startFrom) {
+		case LEFT_OF_HIT:
+		case HIT_TEXT_FROM_END:
+			return srcStartIndex - ctxPart.firstWord;
+		case RIGHT_OF_HIT:
+		case HIT_TEXT_FROM_START: default:
+			return srcStartIndex + ctxPart.firstWord;
+		}
+	}
+
+	/**
+	 * How many words of our context part are available in the context?
+	 *
+	 * The words start at firstWordIndex() and go in the direction
+	 * given by ContextPart.getAbsoluteDirection().
+	 *
+	 * @param ctxPart the context part
+	 * @param contextHitStart start of the hit in the context
+	 * @param contextRightStart start of the right context
+	 * @param contextLength length of the context
+	 * @return number of words available (at most the part's maxLength)
+	 */
+	private static int numberOfWords(ContextPart ctxPart, int contextHitStart, int contextRightStart, int contextLength) {
+		// Determine anchor position, direction to move in, and edge of part (left/hit/right)
+		int srcStartIndex = anchorIndex(ctxPart, contextHitStart, contextRightStart);
+		int firstWordSrcIndex = firstWordIndex(ctxPart, contextHitStart, contextRightStart);
+		int srcDirection = ctxPart.getAbsoluteDirection();
+		int firstInvalidSrcIndex;
+		switch (ctxPart.startFrom) {
+		case LEFT_OF_HIT:
+			firstInvalidSrcIndex = srcDirection < 0 ? -1 : contextHitStart; // end/start of left context
+			break;
+		case RIGHT_OF_HIT:
+			firstInvalidSrcIndex = srcDirection > 0 ? contextLength : contextRightStart - 1; // end/start of right context
+			break;
+		case HIT_TEXT_FROM_END:
+			firstInvalidSrcIndex = srcDirection < 0 ? contextHitStart : contextRightStart - 1;  // first/last hit word
+			break;
+		case HIT_TEXT_FROM_START: default:
+			firstInvalidSrcIndex = srcDirection > 0 ? contextRightStart : contextHitStart - 1; // last/first hit word
+			break;
+		}
+		// Determine stop position
+		if (srcDirection > 0) {
+			firstInvalidSrcIndex = Math.min(firstInvalidSrcIndex, srcStartIndex + ctxPart.firstWord + ctxPart.maxLength);
+			return firstWordSrcIndex < firstInvalidSrcIndex ? firstInvalidSrcIndex - firstWordSrcIndex : 0;
+		}
+		firstInvalidSrcIndex = Math.max(firstInvalidSrcIndex, srcStartIndex - ctxPart.firstWord - ctxPart.maxLength);
+		return firstWordSrcIndex > firstInvalidSrcIndex ? firstWordSrcIndex - firstInvalidSrcIndex : 0;
+	}
 
 	@Override
 	public List<String> needsContext() {
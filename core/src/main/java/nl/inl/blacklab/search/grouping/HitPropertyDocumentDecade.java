@@ -21,9 +21,12 @@ import java.util.List;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
+import org.eclipse.collections.api.map.primitive.MutableIntIntMap;
+import org.eclipse.collections.impl.map.mutable.primitive.IntIntHashMap;
 
 import nl.inl.blacklab.search.Hit;
 import nl.inl.blacklab.search.Hits;
+import nl.inl.blacklab.search.lucene.DocStringFieldGetter;
 
 /**
  * A hit property for grouping on by decade based on a stored field
@@ -38,6 +41,12 @@ public class HitPropertyDocumentDecade extends HitProperty {
 
 	String fieldName;
 
+	/** Sort key per hit (the decade), or null if not calculated */
+	private int[] sortKeys;
+
+	/** Gets the field values (using DocValues if available); created when needed */
+	private DocStringFieldGetter fieldValueGetter;
+
 	public HitPropertyDocumentDecade(Hits hits, String fieldName) {
 		super(hits);
 		this.reader = hits.getSearcher().getIndexReader();
@@ -46,28 +55,92 @@ public class HitPropertyDocumentDecade extends HitProperty {
 
 	@Override
 	public HitPropValueDecade get(int hitNumber) {
+		Hit result = hits.getByOriginalOrder(hitNumber);
+		String strYear = getFieldValue(result.doc);
+		int year;
 		try {
-			Hit result = hits.getByOriginalOrder(hitNumber);
-			Document d = reader.document(result.doc);
-			String strYear = d.get(fieldName);
-			int year;
-			try {
-				year = Integer.parseInt(strYear);
-				year -= year % 10;
-			} catch (NumberFormatException e) {
-				year = UNKNOWN_VALUE;
+			year = Integer.parseInt(strYear);
+			year -= year % 10;
+		} catch (NumberFormatException e) {
+			year = UNKNOWN_VALUE;
+		}
+		return new HitPropValueDecade(year);
+	}
+
+	/**
+	 * Get the value of our field for a document.
+	 *
+	 * @param doc the document
+	 * @return the value, or null if the document has no value
+	 */
+	private synchronized String getFieldValue(int doc) {
+		if (fieldValueGetter == null)
+			fieldValueGetter = new DocStringFieldGetter(reader, fieldName);
+		return fieldValueGetter.getFieldValue(doc);
+	}
+
+	/**
+	 * Determine the decade of all hits, so we don't have to read the documents
+	 * for each comparison.
+	 */
+	@Override
+	public void prepareSortKeys() {
+		int n = hits.size();
+		int[] keys = new int[n];
+		MutableIntIntMap decadePerDoc = new IntIntHashMap();
+		for (int i = 0; i < n; i++) {
+			int doc = hits.getByOriginalOrder(i).doc;
+			if (!decadePerDoc.containsKey(doc)) {
+				String strYear = getFieldValue(doc);
+				int year;
+				if (strYear == null || strYear.length() == 0) {
+					year = Integer.MAX_VALUE; // sort missing year at the end
+				} else {
+					try {
+						year = Integer.parseInt(strYear);
+						year -= year % 10;
+					} catch (NumberFormatException e) {
+						year = UNKNOWN_VALUE;
+					}
+				}
+				decadePerDoc.put(doc, year);
 			}
-			return new HitPropValueDecade(year);
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+			keys[i] = decadePerDoc.get(doc);
 		}
+		sortKeys = keys;
+	}
+
+	@Override
+	public void setHits(Hits newHits) {
+		super.setHits(newHits);
+		sortKeys = null; // (keep the field value getter, it doesn't depend on the hits)
 	}
 
+	/**
+	 * Uses the DocValues ordinal of the field value as the group key, if available.
+	 */
 	@Override
-	public int compare(Object i, Object j) {
+	public synchronized boolean prepareGroupKeys() {
+		if (fieldValueGetter == null)
+			fieldValueGetter = new DocStringFieldGetter(reader, fieldName);
+		return fieldValueGetter.hasOrdinals();
+	}
+
+	@Override
+	public synchronized long groupKey(int hitNumber) {
+		// NOTE: documents without a value get key -1 (DocStringFieldGetter.NO_VALUE)
+		return fieldValueGetter.getOrd(hits.getByOriginalOrder(hitNumber).doc);
+	}
+
+	@Override
+	public int compare(int i, int j) {
+		if (sortKeys != null && i < sortKeys.length && j < sortKeys.length) {
+			int cmp = Integer.compare(sortKeys[i], sortKeys[j]);
+			return reverse ? -cmp : cmp;
+		}
 		try {
-			Hit a = hits.getByOriginalOrder((Integer)i);
-			Hit b = hits.getByOriginalOrder((Integer)j);
+			Hit a = hits.getByOriginalOrder(i);
+			Hit b = hits.getByOriginalOrder(j);
 			Document d = reader.document(a.doc);
 			String strYearA = d.get(fieldName);
 			if (strYearA == null)
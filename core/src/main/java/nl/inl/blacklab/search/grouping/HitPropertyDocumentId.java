@@ -36,6 +36,16 @@ public class HitPropertyDocumentId extends HitProperty {
 		return new HitPropValueInt(result.doc);
 	}
 
+	@Override
+	public boolean prepareGroupKeys() {
+		return true;
+	}
+
+	@Override
+	public long groupKey(int hitNumber) {
+		return hits.getByOriginalOrder(hitNumber).doc;
+	}
+
 	@Override
 	public String getName() {
 		return "document id";
@@ -47,9 +57,9 @@ public class HitPropertyDocumentId extends HitProperty {
 	}
 
 	@Override
-	public int compare(Object i, Object j) {
-		Hit a = hits.getByOriginalOrder((Integer)i);
-		Hit b = hits.getByOriginalOrder((Integer)j);
+	public int compare(int i, int j) {
+		Hit a = hits.getByOriginalOrder(i);
+		Hit b = hits.getByOriginalOrder(j);
 		return reverse ? b.doc - a.doc : a.doc - b.doc;
 	}
 
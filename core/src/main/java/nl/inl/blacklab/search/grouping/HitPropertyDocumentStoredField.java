@@ -15,14 +15,21 @@
  *******************************************************************************/
 package nl.inl.blacklab.search.grouping;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
+import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableObjectIntMap;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
 
 import nl.inl.blacklab.search.Hit;
 import nl.inl.blacklab.search.Hits;
+import nl.inl.blacklab.search.lucene.DocStringFieldGetter;
 
 /**
  * A hit property for grouping on a stored field in the corresponding Lucene document.
@@ -34,6 +41,12 @@ public class HitPropertyDocumentStoredField extends HitProperty {
 
 	private String friendlyName;
 
+	/** Sort key per hit (rank of the field value), or null if not calculated */
+	private int[] sortKeys;
+
+	/** Gets the field values (using DocValues if available); created when needed */
+	private DocStringFieldGetter fieldValueGetter;
+
 	public HitPropertyDocumentStoredField(Hits hits, String fieldName) {
 		this(hits, fieldName, fieldName);
 	}
@@ -47,23 +60,92 @@ public class HitPropertyDocumentStoredField extends HitProperty {
 
 	@Override
 	public HitPropValueString get(int hitNumber) {
-		try {
-			Hit result = hits.getByOriginalOrder(hitNumber);
-			Document d = reader.document(result.doc);
-			String value = d.get(fieldName);
-			if (value == null)
-				value = "";
-			return new HitPropValueString(value);
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+		Hit result = hits.getByOriginalOrder(hitNumber);
+		return new HitPropValueString(getFieldValue(result.doc));
+	}
+
+	/**
+	 * Get the value of our field for a document.
+	 *
+	 * @param doc the document
+	 * @return the value, or the empty string if the document has no value
+	 */
+	private synchronized String getFieldValue(int doc) {
+		if (fieldValueGetter == null)
+			fieldValueGetter = new DocStringFieldGetter(reader, fieldName);
+		String value = fieldValueGetter.getFieldValue(doc);
+		return value == null ? "" : value;
+	}
+
+	/**
+	 * Rank the field values of all hits, so we don't have to read the
+	 * values and compare them using the collator for each comparison.
+	 */
+	@Override
+	public void prepareSortKeys() {
+		// Read the field value for each document once
+		int n = hits.size();
+		int[] docs = new int[n];
+		MutableIntObjectMap<String> valuePerDoc = new IntObjectHashMap<>();
+		for (int i = 0; i < n; i++) {
+			int doc = hits.getByOriginalOrder(i).doc;
+			docs[i] = doc;
+			if (!valuePerDoc.containsKey(doc))
+				valuePerDoc.put(doc, getFieldValue(doc));
+		}
+
+		// Sort the distinct values and determine the rank of each
+		// (values the collator considers equal get the same rank; empty values sort at the end)
+		List<String> values = new ArrayList<>(valuePerDoc.toSet());
+		Collections.sort(values, HitPropValue.collator);
+		MutableObjectIntMap<String> rankPerValue = new ObjectIntHashMap<>(values.size());
+		int rank = 0;
+		String prevValue = null;
+		for (String value: values) {
+			if (prevValue != null && HitPropValue.collator.compare(prevValue, value) != 0)
+				rank++;
+			rankPerValue.put(value, value.length() == 0 ? Integer.MAX_VALUE : rank);
+			prevValue = value;
 		}
+
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = rankPerValue.get(valuePerDoc.get(docs[i]));
+		}
+		sortKeys = keys;
+	}
+
+	@Override
+	public void setHits(Hits newHits) {
+		super.setHits(newHits);
+		sortKeys = null; // (keep the field value getter, it doesn't depend on the hits)
+	}
+
+	/**
+	 * Uses the DocValues ordinal of the field value as the group key, if available.
+	 */
+	@Override
+	public synchronized boolean prepareGroupKeys() {
+		if (fieldValueGetter == null)
+			fieldValueGetter = new DocStringFieldGetter(reader, fieldName);
+		return fieldValueGetter.hasOrdinals();
+	}
+
+	@Override
+	public synchronized long groupKey(int hitNumber) {
+		// NOTE: documents without a value get key -1 (DocStringFieldGetter.NO_VALUE)
+		return fieldValueGetter.getOrd(hits.getByOriginalOrder(hitNumber).doc);
 	}
 
 	@Override
-	public int compare(Object i, Object j) {
+	public int compare(int i, int j) {
+		if (sortKeys != null && i < sortKeys.length && j < sortKeys.length) {
+			int cmp = Integer.compare(sortKeys[i], sortKeys[j]);
+			return reverse ? -cmp : cmp;
+		}
 		try {
-			Hit a = hits.getByOriginalOrder((Integer)i);
-			Hit b = hits.getByOriginalOrder((Integer)j);
+			Hit a = hits.getByOriginalOrder(i);
+			Hit b = hits.getByOriginalOrder(j);
 			Document d = reader.document(a.doc);
 			String va = d.get(fieldName);
 			if (va == null)
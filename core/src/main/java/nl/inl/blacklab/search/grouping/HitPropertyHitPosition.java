@@ -49,9 +49,9 @@ public class HitPropertyHitPosition extends HitProperty {
 	}
 
 	@Override
-	public int compare(Object i, Object j) {
-		Hit a = hits.getByOriginalOrder((Integer)i);
-		Hit b = hits.getByOriginalOrder((Integer)j);
+	public int compare(int i, int j) {
+		Hit a = hits.getByOriginalOrder(i);
+		Hit b = hits.getByOriginalOrder(j);
 		if (a.start == b.start)
 			return reverse ? b.end - a.end : a.end - b.end;
 		return reverse ? b.start - a.start : a.start - b.start;
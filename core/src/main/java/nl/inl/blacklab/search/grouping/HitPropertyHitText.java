@@ -96,12 +96,12 @@ public class HitPropertyHitText extends HitProperty {
 	}
 
 	@Override
-	public int compare(Object i, Object j) {
-		int[] ca = hits.getHitContext((Integer)i);
+	public int compare(int i, int j) {
+		int[] ca = hits.getHitContext(i);
 		int caHitStart = ca[Hits.CONTEXTS_HIT_START_INDEX];
 		int caRightStart = ca[Hits.CONTEXTS_RIGHT_START_INDEX];
 		int caLength = ca[Hits.CONTEXTS_LENGTH_INDEX];
-		int[] cb = hits.getHitContext((Integer)j);
+		int[] cb = hits.getHitContext(j);
 		int cbHitStart = cb[Hits.CONTEXTS_HIT_START_INDEX];
 		int cbRightStart = cb[Hits.CONTEXTS_RIGHT_START_INDEX];
 		int cbLength = cb[Hits.CONTEXTS_LENGTH_INDEX];
@@ -129,6 +129,19 @@ public class HitPropertyHitText extends HitProperty {
 		return reverse ? -1 : 1; // a longer than b => a > b
 	}
 
+	@Override
+	public boolean prepareGroupKeys() {
+		return true;
+	}
+
+	@Override
+	public long groupKey(int hitNumber) {
+		int[] context = hits.getHitContext(hitNumber);
+		int contextStart = context[Hits.CONTEXTS_LENGTH_INDEX] * contextIndices.get(0) + Hits.CONTEXTS_NUMBER_OF_BOOKKEEPING_INTS;
+		return contextWordsGroupKey(terms, sensitive, context, contextStart + context[Hits.CONTEXTS_HIT_START_INDEX],
+				contextStart + context[Hits.CONTEXTS_RIGHT_START_INDEX]);
+	}
+
 	@Override
 	public List<String> needsContext() {
 		return Arrays.asList(luceneFieldName);
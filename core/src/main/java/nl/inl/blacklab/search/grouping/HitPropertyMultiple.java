@@ -129,7 +129,7 @@ public class HitPropertyMultiple extends HitProperty implements Iterable<HitProp
 	}
 
 	@Override
-	public int compare(Object i, Object j) {
+	public int compare(int i, int j) {
 		for (HitProperty crit : criteria) {
 			int cmp = crit.compare(i, j);
 			if (cmp != 0)
@@ -138,6 +138,21 @@ public class HitPropertyMultiple extends HitProperty implements Iterable<HitProp
 		return 0;
 	}
 
+	@Override
+	public void prepareSortKeys() {
+		for (HitProperty crit : criteria) {
+			crit.prepareSortKeys();
+		}
+	}
+
+	@Override
+	public void setHits(Hits newHits) {
+		super.setHits(newHits);
+		for (HitProperty crit : criteria) {
+			crit.setHits(newHits);
+		}
+	}
+
 	@Override
 	public String getName() {
 		StringBuilder b = new StringBuilder();
@@ -89,11 +89,11 @@ public class HitPropertyWordLeft extends HitProperty {
 	}
 
 	@Override
-	public int compare(Object i, Object j) {
-		int[] ca = hits.getHitContext((Integer)i);
+	public int compare(int i, int j) {
+		int[] ca = hits.getHitContext(i);
 		int caHitStart = ca[Hits.CONTEXTS_HIT_START_INDEX];
 		int caLength = ca[Hits.CONTEXTS_LENGTH_INDEX];
-		int[] cb = hits.getHitContext((Integer)j);
+		int[] cb = hits.getHitContext(j);
 		int cbHitStart = cb[Hits.CONTEXTS_HIT_START_INDEX];
 		int cbLength = cb[Hits.CONTEXTS_LENGTH_INDEX];
 
@@ -111,6 +111,25 @@ public class HitPropertyWordLeft extends HitProperty {
 		return reverse ? -cmp : cmp;
 	}
 
+	/**
+	 * Uses the sort position of the word as the group key.
+	 */
+	@Override
+	public boolean prepareGroupKeys() {
+		return true;
+	}
+
+	@Override
+	public long groupKey(int hitNumber) {
+		int[] context = hits.getHitContext(hitNumber);
+		int contextHitStart = context[Hits.CONTEXTS_HIT_START_INDEX];
+		if (contextHitStart <= 0)
+			return -1;
+		int contextStart = context[Hits.CONTEXTS_LENGTH_INDEX] * contextIndices.get(0) + Hits.CONTEXTS_NUMBER_OF_BOOKKEEPING_INTS;
+		int termId = context[contextStart + contextHitStart - 1];
+		return termId < 0 ? -1 : terms.idToSortPosition(termId, sensitive);
+	}
+
 	@Override
 	public List<String> needsContext() {
 		return Arrays.asList(luceneFieldName);
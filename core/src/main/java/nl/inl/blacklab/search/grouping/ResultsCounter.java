@@ -0,0 +1,370 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.grouping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.collections.api.map.primitive.MutableLongIntMap;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+
+import nl.inl.blacklab.search.Hit;
+import nl.inl.blacklab.search.HitBatchHandler;
+import nl.inl.blacklab.search.HitList;
+import nl.inl.blacklab.search.Hits;
+
+/**
+ * Counts the hits in each group, without keeping all the hits.
+ *
+ * The hits are processed in batches (see Hits.forEachBatch()), so hits that
+ * haven't been retrieved yet are counted without being stored. Each group
+ * only keeps its size and a sample of its first hits, so the memory needed
+ * depends on the number of groups, not the number of hits.
+ *
+ * Because the original hits may not have been retrieved, this object also
+ * keeps track of how many hits and documents were counted.
+ */
+public class ResultsCounter extends HitGroups {
+
+	/** How many hits to process at once (by default) */
+	private static final int BATCH_SIZE = 10000;
+
+	/**
+	 * The criteria, looking at the batch we're counting. Kept for all batches,
+	 * so state that only depends on the index (e.g. DocValues lookups) is only
+	 * set up once.
+	 */
+	private HitProperty batchCriteria;
+
+	/**
+	 * The groups.
+	 */
+	private Map<HitPropValue, HitGroup> groups = new HashMap<>();
+
+	/**
+	 * The groups, in sorted order.
+	 */
+	private List<HitGroup> groupsOrdered = new ArrayList<>();
+
+	/** Maximum number of hits to keep per group */
+	private int maxSampleSize;
+
+	/** Default field to make concordances from. */
+	private String defaultConcField;
+
+	/** Field our current concordances came from. */
+	private List<String> contextField;
+
+	/** Group number for each group key */
+	private MutableLongIntMap groupPerKey = new LongIntHashMap();
+
+	/** Group number for each group identity */
+	private Map<HitPropValue, Integer> groupPerIdentity = new HashMap<>();
+
+	/** Identity of each group */
+	private List<HitPropValue> identities = new ArrayList<>();
+
+	/** Size of each group */
+	private IntArrayList sizes = new IntArrayList();
+
+	/** Sample of the hits in each group */
+	private List<HitList> samples = new ArrayList<>();
+
+	/** Total number of hits (retrieved). */
+	private int totalHits = 0;
+
+	/** Size of the largest group. */
+	private int largestGroupSize = 0;
+
+	/** Number of documents retrieved */
+	private int docsRetrieved = 0;
+
+	/** Document of the last hit we processed */
+	private int previousHitDoc = -1;
+
+	/** Number of hits counted */
+	private int hitsCounted = 0;
+
+	/** Number of documents counted */
+	private int docsCounted = 0;
+
+	/** Did we stop retrieving hits because we reached the maximum? */
+	private boolean maxHitsRetrieved = false;
+
+	/** Did we stop counting hits because we reached the maximum? */
+	private boolean maxHitsCounted = false;
+
+	/**
+	 * Construct a ResultsCounter object, by counting the supplied hits.
+	 *
+	 * Use Hits.groupedByCounting(criteria, maxSampleSize) instead.
+	 *
+	 * @param hits
+	 *            the hits to count
+	 * @param criteria
+	 *            the criteria to group on
+	 * @param maxSampleSize
+	 *            maximum number of hits to keep per group
+	 */
+	ResultsCounter(Hits hits, HitProperty criteria, int maxSampleSize) {
+		this(hits, criteria, maxSampleSize, BATCH_SIZE);
+	}
+
+	/**
+	 * Construct a ResultsCounter object, by counting the supplied hits.
+	 *
+	 * @param hits
+	 *            the hits to count
+	 * @param criteria
+	 *            the criteria to group on
+	 * @param maxSampleSize
+	 *            maximum number of hits to keep per group
+	 * @param batchSize
+	 *            how many hits to process at once
+	 */
+	ResultsCounter(Hits hits, HitProperty criteria, int maxSampleSize, int batchSize) {
+		super(hits.getSearcher(), criteria);
+		if (maxSampleSize < 0)
+			throw new IllegalArgumentException("Sample size cannot be negative");
+		this.maxSampleSize = maxSampleSize;
+		defaultConcField = hits.settings().concordanceField();
+		contextField = hits.getContextFieldPropName();
+		batchCriteria = criteria.copyWithHits(hits);
+		hits.forEachBatch(batchSize, new HitBatchHandler() {
+			@Override
+			public void handle(Hits batch) {
+				countBatch(batch);
+			}
+
+			@Override
+			public void done(int hitsCounted_, int docsCounted_, boolean maxHitsRetrieved_, boolean maxHitsCounted_) {
+				hitsCounted = hitsCounted_;
+				docsCounted = docsCounted_;
+				maxHitsRetrieved = maxHitsRetrieved_;
+				maxHitsCounted = maxHitsCounted_;
+			}
+		});
+		for (int group = 0; group < identities.size(); group++) {
+			HitGroup hitGroup = new HitGroup(searcher, identities.get(group), defaultConcField, samples.get(group), sizes.get(group));
+			hitGroup.setContextField(contextField);
+			groups.put(identities.get(group), hitGroup);
+			groupsOrdered.add(hitGroup);
+		}
+
+		// We don't need these anymore
+		batchCriteria = null;
+		groupPerKey = null;
+		groupPerIdentity = null;
+		identities = null;
+		sizes = null;
+		samples = null;
+	}
+
+	/**
+	 * Don't use this; use Hits.groupedByCounting().
+	 * @param hits hits to count
+	 * @param criteria criteria to group by
+	 * @param maxSampleSize maximum number of hits to keep per group
+	 * @return grouped hits
+	 */
+	public static ResultsCounter _fromHits(Hits hits, HitProperty criteria, int maxSampleSize) {
+		return new ResultsCounter(hits, criteria, maxSampleSize);
+	}
+
+	/**
+	 * Don't use this; use Hits.groupedByCounting(). (for testing)
+	 * @param hits hits to count
+	 * @param criteria criteria to group by
+	 * @param maxSampleSize maximum number of hits to keep per group
+	 * @param batchSize how many hits to process at once
+	 * @return grouped hits
+	 */
+	public static ResultsCounter _fromHits(Hits hits, HitProperty criteria, int maxSampleSize, int batchSize) {
+		return new ResultsCounter(hits, criteria, maxSampleSize, batchSize);
+	}
+
+	/**
+	 * Add the hits in a batch to their groups.
+	 *
+	 * Group keys only depend on the index, not on the batch, so groups found
+	 * by key in earlier batches are found again.
+	 *
+	 * @param batch the hits to add
+	 */
+	private void countBatch(Hits batch) {
+		batchCriteria.setHits(batch);
+		List<String> requiredContext = batchCriteria.needsContext();
+		if (requiredContext != null)
+			batch.findContext(requiredContext);
+		contextField = batch.getContextFieldPropName();
+		boolean useKeys = batchCriteria.prepareGroupKeys();
+		for (int i = 0; i < batch.size(); i++) {
+			long key = useKeys ? batchCriteria.groupKey(i) : HitProperty.NO_GROUP_KEY;
+			int group = key == HitProperty.NO_GROUP_KEY ? -1 : groupPerKey.getIfAbsent(key, -1);
+			if (group < 0) {
+				// Find the group by identity (different keys may have the same identity,
+				// e.g. years in the same decade)
+				HitPropValue identity = batchCriteria.get(i);
+				Integer g = groupPerIdentity.get(identity);
+				if (g == null) {
+					g = identities.size();
+					groupPerIdentity.put(identity, g);
+					identities.add(identity);
+					sizes.add(0);
+					samples.add(new HitList());
+				}
+				group = g;
+				if (key != HitProperty.NO_GROUP_KEY)
+					groupPerKey.put(key, group);
+			}
+			int size = sizes.get(group) + 1;
+			sizes.set(group, size);
+			if (size > largestGroupSize)
+				largestGroupSize = size;
+			Hit hit = batch.getByOriginalOrder(i);
+			if (size <= maxSampleSize)
+				samples.get(group).add(hit);
+			if (hit.doc != previousHitDoc) {
+				docsRetrieved++;
+				previousHitDoc = hit.doc;
+			}
+			totalHits++;
+		}
+	}
+
+	/**
+	 * Get the total number of hits
+	 *
+	 * @return the number of hits
+	 */
+	@Override
+	public int getTotalResults() {
+		return totalHits;
+	}
+
+	/**
+	 * Get the number of hits counted.
+	 *
+	 * This may be more than the total number of hits in the groups if we
+	 * stopped retrieving hits because we reached the maximum.
+	 *
+	 * @return the number of hits counted
+	 */
+	public int getHitsCounted() {
+		return hitsCounted;
+	}
+
+	/**
+	 * Get the number of documents counted.
+	 *
+	 * @return the number of documents counted
+	 */
+	public int getDocsCounted() {
+		return docsCounted;
+	}
+
+	/**
+	 * Get the number of documents the grouped hits occur in.
+	 *
+	 * @return the number of documents retrieved
+	 */
+	public int getDocsRetrieved() {
+		return docsRetrieved;
+	}
+
+	/**
+	 * Did we stop retrieving hits because we reached the maximum?
+	 * @return true if we reached the maximum and stopped retrieving hits
+	 */
+	public boolean maxHitsRetrieved() {
+		return maxHitsRetrieved;
+	}
+
+	/**
+	 * Did we stop counting hits because we reached the maximum?
+	 * @return true if we reached the maximum and stopped counting hits
+	 */
+	public boolean maxHitsCounted() {
+		return maxHitsCounted;
+	}
+
+	/**
+	 * Get all groups as a map
+	 *
+	 * @return a map of groups indexed by group property
+	 */
+	@Override
+	public Map<HitPropValue, HitGroup> getGroupMap() {
+		return Collections.unmodifiableMap(groups);
+	}
+
+	/**
+	 * Get all groups as a list
+	 *
+	 * @return the list of groups
+	 */
+	@Override
+	public List<HitGroup> getGroups() {
+		return Collections.unmodifiableList(groupsOrdered);
+	}
+
+	/**
+	 * Sort groups
+	 *
+	 * @param prop
+	 *            the property to sort on
+	 * @param sortReverse
+	 *            whether to sort in descending order
+	 */
+	@Override
+	public void sortGroups(GroupProperty prop, boolean sortReverse) {
+		Comparator<Group> comparator = new ComparatorGroupProperty(prop, sortReverse,
+				searcher.getCollator());
+
+		Collections.sort(groupsOrdered, comparator);
+	}
+
+	/**
+	 * Return the size of the largest group
+	 *
+	 * @return size of the largest group
+	 */
+	@Override
+	public int getLargestGroupSize() {
+		return largestGroupSize;
+	}
+
+	/**
+	 * Return the number of groups
+	 *
+	 * @return number of groups
+	 */
+	@Override
+	public int numberOfGroups() {
+		return groups.size();
+	}
+
+	@Override
+	public String toString() {
+		return "ResultsCounter with " + numberOfGroups() + " groups";
+	}
+
+}
@@ -22,7 +22,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.eclipse.collections.api.map.primitive.MutableLongIntMap;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+
 import nl.inl.blacklab.search.Hit;
+import nl.inl.blacklab.search.HitList;
 import nl.inl.blacklab.search.Hits;
 
 /**
@@ -97,7 +102,18 @@ public class ResultsGrouper extends HitGroups {
 			hits.findContext(requiredContext);
 		}
 		contextField = hits.getContextFieldPropName();
-		//Thread currentThread = Thread.currentThread();
+		if (criteria_.prepareGroupKeys())
+			groupByKeys(hits, criteria_);
+		else
+			groupByValues(hits);
+	}
+
+	/**
+	 * Group the hits by creating the group identity for each hit.
+	 *
+	 * @param hits the hits to group
+	 */
+	private void groupByValues(Hits hits) {
 		Map<HitPropValue, List<Hit>> groupLists = new HashMap<>();
 		for (int i = 0; i < hits.size(); i++) {
 
@@ -113,17 +129,101 @@ public class ResultsGrouper extends HitGroups {
 			totalHits++;
 		}
 		for (Map.Entry<HitPropValue, List<Hit>> e: groupLists.entrySet()) {
-			HitPropValue groupId = e.getKey();
-			List<Hit> hitList = e.getValue();
-			HitGroup group = new HitGroup(searcher, groupId, defaultConcField, hitList);
-			group.setContextField(contextField);
-			groups.put(groupId, group);
-			groupsOrdered.add(group);
+			addGroup(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Group the hits by the primitive group key of each hit.
+	 *
+	 * Hits are assigned a group number using an (open addressing) primitive
+	 * hash table, and group identities are only created once per group. Hits
+	 * without a key are grouped by identity.
+	 *
+	 * @param hits the hits to group
+	 * @param criteria_ the criteria to group on
+	 */
+	private void groupByKeys(Hits hits, HitProperty criteria_) {
+		// Determine the group number of each hit
+		int n = hits.size();
+		int[] groupOfHit = new int[n];
+		MutableLongIntMap groupPerKey = new LongIntHashMap();
+		Map<HitPropValue, Integer> groupPerIdentity = new HashMap<>();
+		IntArrayList firstHitInGroup = new IntArrayList();
+		List<HitPropValue> identities = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long key = criteria_.groupKey(i);
+			int group;
+			if (key == HitProperty.NO_GROUP_KEY) {
+				HitPropValue identity = getGroupIdentity(i);
+				Integer g = groupPerIdentity.get(identity);
+				if (g == null) {
+					g = firstHitInGroup.size();
+					groupPerIdentity.put(identity, g);
+					firstHitInGroup.add(i);
+					identities.add(identity);
+				}
+				group = g;
+			} else {
+				group = groupPerKey.getIfAbsent(key, -1);
+				if (group < 0) {
+					group = firstHitInGroup.size();
+					groupPerKey.put(key, group);
+					firstHitInGroup.add(i);
+					identities.add(null); // determined below
+				}
+			}
+			groupOfHit[i] = group;
+		}
+
+		// Determine the identity of each group, merging groups with the same identity
+		// (different keys may have the same identity, e.g. years in the same decade)
+		int numberOfKeyGroups = firstHitInGroup.size();
+		int[] mergedGroup = new int[numberOfKeyGroups];
+		Map<HitPropValue, Integer> mergedGroupPerIdentity = new HashMap<>();
+		List<HitPropValue> mergedIdentities = new ArrayList<>();
+		for (int group = 0; group < numberOfKeyGroups; group++) {
+			HitPropValue identity = identities.get(group);
+			if (identity == null)
+				identity = getGroupIdentity(firstHitInGroup.get(group));
+			Integer merged = mergedGroupPerIdentity.get(identity);
+			if (merged == null) {
+				merged = mergedIdentities.size();
+				mergedGroupPerIdentity.put(identity, merged);
+				mergedIdentities.add(identity);
+			}
+			mergedGroup[group] = merged;
+		}
+
+		// Count the hits in each group
+		int numberOfGroups = mergedIdentities.size();
+		int[] groupSize = new int[numberOfGroups];
+		for (int i = 0; i < n; i++) {
+			groupOfHit[i] = mergedGroup[groupOfHit[i]];
+			groupSize[groupOfHit[i]]++;
+		}
+
+		// Create the groups (hits stay in their original order)
+		HitList[] groupHits = new HitList[numberOfGroups];
+		for (int group = 0; group < numberOfGroups; group++) {
+			groupHits[group] = new HitList(groupSize[group]);
+			if (groupSize[group] > largestGroupSize)
+				largestGroupSize = groupSize[group];
 		}
+		for (int i = 0; i < n; i++) {
+			groupHits[groupOfHit[i]].add(hits.getByOriginalOrder(i));
+		}
+		totalHits = n;
+		for (int group = 0; group < numberOfGroups; group++) {
+			addGroup(mergedIdentities.get(group), groupHits[group]);
+		}
+	}
 
-		// If the group identities are context words, we should possibly merge
-		// some groups if they have identical sort orders (up to now, we've grouped on
-		// token id, not sort order).
+	private void addGroup(HitPropValue groupId, List<Hit> hitList) {
+		HitGroup group = new HitGroup(searcher, groupId, defaultConcField, hitList);
+		group.setContextField(contextField);
+		groups.put(groupId, group);
+		groupsOrdered.add(group);
 	}
 
 	/**
@@ -6,9 +6,12 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.uninverting.UninvertingReader;
+import org.apache.lucene.util.Bits;
 
 /**
  * Used to get an integer field value for a document.
@@ -26,6 +29,10 @@ public class DocIntFieldGetter implements Closeable {
 	/** Lengths may have been cached using FieldCache */
 	private NumericDocValues docValues;
 
+	/** If the field has DocValues, but not all documents have a value
+	 *  (i.e. older documents were merged into a newer segment): which ones do */
+	private Bits docsWithValue;
+
 	/** Reader for getting docValues even when they weren't explicitly indexed */
 	private UninvertingReader uninv;
 
@@ -40,6 +47,14 @@ public class DocIntFieldGetter implements Closeable {
 			fields.put(intFieldName, UninvertingReader.Type.INTEGER);
 			uninv = new UninvertingReader(reader, fields);
 			docValues = uninv.getNumericDocValues(intFieldName);
+
+			// NOTE: if the field was indexed with DocValues, UninvertingReader returns those
+			FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo(intFieldName);
+			if (fieldInfo != null && fieldInfo.getDocValuesType() == DocValuesType.NUMERIC) {
+				Bits bits = reader.getDocsWithField(intFieldName);
+				if (!(bits instanceof Bits.MatchAllBits))
+					docsWithValue = bits;
+			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -65,12 +80,13 @@ public class DocIntFieldGetter implements Closeable {
 	public int getFieldValue(int doc) {
 
 		// Cached doc values?
-		if (docValues != null) {
+		if (docValues != null && (docsWithValue == null || docsWithValue.get(doc))) {
 			return (int)docValues.get(doc);
 		}
 
 		// No; get the field value from the Document object.
-		// (Note that this code should never be executed, but just to be safe)
+		// (Note that this code should only be executed for older documents that were
+		//  merged into a segment with DocValues, but just to be safe)
 		Document document;
 		try {
 			document = reader.document(doc);
@@ -0,0 +1,213 @@
+package nl.inl.blacklab.search.lucene;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Used to get the value of a (metadata) string field for a document.
+ *
+ * If the field was indexed with SortedDocValues (as metadata fields are by
+ * DocIndexer), we use those, and can provide (index-wide) ordinals for the
+ * values, which sort in the same order as the values themselves. This is
+ * much faster than reading the stored field from each document.
+ *
+ * Older indexes don't have DocValues for metadata fields; in that case, we
+ * fall back to reading the stored field, and ordinals are not available.
+ * The same goes for segments where older documents without DocValues were
+ * merged with newer ones, and for fields with values that were too long to
+ * be stored in the DocValues completely.
+ *
+ * Instances are not thread-safe; each thread should create its own.
+ */
+public class DocStringFieldGetter {
+
+	/** Value returned by getOrd() if a document has no value */
+	public static final int NO_VALUE = -1;
+
+	/** Maximum length (in chars) of values stored in DocValues; longer values are truncated
+	 *  (Lucene's limit is the same as for terms; a char takes at most 3 bytes in UTF-8) */
+	public static final int MAX_VALUE_LENGTH = IndexWriter.MAX_TERM_LENGTH / 3;
+
+	/** Per segment (core) and field: can we use the segment's DocValues? (see segmentDocValuesUsable()) */
+	private static final Map<Object, Map<String, Boolean>> segmentDocValuesUsable = new WeakHashMap<>();
+
+	/** The Lucene index reader */
+	private IndexReader reader;
+
+	/** Field to get the value of */
+	private String fieldName;
+
+	/** Just our field (for reading stored fields) */
+	private Set<String> fieldsToLoad;
+
+	/** The DocValues for our field (with index-wide ordinals), or null if not available */
+	private SortedDocValues docValues;
+
+	public DocStringFieldGetter(IndexReader reader, String fieldName) {
+		this.reader = reader;
+		this.fieldName = fieldName;
+		fieldsToLoad = Collections.singleton(fieldName);
+		try {
+			if (docValuesUsable())
+				docValues = MultiDocValues.getSortedValues(reader, fieldName);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Check that we can use the DocValues of each segment containing our field.
+	 *
+	 * Indexes created before we started adding DocValues for metadata, or
+	 * with documents added to them since, may not have them for all documents.
+	 * In that case, we can't use the DocValues.
+	 *
+	 * @return true iff we can use the DocValues
+	 * @throws IOException on error
+	 */
+	private boolean docValuesUsable() throws IOException {
+		boolean found = false;
+		for (LeafReaderContext rc: reader.leaves()) {
+			FieldInfo fieldInfo = rc.reader().getFieldInfos().fieldInfo(fieldName);
+			if (fieldInfo == null)
+				continue; // field doesn't occur in this segment
+			if (fieldInfo.getDocValuesType() != DocValuesType.SORTED || !segmentDocValuesUsable(rc.reader()))
+				return false;
+			found = true;
+		}
+		return found;
+	}
+
+	/**
+	 * Check that a segment's DocValues for our field are complete and not truncated.
+	 *
+	 * Documents without a value must really not have one (older documents without
+	 * DocValues may have been merged into this segment), and no value may have been
+	 * truncated (because then one ordinal could stand for several different values).
+	 *
+	 * This involves reading the stored field for documents without a value, so we
+	 * remember the result for each segment (it doesn't change, as segments are immutable).
+	 *
+	 * @param segmentReader the segment
+	 * @return true iff we can use the segment's DocValues
+	 * @throws IOException on error
+	 */
+	private boolean segmentDocValuesUsable(LeafReader segmentReader) throws IOException {
+		Object key = segmentReader.getCoreCacheKey();
+		synchronized (segmentDocValuesUsable) {
+			Map<String, Boolean> usablePerField = segmentDocValuesUsable.get(key);
+			if (usablePerField != null && usablePerField.containsKey(fieldName))
+				return usablePerField.get(fieldName);
+		}
+
+		boolean usable = true;
+		SortedDocValues segmentDocValues = segmentReader.getSortedDocValues(fieldName);
+		for (int ord = 0; usable && ord < segmentDocValues.getValueCount(); ord++) {
+			// (a value this long may have been truncated; UTF-8 length is at least the length in chars)
+			if (segmentDocValues.lookupOrd(ord).length >= MAX_VALUE_LENGTH)
+				usable = false;
+		}
+		Bits docsWithField = segmentReader.getDocsWithField(fieldName);
+		for (int doc = 0; usable && doc < segmentReader.maxDoc(); doc++) {
+			if (!docsWithField.get(doc) && segmentReader.document(doc, fieldsToLoad).get(fieldName) != null)
+				usable = false; // older document without DocValues
+		}
+
+		synchronized (segmentDocValuesUsable) {
+			Map<String, Boolean> usablePerField = segmentDocValuesUsable.get(key);
+			if (usablePerField == null) {
+				usablePerField = new HashMap<>();
+				segmentDocValuesUsable.put(key, usablePerField);
+			}
+			usablePerField.put(fieldName, usable);
+		}
+		return usable;
+	}
+
+	/**
+	 * Can we get ordinals for the values of this field?
+	 *
+	 * @return true iff getOrd() and lookupOrd() can be used
+	 */
+	public boolean hasOrdinals() {
+		return docValues != null;
+	}
+
+	/**
+	 * Get the number of distinct values (ordinals) of this field.
+	 *
+	 * @return number of ordinals
+	 */
+	public int getValueCount() {
+		if (docValues == null)
+			throw new UnsupportedOperationException("No ordinals for field " + fieldName);
+		return docValues.getValueCount();
+	}
+
+	/**
+	 * Get the ordinal of the value of our field in the specified document.
+	 *
+	 * Ordinals sort in the same order as the (UTF-8 bytes of the) values.
+	 *
+	 * @param doc the document
+	 * @return the ordinal, or NO_VALUE if the document has no value
+	 */
+	public int getOrd(int doc) {
+		if (docValues == null)
+			throw new UnsupportedOperationException("No ordinals for field " + fieldName);
+		return docValues.getOrd(doc);
+	}
+
+	/**
+	 * Get the value corresponding to an ordinal.
+	 *
+	 * @param ord the ordinal
+	 * @return the value
+	 */
+	public String lookupOrd(int ord) {
+		if (docValues == null)
+			throw new UnsupportedOperationException("No ordinals for field " + fieldName);
+		BytesRef value = docValues.lookupOrd(ord);
+		return value.utf8ToString();
+	}
+
+	/**
+	 * Get the value of our field in the specified document.
+	 *
+	 * @param doc the document
+	 * @return value of the field, or null if the document has no value
+	 */
+	public String getFieldValue(int doc) {
+
+		// DocValues available?
+		if (docValues != null) {
+			int ord = docValues.getOrd(doc);
+			return ord < 0 ? null : docValues.lookupOrd(ord).utf8ToString();
+		}
+
+		// No; get the field value from the Document object.
+		Document document;
+		try {
+			document = reader.document(doc, fieldsToLoad);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return document.get(fieldName);
+	}
+}
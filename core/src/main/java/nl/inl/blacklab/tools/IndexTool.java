@@ -17,6 +17,7 @@ package nl.inl.blacklab.tools;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -32,6 +33,10 @@ import java.util.TreeMap;
 
 import org.apache.lucene.index.CorruptIndexException;
 
+import nl.inl.blacklab.externalstorage.ContentStoreDirAbstract;
+import nl.inl.blacklab.externalstorage.ContentStoreDirFixedBlock;
+import nl.inl.blacklab.forwardindex.ForwardIndex;
+import nl.inl.blacklab.forwardindex.TermFrequencyTable;
 import nl.inl.blacklab.index.DocIndexerFactory.Format;
 import nl.inl.blacklab.index.DocumentFormatException;
 import nl.inl.blacklab.index.DocumentFormats;
@@ -43,6 +48,7 @@ import nl.inl.util.FileUtil;
 import nl.inl.util.LogUtil;
 import nl.inl.util.LuceneUtil;
 import nl.inl.util.StringUtil;
+import nl.inl.util.VersionFile;
 
 /**
  * The indexer class and main program for the ANW corpus.
@@ -64,9 +70,11 @@ public class IndexTool {
 		String docFormat = null;
 		boolean createNewIndex = false;
 		String command = "";
-		Set<String> commands = new HashSet<>(Arrays.asList("add", "create", "delete"));
+		Set<String> commands = new HashSet<>(Arrays.asList("add", "create", "delete", "freqtable", "recompress"));
 		boolean addingFiles = true;
 		String deleteQuery = null;
+		String freqTableField = null;
+		String codecName = null;
 		boolean useThreads = false;
 		List<File> linkedFileDirs = new ArrayList<>();
 		for (int i = 0; i < args.length; i++) {
@@ -173,6 +181,10 @@ public class IndexTool {
 					docFormat = arg;
 				} else if (command.equals("delete") && deleteQuery == null) {
 					deleteQuery = arg;
+				} else if (command.equals("freqtable") && freqTableField == null) {
+					freqTableField = arg;
+				} else if (command.equals("recompress") && codecName == null) {
+					codecName = arg;
 				} else {
 					System.err.println("Too many arguments!");
 					usage();
@@ -198,6 +210,14 @@ public class IndexTool {
 			commandDelete(indexDir, deleteQuery);
 			return;
 		}
+		if (command.equals("freqtable")) {
+			commandFreqTable(indexDir, freqTableField);
+			return;
+		}
+		if (command.equals("recompress")) {
+			commandRecompress(indexDir, codecName);
+			return;
+		}
 		if (command.equals("create"))
 			createNewIndex = true;
 
@@ -323,6 +343,51 @@ public class IndexTool {
 		}
 	}
 
+	private static void commandFreqTable(File indexDir, String metadataField) throws IOException {
+		Searcher searcher = Searcher.open(indexDir);
+		try {
+			if (metadataField != null && !searcher.getIndexStructure().hasMetadataField(metadataField)) {
+				System.err.println("Unknown metadata field: " + metadataField);
+				return;
+			}
+			for (Map.Entry<String, ForwardIndex> e: searcher.getForwardIndices().entrySet()) {
+				System.out.println("Building frequency table for " + e.getKey()
+						+ (metadataField == null ? "" : " per " + metadataField) + "...");
+				ForwardIndex fi = e.getValue();
+				fi.addFrequencyTable(TermFrequencyTable.build(fi, searcher.getIndexReader(), metadataField));
+			}
+		} finally {
+			searcher.close();
+		}
+	}
+
+	private static void commandRecompress(File indexDir, String codecName) {
+		if (codecName == null) {
+			System.err.println("No codec given.");
+			usage();
+			return;
+		}
+		File[] contentStoreDirs = indexDir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File f) {
+				return f.isDirectory() && f.getName().startsWith("cs_") && VersionFile.exists(f);
+			}
+		});
+		if (contentStoreDirs == null || contentStoreDirs.length == 0) {
+			System.err.println("No content stores found in " + indexDir);
+			return;
+		}
+		for (File dir: contentStoreDirs) {
+			VersionFile vf = ContentStoreDirAbstract.getStoreTypeVersion(dir);
+			if (!vf.getType().equals("fixedblock")) {
+				System.err.println("Skipping " + dir.getName() + ": content store type " + vf.getType() + " cannot be recompressed");
+				continue;
+			}
+			System.out.println("Recompressing " + dir.getName() + " using " + codecName + "...");
+			ContentStoreDirFixedBlock.recompress(dir, codecName);
+		}
+	}
+
 	private static void usage() {
 		System.err.flush();
 		System.out.flush();
@@ -330,6 +395,14 @@ public class IndexTool {
 				.println("Usage:\n"
 						+ "  IndexTool {add|create} [options] <indexdir> <inputdir> <format>\n"
 						+ "  IndexTool delete <indexdir> <filterQuery>\n"
+						+ "  IndexTool freqtable <indexdir> [<metadataField>]\n"
+						+ "      Build term frequency tables for the forward indexes (per value of\n"
+						+ "      <metadataField> if given); these are updated when documents are added\n"
+						+ "      or deleted.\n"
+						+ "  IndexTool recompress <indexdir> {deflate|lz4}\n"
+						+ "      Recompress the content stores using a different codec. lz4 makes\n"
+						+ "      retrieving snippets and documents faster, but uses more disk space.\n"
+						+ "      Make sure nobody is using the index while this runs.\n"
 						+ "\n"
 						+ "Options:\n"
 						+ "  --maxdocs <n>          Stop after indexing <n> documents\n"
@@ -1,5 +1,8 @@
 package nl.inl.util;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 public class ArrayUtil {
 
 	private ArrayUtil() {
@@ -37,4 +40,189 @@ public class ArrayUtil {
 		return 1;
 	}
 
+	/**
+	 * Determine the order of an array of keys, without boxing.
+	 *
+	 * The sort is stable, so elements with equal keys keep their relative order.
+	 * If the keys are already in ascending order (a common case), no sorting is done.
+	 *
+	 * @param keys the keys to sort on
+	 * @param n number of keys to consider (the first n in the array)
+	 * @return indexes into keys, in the order of ascending key
+	 */
+	public static int[] sortedIndexes(long[] keys, int n) {
+		int[] order = new int[n];
+		boolean alreadySorted = true;
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+			if (i > 0 && keys[i] < keys[i - 1])
+				alreadySorted = false;
+		}
+		if (!alreadySorted)
+			mergeSortIndexes(order, new int[n], 0, n, keys);
+		return order;
+	}
+
+	/**
+	 * Stable merge sort of (part of) an array of indexes by the associated keys.
+	 *
+	 * @param order indexes to sort
+	 * @param scratch temporary array, at least as large as order
+	 * @param from first index in order to sort
+	 * @param to index after the last one to sort
+	 * @param keys the keys to sort on
+	 */
+	private static void mergeSortIndexes(int[] order, int[] scratch, int from, int to, long[] keys) {
+		if (to - from < 2)
+			return;
+		int middle = (from + to) >>> 1;
+		mergeSortIndexes(order, scratch, from, middle, keys);
+		mergeSortIndexes(order, scratch, middle, to, keys);
+		if (keys[order[middle - 1]] <= keys[order[middle]])
+			return; // halves are already in order
+		System.arraycopy(order, from, scratch, from, to - from);
+		int left = from, right = middle;
+		for (int i = from; i < to; i++) {
+			if (right >= to || left < middle && keys[scratch[left]] <= keys[scratch[right]])
+				order[i] = scratch[left++];
+			else
+				order[i] = scratch[right++];
+		}
+	}
+
+	/** Below this size, ArrayUtil.sort() uses insertion sort */
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	/**
+	 * Sort (part of) an array of ints using a custom comparator, without boxing.
+	 *
+	 * The sort is stable, so elements that compare equal keep their relative order
+	 * (like Arrays.sort() for objects).
+	 *
+	 * @param a the array to sort
+	 * @param from first index to sort
+	 * @param to index after the last one to sort
+	 * @param comparator how to compare the values
+	 */
+	public static void sort(int[] a, int from, int to, IntComparator comparator) {
+		if (to - from < 2)
+			return;
+		int[] scratch = to - from <= INSERTION_SORT_THRESHOLD ? null : new int[to];
+		mergeSort(a, scratch, from, to, comparator);
+	}
+
+	/**
+	 * Stable merge sort of (part of) an array of ints using a custom comparator.
+	 *
+	 * @param a ints to sort
+	 * @param scratch temporary array, at least as large as a
+	 * @param from first index to sort
+	 * @param to index after the last one to sort
+	 * @param comparator how to compare the values
+	 */
+	private static void mergeSort(int[] a, int[] scratch, int from, int to, IntComparator comparator) {
+		if (to - from <= INSERTION_SORT_THRESHOLD) {
+			// Small range; insertion sort is faster
+			for (int i = from + 1; i < to; i++) {
+				int value = a[i];
+				int j = i;
+				while (j > from && comparator.compare(a[j - 1], value) > 0) {
+					a[j] = a[j - 1];
+					j--;
+				}
+				a[j] = value;
+			}
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(a, scratch, from, middle, comparator);
+		mergeSort(a, scratch, middle, to, comparator);
+		merge(a, scratch, from, middle, to, comparator);
+	}
+
+	/**
+	 * Merge two adjacent sorted parts of an array of ints.
+	 *
+	 * @param a ints to merge
+	 * @param scratch temporary array, at least as large as a
+	 * @param from first index of the first part
+	 * @param middle first index of the second part
+	 * @param to index after the last one of the second part
+	 * @param comparator how to compare the values
+	 */
+	private static void merge(int[] a, int[] scratch, int from, int middle, int to, IntComparator comparator) {
+		if (comparator.compare(a[middle - 1], a[middle]) <= 0)
+			return; // halves are already in order
+		System.arraycopy(a, from, scratch, from, to - from);
+		int left = from, right = middle;
+		for (int i = from; i < to; i++) {
+			if (right >= to || left < middle && comparator.compare(scratch[left], scratch[right]) <= 0)
+				a[i] = scratch[left++];
+			else
+				a[i] = scratch[right++];
+		}
+	}
+
+	/** Below this size, ArrayUtil.parallelSort() doesn't split the work any further */
+	private static final int PARALLEL_SORT_MIN_CHUNK = 8192;
+
+	/**
+	 * Sort (part of) an array of ints using a custom comparator, using multiple threads.
+	 *
+	 * Gives the same result as sort(), but divides the work over the common
+	 * fork-join pool. The comparator will be called from several threads at
+	 * the same time, so it must be thread-safe.
+	 *
+	 * @param a the array to sort
+	 * @param from first index to sort
+	 * @param to index after the last one to sort
+	 * @param comparator how to compare the values
+	 */
+	public static void parallelSort(int[] a, int from, int to, IntComparator comparator) {
+		if (to - from <= PARALLEL_SORT_MIN_CHUNK || ForkJoinPool.getCommonPoolParallelism() <= 1) {
+			// Not worth the overhead (or no extra threads available)
+			sort(a, from, to, comparator);
+			return;
+		}
+		ForkJoinPool.commonPool().invoke(new MergeSortTask(a, new int[to], from, to, comparator));
+	}
+
+	/**
+	 * Sorts part of an array, sorting the halves in parallel and then merging them.
+	 */
+	private static class MergeSortTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int[] a;
+
+		private int[] scratch;
+
+		private int from;
+
+		private int to;
+
+		private IntComparator comparator;
+
+		MergeSortTask(int[] a, int[] scratch, int from, int to, IntComparator comparator) {
+			this.a = a;
+			this.scratch = scratch;
+			this.from = from;
+			this.to = to;
+			this.comparator = comparator;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= PARALLEL_SORT_MIN_CHUNK) {
+				mergeSort(a, scratch, from, to, comparator);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new MergeSortTask(a, scratch, from, middle, comparator),
+					new MergeSortTask(a, scratch, middle, to, comparator));
+			merge(a, scratch, from, middle, to, comparator);
+		}
+	}
+
 }
@@ -0,0 +1,20 @@
+package nl.inl.util;
+
+/**
+ * Compares two ints, like Comparator does for objects, but without boxing.
+ *
+ * Used to sort int arrays (for example, hit indexes) in a custom order,
+ * see ArrayUtil.sort().
+ */
+public interface IntComparator {
+
+	/**
+	 * Compare two values.
+	 *
+	 * @param a first value
+	 * @param b second value
+	 * @return 0 if equal, negative if a &lt; b, positive if a &gt; b
+	 */
+	int compare(int a, int b);
+
+}
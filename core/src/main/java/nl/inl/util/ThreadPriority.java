@@ -33,22 +33,63 @@ public class ThreadPriority implements Prioritizable {
 		ThreadPriority.enabled = enabled;
 	}
 
-	/** The thread we're running in. */
-	Thread currentThread;
+	/**
+	 * Per thread: the operation that thread is working for, if the thread should give up
+	 * its work when that operation is paused, instead of waiting (see setYieldWhenPaused()).
+	 */
+	private static final ThreadLocal<Prioritizable> yieldWhenPaused = new ThreadLocal<>();
+
+	/**
+	 * Make behave() in the current thread give up the work (by throwing Paused)
+	 * instead of waiting while the operation it's working for is paused.
+	 *
+	 * Meant for workers from a pool: they shouldn't sit in behave() while paused,
+	 * but go do something else and pick up the work again later.
+	 *
+	 * @param owner the operation the current thread is working for, or null to wait
+	 *   in behave() again
+	 * @return the previous value, so it can be restored
+	 */
+	public static Prioritizable setYieldWhenPaused(Prioritizable owner) {
+		Prioritizable previous = yieldWhenPaused.get();
+		if (owner == null)
+			yieldWhenPaused.remove();
+		else
+			yieldWhenPaused.set(owner);
+		return previous;
+	}
+
+	/**
+	 * Thrown by behave() in a thread that should give up its work while paused
+	 * (see setYieldWhenPaused()). The operation was stopped at a point where it
+	 * can safely be continued or restarted later.
+	 */
+	public static class Paused extends RuntimeException {
+		public Paused() {
+			super("Operation paused");
+		}
+	}
+
+	/**
+	 * The thread reading for us right now, if any. Only used by helper threads,
+	 * see shouldPause().
+	 */
+	private volatile Thread currentThread;
 
 	/** What's the intended priority level? */
-	private Level level = Level.RUNNING;
+	private volatile Level level = Level.RUNNING;
 
 	/**
 	 * Create a ThreadEtiquette object.
 	 */
 	public ThreadPriority() {
-		reset();
+		// (no thread bound until one starts reading; see reset())
 	}
 
 	@Override
-	public void setPriorityLevel(Level level) {
+	public synchronized void setPriorityLevel(Level level) {
 		this.level = level;
+		notifyAll(); // wake up our thread if it was waiting in behave()
 	}
 
 	@Override
@@ -56,31 +97,74 @@ public class ThreadPriority implements Prioritizable {
 		return level;
 	}
 
+	/**
+	 * Bind the current thread to this object, so helper threads working for it
+	 * know whether it was interrupted (see shouldPause()).
+	 *
+	 * Call clearThread() when the thread stops working for us, so we don't keep
+	 * looking at a (pooled) thread that may be doing something else by then.
+	 */
 	public void reset() {
 		currentThread = Thread.currentThread();
 	}
 
+	/**
+	 * Unbind the thread bound by reset().
+	 */
+	public void clearThread() {
+		currentThread = null;
+	}
+
+	/**
+	 * Should our thread pause (or abort)?
+	 *
+	 * Like behave(), but doesn't wait. Meant for helper threads from a shared pool
+	 * that work for our thread: they shouldn't wait in the pool, but stop and leave
+	 * it to our thread to call behave().
+	 *
+	 * @return true iff behave() would wait or throw an exception
+	 */
+	public boolean shouldPause() {
+		if (!enabled)
+			return false;
+		Thread thread = currentThread;
+		return level != Level.RUNNING || thread != null && thread.isInterrupted();
+	}
+
 	/**
 	 * Make sure our thread is behaving like a respectable citizen.
 	 *
 	 * That means: if it's taking long, it should sleep from time to time;
 	 * if it's taking too long, it should be interrupted.
 	 *
+	 * While the priority level is not RUNNING, this waits until it is set
+	 * back to RUNNING (without using the CPU in the meantime), unless the
+	 * current thread should give up its work instead (see setYieldWhenPaused()).
+	 *
 	 * @throws InterruptedException if operation was taking too long,
 	 *   or the thread was interrupted from elsewhere
+	 * @throws Paused if the current thread should give up its work while paused
 	 */
 	public void behave() throws InterruptedException {
 
 		if (!enabled)
 			return;
 
-		if (currentThread.isInterrupted()) {
+		// Check the calling thread, not the bound one: that's the one doing the work
+		if (Thread.currentThread().isInterrupted()) {
 			logger.debug("Thread was interrupted, throw exception");
 			throw new InterruptedException("Operation aborted");
 		}
 
-		while (level != Level.RUNNING) {
-			Thread.sleep(100);
+		if (level == Level.RUNNING)
+			return;
+		synchronized (this) {
+			while (level != Level.RUNNING) {
+				Prioritizable owner = yieldWhenPaused.get();
+				if (owner != null && owner.getPriorityLevel() == Level.PAUSED)
+					throw new Paused();
+				wait();
+			}
 		}
 	}
 }
@@ -73,9 +73,24 @@ public class VersionFile {
 	 * @return the VersionFile object
 	 */
 	public static VersionFile write(File dir, String type, String version) {
+		return write(dir, type, version, null);
+	}
+
+	/**
+	 * Write version file to directory
+	 *
+	 * @param dir
+	 *            the directory to write the version file to
+	 * @param type the type to write
+	 * @param version the version to write
+	 * @param codec the codec to write, or null for none
+	 * @return the VersionFile object
+	 */
+	public static VersionFile write(File dir, String type, String version, String codec) {
 		VersionFile f = new VersionFile(dir);
 		f.setType(type);
 		f.setVersion(version);
+		f.setCodec(codec);
 		f.write();
 		return f;
 	}
@@ -118,6 +133,9 @@ public class VersionFile {
 
 	private String version;
 
+	/** Codec used to encode the data (optional; only recorded by some types) */
+	private String codec;
+
 	public String getType() {
 		return type;
 	}
@@ -134,6 +152,14 @@ public class VersionFile {
 		this.version = version;
 	}
 
+	public String getCodec() {
+		return codec;
+	}
+
+	public void setCodec(String codec) {
+		this.codec = codec;
+	}
+
 	public VersionFile(File dir) {
 		file = new File(dir, "version.dat");
 	}
@@ -154,6 +180,8 @@ public class VersionFile {
 				type = info[0];
 				if (info.length > 1)
 					version = info[1];
+				if (info.length > 2)
+					codec = info[2];
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -162,13 +190,13 @@ public class VersionFile {
 
 	public void write() {
 		try (PrintWriter w = FileUtil.openForWriting(file)) {
-			w.write(type + "||" + version + "\n");
+			w.write(type + "||" + version + (codec == null ? "" : "||" + codec) + "\n");
 		}
 	}
 
 	@Override
 	public String toString() {
-		return "type = " + type + ", version = " + version;
+		return "type = " + type + ", version = " + version + (codec == null ? "" : ", codec = " + codec);
 	}
 
 	public static String report(File indexDir) {
@@ -6,6 +6,7 @@ import java.util.Set;
 import org.apache.lucene.index.IndexReader;
 
 import nl.inl.blacklab.forwardindex.ForwardIndex;
+import nl.inl.blacklab.forwardindex.TermFrequencyTable;
 import nl.inl.blacklab.forwardindex.Terms;
 
 public class MockForwardIndex extends ForwardIndex {
@@ -104,4 +105,9 @@ public class MockForwardIndex extends ForwardIndex {
 		return false;
 	}
 
+	@Override
+	public void addFrequencyTable(TermFrequencyTable table) {
+		throw new UnsupportedOperationException();
+	}
+
 }
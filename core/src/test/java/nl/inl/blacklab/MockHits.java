@@ -170,6 +170,12 @@ public class MockHits extends Hits {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public TermFrequencyList getCollocations(String propName, QueryExecutionContext ctx,
+			int contextSizeLeft, int contextSizeRight) {
+		throw new UnsupportedOperationException();
+	}
+
 	@Override
 	public boolean hasCapturedGroups() {
 		return false;
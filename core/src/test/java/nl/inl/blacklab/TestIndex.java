@@ -26,7 +26,7 @@ public class TestIndex {
 	 * Some test XML data to index.
 	 */
 	final static String[] testData = {
-		"<doc><s><entity><w l='the'   p='art' >The</w> "
+		"<doc year='1984'><s><entity><w l='the'   p='art' >The</w> "
 		+ "<w l='quick' p='adj'>quick</w> "
 		+ "<w l='brown' p='adj'>brown</w> "
 		+ "<w l='fox'   p='nou'>fox</w></entity> "
@@ -36,14 +36,14 @@ public class TestIndex {
 		+ "<w l='lazy'  p='adj'>lazy</w> "
 		+ "<w l='dog'   p='nou'>dog</w></entity>" + ".</s></doc>",
 
-		"<doc> <s><w l='may' p='vrb'>May</w> "
+		"<doc year='1989'> <s><w l='may' p='vrb'>May</w> "
 		+ "<entity><w l='the' p='art'>the</w> "
 		+ "<w l='force' p='nou'>Force</w></entity> "
 		+ "<w l='be' p='vrb'>be</w> "
 		+ "<w l='with' p='pre'>with</w> "
 		+ "<w l='you' p='pro'>you</w>" + ".</s></doc>",
 
-		"<doc> <s><w l='to' p='pre'>To</w> "
+		"<doc year='2001'> <s><w l='to' p='pre'>To</w> "
 		+ "<w l='find' p='vrb'>find</w> "
 		+ "<w l='or' p='con'>or</w> "
 		+ "<w l='be' p='adv'>not</w> "
@@ -88,10 +88,21 @@ public class TestIndex {
 	private File indexDir;
 
 	public TestIndex() throws Exception {
+		this(0);
+	}
+
+	/**
+	 * Create the test index.
+	 *
+	 * @param docsPerSegment if greater than 0, commit after this many documents,
+	 *   so the index has multiple segments
+	 * @throws Exception
+	 */
+	public TestIndex(int docsPerSegment) throws Exception {
 
 		// Get a temporary directory for our test index
 		indexDir = new File(System.getProperty("java.io.tmpdir"),
-				"BlackLabExample");
+				docsPerSegment > 0 ? "BlackLabExampleMultiSegment" : "BlackLabExample");
 		if (indexDir.exists()) {
 			// Delete the old example dir
 			// (NOTE: we also try to do this on exit but it may fail due to
@@ -107,6 +118,8 @@ public class TestIndex {
 			// Index each of our test "documents".
 			for (int i = 0; i < testData.length; i++) {
 				indexer.index("test" + (i + 1), new ByteArrayInputStream(testData[i].getBytes()));
+				if (docsPerSegment > 0 && (i + 1) % docsPerSegment == 0)
+					indexer.getSearcher().getWriter().commit();
 			}
 		} finally {
 			// Finalize and close the index.
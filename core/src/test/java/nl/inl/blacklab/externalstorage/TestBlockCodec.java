@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.externalstorage;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBlockCodec {
+
+	private static void assertRoundTrip(String codecName, byte[] input) {
+		BlockCodec codec = BlockCodec.fromName(codecName);
+		try {
+			byte[] compressed = new byte[input.length * 2 + 100];
+			int compressedLength = codec.compress(input, input.length, compressed);
+			Assert.assertTrue(compressedLength > 0);
+
+			// Decompress with padding after the compressed data, like in the content store
+			byte[] decompressed = new byte[input.length + 1];
+			int length = codec.decompress(compressed, 0, compressed.length, decompressed);
+			Assert.assertEquals(input.length, length);
+			Assert.assertArrayEquals(input, Arrays.copyOf(decompressed, length));
+		} finally {
+			codec.close();
+		}
+	}
+
+	private static byte[] randomBytes(Random random, int length, int alphabetSize) {
+		byte[] result = new byte[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = (byte)('a' + random.nextInt(alphabetSize));
+		}
+		return result;
+	}
+
+	@Test
+	public void testRoundTrip() {
+		Random random = new Random(34567);
+		byte[] repeated = new byte[10000];
+		Arrays.fill(repeated, (byte)'x');
+		byte[][] inputs = {
+			"a".getBytes(),
+			"hello world".getBytes(),
+			"abcabcabcabcabcabcabcabcabcabcabcabcabcabc".getBytes(),
+			repeated,
+			randomBytes(random, 5000, 26),
+			randomBytes(random, 20000, 3),
+			randomBytes(random, 70000, 256),
+		};
+		for (String codecName: Arrays.asList("deflate", "lz4")) {
+			for (byte[] input: inputs) {
+				assertRoundTrip(codecName, input);
+			}
+		}
+	}
+
+	@Test
+	public void testLz4OutputTooSmall() {
+		BlockCodec codec = BlockCodec.fromName("lz4");
+		byte[] input = randomBytes(new Random(45678), 1000, 256);
+		Assert.assertEquals(-1, codec.compress(input, input.length, new byte[500]));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownCodec() {
+		BlockCodec.fromName("nonexistent");
+	}
+}
@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import nl.inl.util.UtilsForTesting;
 
@@ -95,6 +96,61 @@ public class TestContentStoreDirFixedBlock {
 		Assert.assertEquals(doc[1].substring(15, 18), parts[1]);
 	}
 
+	@Test
+	public void testRetrievePartsSameBlock() {
+		// Retrieve again, so the second time the blocks come from the cache
+		for (int k = 0; k < 2; k++) {
+			String[] parts = store.retrieveParts(4, new int[] { 10, 20, 4000, 100 }, new int[] { 30, 40, 7000, 8000 });
+			Assert.assertEquals(doc[3].substring(10, 30), parts[0]);
+			Assert.assertEquals(doc[3].substring(20, 40), parts[1]);
+			Assert.assertEquals(doc[3].substring(4000, 7000), parts[2]);
+			Assert.assertEquals(doc[3].substring(100, 8000), parts[3]);
+		}
+	}
+
+	@Test
+	public void testRetrievePartsUnsorted() {
+		// Overlapping ranges in no particular order, spanning several blocks; don't use the cache
+		((ContentStoreDirFixedBlock)store).setBlockCacheSize(0);
+		int[] start = { 7000, 0, 3, 5000, 7999, 2000, 0 };
+		int[] end = { 7500, 8000, 4, 7100, 8000, 6000, 1 };
+		String[] parts = store.retrieveParts(4, start, end);
+		for (int i = 0; i < start.length; i++) {
+			Assert.assertEquals(doc[3].substring(start[i], end[i]), parts[i]);
+		}
+	}
+
+	@Test
+	public void testRetrieveConcurrently() throws InterruptedException {
+		((ContentStoreDirFixedBlock)store).setBlockCacheSize(10000); // force evictions
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final Random random = new Random(t);
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 200; i++) {
+							int docIndex = random.nextInt(doc.length);
+							int start = random.nextInt(doc[docIndex].length() - 10);
+							int end = start + 1 + random.nextInt(doc[docIndex].length() - start);
+							Assert.assertEquals(doc[docIndex].substring(start, end), store.retrievePart(docIndex + 1, start, end));
+						}
+					} catch (Throwable e) {
+						error.set(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		if (error.get() != null)
+			throw new RuntimeException(error.get());
+	}
+
 	@Test
 	public void testDelete() {
 		store.delete(2);
@@ -104,6 +160,7 @@ public class TestContentStoreDirFixedBlock {
 
 	@Test
 	public void testDeleteReuse() {
+		Assert.assertEquals(doc[1], store.retrieve(2)); // make sure the blocks are cached
 		store.delete(2);
 		store.store(doc[3]);
 		Assert.assertEquals(doc[3], store.retrieve(5));
@@ -193,6 +250,52 @@ public class TestContentStoreDirFixedBlock {
 		Assert.assertEquals(doc[0], store.retrieve(1));
 	}
 
+	@Test
+	public void testLz4() {
+		File lz4Dir = new File(dir.getParentFile(), dir.getName() + "Lz4");
+		ContentStoreDirFixedBlock lz4Store = new ContentStoreDirFixedBlock(lz4Dir, true, "lz4");
+		StringBuilder repetitive = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			repetitive.append("<w lemma=\"word").append(i % 37).append("\">word</w> ");
+		}
+		try {
+			for (int i = 0; i < doc.length; i++) {
+				Assert.assertEquals(i + 1, lz4Store.store(doc[i]));
+			}
+			Assert.assertEquals(doc.length + 1, lz4Store.store(repetitive.toString()));
+		} finally {
+			lz4Store.close();
+		}
+
+		lz4Store = new ContentStoreDirFixedBlock(lz4Dir, false);
+		try {
+			Assert.assertEquals("lz4", lz4Store.getCodec().getName());
+			for (int i = 0; i < doc.length; i++) {
+				Assert.assertEquals(doc[i], lz4Store.retrieve(i + 1));
+			}
+			Assert.assertEquals(repetitive.toString(), lz4Store.retrieve(doc.length + 1));
+			Assert.assertEquals(repetitive.substring(30000, 30100), lz4Store.retrievePart(doc.length + 1, 30000, 30100));
+		} finally {
+			lz4Store.close();
+		}
+	}
+
+	@Test
+	public void testRecompress() {
+		store.delete(2);
+		store.close();
+		ContentStoreDirFixedBlock.recompress(dir, "lz4");
+		store = new ContentStoreDirFixedBlock(dir, false);
+		Assert.assertEquals("lz4", ((ContentStoreDirFixedBlock)store).getCodec().getName());
+		Assert.assertTrue(store.isDeleted(2));
+		Assert.assertNull(store.retrieve(2));
+		for (int i = 0; i < doc.length; i++) {
+			if (i != 1)
+				Assert.assertEquals(doc[i], store.retrieve(i + 1));
+		}
+		Assert.assertEquals(5, store.store("test"));
+	}
+
 	@Test
 	public void testCloseReopenAppend() {
 		store.close();
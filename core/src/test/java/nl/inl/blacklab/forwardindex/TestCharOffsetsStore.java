@@ -0,0 +1,102 @@
+package nl.inl.blacklab.forwardindex;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.inl.util.UtilsForTesting;
+
+public class TestCharOffsetsStore {
+	private CharOffsetsStore store;
+
+	private int oldChunkSize;
+
+	@Before
+	public void setUpStore() {
+		// Use tiny chunks so documents span several of them (20 bytes is rounded down to 2 positions)
+		oldChunkSize = CharOffsetsStore.preferredChunkSizeBytes;
+		CharOffsetsStore.preferredChunkSizeBytes = 20;
+
+		// Remove any previously left over temp test dirs
+		UtilsForTesting.removeBlackLabTestDirs();
+
+		// Create new test dir
+		File dir = UtilsForTesting.createBlackLabTestDir("CharOffsetsStore");
+
+		store = CharOffsetsStore.open(dir, true, true);
+		try {
+			// "The quick fox": each word at its own position
+			store.addDocument(0, IntArrayList.newListWith(0, 4, 10), IntArrayList.newListWith(3, 9, 13), null);
+
+			// Second value has increment 0 (same position), third skips a position
+			store.addDocument(1, IntArrayList.newListWith(2, 2, 8), IntArrayList.newListWith(6, 4, 12),
+					Arrays.asList(1, 0, 2));
+
+			// Added and then deleted
+			store.addDocument(2, IntArrayList.newListWith(0), IntArrayList.newListWith(1), null);
+			store.deleteDocument(2);
+
+			// (fiids may be re-used by the forward index)
+			store.addDocument(0, IntArrayList.newListWith(1, 5), IntArrayList.newListWith(4, 7), null);
+		} finally {
+			store.close(); // close so everything is guaranteed to be written
+		}
+		store = CharOffsetsStore.open(dir, false, false);
+	}
+
+	@After
+	public void tearDown() {
+		CharOffsetsStore.preferredChunkSizeBytes = oldChunkSize;
+		if (store != null)
+			store.close();
+		// Try to remove (some files may be locked though)
+		UtilsForTesting.removeBlackLabTestDirs();
+	}
+
+	@Test
+	public void testHasDocument() {
+		Assert.assertTrue(store.hasDocument(0));
+		Assert.assertTrue(store.hasDocument(1));
+		Assert.assertFalse(store.hasDocument(2));
+		Assert.assertFalse(store.hasDocument(3));
+	}
+
+	@Test
+	public void testOffsets() {
+		int[] starts = { 1, 0 };
+		int[] ends = { 0, 1 };
+		store.getCharacterOffsets(0, starts, ends, false);
+		Assert.assertArrayEquals(new int[] { 5, 1 }, starts);
+		Assert.assertArrayEquals(new int[] { 4, 7 }, ends);
+	}
+
+	@Test
+	public void testPositionIncrements() {
+		int[] starts = { 0, 2 };
+		int[] ends = { 0, 2 };
+		store.getCharacterOffsets(1, starts, ends, false);
+		Assert.assertArrayEquals(new int[] { 2, 8 }, starts); // first value at a position is used
+		Assert.assertArrayEquals(new int[] { 6, 12 }, ends);
+	}
+
+	@Test
+	public void testDefaults() {
+		// Position 1 was skipped, position 5 is past the end of the document
+		int[] starts = { 1, 5 };
+		int[] ends = { 1, 5 };
+		store.getCharacterOffsets(1, starts, ends, true);
+		Assert.assertArrayEquals(new int[] { 2, 2 }, starts);
+		Assert.assertArrayEquals(new int[] { 12, 12 }, ends);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testNotFound() {
+		store.getCharacterOffsets(1, new int[] { 1 }, new int[] { 0 }, false);
+	}
+
+}
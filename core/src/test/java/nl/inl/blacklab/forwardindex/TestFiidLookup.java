@@ -0,0 +1,74 @@
+package nl.inl.blacklab.forwardindex;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.inl.blacklab.index.complex.ComplexFieldUtil;
+
+public class TestFiidLookup {
+
+	private static final String FIELD = "contents%word";
+
+	private static final String FIID_FIELD = ComplexFieldUtil.forwardIndexIdField(FIELD);
+
+	/**
+	 * Add documents with the specified fiids.
+	 *
+	 * @param writer where to add them
+	 * @param firstFiid fiid of the first document
+	 * @param n number of documents to add
+	 * @param docValues if true, add DocValues (like current indexes); if false, don't (like older indexes)
+	 */
+	private static void addDocs(IndexWriter writer, int firstFiid, int n, boolean docValues) throws IOException {
+		for (int i = 0; i < n; i++) {
+			Document doc = new Document();
+			doc.add(new IntField(FIID_FIELD, firstFiid + i, Store.YES));
+			if (docValues)
+				doc.add(new NumericDocValuesField(FIID_FIELD, firstFiid + i));
+			writer.addDocument(doc);
+		}
+		writer.commit();
+	}
+
+	private static void assertFiids(Directory dir, int n) throws IOException {
+		// (stored values are read differently from FiidLookup, so we use them as a reference)
+		try (DirectoryReader reader = DirectoryReader.open(dir)) {
+			FiidLookup lookup = new FiidLookup(reader, FIELD);
+			Assert.assertEquals(n, reader.maxDoc());
+			for (int i = 0; i < n; i++) {
+				// (merging may change the order of the documents, so compare with the stored value)
+				int expected = Integer.parseInt(reader.document(i).get(FIID_FIELD));
+				Assert.assertEquals(expected, lookup.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testOldAndNewSegments() throws IOException {
+		Directory dir = new RAMDirectory();
+		try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new WhitespaceAnalyzer()))) {
+			addDocs(writer, 100, 3, false); // older segment, needs uninverting
+			addDocs(writer, 103, 3, true);
+			addDocs(writer, 106, 3, true);
+			assertFiids(dir, 9);
+
+			// Merging old and new documents creates a segment where only some have DocValues
+			writer.forceMerge(1);
+			writer.commit();
+			assertFiids(dir, 9);
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.forwardindex;
+
+import java.io.File;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.inl.util.UtilsForTesting;
+
+/** Test reading documents that span multiple chunks of the mapped tokens file. */
+public class TestForwardIndexChunks {
+	private ForwardIndex fi;
+
+	private File dir;
+
+	private int oldChunkSize;
+
+	// Lengths of the documents to add
+	private int[] docLengths = { 3, 10, 1, 7, 4 };
+
+	@Before
+	public void setUpForwardIndex() {
+		// Use tiny chunks so documents span several of them (18 bytes is rounded down to 4 tokens)
+		oldChunkSize = ForwardIndexImplV3.preferredChunkSizeBytes;
+		ForwardIndexImplV3.preferredChunkSizeBytes = 18;
+
+		// Remove any previously left over temp test dirs
+		UtilsForTesting.removeBlackLabTestDirs();
+
+		// Create new test dir
+		dir = UtilsForTesting.createBlackLabTestDir("ForwardIndexChunks");
+
+		fi = ForwardIndex.open(dir, true, Collator.getInstance(), true);
+		try {
+			for (int i = 0; i < docLengths.length; i++) {
+				List<String> content = new ArrayList<>();
+				for (int j = 0; j < docLengths[i]; j++) {
+					content.add(i + "-" + j);
+				}
+				Assert.assertEquals(i, fi.addDocument(content));
+			}
+		} finally {
+			fi.close(); // close so everything is guaranteed to be written
+		}
+		fi = ForwardIndex.open(dir, false, Collator.getInstance(), false);
+	}
+
+	@After
+	public void tearDown() {
+		ForwardIndexImplV3.preferredChunkSizeBytes = oldChunkSize;
+		if (fi != null)
+			fi.close();
+		// Try to remove (some files may be locked though)
+		UtilsForTesting.removeBlackLabTestDirs();
+	}
+
+	@Test
+	public void testRetrieveWholeDocuments() {
+		for (int i = 0; i < docLengths.length; i++) {
+			int[] tokens = fi.retrievePartsInt(i, new int[] { -1 }, new int[] { -1 }).get(0);
+			Assert.assertEquals(docLengths[i], tokens.length);
+			for (int j = 0; j < tokens.length; j++) {
+				Assert.assertEquals(i + "-" + j, fi.getTerms().get(tokens[j]));
+			}
+		}
+	}
+
+	@Test
+	public void testRetrieveAllParts() {
+		for (int i = 0; i < docLengths.length; i++) {
+			for (int start = 0; start < docLengths[i]; start++) {
+				for (int end = start + 1; end <= docLengths[i]; end++) {
+					int[] tokens = fi.retrievePartsInt(i, new int[] { start }, new int[] { end }).get(0);
+					Assert.assertEquals(end - start, tokens.length);
+					for (int j = 0; j < tokens.length; j++) {
+						Assert.assertEquals(i + "-" + (start + j), fi.getTerms().get(tokens[j]));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testChunkSmallerThanToken() {
+		// Chunk size is rounded down to a multiple of the token size, but never to zero
+		fi.close();
+		ForwardIndexImplV3.preferredChunkSizeBytes = 3;
+		fi = ForwardIndex.open(dir, false, Collator.getInstance(), false);
+		int[] tokens = fi.retrievePartsInt(1, new int[] { 2 }, new int[] { 6 }).get(0);
+		Assert.assertEquals(4, tokens.length);
+		for (int j = 0; j < tokens.length; j++) {
+			Assert.assertEquals("1-" + (2 + j), fi.getTerms().get(tokens[j]));
+		}
+	}
+
+	@Test
+	public void testRetrieveBatch() {
+		// Parts from different documents, not in file order, one clipped to the document length
+		int[] fiids = { 3, 1, 4, 1 };
+		int[] starts = { 2, 5, 0, -1 };
+		int[] ends = { 7, 9, 10, 2 };
+		int[] buffer = new int[30];
+		int[] offsets = new int[fiids.length + 1];
+		fi.retrievePartsIntBatch(fiids, starts, ends, fiids.length, buffer, offsets);
+		int[] expectedStarts = { 2, 5, 0, 0 };
+		int[] expectedEnds = { 7, 9, 4, 2 };
+		for (int i = 0; i < fiids.length; i++) {
+			Assert.assertEquals(expectedEnds[i] - expectedStarts[i], offsets[i + 1] - offsets[i]);
+			for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+				Assert.assertEquals(fiids[i] + "-" + (expectedStarts[i] + j - offsets[i]), fi.getTerms().get(buffer[j]));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.forwardindex;
+
+import java.io.File;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.inl.util.UtilsForTesting;
+
+public class TestForwardIndexConcurrentRead {
+	private static final int NUMBER_OF_DOCS = 20;
+
+	private static final int NUMBER_OF_THREADS = 8;
+
+	private ForwardIndex fi;
+
+	@Before
+	public void setUpForwardIndex() {
+		// Remove any previously left over temp test dirs
+		UtilsForTesting.removeBlackLabTestDirs();
+
+		// Create new test dir
+		File dir = UtilsForTesting.createBlackLabTestDir("ForwardIndexConcurrentRead");
+
+		fi = ForwardIndex.open(dir, true, Collator.getInstance(), true);
+		try {
+			// Document i consists of the tokens "0" .. "(i+10)"
+			for (int i = 0; i < NUMBER_OF_DOCS; i++) {
+				List<String> content = new ArrayList<>();
+				for (int j = 0; j < i + 10; j++) {
+					content.add(Integer.toString(j));
+				}
+				Assert.assertEquals(i, fi.addDocument(content));
+			}
+		} finally {
+			fi.close(); // close so everything is guaranteed to be written
+		}
+		fi = ForwardIndex.open(dir, false, Collator.getInstance(), false);
+	}
+
+	@After
+	public void tearDown() {
+		if (fi != null)
+			fi.close();
+		// Try to remove (some files may be locked though)
+		UtilsForTesting.removeBlackLabTestDirs();
+	}
+
+	/** Many threads retrieving different parts from the same (mapped) forward index. */
+	@Test
+	public void testConcurrentRetrieve() throws InterruptedException {
+		final AtomicInteger errors = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < NUMBER_OF_THREADS; t++) {
+			final int threadNumber = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					for (int iteration = 0; iteration < 1000; iteration++) {
+						int fiid = (iteration + threadNumber) % NUMBER_OF_DOCS;
+						int start = (iteration * 7 + threadNumber) % 5;
+						int end = start + 1 + (iteration + threadNumber) % 5;
+						int[] part = fi.retrievePartsInt(fiid, new int[] { start }, new int[] { end }).get(0);
+						for (int i = 0; i < part.length; i++) {
+							if (!fi.getTerms().get(part[i]).equals(Integer.toString(start + i)))
+								errors.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		Assert.assertEquals(0, errors.get());
+	}
+
+}
@@ -0,0 +1,81 @@
+package nl.inl.blacklab.forwardindex;
+
+import java.io.File;
+import java.text.Collator;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.inl.util.UtilsForTesting;
+
+public class TestForwardIndexCountTerms {
+	private ForwardIndex fi;
+
+	// The documents to add
+	String[][] str = {
+		{ "the", "quick", "fox" },
+		{ "the", "lazy", "dog", "and", "the", "fox" },
+		{ "a", "dog" },
+	};
+
+	@Before
+	public void setUpForwardIndex() {
+		// Remove any previously left over temp test dirs
+		UtilsForTesting.removeBlackLabTestDirs();
+
+		// Create new test dir
+		File dir = UtilsForTesting.createBlackLabTestDir("ForwardIndexCountTerms");
+
+		fi = ForwardIndex.open(dir, true, Collator.getInstance(), true);
+		try {
+			for (int i = 0; i < str.length; i++) {
+				Assert.assertEquals(i, fi.addDocument(Arrays.asList(str[i])));
+			}
+		} finally {
+			fi.close(); // close so everything is guaranteed to be written
+		}
+		fi = ForwardIndex.open(dir, false, Collator.getInstance(), false);
+	}
+
+	@After
+	public void tearDown() {
+		if (fi != null)
+			fi.close();
+		// Try to remove (some files may be locked though)
+		UtilsForTesting.removeBlackLabTestDirs();
+	}
+
+	private long count(long[] counts, String term) {
+		return counts[fi.getTerms().indexOf(term)];
+	}
+
+	@Test
+	public void testCountAll() {
+		long[] counts = fi.countTerms(new int[] { 0, 1, 2 });
+		Assert.assertEquals(fi.getTerms().numberOfTerms(), counts.length);
+		Assert.assertEquals(3, count(counts, "the"));
+		Assert.assertEquals(2, count(counts, "fox"));
+		Assert.assertEquals(2, count(counts, "dog"));
+		Assert.assertEquals(1, count(counts, "a"));
+	}
+
+	@Test
+	public void testCountSubset() {
+		long[] counts = fi.countTerms(new int[] { 2, 0 });
+		Assert.assertEquals(1, count(counts, "the"));
+		Assert.assertEquals(0, count(counts, "lazy"));
+		Assert.assertEquals(1, count(counts, "dog"));
+	}
+
+	@Test
+	public void testCountNone() {
+		long[] counts = fi.countTerms(new int[0]);
+		for (long n: counts) {
+			Assert.assertEquals(0, n);
+		}
+	}
+
+}
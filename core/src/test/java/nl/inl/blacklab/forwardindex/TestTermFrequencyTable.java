@@ -0,0 +1,122 @@
+package nl.inl.blacklab.forwardindex;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.inl.blacklab.TestIndex;
+import nl.inl.blacklab.index.Indexer;
+import nl.inl.blacklab.search.Searcher;
+import nl.inl.util.UtilsForTesting;
+
+public class TestTermFrequencyTable {
+
+	private File dir;
+
+	@Before
+	public void setUp() {
+		// Remove any previously left over temp test dirs
+		UtilsForTesting.removeBlackLabTestDirs();
+		dir = UtilsForTesting.createBlackLabTestDir("TermFrequencyTable");
+	}
+
+	@After
+	public void tearDown() {
+		UtilsForTesting.removeBlackLabTestDirs();
+	}
+
+	private static Document doc(String genre) {
+		Document d = new Document();
+		if (genre != null)
+			d.add(new StringField("genre", genre, Store.YES));
+		return d;
+	}
+
+	@Test
+	public void testUpdateAndReadBack() {
+		TermFrequencyTable table = new TermFrequencyTable("genre");
+		table.updateDocument(doc("poetry"), new int[] { 0, 1, 0 }, 1);
+		table.updateDocument(doc("prose"), new int[] { 2, 0 }, 1);
+		table.updateDocument(doc(null), new int[] { 3 }, 1);
+		table.updateDocument(doc("poetry"), new int[] { 1 }, 1);
+		table.updateDocument(doc("poetry"), new int[] { 1 }, -1); // deleted again
+		Assert.assertTrue(table.isModified());
+
+		File file = new File(dir, TermFrequencyTable.fileName("genre"));
+		table.write(file);
+		Assert.assertFalse(table.isModified());
+
+		TermFrequencyTable read = TermFrequencyTable.read(file);
+		Assert.assertEquals("genre", read.getMetadataField());
+		Assert.assertEquals(3, read.getValues().size());
+		Assert.assertArrayEquals(new long[] { 2, 1, 0, 0, 0 }, read.getCounts("poetry", 5));
+		Assert.assertArrayEquals(new long[] { 1, 0, 1, 0, 0 }, read.getCounts("prose", 5));
+		Assert.assertArrayEquals(new long[] { 0, 0, 0, 1, 0 }, read.getCounts(TermFrequencyTable.NO_VALUE, 5));
+		Assert.assertArrayEquals(new long[] { 3, 1, 1, 1, 0 }, read.getCounts(null, 5));
+	}
+
+	@Test
+	public void testCorpusWide() {
+		TermFrequencyTable table = new TermFrequencyTable(null);
+		table.updateDocument(doc("poetry"), new int[] { 1, 1 }, 1);
+		table.updateDocument(doc("prose"), new int[] { 0 }, 1);
+		File file = new File(dir, TermFrequencyTable.fileName(null));
+		table.write(file);
+
+		TermFrequencyTable read = TermFrequencyTable.read(file);
+		Assert.assertNull(read.getMetadataField());
+		Assert.assertEquals(1, read.getValues().size());
+		Assert.assertArrayEquals(new long[] { 1, 2 }, read.getCounts(null, 2));
+	}
+
+	@Test
+	public void testIndexerUpdate() throws Exception {
+		TestIndex testIndex = new TestIndex();
+		try {
+			Indexer indexer = new Indexer(testIndex.getSearcher().getIndexDirectory(), false);
+			try {
+				Searcher searcher = indexer.getSearcher();
+				Map<String, long[]> countsBefore = new HashMap<>();
+				for (Map.Entry<String, ForwardIndex> e: searcher.getForwardIndices().entrySet()) {
+					ForwardIndex fi = e.getValue();
+					fi.addFrequencyTable(TermFrequencyTable.build(fi, searcher.getIndexReader(), "year"));
+					countsBefore.put(e.getKey(), fi.getFrequencyTable("year").getCounts("1984", fi.getTerms().numberOfTerms()));
+				}
+
+				// Replace a document with itself (twice, so the first replacement is still
+				// buffered in the writer); the counts should stay the same
+				Term term = new Term("fromInputFile", "test1");
+				int docId = searcher.getIndexSearcher().search(new TermQuery(term), 1).scoreDocs[0].doc;
+				Document document = searcher.document(docId);
+				indexer.update(term, document);
+				indexer.update(term, document);
+
+				Assert.assertFalse(countsBefore.isEmpty());
+				for (Map.Entry<String, ForwardIndex> e: searcher.getForwardIndices().entrySet()) {
+					ForwardIndex fi = e.getValue();
+					long[] counts = fi.getFrequencyTable("year").getCounts("1984", fi.getTerms().numberOfTerms());
+					long total = 0;
+					for (long count: counts)
+						total += count;
+					Assert.assertTrue(total > 0);
+					Assert.assertArrayEquals(countsBefore.get(e.getKey()), counts);
+				}
+			} finally {
+				indexer.close();
+			}
+		} finally {
+			testIndex.close();
+		}
+	}
+
+}
@@ -138,4 +138,44 @@ public class TestTermsV3 {
             Assert.assertEquals(expected[i], results.intIterator().next());
         }
     }
+
+    /**
+     * Test that looking up unknown terms doesn't find anything.
+     */
+    @Test
+    public void testIndexOfNotFound() {
+        Assert.assertEquals(Terms.NO_TERM, t.indexOf("cat"));
+        MutableIntSet results = new IntHashSet();
+        t.indexOf(results, "cat", false, false);
+        Assert.assertTrue(results.isEmpty());
+    }
+
+    /**
+     * Test that case-insensitive lookup finds all case variants.
+     */
+    @Test
+    public void testIndexOfCaseVariants() {
+        Collator coll = Collator.getInstance(new Locale("en", "GB"));
+        Collators colls = new Collators(coll, CollatorVersion.V2);
+        Terms terms = Terms.open(true, colls, null, true);
+        String[] input = { "Fox", "dog", "fox", "cat", "FOX", "Dog" };
+        for (int i = 0; i < input.length; i++) {
+            terms.indexOf(input[i]);
+        }
+        File f = new File(dir, "terms2.dat");
+        terms.write(f);
+        terms = Terms.open(false, colls, f, true);
+
+        MutableIntSet results = new IntHashSet();
+        terms.indexOf(results, "fOx", false, false);
+        Assert.assertEquals(IntHashSet.newSetWith(0, 2, 4), results);
+        results.clear();
+        terms.indexOf(results, "DOG", false, false);
+        Assert.assertEquals(IntHashSet.newSetWith(1, 5), results);
+        results.clear();
+        terms.indexOf(results, "fox", true, true);
+        Assert.assertEquals(IntHashSet.newSetWith(2), results);
+        Assert.assertEquals(4, terms.indexOf("FOX"));
+        Assert.assertEquals(Terms.NO_TERM, terms.indexOf("fOx"));
+    }
 }
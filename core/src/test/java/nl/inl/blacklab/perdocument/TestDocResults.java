@@ -21,6 +21,8 @@ import org.junit.Test;
 import nl.inl.blacklab.MockHits;
 import nl.inl.blacklab.MockSearcher;
 import nl.inl.blacklab.search.Hits;
+import nl.inl.blacklab.search.grouping.HitPropValueDecade;
+import nl.inl.blacklab.search.grouping.HitPropertyDocumentDecade;
 
 public class TestDocResults {
 
@@ -43,4 +45,12 @@ public class TestDocResults {
 		}
 	}
 
+	@Test
+	public void testDecadeFromFieldValue() {
+		DocPropertyFromField decade = new DocPropertyDecade("year");
+		Assert.assertEquals("year", decade.getCountingField());
+		Assert.assertEquals(new HitPropValueDecade(1980), decade.getFromFieldValue("1984"));
+		Assert.assertEquals(new HitPropValueDecade(HitPropertyDocumentDecade.UNKNOWN_VALUE), decade.getFromFieldValue(null));
+	}
+
 }
@@ -0,0 +1,56 @@
+package nl.inl.blacklab.search;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHitList {
+
+	@Test
+	public void testAddGet() {
+		HitList hits = new HitList();
+		hits.add(new Hit(1, 2, 3));
+		hits.add(4, 5, 6);
+		Assert.assertEquals(2, hits.size());
+		Assert.assertEquals(new Hit(1, 2, 3), hits.get(0));
+		Assert.assertEquals(new Hit(4, 5, 6), hits.get(1));
+		Assert.assertEquals(4, hits.doc(1));
+		Assert.assertEquals(5, hits.start(1));
+		Assert.assertEquals(6, hits.end(1));
+		Assert.assertFalse(hits.hasCapturedGroups());
+		Assert.assertNull(hits.capturedGroups(0));
+	}
+
+	@Test
+	public void testIndexOf() {
+		HitList sorted = new HitList(Arrays.asList(new Hit(1, 1, 2), new Hit(1, 3, 4), new Hit(2, 0, 1)));
+		Assert.assertEquals(1, sorted.indexOf(new Hit(1, 3, 4)));
+		Assert.assertEquals(2, sorted.indexOf(new Hit(2, 0, 1)));
+		Assert.assertEquals(-1, sorted.indexOf(new Hit(1, 3, 5)));
+
+		HitList unsorted = new HitList(Arrays.asList(new Hit(2, 0, 1), new Hit(1, 3, 4), new Hit(1, 1, 2)));
+		Assert.assertEquals(0, unsorted.indexOf(new Hit(2, 0, 1)));
+		Assert.assertEquals(2, unsorted.indexOf(new Hit(1, 1, 2)));
+		Assert.assertEquals(-1, unsorted.indexOf(new Hit(3, 0, 1)));
+		unsorted.add(new Hit(3, 0, 1));
+		Assert.assertEquals(3, unsorted.indexOf(new Hit(3, 0, 1)));
+	}
+
+	@Test
+	public void testCapturedGroups() {
+		HitList hits = new HitList();
+		hits.add(new Hit(0, 0, 1));
+		hits.add(new Hit(0, 2, 5), new Span[] { new Span(2, 3), null });
+		hits.add(new Hit(1, 0, 1));
+
+		Assert.assertTrue(hits.hasCapturedGroups());
+		Span[] groups = hits.capturedGroups(1);
+		Assert.assertEquals(2, groups.length);
+		Assert.assertEquals(2, groups[0].start);
+		Assert.assertEquals(3, groups[0].end);
+		Assert.assertNull(groups[1]);
+		Assert.assertArrayEquals(new Span[2], hits.capturedGroups(0));
+		Assert.assertArrayEquals(new Span[2], hits.capturedGroups(2));
+	}
+}
@@ -1,7 +1,12 @@
 package nl.inl.blacklab.search;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.TermQuery;
@@ -12,14 +17,30 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import nl.inl.blacklab.TestIndex;
+import nl.inl.blacklab.perdocument.DocCount;
+import nl.inl.blacklab.perdocument.DocCounts;
+import nl.inl.blacklab.perdocument.DocProperty;
+import nl.inl.blacklab.perdocument.DocPropertyDecade;
+import nl.inl.blacklab.perdocument.DocPropertyNumberOfHits;
+import nl.inl.blacklab.perdocument.DocPropertyStoredField;
+import nl.inl.blacklab.perdocument.DocResults;
 import nl.inl.blacklab.queryParser.corpusql.ParseException;
+import nl.inl.blacklab.search.grouping.HitGroup;
+import nl.inl.blacklab.search.grouping.HitGroups;
+import nl.inl.blacklab.search.grouping.HitProperty;
+import nl.inl.blacklab.search.grouping.ResultsCounter;
 import nl.inl.blacklab.search.lucene.BLSpanTermQuery;
 import nl.inl.blacklab.search.lucene.SpanQueryFiltered;
+import nl.inl.util.ThreadPriority;
+import nl.inl.util.ThreadPriority.Level;
 
 public class TestSearches {
 
 	static TestIndex testIndex;
 
+	/** Same documents, in several segments (for reading segments in parallel) */
+	static TestIndex multiSegmentIndex;
+
 	/**
 	 * Expected search results;
 	 */
@@ -28,12 +49,15 @@ public class TestSearches {
 	@BeforeClass
 	public static void setUp() throws Exception {
 		testIndex = new TestIndex();
+		multiSegmentIndex = new TestIndex(2);
 	}
 
 	@AfterClass
 	public static void tearDown() {
 	    if (testIndex != null)
 	        testIndex.close();
+	    if (multiSegmentIndex != null)
+	        multiSegmentIndex.close();
 	}
 
 	@Test
@@ -313,4 +337,290 @@ public class TestSearches {
 		Assert.assertEquals(expected, testIndex.findConc("a:[] 'aap' b:[word = a.word]"));
 	}
 
+	@Test
+	public void testParallelSegments() throws ParseException {
+		Assert.assertEquals(2, multiSegmentIndex.getSearcher().getIndexReader().leaves().size());
+		Hits hits = multiSegmentIndex.find(" 'the'|'be'|'mier' ");
+		hits.settings().setRetrievalThreads(2);
+		List<Hit> expectedHits = Arrays.asList(
+				new Hit(0, 0, 1), new Hit(0, 6, 7),
+				new Hit(1, 1, 2), new Hit(1, 3, 4),
+				new Hit(2, 8, 9),
+				new Hit(3, 1, 2), new Hit(3, 3, 4), new Hit(3, 4, 5), new Hit(3, 5, 6));
+		Assert.assertTrue(hits.sizeAtLeast(3));
+		Assert.assertEquals(expectedHits, toList(hits));
+		Assert.assertEquals(4, hits.numberOfDocs());
+
+		// Limits should be applied as if the segments were read one by one
+		hits = multiSegmentIndex.find(" 'the'|'be'|'mier' ");
+		hits.settings().setRetrievalThreads(2);
+		hits.settings().setMaxHitsToRetrieve(3);
+		hits.settings().setMaxHitsToCount(6);
+		Assert.assertEquals(expectedHits.subList(0, 3), toList(hits));
+		Assert.assertTrue(hits.maxHitsRetrieved());
+		Assert.assertTrue(hits.maxHitsCounted());
+		Assert.assertEquals(6, hits.totalSize());
+		Assert.assertEquals(4, hits.totalNumberOfDocs());
+		Assert.assertEquals(2, hits.numberOfDocs());
+	}
+
+	@Test
+	public void testPauseParallelSegments() throws Exception {
+		ThreadPriority.setEnabled(true);
+		try {
+			final Hits hits = multiSegmentIndex.find(" 'the'|'be'|'mier' ");
+			hits.settings().setRetrievalThreads(2);
+			hits.setPriorityLevel(Level.PAUSED);
+			final int[] size = { -1 };
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					size[0] = hits.size();
+				}
+			};
+			thread.start();
+			thread.join(200);
+			Assert.assertTrue(thread.isAlive());
+
+			// Other searches can still read segments in parallel in the meantime
+			Hits other = multiSegmentIndex.find(" 'the'|'be'|'mier' ");
+			other.settings().setRetrievalThreads(2);
+			Assert.assertEquals(9, other.size());
+
+			hits.setPriorityLevel(Level.RUNNING);
+			thread.join(10000);
+			Assert.assertEquals(9, size[0]);
+		} finally {
+			ThreadPriority.setEnabled(false);
+		}
+	}
+
+	@Test
+	public void testYieldWhenPaused() throws Exception {
+		ThreadPriority.setEnabled(true);
+		try {
+			for (int retrievalThreads = 1; retrievalThreads <= 2; retrievalThreads++) {
+				Hits hits = multiSegmentIndex.find(" 'the'|'be'|'mier' ");
+				hits.settings().setRetrievalThreads(retrievalThreads);
+				Assert.assertTrue(hits.sizeAtLeast(1));
+				hits.setPriorityLevel(Level.PAUSED);
+
+				// A thread that should give up its work while paused doesn't wait...
+				Prioritizable previous = ThreadPriority.setYieldWhenPaused(hits);
+				try {
+					hits.size();
+					Assert.fail("Expected the read to be given up");
+				} catch (ThreadPriority.Paused e) {
+					// expected
+				} finally {
+					ThreadPriority.setYieldWhenPaused(previous);
+				}
+
+				// ...and reading continues where it left off when resumed
+				hits.setPriorityLevel(Level.RUNNING);
+				Assert.assertEquals(9, hits.size());
+				Assert.assertFalse(hits.maxHitsCounted());
+			}
+		} finally {
+			ThreadPriority.setEnabled(false);
+		}
+	}
+
+	@Test
+	public void testInterruptedCreatorThread() throws Exception {
+		ThreadPriority.setEnabled(true);
+		try {
+			// The thread that started reading the hits moves on to other work, and is interrupted there
+			final Hits[] hits = new Hits[1];
+			final AtomicBoolean done = new AtomicBoolean();
+			Thread creator = new Thread() {
+				@Override
+				public void run() {
+					Hits h;
+					try {
+						h = multiSegmentIndex.find(" 'the'|'be'|'mier' ");
+					} catch (ParseException e) {
+						throw new RuntimeException(e);
+					}
+					h.sizeAtLeast(1);
+					synchronized (hits) {
+						hits[0] = h;
+						hits.notifyAll();
+					}
+					while (!done.get())
+						LockSupport.parkNanos(1000000);
+				}
+			};
+			synchronized (hits) {
+				creator.start();
+				while (hits[0] == null)
+					hits.wait(100);
+			}
+			creator.interrupt();
+
+			// That shouldn't affect reading the rest of the hits in another thread
+			Assert.assertEquals(9, hits[0].size());
+			Assert.assertFalse(hits[0].maxHitsCounted());
+			done.set(true);
+			creator.join(10000);
+		} finally {
+			ThreadPriority.setEnabled(false);
+		}
+	}
+
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		List<Hit> expectedHits = toList(multiSegmentIndex.find(" 'the'|'be'|'mier' "));
+		for (int retrievalThreads = 1; retrievalThreads <= 2; retrievalThreads++) {
+			final Hits hits = multiSegmentIndex.find(" 'the'|'be'|'mier' ");
+			hits.settings().setRetrievalThreads(retrievalThreads);
+
+			// One thread counts all the hits while the others each wait for a page
+			final List<Object> results = new ArrayList<>();
+			List<Thread> threads = new ArrayList<>();
+			for (int i = 0; i <= expectedHits.size(); i++) {
+				final int number = i;
+				threads.add(new Thread() {
+					@Override
+					public void run() {
+						Object result = number == 0 ? (Object)hits.size() : (Object)hits.sizeAtLeast(number);
+						synchronized (results) {
+							results.add(number + ":" + result + ":" + hits.get(Math.max(0, number - 1)));
+						}
+					}
+				});
+			}
+			for (Thread thread: threads)
+				thread.start();
+			for (Thread thread: threads)
+				thread.join(10000);
+			Assert.assertEquals(threads.size(), results.size());
+			Assert.assertTrue(results.contains("0:" + expectedHits.size() + ":" + expectedHits.get(0)));
+			for (int i = 1; i <= expectedHits.size(); i++) {
+				Assert.assertTrue(results.contains(i + ":true:" + expectedHits.get(i - 1)));
+			}
+			Assert.assertEquals(expectedHits, toList(hits));
+		}
+	}
+
+	@Test
+	public void testCollocations() throws ParseException {
+		Hits hits = testIndex.find(" 'the' ");
+		Assert.assertEquals("force=1 is=1 lazy=1 may=1 over=1 question=1 quick=1",
+				toString(hits.getCollocations(null, null, 1, 1)));
+		Assert.assertEquals("force=1 lazy=1 question=1 quick=1",
+				toString(hits.getCollocations(null, null, 0, 1)));
+
+		// Overlapping windows count words once for each hit
+		hits = testIndex.find(" 'aap' ");
+		Assert.assertEquals("aap=6 mier=2 noot=1",
+				toString(hits.getCollocations(null, null, 1, 1)));
+	}
+
+	@Test
+	public void testCountByMultiple() throws ParseException {
+		DocResults docs = testIndex.find(" 'the' ").perDocResults();
+		List<DocProperty> facets = Arrays.<DocProperty>asList(new DocPropertyDecade("year"),
+				new DocPropertyStoredField("year"), new DocPropertyNumberOfHits());
+		List<DocCounts> counts = docs.countBy(facets);
+		Assert.assertEquals(3, counts.size());
+		Assert.assertEquals("1980-1989=2 2000-2009=1", toString(counts.get(0)));
+		Assert.assertEquals("1984=1 1989=1 2001=1", toString(counts.get(1)));
+		Assert.assertEquals("1=2 2=1", toString(counts.get(2)));
+		for (int i = 0; i < facets.size(); i++) {
+			Assert.assertEquals(facets.get(i), counts.get(i).getGroupCriteria());
+			Assert.assertEquals(3, counts.get(i).getTotalResults());
+			Assert.assertEquals(toString(docs.countBy(facets.get(i))), toString(counts.get(i)));
+		}
+	}
+
+	@Test
+	public void testGroupedByCounting() throws ParseException {
+		for (String groupBy: Arrays.asList("decade:year", "wordright:word:i", "hit:word:i")) {
+			Hits hits = testIndex.find(" 'the' ");
+			HitGroups counted = hits.groupedByCounting(HitProperty.deserialize(hits, groupBy), 1);
+			Hits hitsToGroup = testIndex.find(" 'the' ");
+			HitGroups grouped = hitsToGroup.groupedBy(HitProperty.deserialize(hitsToGroup, groupBy));
+			Assert.assertEquals(toString(grouped), toString(counted));
+			Assert.assertEquals(4, counted.getTotalResults());
+			Assert.assertEquals(grouped.getLargestGroupSize(), counted.getLargestGroupSize());
+			for (HitGroup group: counted) {
+				Assert.assertEquals(1, group.getHits().size());
+				Assert.assertTrue(grouped.getGroup(group.getIdentity()).getHits().contains(group.getHits().get(0)));
+			}
+			ResultsCounter counter = (ResultsCounter) counted;
+			Assert.assertEquals(4, counter.getHitsCounted());
+			Assert.assertEquals(3, counter.getDocsCounted());
+			Assert.assertEquals(3, counter.getDocsRetrieved());
+		}
+		Hits hits = testIndex.find(" 'the' ");
+		HitGroups counted = hits.groupedByCounting(HitProperty.deserialize(hits, "decade:year"), 0);
+		Assert.assertEquals("1980-1989=3 2000-2009=1", toString(counted));
+		Assert.assertEquals(0, counted.getGroups().get(0).getHits().size());
+	}
+
+	@Test
+	public void testGroupedByCountingInBatches() throws ParseException {
+		for (String groupBy: Arrays.asList("decade:year", "field:year", "wordright:word:i", "hit:word:i,decade:year")) {
+			// Batches of 1 hit (one per batch) and 3 hits (last batch only partly filled)
+			for (int batchSize = 1; batchSize <= 3; batchSize += 2) {
+				Hits hits = testIndex.find(" 'the' ");
+				ResultsCounter counted = ResultsCounter._fromHits(hits, HitProperty.deserialize(hits, groupBy), 2, batchSize);
+				Hits hitsToGroup = testIndex.find(" 'the' ");
+				HitGroups grouped = hitsToGroup.groupedBy(HitProperty.deserialize(hitsToGroup, groupBy));
+				Assert.assertEquals(toString(grouped), toString(counted));
+				Assert.assertEquals(4, counted.getTotalResults());
+				Assert.assertEquals(4, counted.getHitsCounted());
+				Assert.assertEquals(3, counted.getDocsCounted());
+				Assert.assertEquals(3, counted.getDocsRetrieved());
+				for (HitGroup group: counted) {
+					Assert.assertEquals(Math.min(2, group.size()), group.getHits().size());
+					for (Hit hit: group.getHits())
+						Assert.assertTrue(grouped.getGroup(group.getIdentity()).getHits().contains(hit));
+				}
+			}
+		}
+	}
+
+	private static String toString(HitGroups groups) {
+		Map<String, Integer> sorted = new TreeMap<>();
+		for (HitGroup group: groups) {
+			sorted.put(group.getIdentity().toString(), group.size());
+		}
+		return toString(sorted);
+	}
+
+	private static String toString(DocCounts counts) {
+		Map<String, Integer> sorted = new TreeMap<>();
+		for (DocCount count: counts) {
+			sorted.put(count.getIdentity().toString(), count.size());
+		}
+		return toString(sorted);
+	}
+
+	private static String toString(TermFrequencyList collocations) {
+		Map<String, Long> sorted = new TreeMap<>();
+		for (TermFrequency tf: collocations) {
+			sorted.put(tf.term, tf.frequency);
+		}
+		return toString(sorted);
+	}
+
+	private static String toString(Map<String, ? extends Number> sorted) {
+		StringBuilder b = new StringBuilder();
+		for (Map.Entry<String, ? extends Number> e: sorted.entrySet()) {
+			if (b.length() > 0)
+				b.append(" ");
+			b.append(e.getKey()).append("=").append(e.getValue());
+		}
+		return b.toString();
+	}
+
+	private static List<Hit> toList(Hits hits) {
+		List<Hit> list = new ArrayList<>();
+		for (Hit hit: hits) {
+			list.add(hit);
+		}
+		return list;
+	}
 }
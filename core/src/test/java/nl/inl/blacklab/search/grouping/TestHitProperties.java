@@ -46,6 +46,39 @@ public class TestHitProperties {
 		Assert.assertEquals(1, group.size());
 	}
 
+	@Test
+	public void testHitPropHitTextInsensitive() throws ParseException {
+		Hits hits = testIndex.find(" 'the' | 'the' 'lazy' ");
+		HitGroups g = hits.groupedBy(new HitPropertyHitText(hits, false));
+		Assert.assertEquals(2, g.numberOfGroups());
+		Assert.assertEquals(5, g.getTotalResults());
+		HitGroup group = g.getGroup(new HitPropValueContextWords(hits, "word", new int[] {term("The")}, false));
+		Assert.assertEquals(4, group.size());
+		group = g.getGroup(new HitPropValueContextWords(hits, "word", new int[] {term("the"), term("lazy")}, false));
+		Assert.assertEquals(1, group.size());
+	}
+
+	@Test
+	public void testHitPropWordLeft() throws ParseException {
+		Hits hits = testIndex.find(" 'the' ");
+		HitGroups g = hits.groupedBy(new HitPropertyWordLeft(hits, true));
+		Assert.assertEquals(4, g.numberOfGroups());
+		Assert.assertEquals(1, g.getGroup(new HitPropValueContextWord(hits, "word", -1, true)).size());
+		Assert.assertEquals(1, g.getGroup(new HitPropValueContextWord(hits, "word", term("May"), true)).size());
+	}
+
+	@Test
+	public void testHitPropDecade() throws ParseException {
+		// Different years in the same decade should end up in the same group
+		Hits hits = testIndex.find(" 'the' | 'noot' ");
+		HitGroups g = hits.groupedBy(new HitPropertyDocumentDecade(hits, "year"));
+		Assert.assertEquals(3, g.numberOfGroups());
+		Assert.assertEquals(3, g.getGroup(new HitPropValueDecade(1980)).size());
+		Assert.assertEquals(1, g.getGroup(new HitPropValueDecade(2000)).size());
+		Assert.assertEquals(3, g.getGroup(new HitPropValueDecade(HitPropertyDocumentDecade.UNKNOWN_VALUE)).size());
+		Assert.assertEquals(3, g.getLargestGroupSize());
+	}
+
 	@Test
 	public void testHitPropContextWords() throws ParseException {
 		Hits hits = testIndex.find(" 'the' ");
@@ -74,6 +107,25 @@ public class TestHitProperties {
 		Assert.assertEquals(1, group.size());
 	}
 
+	@Test
+	public void testHitPropContextWordsCompare() throws ParseException {
+		// In-place compare should agree with comparing the property values
+		Hits hits = testIndex.find(" 'the' | 'lazy' ");
+		String[] specs = {"L1-1;H1-2", "L1;H2-1;R1", "R1-3", "E1-2;L2-1"};
+		for (String spec: specs) {
+			for (boolean sensitive: new boolean[] {true, false}) {
+				HitProperty p = new HitPropertyContextWords(hits, "contents", "word", sensitive, spec);
+				hits.findContext(p.needsContext());
+				for (int i = 0; i < hits.size(); i++) {
+					for (int j = 0; j < hits.size(); j++) {
+						int expected = Integer.signum(p.get(i).compareTo(p.get(j)));
+						Assert.assertEquals(spec + " " + i + "," + j, expected, Integer.signum(p.compare(i, j)));
+					}
+				}
+			}
+		}
+	}
+
 	@Test
 	public void testTermSerialization() {
         String[] words = {"aap", "~", "~~", ""};
@@ -0,0 +1,132 @@
+package nl.inl.blacklab.search.lucene;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogDocMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestDocStringFieldGetter {
+
+	private static final String[] AUTHORS = { "Mulisch", "Hermans", null, "Reve", "Hermans" };
+
+	/**
+	 * Create an index with an author field for each document.
+	 *
+	 * @param docValues whether to add DocValues for the field
+	 * @return the index
+	 */
+	private static Directory createIndex(boolean docValues) throws IOException {
+		Directory dir = new RAMDirectory();
+		try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new WhitespaceAnalyzer()))) {
+			for (String author: AUTHORS) {
+				Document doc = new Document();
+				if (author != null) {
+					doc.add(new StringField("author", author, Store.YES));
+					if (docValues)
+						doc.add(new SortedDocValuesField("author", new BytesRef(author)));
+				}
+				writer.addDocument(doc);
+				writer.commit(); // multiple segments, so we test index-wide ordinals
+			}
+		}
+		return dir;
+	}
+
+	@Test
+	public void testDocValues() throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(createIndex(true))) {
+			DocStringFieldGetter getter = new DocStringFieldGetter(reader, "author");
+			Assert.assertTrue(getter.hasOrdinals());
+			Assert.assertEquals(3, getter.getValueCount());
+			for (int i = 0; i < AUTHORS.length; i++) {
+				Assert.assertEquals(AUTHORS[i], getter.getFieldValue(i));
+			}
+			// Ordinals sort like the values
+			Assert.assertEquals(DocStringFieldGetter.NO_VALUE, getter.getOrd(2));
+			Assert.assertEquals(getter.getOrd(1), getter.getOrd(4));
+			Assert.assertTrue(getter.getOrd(1) < getter.getOrd(0));
+			Assert.assertTrue(getter.getOrd(0) < getter.getOrd(3));
+			Assert.assertEquals("Reve", getter.lookupOrd(getter.getOrd(3)));
+		}
+	}
+
+	@Test
+	public void testStoredFieldFallback() throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(createIndex(false))) {
+			DocStringFieldGetter getter = new DocStringFieldGetter(reader, "author");
+			Assert.assertFalse(getter.hasOrdinals());
+			for (int i = 0; i < AUTHORS.length; i++) {
+				Assert.assertEquals(AUTHORS[i], getter.getFieldValue(i));
+			}
+		}
+	}
+
+	@Test
+	public void testMergedOlderDocuments() throws IOException {
+		Directory dir = new RAMDirectory();
+		IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+		config.setMergePolicy(new LogDocMergePolicy()); // keep the documents in order
+		try (IndexWriter writer = new IndexWriter(dir, config)) {
+			for (int i = 0; i < AUTHORS.length; i++) {
+				Document doc = new Document();
+				if (AUTHORS[i] != null) {
+					doc.add(new StringField("author", AUTHORS[i], Store.YES));
+					if (i >= 2) // the first documents were added before we had DocValues
+						doc.add(new SortedDocValuesField("author", new BytesRef(AUTHORS[i])));
+				}
+				writer.addDocument(doc);
+				writer.commit();
+			}
+			writer.forceMerge(1);
+		}
+		try (DirectoryReader reader = DirectoryReader.open(dir)) {
+			DocStringFieldGetter getter = new DocStringFieldGetter(reader, "author");
+			Assert.assertFalse(getter.hasOrdinals());
+			for (int i = 0; i < AUTHORS.length; i++) {
+				Assert.assertEquals(AUTHORS[i], getter.getFieldValue(i));
+			}
+		}
+	}
+
+	@Test
+	public void testTruncatedValues() throws IOException {
+		StringBuilder prefix = new StringBuilder();
+		for (int i = 0; i < DocStringFieldGetter.MAX_VALUE_LENGTH; i++) {
+			prefix.append('x');
+		}
+		String[] titles = { prefix + "1", prefix + "2", "short" };
+		Directory dir = new RAMDirectory();
+		try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new WhitespaceAnalyzer()))) {
+			for (String title: titles) {
+				Document doc = new Document();
+				doc.add(new StoredField("title", title));
+				// (like DocIndexer.addMetadataDocValues() does)
+				String truncated = title.substring(0, Math.min(title.length(), DocStringFieldGetter.MAX_VALUE_LENGTH));
+				doc.add(new SortedDocValuesField("title", new BytesRef(truncated)));
+				writer.addDocument(doc);
+			}
+		}
+		try (DirectoryReader reader = DirectoryReader.open(dir)) {
+			// Both long values would get the same ordinal, so we can't use the DocValues
+			DocStringFieldGetter getter = new DocStringFieldGetter(reader, "title");
+			Assert.assertFalse(getter.hasOrdinals());
+			for (int i = 0; i < titles.length; i++) {
+				Assert.assertEquals(titles[i], getter.getFieldValue(i));
+			}
+		}
+	}
+
+}
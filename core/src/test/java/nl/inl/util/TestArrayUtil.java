@@ -0,0 +1,74 @@
+package nl.inl.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestArrayUtil {
+
+	@Test
+	public void testSortedIndexes() {
+		long[] keys = { 5, 3, 5, 1, 3 };
+		Assert.assertArrayEquals(new int[] { 3, 1, 4, 0, 2 }, ArrayUtil.sortedIndexes(keys, keys.length));
+	}
+
+	@Test
+	public void testSort() {
+		// Sort indexes into an array of keys; check that the sort is correct and stable
+		Random random = new Random(1234);
+		final int[] keys = new int[1000];
+		int[] order = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = random.nextInt(50);
+			order[i] = i;
+		}
+		ArrayUtil.sort(order, 0, order.length, new IntComparator() {
+			@Override
+			public int compare(int a, int b) {
+				return Integer.compare(keys[a], keys[b]);
+			}
+		});
+		for (int i = 1; i < order.length; i++) {
+			int prevKey = keys[order[i - 1]];
+			int key = keys[order[i]];
+			Assert.assertTrue(prevKey <= key);
+			if (prevKey == key)
+				Assert.assertTrue(order[i - 1] < order[i]);
+		}
+	}
+
+	@Test
+	public void testSortPartial() {
+		int[] values = { 9, 4, 3, 2, 1, 0 };
+		ArrayUtil.sort(values, 1, 5, new IntComparator() {
+			@Override
+			public int compare(int a, int b) {
+				return a - b;
+			}
+		});
+		Assert.assertArrayEquals(new int[] { 9, 1, 2, 3, 4, 0 }, values);
+	}
+
+	@Test
+	public void testParallelSort() {
+		// Should give the same result as the single-threaded (stable) sort
+		Random random = new Random(4321);
+		final int[] keys = new int[100000];
+		int[] order = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = random.nextInt(1000);
+			order[i] = i;
+		}
+		int[] expected = order.clone();
+		IntComparator comparator = new IntComparator() {
+			@Override
+			public int compare(int a, int b) {
+				return Integer.compare(keys[a], keys[b]);
+			}
+		};
+		ArrayUtil.sort(expected, 0, expected.length, comparator);
+		ArrayUtil.parallelSort(order, 0, order.length, comparator);
+		Assert.assertArrayEquals(expected, order);
+	}
+}
@@ -23,6 +23,9 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
 
 	protected static final Logger logger = LogManager.getLogger(Job.class);
 
+	/** How long to wait at most before checking again if we're finished (in case we missed a notification) */
+	private static final int MAX_WAIT_STEP_MS = 100;
+
 	private static final double ALMOST_ZERO = 0.0001;
 
 	private static final int RUN_PAUSE_PHASE_JUST_STARTED = 5;
@@ -74,8 +77,15 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
 			waitingFor.add(job);
 			job.incrRef();
 		}
+		// We're not using our run slot while we wait; let another job have it
+		scheduler().dispatch();
 		try {
-			job.waitUntilFinished();
+			while (!job.finished()) {
+				// If it's waiting for a worker, run it in ours instead of keeping ours blocked
+				if (!runInOurWorker(job))
+					job.waitUntilFinished(MAX_WAIT_STEP_MS);
+			}
+			job.rethrowException();
 		} finally {
 			synchronized(waitingFor) {
 				job.decrRef();
@@ -84,6 +94,37 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
 		}
 	}
 
+	/**
+	 * Run a queued job in our worker thread.
+	 *
+	 * While it runs, it owns the worker: if we're cancelled in the meantime,
+	 * we don't interrupt it, but notice afterwards.
+	 *
+	 * @param job the job to run
+	 * @return true if the job was run, false if it wasn't queued
+	 * @throws BlsException if we were cancelled while it ran
+	 */
+	private boolean runInOurWorker(Job job) throws BlsException {
+		Thread thread;
+		synchronized (this) {
+			thread = workerThread;
+			workerThread = null;
+		}
+		boolean ran;
+		try {
+			ran = scheduler().runInCurrentThread(job);
+		} finally {
+			synchronized (this) {
+				workerThread = thread;
+			}
+		}
+		synchronized (this) {
+			if (cancelJobCalled)
+				throw new ServiceUnavailable("The server seems to be under heavy load right now. Please try again later. (job killed by scheduler)");
+		}
+		return ran;
+	}
+
 	/** The total accumulated paused time so far.
 	 * If the search is currently paused,
 	 * that time is not taken into account yet.
@@ -103,7 +144,7 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
 	protected Throwable thrownException;
 
 	/** The last time the results of this search were accessed (for caching) */
-	private long lastAccessed;
+	private volatile long lastAccessed;
 
 	/** If we're paused, this is the time when we were paused */
 	private long setLevelPausedAt;
@@ -120,8 +161,8 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
 	/** Has cancelJob() been called or not? Don't call it twice! */
 	private boolean cancelJobCalled = false;
 
-	/** Thread object carrying out the search, if performing the search. */
-	private SearchThread searchThread = null;
+	/** Worker thread carrying out the search, if it's running right now. */
+	private volatile Thread workerThread = null;
 
 	/** Description of this job */
 	protected JobDescription jobDesc;
@@ -136,7 +177,7 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
 	protected User user;
 
 	/** Is this job running in low priority? */
-	protected ThreadPriority.Level level = ThreadPriority.Level.RUNNING;
+	protected volatile ThreadPriority.Level level = ThreadPriority.Level.RUNNING;
 
     private double worthiness = -1;
 
@@ -244,19 +285,55 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
     		if (performCalled)
     			throw new RuntimeException("Already performing search!");
             performCalled = true;
+            notifyAll();
 	    }
 
-		// Create and start thread
-		// TODO: use thread pooling..?
+		// Queue the job; the scheduler will start it when a run slot is available
 		startedAt = System.currentTimeMillis();
 		//logger.debug("Search " + this + " started at " + startedAt);
 		setLevelRunningAt = startedAt;
-		searchThread = new SearchThread(this);
-		searchThread.start();
+		scheduler().submit(this);
 
 		waitUntilFinished(waitTimeMs);
 	}
 
+	/**
+	 * Get the scheduler that runs our jobs.
+	 *
+	 * @return the scheduler
+	 */
+	private JobScheduler scheduler() {
+		return searchMan.getCache().getJobScheduler();
+	}
+
+	/**
+	 * Called by the worker thread before it performs the search.
+	 *
+	 * @param thread the worker thread
+	 * @return true if the search should be performed, false if it was cancelled already
+	 */
+	synchronized boolean startWorking(Thread thread) {
+		if (cancelJobCalled) {
+			thrownException = new ServiceUnavailable("The server seems to be under heavy load right now. Please try again later. (job killed by scheduler)");
+			setFinished();
+			return false;
+		}
+		workerThread = thread;
+		return true;
+	}
+
+	/**
+	 * Called by the worker thread when it's done with this job (or the job was paused).
+	 *
+	 * After this, cancelJob() won't interrupt the thread anymore, so it can safely
+	 * work on another job.
+	 */
+	synchronized void stopWorking() {
+		workerThread = null;
+		// Don't let an interrupt meant for this job affect the next job this thread works on
+		Thread.interrupted();
+	}
+
 	/**
 	 * @throws BlsException on error
 	 */
@@ -338,20 +415,24 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
 	 * @throws BlsException
 	 */
 	public void waitUntilFinished(int maxWaitMs) throws BlsException {
-		int defaultWaitStep = 100;
-		boolean waitUntilFinished = maxWaitMs < 0;
-		while (!performCalled || ( (waitUntilFinished || maxWaitMs > 0) && !finished())) {
-			int w = defaultWaitStep;
-			if (!waitUntilFinished) {
-				if (maxWaitMs < defaultWaitStep)
-					w = maxWaitMs;
-				maxWaitMs -= w;
-			}
-			try {
-				Thread.sleep(w);
-			} catch (InterruptedException e) {
-				throw new ServiceUnavailable("The server seems to be under heavy load right now. Please try again later. (job killed by scheduler)");
+		long deadline = maxWaitMs < 0 ? -1 : System.currentTimeMillis() + maxWaitMs;
+		try {
+			synchronized (this) {
+				// perform() and setFinished() notify us, so we don't have to poll
+				while (!performCalled || !finished()) {
+					long w = MAX_WAIT_STEP_MS;
+					if (deadline >= 0) {
+						long timeLeft = deadline - System.currentTimeMillis();
+						if (timeLeft <= 0 && performCalled)
+							break;
+						if (timeLeft > 0)
+							w = Math.min(w, timeLeft);
+					}
+					wait(w);
+				}
 			}
+		} catch (InterruptedException e) {
+			throw new ServiceUnavailable("The server seems to be under heavy load right now. Please try again later. (job killed by scheduler)");
 		}
 		// If an Exception occurred, re-throw it now.
 		rethrowException();
@@ -370,14 +451,23 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
 	 * Try to cancel this job.
 	 */
 	public void cancelJob() {
-		if (!performCalled)
-			return; // can't cancel, hasn't been started yet (shouldn't happen)
-		if (cancelJobCalled)
-			return; // don't call this twice!
-		cancelJobCalled = true;
-
-		searchThread.interrupt();
-		searchThread = null; // ensure garbage collection
+		synchronized (this) {
+			if (!performCalled)
+				return; // can't cancel, hasn't been started yet (shouldn't happen)
+			if (cancelJobCalled)
+				return; // don't call this twice!
+			cancelJobCalled = true;
+
+			if (workerThread != null) {
+				// Running; interrupt it. The worker thread will clean up.
+				workerThread.interrupt();
+			} else if (scheduler().remove(this)) {
+				// Never started; let anyone waiting for it know it's not going to happen
+				thrownException = new ServiceUnavailable("The server seems to be under heavy load right now. Please try again later. (job killed by scheduler)");
+				setFinished();
+			}
+			// (otherwise, it's about to start or has just finished; see startWorking())
+		}
 
 		// Tell the jobs we were waiting for we're no longer interested
 		if (waitingFor != null) {
@@ -517,6 +607,7 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
 			.startEntry("searchThread")
 				.startMap();
 		// Information about thread object, if any
+		Thread searchThread = workerThread;
 		if (searchThread != null) {
 			StackTraceElement[] stackTrace = searchThread.getStackTrace();
 			StringBuilder stackTraceStr = new StringBuilder();
@@ -540,6 +631,8 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
 	private String status() {
 		if (finished())
 			return "finished";
+		if (workerThread == null && scheduler().isQueued(this))
+			return "queued";
 		if (level == null)
 			return "(level == NULL!)";
 		switch(level) {
@@ -561,7 +654,7 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
 			}
 		}
 		thrownException = null;
-		searchThread = null;
+		workerThread = null;
 		jobDesc = null;
 		refsToJob = REFS_INVALID;
 	}
@@ -800,6 +893,10 @@ public abstract class Job implements Comparable<Job>, Prioritizable {
 			//  "PAUSED")
 			setPriorityLevel(Level.RUNNING);
 		}
+		synchronized (this) {
+			// Wake up threads waiting for us to finish
+			notifyAll();
+		}
 	}
 
 	public int getRefCount() {
@@ -17,10 +17,37 @@ public class JobDocsGrouped extends JobWithDocs {
 
 		private DocGroupSortSettings groupSortSettings;
 
+		/** Only count the documents in each group? */
+		private boolean countOnly;
+
 		public JobDescDocsGrouped(SearchParameters param, JobDescription docsToGroup, SearchSettings searchSettings, DocGroupSettings groupSettings, DocGroupSortSettings groupSortSettings) {
+			this(param, docsToGroup, searchSettings, groupSettings, groupSortSettings, false);
+		}
+
+		/**
+		 * Describe a grouping operation.
+		 *
+		 * @param param search parameters
+		 * @param docsToGroup the documents to group
+		 * @param searchSettings search settings
+		 * @param groupSettings what to group by
+		 * @param groupSortSettings how to sort the groups
+		 * @param countOnly if true, only count the documents in each group instead of keeping them
+		 */
+		public JobDescDocsGrouped(SearchParameters param, JobDescription docsToGroup, SearchSettings searchSettings, DocGroupSettings groupSettings, DocGroupSortSettings groupSortSettings, boolean countOnly) {
 			super(param, JobDocsGrouped.class, docsToGroup, searchSettings);
 			this.groupSettings = groupSettings;
 			this.groupSortSettings = groupSortSettings;
+			this.countOnly = countOnly;
+		}
+
+		/**
+		 * Should we only count the documents in each group?
+		 *
+		 * @return true if the groups don't need to contain the documents
+		 */
+		public boolean isCountOnly() {
+			return countOnly;
 		}
 
 		@Override
@@ -35,14 +62,15 @@ public class JobDocsGrouped extends JobWithDocs {
 
 		@Override
 		public String uniqueIdentifier() {
-			return super.uniqueIdentifier() + groupSettings + ", " + groupSortSettings + ")";
+			return super.uniqueIdentifier() + groupSettings + ", " + groupSortSettings + (countOnly ? ", countOnly" : "") + ")";
 		}
 
 		@Override
 		public void dataStreamEntries(DataStream ds) {
 			super.dataStreamEntries(ds);
 			ds	.entry("groupSettings", groupSettings)
-				.entry("groupSortSettings", groupSortSettings);
+				.entry("groupSortSettings", groupSortSettings)
+				.entry("countOnly", countOnly);
 		}
 
 		@Override
@@ -63,7 +91,11 @@ public class JobDocsGrouped extends JobWithDocs {
 		docResults = ((JobWithDocs)inputJob).getDocResults();
 		setPriorityInternal();
 		DocGroupSettings groupSett = jobDesc.getDocGroupSettings();
-		DocGroups theGroups = docResults.groupedBy(groupSett.groupBy());
+		DocGroups theGroups;
+		if (((JobDescDocsGrouped)jobDesc).isCountOnly())
+			theGroups = docResults.groupedByCounting(groupSett.groupBy(), 0);
+		else
+			theGroups = docResults.groupedBy(groupSett.groupBy());
 		DocGroupSortSettings sortSett = jobDesc.getDocGroupSortSettings();
 		if (sortSett != null)
 			theGroups.sort(sortSett.sortBy(), sortSett.reverse());
@@ -69,10 +69,10 @@ public class JobFacets extends Job {
 		docResults = ((JobWithDocs)inputJob).getDocResults();
 		List<DocProperty> props = jobDesc.getFacets();
 
+		// (counts all facets in a single pass over the documents)
 		Map<String, DocCounts> theCounts = new HashMap<>();
-		for (DocProperty facetBy: props) {
-			DocCounts facetCounts = docResults.countBy(facetBy);
-			theCounts.put(facetBy.getName(), facetCounts);
+		for (DocCounts facetCounts: docResults.countBy(props)) {
+			theCounts.put(facetCounts.getGroupCriteria().getName(), facetCounts);
 		}
 		counts = theCounts; // we're done, caller can use the groups now
 	}
@@ -14,6 +14,7 @@ import nl.inl.blacklab.server.exceptions.BlsException;
 import nl.inl.blacklab.server.exceptions.InternalServerError;
 import nl.inl.blacklab.server.requesthandlers.SearchParameters;
 import nl.inl.blacklab.server.search.SearchManager;
+import nl.inl.util.ThreadPriority;
 
 /**
  * Represents a hit search operation.
@@ -121,6 +122,7 @@ public class JobHits extends JobWithHits {
 			HitsSettings hitsSettings = hits.settings();
 			hitsSettings.setMaxHitsToRetrieve(maxSettings.maxRetrieve());
 			hitsSettings.setMaxHitsToCount(maxSettings.maxCount());
+			hitsSettings.setRetrievalThreads(searchMan.config().getCacheConfig().getHitRetrievalThreads());
 			ContextSettings contextSettings = jobDesc.getContextSettings();
 			hitsSettings.setConcordanceType(contextSettings.concType());
 			hitsSettings.setContextSize(contextSettings.size());
@@ -128,6 +130,8 @@ public class JobHits extends JobWithHits {
 			throw new BadRequest("REGEXP_TOO_LARGE", "Regular expression too large.");
 		} catch (TooManyClauses e) {
 			throw new BadRequest("QUERY_TOO_BROAD", "Query too broad, too many matching terms. Please be more specific.");
+		} catch (ThreadPriority.Paused e) {
+			throw e; // we'll continue when we're resumed
 		} catch (RuntimeException e) {
 			throw new InternalServerError("Internal error", 15, e);
 		}
@@ -2,6 +2,7 @@ package nl.inl.blacklab.server.jobs;
 
 import nl.inl.blacklab.search.grouping.HitGroups;
 import nl.inl.blacklab.search.grouping.HitProperty;
+import nl.inl.blacklab.search.grouping.ResultsCounter;
 import nl.inl.blacklab.server.datastream.DataStream;
 import nl.inl.blacklab.server.exceptions.BadRequest;
 import nl.inl.blacklab.server.exceptions.BlsException;
@@ -19,10 +20,37 @@ public class JobHitsGrouped extends JobWithHits {
 
 		private HitGroupSortSettings groupSortSettings;
 
+		/** Only count the hits in each group? */
+		private boolean countOnly;
+
 		public JobDescHitsGrouped(SearchParameters param, JobDescription hitsToGroup, SearchSettings searchSettings, HitGroupSettings groupSettings, HitGroupSortSettings groupSortSettings) {
+			this(param, hitsToGroup, searchSettings, groupSettings, groupSortSettings, false);
+		}
+
+		/**
+		 * Describe a grouping operation.
+		 *
+		 * @param param search parameters
+		 * @param hitsToGroup the hits to group
+		 * @param searchSettings search settings
+		 * @param groupSettings what to group by
+		 * @param groupSortSettings how to sort the groups
+		 * @param countOnly if true, only count the hits in each group instead of keeping them
+		 */
+		public JobDescHitsGrouped(SearchParameters param, JobDescription hitsToGroup, SearchSettings searchSettings, HitGroupSettings groupSettings, HitGroupSortSettings groupSortSettings, boolean countOnly) {
 			super(param, JobHitsGrouped.class, hitsToGroup, searchSettings);
 			this.groupSettings = groupSettings;
 			this.groupSortSettings = groupSortSettings;
+			this.countOnly = countOnly;
+		}
+
+		/**
+		 * Should we only count the hits in each group?
+		 *
+		 * @return true if the groups don't need to contain the hits
+		 */
+		public boolean isCountOnly() {
+			return countOnly;
 		}
 
 		@Override
@@ -37,14 +65,15 @@ public class JobHitsGrouped extends JobWithHits {
 
 		@Override
 		public String uniqueIdentifier() {
-			return super.uniqueIdentifier() + groupSettings + ", " + groupSortSettings + ")";
+			return super.uniqueIdentifier() + groupSettings + ", " + groupSortSettings + (countOnly ? ", countOnly" : "") + ")";
 		}
 
 		@Override
 		public void dataStreamEntries(DataStream ds) {
 			super.dataStreamEntries(ds);
 			ds	.entry("groupSettings", groupSettings)
-				.entry("groupSortSettings", groupSortSettings);
+				.entry("groupSortSettings", groupSortSettings)
+				.entry("countOnly", countOnly);
 		}
 
 		@Override
@@ -72,7 +101,11 @@ public class JobHitsGrouped extends JobWithHits {
 		groupProp = HitProperty.deserialize(hits, groupSett.groupBy());
 		if (groupProp == null)
 			throw new BadRequest("UNKNOWN_GROUP_PROPERTY", "Unknown group property '" + groupSett.groupBy() + "'.");
-		HitGroups theGroups = hits.groupedBy(groupProp);
+		HitGroups theGroups;
+		if (((JobDescHitsGrouped)jobDesc).isCountOnly())
+			theGroups = hits.groupedByCounting(groupProp, 0);
+		else
+			theGroups = hits.groupedBy(groupProp);
 
 		HitGroupSortSettings sortSett = jobDesc.getHitGroupSortSettings();
 		if (sortSett != null)
@@ -87,7 +120,10 @@ public class JobHitsGrouped extends JobWithHits {
 
 	@Override
 	protected void dataStreamSubclassEntries(DataStream ds) {
-		ds	.entry("hitsRetrieved", hits == null ? -1 : hits.countSoFarHitsRetrieved())
+		int hitsRetrieved = hits == null ? -1 : hits.countSoFarHitsRetrieved();
+		if (groups instanceof ResultsCounter)
+			hitsRetrieved = groups.getTotalResults(); // hits were counted, not retrieved
+		ds	.entry("hitsRetrieved", hitsRetrieved)
 			.entry("numberOfGroups", groups == null ? -1 : groups.numberOfGroups());
 	}
 
@@ -36,7 +36,7 @@ public class JobHitsTotal extends JobWithHits {
 	protected void performSearch() throws BlsException {
 		// Get the total number of hits (we ignore the value because you can monitor progress
 		// and get the final total through the getHits() method yourself.
-		hits = ((JobWithHits)inputJob).getHits();
+		setHits(((JobWithHits)inputJob).getHits());
 		setPriorityInternal(); // make sure hits has the right priority
 		hits.size();
 		if (Thread.interrupted()) {
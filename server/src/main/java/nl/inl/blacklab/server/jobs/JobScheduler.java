@@ -0,0 +1,354 @@
+package nl.inl.blacklab.server.jobs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import nl.inl.blacklab.server.search.BlsConfigCacheAndPerformance;
+import nl.inl.util.ThreadPriority.Level;
+
+/**
+ * Decides when jobs get to run, and runs them on a fixed pool of worker threads.
+ *
+ * There is a limited number of run slots (maxConcurrentSearches), and as many
+ * workers. New jobs are queued, and started when a slot and a worker are free,
+ * worthiest first. A user's next job is only started after the other users' jobs
+ * with the same rank (see fairOrder()), and a user never gets more than
+ * maxRunningJobsPerUser slots.
+ *
+ * Jobs that are paused or are waiting for another job don't occupy a slot.
+ * A paused job gives up its worker at its next etiquette check (see
+ * ThreadPriority.setYieldWhenPaused()) and is set aside until load management
+ * resumes it; then it's queued again and continues where it left off.
+ * A job waiting for another job keeps its worker, but if the job it's waiting
+ * for is queued, it runs that job itself (see runInCurrentThread()).
+ *
+ * Load management (SearchCache.performLoadManagement()) decides which started
+ * jobs run and which are paused; this class takes care of the jobs that haven't
+ * started yet.
+ */
+public class JobScheduler {
+
+	private static final Logger logger = LogManager.getLogger(JobScheduler.class);
+
+	/** Our configuration */
+	private BlsConfigCacheAndPerformance config;
+
+	/** Threads that execute the jobs (as many as there are run slots) */
+	private ThreadPoolExecutor workers;
+
+	/** Number of jobs handed to the workers that they haven't finished with yet */
+	private int workersBusy = 0;
+
+	/** Jobs waiting for a run slot (submitted or resumed, but not running yet) */
+	private List<Job> queued = new ArrayList<>();
+
+	/** Jobs that are running (or waiting for another job) */
+	private Set<Job> started = new HashSet<>();
+
+	/** Jobs that gave up their worker because they were paused */
+	private Set<Job> paused = new HashSet<>();
+
+	/**
+	 * @param config our configuration
+	 */
+	public JobScheduler(BlsConfigCacheAndPerformance config) {
+		this.config = config;
+		int n = numberOfWorkers();
+		workers = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "SearchThread-" + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * How many workers should we have?
+	 *
+	 * @return one for each run slot
+	 */
+	private int numberOfWorkers() {
+		return Math.max(1, config.getMaxConcurrentSearches());
+	}
+
+	/**
+	 * Number of workers that aren't running a job right now.
+	 *
+	 * Also adjusts the size of the pool if maxConcurrentSearches was changed
+	 * (e.g. autodetected again).
+	 *
+	 * @return the number of idle workers
+	 */
+	private int idleWorkers() {
+		int n = numberOfWorkers();
+		if (n > workers.getMaximumPoolSize()) {
+			workers.setMaximumPoolSize(n);
+			workers.setCorePoolSize(n);
+		} else if (n < workers.getMaximumPoolSize()) {
+			workers.setCorePoolSize(n);
+			workers.setMaximumPoolSize(n);
+		}
+		return n - workersBusy;
+	}
+
+	/**
+	 * Add a job to the queue, and start it right away if there's a run slot available.
+	 *
+	 * @param job the job to run
+	 */
+	public synchronized void submit(Job job) {
+		queued.add(job);
+		dispatch();
+	}
+
+	/**
+	 * Start queued jobs while there are run slots and workers available.
+	 *
+	 * Called when a job finishes or stops using its slot (e.g. because it's waiting for
+	 * another job or was paused).
+	 */
+	public synchronized void dispatch() {
+		if (queued.isEmpty())
+			return;
+		Map<String, Integer> runningPerUser = new HashMap<>();
+		int slotsLeft = Math.min(config.getMaxConcurrentSearches() - countRunningJobs(runningPerUser), idleWorkers());
+		if (slotsLeft <= 0)
+			return;
+
+		List<Job> candidates = new ArrayList<>(queued);
+		for (Job job: candidates)
+			job.calculateWorthiness(); // calculate once before sorting (see Job.compareTo())
+		Collections.sort(candidates);
+		for (Job job: fairOrder(candidates, runningPerUser)) {
+			if (slotsLeft <= 0)
+				break;
+			String userId = job.user.uniqueId();
+			Integer running = runningPerUser.get(userId);
+			int n = running == null ? 0 : running;
+			if (n >= config.getMaxRunningJobsPerUser())
+				continue; // this user already has enough slots
+			start(job);
+			runningPerUser.put(userId, n + 1);
+			slotsLeft--;
+		}
+	}
+
+	/**
+	 * Start a queued job, even if there's no run slot available.
+	 *
+	 * Used by load management, which decides for itself how many jobs should run.
+	 * If all workers are busy, the job stays queued until one is free.
+	 *
+	 * @param job the job to start
+	 */
+	public synchronized void start(Job job) {
+		if (!queued.contains(job))
+			return; // already started or cancelled
+		if (job.getPriorityLevel() != Level.RUNNING)
+			job.setPriorityLevel(Level.RUNNING);
+		if (idleWorkers() <= 0)
+			return;
+		queued.remove(job);
+		started.add(job);
+		workersBusy++;
+		final SearchTask task = new SearchTask(job, this);
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					workerDone();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run a queued job in the current thread.
+	 *
+	 * Used by a job that needs the results of this job: instead of waiting
+	 * for it to get a worker, it runs it in its own.
+	 *
+	 * @param job the job to run
+	 * @return true if the job was run, false if it wasn't queued
+	 */
+	boolean runInCurrentThread(Job job) {
+		synchronized (this) {
+			if (!queued.remove(job))
+				return false; // running elsewhere, paused, finished or cancelled
+			started.add(job);
+		}
+		new SearchTask(job, this).run();
+		return true;
+	}
+
+	/**
+	 * Called when a worker is done with a job, so it can run the next one.
+	 */
+	private synchronized void workerDone() {
+		workersBusy--;
+		dispatch();
+	}
+
+	/**
+	 * Is this job waiting to be started?
+	 *
+	 * @param job the job
+	 * @return true if it's in the queue, false if not
+	 */
+	public synchronized boolean isQueued(Job job) {
+		return queued.contains(job);
+	}
+
+	/**
+	 * Remove a job from the queue (because it was cancelled).
+	 *
+	 * @param job the job
+	 * @return true if the job was queued or paused, false if it's running or finished
+	 */
+	synchronized boolean remove(Job job) {
+		return queued.remove(job) || paused.remove(job);
+	}
+
+	/**
+	 * Called by the worker when a job is done; gives its slot to the next job.
+	 *
+	 * @param job the job that finished
+	 */
+	synchronized void jobFinished(Job job) {
+		started.remove(job);
+		dispatch();
+	}
+
+	/**
+	 * Called by the worker when a job gave up its worker because it was paused.
+	 *
+	 * The job is set aside until it's resumed (see resume()).
+	 *
+	 * @param job the job that was paused
+	 */
+	synchronized void jobPaused(Job job) {
+		started.remove(job);
+		if (job.getPriorityLevel() == Level.PAUSED)
+			paused.add(job);
+		else
+			queued.add(job); // resumed in the meantime
+		dispatch();
+	}
+
+	/**
+	 * Queue a job again that gave up its worker because it was paused.
+	 *
+	 * Should be called after setting the job's level back to RUNNING.
+	 * Does nothing if the job still has its worker.
+	 *
+	 * @param job the job to resume
+	 */
+	public synchronized void resume(Job job) {
+		if (paused.remove(job)) {
+			queued.add(job);
+			dispatch();
+		}
+	}
+
+	/**
+	 * Count the jobs currently occupying a run slot.
+	 *
+	 * @param runningPerUser (out) number of running jobs per user id
+	 * @return number of running jobs
+	 */
+	private int countRunningJobs(Map<String, Integer> runningPerUser) {
+		int n = 0;
+		for (Job job: started) {
+			if (job.finished() || job.getPriorityLevel() == Level.PAUSED || job.isWaitingForOtherJob())
+				continue;
+			String userId = job.user.uniqueId();
+			Integer running = runningPerUser.get(userId);
+			runningPerUser.put(userId, running == null ? 1 : running + 1);
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Number of jobs waiting to be started.
+	 *
+	 * @return the number of queued jobs
+	 */
+	public synchronized int numberOfQueuedJobs() {
+		return queued.size();
+	}
+
+	/**
+	 * Stop the worker threads, interrupting any jobs still running.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			queued.clear();
+			paused.clear();
+		}
+		workers.shutdownNow();
+		logger.debug("Job scheduler shut down.");
+	}
+
+	/**
+	 * Reorder jobs so users take turns.
+	 *
+	 * Each user's worthiest job comes first, then each user's second-worthiest
+	 * job, etc. Within each round, the original (worthiness) order is kept.
+	 *
+	 * @param jobsByWorthiness the jobs, worthiest first
+	 * @return the jobs in the order they should get a run slot
+	 */
+	public static List<Job> fairOrder(List<Job> jobsByWorthiness) {
+		return fairOrder(jobsByWorthiness, Collections.<String, Integer>emptyMap());
+	}
+
+	/**
+	 * Reorder jobs so users take turns.
+	 *
+	 * Like fairOrder(List), but users that already have jobs running join
+	 * in a later round.
+	 *
+	 * @param jobsByWorthiness the jobs, worthiest first
+	 * @param runningPerUser number of jobs already running per user id
+	 * @return the jobs in the order they should get a run slot
+	 */
+	static List<Job> fairOrder(List<Job> jobsByWorthiness, Map<String, Integer> runningPerUser) {
+		Map<String, Integer> rankPerUser = new HashMap<>(runningPerUser);
+		List<List<Job>> rounds = new ArrayList<>();
+		for (Job job: jobsByWorthiness) {
+			String userId = job.user.uniqueId();
+			Integer rank = rankPerUser.get(userId);
+			int round = rank == null ? 0 : rank;
+			rankPerUser.put(userId, round + 1);
+			while (rounds.size() <= round)
+				rounds.add(new ArrayList<Job>());
+			rounds.get(round).add(job);
+		}
+		List<Job> result = new ArrayList<>(jobsByWorthiness.size());
+		for (List<Job> round: rounds) {
+			result.addAll(round);
+		}
+		return result;
+	}
+
+}
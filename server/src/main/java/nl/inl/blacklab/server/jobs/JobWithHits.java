@@ -3,6 +3,7 @@ package nl.inl.blacklab.server.jobs;
 import nl.inl.blacklab.search.Hits;
 import nl.inl.blacklab.server.datastream.DataStream;
 import nl.inl.blacklab.server.exceptions.BlsException;
+import nl.inl.blacklab.server.exceptions.ServiceUnavailable;
 import nl.inl.blacklab.server.search.SearchManager;
 
 /**
@@ -11,7 +12,7 @@ import nl.inl.blacklab.server.search.SearchManager;
 public abstract class JobWithHits extends Job {
 
 	/** The hits found */
-	protected Hits hits;
+	protected volatile Hits hits;
 
 	public JobWithHits(SearchManager searchMan, User user, JobDescription par) throws BlsException {
 		super(searchMan, user, par);
@@ -21,6 +22,50 @@ public abstract class JobWithHits extends Job {
 		return hits;
 	}
 
+	/**
+	 * Set the hits and let threads waiting for them (see waitForHits()) know.
+	 *
+	 * Use this if the job keeps working on the hits after setting them (e.g. counting
+	 * them), so other threads can start using them right away.
+	 *
+	 * @param hits the hits
+	 */
+	protected void setHits(Hits hits) {
+		synchronized (this) {
+			this.hits = hits;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Wait until the hits object is available.
+	 *
+	 * The hits may not have been (fully) retrieved yet; use e.g. Hits.sizeAtLeast()
+	 * to wait for the ones you need.
+	 *
+	 * @param maxWaitMs maximum time to wait
+	 * @return the hits, or null if they're not available yet
+	 * @throws BlsException if the job threw an exception
+	 */
+	public Hits waitForHits(int maxWaitMs) throws BlsException {
+		long deadline = System.currentTimeMillis() + maxWaitMs;
+		try {
+			synchronized (this) {
+				// setHits() and setFinished() notify us
+				while (hits == null && !finished()) {
+					long timeLeft = deadline - System.currentTimeMillis();
+					if (timeLeft <= 0)
+						break;
+					wait(timeLeft);
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new ServiceUnavailable("Interrupted");
+		}
+		rethrowException();
+		return hits;
+	}
+
 	@Override
 	protected void dataStreamSubclassEntries(DataStream ds) {
         ds  .entry("countHitsRetrieved", hits == null ? -1 : hits.countSoFarDocsRetrieved());
@@ -0,0 +1,70 @@
+package nl.inl.blacklab.server.jobs;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import nl.inl.blacklab.search.Prioritizable;
+import nl.inl.util.ThreadPriority;
+
+/**
+ * The task of executing a search, run by one of the JobScheduler's workers.
+ */
+final class SearchTask implements Runnable {
+	protected static final Logger logger = LogManager.getLogger(SearchTask.class);
+
+	/** The job to execute */
+	private Job search;
+
+	/** The scheduler to notify when we're done */
+	private JobScheduler scheduler;
+
+	/**
+	 * Construct a new SearchTask
+	 * @param search the search to execute
+	 * @param scheduler the scheduler to notify when we're done
+	 */
+	SearchTask(Job search, JobScheduler scheduler) {
+		this.search = search;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Perform the requested search.
+	 *
+	 * If the search is paused, it gives up our thread (see ThreadPriority.setYieldWhenPaused())
+	 * and the scheduler sets it aside until it's resumed.
+	 */
+	@Override
+	public void run() {
+		boolean paused = false;
+		Prioritizable previousOwner = ThreadPriority.setYieldWhenPaused(search);
+		try {
+			if (search.startWorking(Thread.currentThread())) {
+				search.performSearchInternal();
+				search.setFinished();
+			}
+		} catch (ThreadPriority.Paused e) {
+			// Search was paused; it will continue (or start over) when it's resumed
+			paused = true;
+		} catch (Throwable e) {
+			// NOTE: we catch Throwable here (while it's normally good practice to
+			//  catch only Exception and derived classes) because we need to know if
+			//  our search crashed or not. The Throwable will be re-thrown by the
+			//  request thread, so any non-Exception Throwables will then go uncaught
+			//  as they "should".
+			logger.debug("Search threw an exception, saving it:\n" + e.getClass().getName() + ": " + e.getMessage());
+			e.printStackTrace();
+			search.thrownException = e;
+			search.setFinished();
+		} finally {
+			ThreadPriority.setYieldWhenPaused(previousOwner);
+			search.stopWorking();
+			if (paused)
+				scheduler.jobPaused(search);
+			else
+				scheduler.jobFinished(search);
+		}
+		search = null; // make sure Job gets garbage collected
+	}
+
+}
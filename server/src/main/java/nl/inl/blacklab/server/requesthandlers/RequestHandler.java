@@ -30,6 +30,7 @@ import nl.inl.blacklab.search.HitsSample;
 import nl.inl.blacklab.search.ResultsWindow;
 import nl.inl.blacklab.search.Searcher;
 import nl.inl.blacklab.search.grouping.DocOrHitGroups;
+import nl.inl.blacklab.search.grouping.ResultsCounter;
 import nl.inl.blacklab.search.indexstructure.IndexStructure;
 import nl.inl.blacklab.server.BlackLabServer;
 import nl.inl.blacklab.server.datastream.DataFormat;
@@ -577,6 +578,15 @@ public abstract class RequestHandler {
 				.entry("stoppedRetrievingHits", totalHits.maxHitsRetrieved());
 			ds	.entry("numberOfDocs", countFailed ? -1 : totalHits.countSoFarDocsCounted())
 				.entry("numberOfDocsRetrieved", totalHits.countSoFarDocsRetrieved());
+		} else if (groups instanceof ResultsCounter) {
+			// Hits were counted into groups without being retrieved; get the info from the groups.
+			ResultsCounter counter = (ResultsCounter)groups;
+			ds	.entry("numberOfHits", countFailed ? -1 : counter.getHitsCounted())
+				.entry("numberOfHitsRetrieved", counter.getTotalResults())
+				.entry("stoppedCountingHits", counter.maxHitsCounted())
+				.entry("stoppedRetrievingHits", counter.maxHitsRetrieved());
+			ds	.entry("numberOfDocs", countFailed ? -1 : counter.getDocsCounted())
+				.entry("numberOfDocsRetrieved", counter.getDocsRetrieved());
 		} else if (isViewDocGroup) {
 			// Viewing single group of documents, possibly based on a hits search.
 			// group.getResults().getOriginalHits() returns null in this case,
@@ -27,7 +27,7 @@ public class RequestHandlerDocsGrouped extends RequestHandler {
 	@Override
 	public int handle(DataStream ds) throws BlsException {
 		// Get the window we're interested in
-		JobDocsGrouped search = (JobDocsGrouped) searchMan.search(user, searchParam.docsGrouped(), isBlockingOperation());
+		JobDocsGrouped search = (JobDocsGrouped) searchMan.search(user, searchParam.docsGroupedCounts(), isBlockingOperation());
 		try {
 			// If search is not done yet, indicate this to the user
 			if (!search.finished()) {
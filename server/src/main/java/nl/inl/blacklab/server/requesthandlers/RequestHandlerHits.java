@@ -41,6 +41,10 @@ import nl.inl.blacklab.server.search.BlsConfig;
  * Request handler for hit results.
  */
 public class RequestHandlerHits extends RequestHandler {
+
+	/** How long to wait for the hits object to become available */
+	private static final int MAX_WAIT_FOR_HITS_MS = 5000;
+
 	public RequestHandlerHits(BlackLabServer servlet, HttpServletRequest request, User user, String indexName, String urlResource, String urlPathPart) {
 		super(servlet, request, user, indexName, urlResource, urlPathPart);
 	}
@@ -98,22 +102,17 @@ public class RequestHandlerHits extends RequestHandler {
 				window = hitsInGroup.window(first, size);
 			} else {
 				// Since we're going to always launch a totals count anyway, just do it right away
-				// then construct a window on top of the total
-				job = searchMan.search(user, searchParam.hitsTotal(), false); // always launch totals nonblocking!
+				// then construct a window on top of the total. Unless the client asked us to wait
+				// for the total, we don't wait for the count to finish: the count and the requested
+				// page use the same Hits object, and we get our page as soon as its hits have been read.
+				boolean waitForTotal = searchParam.getBoolean("waitfortotal");
+				job = searchMan.search(user, searchParam.hitsTotal(), waitForTotal);
 				JobHitsTotal jobTotal = (JobHitsTotal) job;
 
-				int sleepTime = 10;
-				int totalSleepTime = 0;
-				while ((total = jobTotal.getHits()) == null) { // Wait for job to start up for a bit
-					try {
-						totalSleepTime += sleepTime;
-						Thread.sleep(sleepTime = Math.max(sleepTime * 2, 500));
-						if (totalSleepTime >= 5000)
-							throw new ServiceUnavailable("Timeout");
-					} catch (InterruptedException e) {
-						throw new ServiceUnavailable("Interrupted");
-					}
-				}
+				// Wait for the job to start up for a bit (it notifies us when the hits are available)
+				total = jobTotal.waitForHits(MAX_WAIT_FOR_HITS_MS);
+				if (total == null)
+					throw new ServiceUnavailable("Timeout");
 
 				// check if we have the requested window available
 				// NOTE: don't create the HitsWindow object yet, as it will attempt to resolve the hits immediately and block the thread until they've been found.
@@ -121,6 +120,8 @@ public class RequestHandlerHits extends RequestHandler {
 				int first = Math.max(0, searchParam.getInteger("first"));
 				int size = Math.min(Math.max(0, searchParam.getInteger("number")), searchMan.config().maxPageSize());
 
+				// Returns as soon as the hits for this page have been read (or there are no more hits),
+				// even if another thread is still counting the total.
 				total.sizeAtLeast(first + size);
 
 				// We blocked, so if we don't have the page available, the request is out of bounds.
@@ -258,9 +259,9 @@ public class RequestHandlerHits extends RequestHandler {
 	}
 
 	private void dataStreamCollocations(DataStream ds, Hits originalHits) {
-		originalHits.settings().setContextSize(searchParam.getInteger("wordsaroundhit"));
+		int contextSize = searchParam.getInteger("wordsaroundhit");
 		ds.startMap().startEntry("tokenFrequencies").startMap();
-		TermFrequencyList tfl = originalHits.getCollocations();
+		TermFrequencyList tfl = originalHits.getCollocations(null, null, contextSize, contextSize);
 		tfl.sort();
 		for (TermFrequency tf: tfl) {
 			ds.attrEntry("token", "text", tf.term, tf.frequency);
@@ -26,7 +26,7 @@ public class RequestHandlerHitsGrouped extends RequestHandler {
 	@Override
 	public int handle(DataStream ds) throws BlsException {
 		// Get the window we're interested in
-		JobHitsGrouped search = (JobHitsGrouped) searchMan.search(user, searchParam.hitsGrouped(), isBlockingOperation());
+		JobHitsGrouped search = (JobHitsGrouped) searchMan.search(user, searchParam.hitsGroupedCounts(), isBlockingOperation());
 		try {
 			// If search is not done yet, indicate this to the user
 			if (!search.finished()) {
@@ -45,7 +45,8 @@ public class RequestHandlerHitsGrouped extends RequestHandler {
 			int totalResults = groups.numberOfGroups();
 			final int actualWindowSize = first + requestedWindowSize > totalResults ? totalResults - first : requestedWindowSize;
 			ResultsWindow ourWindow = new ResultsWindowImpl(totalResults, first, requestedWindowSize, actualWindowSize);
-			addSummaryCommonFields(ds, searchParam, search.userWaitTime(), 0, hits, hits, false, (DocResults)null, groups, ourWindow);
+			// (the hits were only counted into the groups, so the hit counts come from the groups)
+			addSummaryCommonFields(ds, searchParam, search.userWaitTime(), 0, hits, (Hits)null, false, (DocResults)null, groups, ourWindow);
 			ds.endMap().endEntry();
 
 			// The list of groups found
@@ -1,7 +1,5 @@
 package nl.inl.blacklab.server.requesthandlers;
 
-import java.util.Map;
-
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.lucene.search.Query;
@@ -15,7 +13,6 @@ import nl.inl.blacklab.server.BlackLabServer;
 import nl.inl.blacklab.server.datastream.DataStream;
 import nl.inl.blacklab.server.exceptions.BlsException;
 import nl.inl.blacklab.server.jobs.User;
-import nl.inl.util.LuceneUtil;
 
 /**
  * Request handler for term frequencies for a set of documents.
@@ -36,15 +33,9 @@ public class RequestHandlerTermFreq extends RequestHandler {
 		String propName = searchParam.getString("property");
 		boolean sensitive = searchParam.getBoolean("sensitive");
 
+		// (no filter means the whole corpus; this uses a precomputed frequency table if there is one)
 		Query q = searchParam.getFilterQuery();
-		if (q == null)
-			return Response.badRequest(ds, "NO_FILTER_GIVEN", "Document filter required. Please specify 'filter' parameter.");
-		Map<String, Integer> freq = LuceneUtil.termFrequencies(searcher.getIndexSearcher(), q, cfd.getName(), propName, sensitive ? "s" : "i");
-
-		TermFrequencyList tfl = new TermFrequencyList(freq.size());
-		for (Map.Entry<String, Integer> e: freq.entrySet()) {
-			tfl.add(new TermFrequency(e.getKey(), e.getValue()));
-		}
+		TermFrequencyList tfl = searcher.termFrequencies(q, cfd.getName(), propName, sensitive);
 		tfl.sort();
 
 		int first = searchParam.getInteger("first");
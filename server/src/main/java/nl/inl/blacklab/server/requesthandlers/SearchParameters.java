@@ -581,10 +581,20 @@ public class SearchParameters {
 		return new JobDescHitsGrouped(this, hitsSample(), getSearchSettings(), hitGroupSettings(), hitGroupSortSettings());
 	}
 
+	/** Grouping that only counts the hits in each group (when we don't need to view a group) */
+	public JobDescription hitsGroupedCounts() throws BlsException {
+		return new JobDescHitsGrouped(this, hitsSample(), getSearchSettings(), hitGroupSettings(), hitGroupSortSettings(), true);
+	}
+
 	public JobDescription docsGrouped() throws BlsException {
 		return new JobDescDocsGrouped(this, docs(), getSearchSettings(), docGroupSettings(), docGroupSortSettings());
 	}
 
+	/** Grouping that only counts the documents in each group (when we don't need to view a group) */
+	public JobDescription docsGroupedCounts() throws BlsException {
+		return new JobDescDocsGrouped(this, docs(), getSearchSettings(), docGroupSettings(), docGroupSortSettings(), true);
+	}
+
 	public JobDescription facets() throws BlsException {
 		return new JobDescFacets(this, docs(), getSearchSettings(), getFacets());
 	}
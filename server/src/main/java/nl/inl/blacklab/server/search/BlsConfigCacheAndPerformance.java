@@ -53,6 +53,9 @@ public class BlsConfigCacheAndPerformance {
 	/** Minimum amount of free memory (MB) to start a new search. [50] */
 	private int minFreeMemForSearchMegs;
 
+	/** How many index segments a search may read in parallel when retrieving hits. [1] */
+	private int hitRetrievalThreads;
+
 	public int getMinFreeMemForSearchMegs() {
 		return minFreeMemForSearchMegs;
 	}
@@ -65,6 +68,10 @@ public class BlsConfigCacheAndPerformance {
 		return clientCacheTimeSec;
 	}
 
+	public int getHitRetrievalThreads() {
+		return hitRetrievalThreads;
+	}
+
 	/**
 	 * Maximum number of simultaneously running jobs started by the same user.
 	 * [20] Please note that a search may start 2-4 jobs, so don't set this too
@@ -87,11 +94,13 @@ public class BlsConfigCacheAndPerformance {
 			minFreeMemForSearchMegs = JsonUtil.getIntProp(settings, "minFreeMemForSearchMegs", 50);
 			maxRunningJobsPerUser = JsonUtil.getIntProp(settings, "maxRunningJobsPerUser", 20);
 			clientCacheTimeSec = JsonUtil.getIntProp(settings, "clientCacheTimeSec", 3600);
+			hitRetrievalThreads = JsonUtil.getIntProp(settings, "hitRetrievalThreads", 1);
 		} else {
 			// Set default values
 			minFreeMemForSearchMegs = 50;
 			maxRunningJobsPerUser = 20;
 			clientCacheTimeSec = 3600;
+			hitRetrievalThreads = 1;
 		}
 
 		JsonNode cacheSettings = null;
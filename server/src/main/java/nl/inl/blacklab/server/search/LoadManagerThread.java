@@ -37,9 +37,7 @@ class LoadManagerThread extends Thread implements UncaughtExceptionHandler {
 				return;
 			}
 
-			synchronized(searchCache) {
-				searchCache.performLoadManagement(null);
-			}
+			searchCache.performLoadManagement(null); // (takes care of its own locking)
 		}
 	}
 
@@ -10,6 +10,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -22,13 +27,28 @@ import nl.inl.blacklab.server.jobs.Job;
 import nl.inl.blacklab.server.jobs.JobDescription;
 import nl.inl.blacklab.server.jobs.JobDocsTotal;
 import nl.inl.blacklab.server.jobs.JobHitsTotal;
+import nl.inl.blacklab.server.jobs.JobScheduler;
 import nl.inl.blacklab.server.jobs.User;
 import nl.inl.blacklab.server.util.MemoryUtil;
 import nl.inl.util.ThreadPriority;
 import nl.inl.util.ThreadPriority.Level;
 
+/**
+ * Caches search jobs and manages the server load.
+ *
+ * The cache is a concurrent map, so request threads don't wait for each other
+ * or for load management. Requests for the same search are serialized using
+ * a small number of locks, chosen by the hash of the search's identifier.
+ *
+ * Load management (see performLoadManagement()) only runs in one thread at a
+ * time. It finds the least worthy searches to evict using an index ordered
+ * like Job.calculateWorthiness(), so it doesn't have to sort all cached searches.
+ */
 public class SearchCache {
 
+	/** Number of locks used to serialize requests for the same search */
+	private static final int NUMBER_OF_SEARCH_LOCKS = 64;
+
 	/** In nonblocking mode, how long should we wait to see if the job finishes really quickly,
 	 *  to avoid unnecessary polling? */
 	private static final int INITIAL_JOB_FINISH_WAIT = 500;
@@ -48,12 +68,80 @@ public class SearchCache {
 	/** Our configuration */
 	private BlsConfigCacheAndPerformance cacheConfig;
 
+	/**
+	 * A cached search's position in the eviction index.
+	 *
+	 * Searches are ordered by worthiness (see Job.calculateWorthiness()), least
+	 * worthy first: finished searches are always less worthy than running ones,
+	 * and among finished searches, worthiness only depends on how long ago they
+	 * were accessed. Worthiness itself changes over time, so we order on what it's
+	 * derived from instead, which only changes when the search is accessed or
+	 * finishes.
+	 *
+	 * Immutable, because the index is a sorted set. When a search is accessed
+	 * or finishes, its key is not updated right away; load management notices
+	 * the key is out of date when it gets to it, and moves the search to its
+	 * new place.
+	 */
+	private static class EvictionKey implements Comparable<EvictionKey> {
+
+		/** Used to order searches that were last accessed at the same time */
+		private static final AtomicLong nextSequenceNumber = new AtomicLong();
+
+		final Job job;
+
+		/** Whether the search was finished when this key was created */
+		final boolean finished;
+
+		/** The search's last access time when this key was created */
+		final long lastAccessed;
+
+		final long sequenceNumber;
+
+		EvictionKey(Job job) {
+			this.job = job;
+			finished = job.finished();
+			lastAccessed = job.getLastAccessed();
+			sequenceNumber = nextSequenceNumber.getAndIncrement();
+		}
+
+		/**
+		 * Was the search accessed (or did it finish) after this key was created?
+		 *
+		 * @return true if the key is out of date
+		 */
+		boolean isOutOfDate() {
+			return job.getLastAccessed() != lastAccessed || job.finished() != finished;
+		}
+
+		@Override
+		public int compareTo(EvictionKey o) {
+			if (finished != o.finished)
+				return finished ? -1 : 1;
+			if (lastAccessed != o.lastAccessed)
+				return lastAccessed < o.lastAccessed ? -1 : 1;
+			return Long.compare(sequenceNumber, o.sequenceNumber);
+		}
+	}
+
 	/** The cached search objects. */
 	private Map<String, Job> cachedSearches;
 
+	/** Cached searches, least worthy first (keys may be out of date, see EvictionKey) */
+	private ConcurrentSkipListSet<EvictionKey> evictionIndex = new ConcurrentSkipListSet<>();
+
+	/** Each cached search's current key in evictionIndex */
+	private Map<Job, EvictionKey> evictionKeys = new ConcurrentHashMap<>();
+
+	/** Locks used to serialize requests for the same search (see lockForSearch()) */
+	private Object[] searchLocks;
+
+	/** Makes sure only one thread performs load management at a time */
+	private Lock loadManagementLock = new ReentrantLock();
+
 	/** (Estimated) size of the cache. Only updated in removeOldSearches, so may not
 	 * always be accurate. */
-	private long cacheSizeBytes;
+	private volatile long cacheSizeBytes;
 
 	/**
 	 * A thread that ensures load management continues even if
@@ -66,6 +154,9 @@ public class SearchCache {
 
 	private SearchManager searchMan;
 
+	/** Runs the jobs, limiting how many run at the same time */
+	private JobScheduler jobScheduler;
+
 	/**
 	 * Initialize the cache.
 	 *
@@ -81,27 +172,44 @@ public class SearchCache {
 		// and automatically abort really long operations.
 		ThreadPriority.setEnabled(cacheConfig.enableThreadPriority());
 
-		cachedSearches = new HashMap<>();
+		cachedSearches = new ConcurrentHashMap<>();
+		searchLocks = new Object[NUMBER_OF_SEARCH_LOCKS];
+		for (int i = 0; i < searchLocks.length; i++) {
+			searchLocks[i] = new Object();
+		}
+
+		jobScheduler = new JobScheduler(cacheConfig);
 
 		loadManagerThread = new LoadManagerThread(this);
 		loadManagerThread.start();
 
 	}
 
+	/**
+	 * Get the scheduler that runs our jobs.
+	 *
+	 * @return the job scheduler
+	 */
+	public JobScheduler getJobScheduler() {
+		return jobScheduler;
+	}
+
 	/**
 	 * Remove all cache entries for the specified index.
 	 *
 	 * @param indexName the index
 	 */
 	public void clearCacheForIndex(String indexName) {
-		// Iterate over the entries and remove the ones in the specified index
-		Iterator<Map.Entry<String, Job>> it = cachedSearches.entrySet().iterator();
-		while (it.hasNext()) {
-			Entry<String, Job> entry = it.next();
-			if (entry.getValue().getDescription().getIndexName().equals(indexName)) {
-				entry.getValue().decrRef();
-				it.remove();
+		loadManagementLock.lock();
+		try {
+			// Iterate over the entries and remove the ones in the specified index
+			for (Job job: cachedSearches.values()) {
+				if (job.getDescription().getIndexName().equals(indexName)) {
+					removeFromCache(job);
+				}
 			}
+		} finally {
+			loadManagementLock.unlock();
 		}
 	}
 
@@ -118,6 +226,7 @@ public class SearchCache {
 		loadManagerThread = null;
 
 		clearCache(true);
+		jobScheduler.shutdown();
 
 		searchMan = null;
 	}
@@ -161,7 +270,7 @@ public class SearchCache {
 		// Search the cache / running jobs for this search, create new if not found.
 		boolean performSearch = false;
 		Job job;
-		synchronized (this) {
+		synchronized (lockForSearch(jobDesc.uniqueIdentifier())) {
 			boolean useCache = jobDesc.getSearchSettings().isUseCache();
 			job = useCache ? get(jobDesc) : null;
 			if (job == null) {
@@ -173,9 +282,13 @@ public class SearchCache {
 				// Check what jobs this user has running
 				// Check if search allowed, and update running jobs for user
 				Set<Job> runningJobs = updateRunningJobs(user.uniqueId());
-				if (runningJobs.size() >= cacheConfig.getMaxRunningJobsPerUser()) {
+				int numberOfRunningJobs;
+				synchronized (runningJobsPerUser) {
+					numberOfRunningJobs = runningJobs.size();
+				}
+				if (numberOfRunningJobs >= cacheConfig.getMaxRunningJobsPerUser()) {
 					// User has too many running jobs. Can't start another one.
-					logger.warn("Can't start new search, user already has " + runningJobs.size() + " jobs running.");
+					logger.warn("Can't start new search, user already has " + numberOfRunningJobs + " jobs running.");
 					throw new TooManyRequests(
 							"You already have too many running searches. Please wait for some previous searches to complete before starting new ones.");
 				}
@@ -185,7 +298,9 @@ public class SearchCache {
 				job.incrRef();
 				if (useCache) {
 					put(job);
-					runningJobs.add(job);
+					synchronized (runningJobsPerUser) {
+						runningJobs.add(job);
+					}
 				}
 				performSearch = true;
 			} else {
@@ -218,16 +333,18 @@ public class SearchCache {
 	 *
 	 * If found, resets the last access time for the search.
 	 *
+	 * NOTE: called with the search's lock held (see lockForSearch())
+	 *
 	 * @param jobDesc the search parameters
 	 * @return the Search if found, or null if not
 	 */
-	private synchronized Job get(JobDescription jobDesc) {
+	private Job get(JobDescription jobDesc) {
 		Job search = cachedSearches.get(jobDesc.uniqueIdentifier());
 		if (search == null) {
 			// logger.debug("Cache miss: " + jobDesc);
 		} else {
 			// logger.debug("Cache hit: " + jobDesc);
-			search.resetLastAccessed();
+			search.resetLastAccessed(); // (eviction index is updated during load management)
 		}
 		return search;
 	}
@@ -236,18 +353,21 @@ public class SearchCache {
 	 *
 	 * Also cleans older searches from the cache if necessary.
 	 *
+	 * NOTE: called with the search's lock held (see lockForSearch())
+	 *
 	 * @param search the search object
 	 */
-	private synchronized void put(Job search) {
+	private void put(Job search) {
 		if (cacheConfig.getMaxNumberOfJobs() <= 0)
 			return;
 
-		performLoadManagement(search);
+		tryLoadManagement(search);
 
 		// Search already in cache?
 		String uniqueIdentifier = search.getDescription().uniqueIdentifier();
-		if (cachedSearches.containsKey(uniqueIdentifier)) {
-			if (cachedSearches.get(uniqueIdentifier) != search) {
+		Job cached = cachedSearches.get(uniqueIdentifier);
+		if (cached != null) {
+			if (cached != search) {
 				throw new RuntimeException("Cache already contains different search object!");
 			}
 			// Same object already in cache, do nothing
@@ -257,8 +377,26 @@ public class SearchCache {
 
 		// Put search in cache
 		// logger.debug("Put in cache: " + uniqueIdentifier);
-		cachedSearches.put(uniqueIdentifier, search);
 		search.incrRef();
+		cachedSearches.put(uniqueIdentifier, search);
+		EvictionKey key = new EvictionKey(search);
+		evictionKeys.put(search, key);
+		evictionIndex.add(key);
+	}
+
+	/**
+	 * Get the lock for requests for a search.
+	 *
+	 * Looking up a search and adding it to the cache (or removing it) happens while
+	 * holding this lock, so we never create the same search twice, and never remove
+	 * a search that is just being handed out. Different searches usually have
+	 * different locks, so requests for them don't wait for each other.
+	 *
+	 * @param uniqueIdentifier the search's unique identifier
+	 * @return the lock object
+	 */
+	private Object lockForSearch(String uniqueIdentifier) {
+		return searchLocks[(uniqueIdentifier.hashCode() & 0x7FFFFFFF) % searchLocks.length];
 	}
 
 	/**
@@ -267,57 +405,170 @@ public class SearchCache {
 	 * @param cancelRunning if true, cancels all running searches as well.
 	 */
 	private void clearCache(boolean cancelRunning) {
-		for (Job cachedSearch: cachedSearches.values()) {
-			if (!cachedSearch.finished())
-				cachedSearch.cancelJob();
-			cachedSearch.decrRef();
+		loadManagementLock.lock();
+		try {
+			for (Job cachedSearch: cachedSearches.values()) {
+				if (!cachedSearch.finished())
+					cachedSearch.cancelJob();
+				removeFromCache(cachedSearch);
+			}
+		} finally {
+			loadManagementLock.unlock();
 		}
-		cachedSearches.clear();
 		logger.debug("Cache cleared.");
 	}
 
 	private long calculateSizeBytes(Collection<Job> collection) {
 		// Estimate the total cache size
-		cacheSizeBytes = 0;
+		long size = 0;
 		for (Job search: collection) {
-			cacheSizeBytes += search.estimateSizeBytes();
+			size += search.estimateSizeBytes();
+		}
+		cacheSizeBytes = size;
+		return size;
+	}
+
+	/**
+	 * Perform load management, unless another thread is already doing so.
+	 *
+	 * Used from request threads, so they never wait for load management.
+	 * (the load manager thread performs it regularly anyway)
+	 *
+	 * @param newSearch the new search just started, or null if none.
+	 */
+	private void tryLoadManagement(Job newSearch) {
+		if (loadManagementLock.tryLock()) {
+			try {
+				performLoadManagement(newSearch);
+			} finally {
+				loadManagementLock.unlock();
+			}
 		}
-		return cacheSizeBytes;
 	}
 
 	/**
 	 * Evaluate what we need to do (if anything) with each search given the
 	 * current server load.
 	 *
+	 * Only one thread performs load management at a time; if another thread
+	 * is already doing so, this waits for it to finish.
+	 *
 	 * @param newSearch the new search just started, or null if none.
 	 */
 	void performLoadManagement(Job newSearch) {
-
-		if (cacheConfig.shouldAutoDetectMaxConcurrent()) {
-			// Autodetect number of CPUs
-			cacheConfig.autoAdjustMaxConcurrent();
-		}
-
-		for (Entry<String, Job> e: cachedSearches.entrySet()) {
-			String key = e.getKey();
-			Job job = e.getValue();
-			String uniqId = job.getDescription().uniqueIdentifier();
-			if (!key.equals(uniqId)) {
-				logger.error("### Cached job's key has changed. OLD=" + key + ", NEW=" + uniqId);
+		loadManagementLock.lock();
+		try {
+			if (cacheConfig.shouldAutoDetectMaxConcurrent()) {
+				// Autodetect number of CPUs
+				cacheConfig.autoAdjustMaxConcurrent();
 			}
-		}
 
-		List<Job> searches = new ArrayList<>(cachedSearches.values());
+			//------------------
+			// STEP 1: cancel searches that take too long, and remove least recently
+			//         accessed, finished searches from cache
+
+			// Find the running searches, and cancel the ones that take too long
+			List<Job> searches = new ArrayList<>();
+			for (Entry<String, Job> e: cachedSearches.entrySet()) {
+				String key = e.getKey();
+				Job search = e.getValue();
+				String uniqId = search.getDescription().uniqueIdentifier();
+				if (!key.equals(uniqId)) {
+					logger.error("### Cached job's key has changed. OLD=" + key + ", NEW=" + uniqId);
+				}
+				if (search.finished())
+					continue;
+				if (search.userWaitTime() > cacheConfig.getMaxSearchTimeSec()) {
+					// Search is taking too long. Cancel it.
+					if (BlsConfig.traceCache) {
+						logger.debug("Search is taking too long (time " + search.userWaitTime() + "s > max time " + cacheConfig.getMaxSearchTimeSec() + "s)");
+						logger.debug("  Cancelling searchjob: " + search);
+					}
+					abortSearch(search);
+				} else {
+					searches.add(search);
+				}
+			}
 
-		// Sort the searches based on descending "worthiness"
-		for (Job s: searches)
-		    s.calculateWorthiness(); // calculate once before sorting so we don't run into Comparable contract issues because of threading
-		Collections.sort(searches);
+			removeLeastRecentlyAccessed();
+			// NOTE: we used to hint the Java GC to run, but this caused severe
+			// slowdowns. It's better to rely on the incremental garbage collection.
+
+			//------------------
+			// STEP 2: make sure the most worthy searches get the CPU, and pause
+			//         any others to avoid bringing down the server.
+			//         (searches that haven't started yet are started or stay queued)
+
+			// Sort the running searches based on descending "worthiness",
+			// letting users take turns so one user can't claim all the cores
+			for (Job s: searches)
+			    s.calculateWorthiness(); // calculate once before sorting so we don't run into Comparable contract issues because of threading
+			Collections.sort(searches);
+			searches = JobScheduler.fairOrder(searches);
+
+			int coresLeft = cacheConfig.getMaxConcurrentSearches();
+			int pauseSlotsLeft = cacheConfig.getMaxPausedSearches();
+			for (Job search: searches) {
+				if (search.finished()) {
+					// Finished in the meantime; will be considered for removal next time
+				} else if (search.isWaitingForOtherJob()) {
+					// Waiting, not taking up any CPU. Can run normally, but doesn't take a core.
+					applyAction(search, ServerLoadQueryAction.RUN_NORMALLY, "waiting for other job");
+				} else if (jobScheduler.isQueued(search)) {
+					// Not started yet. Start it if a core is available; otherwise, leave it queued
+					// (it doesn't use any resources yet, so it doesn't need a pause slot and we don't abort it)
+					if (coresLeft > 0) {
+						coresLeft--;
+						applyAction(search, ServerLoadQueryAction.RUN_NORMALLY, "core available");
+					}
+				} else {
+					// Running search. Run, pause or abort?
+					boolean isCount = search instanceof JobHitsTotal || search instanceof JobDocsTotal;
+					if (isCount && search.timeSinceLastAccess() > cacheConfig.getAbandonedCountPauseTimeSec() && pauseSlotsLeft > 0) {
+						// This is a long-running count that seems to have been abandoned by the client.
+						// First we'll pause it so it doesn't consume CPU resources. Eventually we'll
+						// abort it so its memory is freed up.
+						if (search.timeSinceLastAccess() <= cacheConfig.getAbandonedCountAbortTimeSec()) {
+							pauseSlotsLeft--;
+							applyAction(search, ServerLoadQueryAction.PAUSE, "abandoned count");
+						} else {
+							applyAction(search, ServerLoadQueryAction.ABORT, "abandoned count");
+						}
+					} else if (coresLeft > 0) {
+						// A core is available. Run the search.
+						coresLeft--;
+						applyAction(search, ServerLoadQueryAction.RUN_NORMALLY, "core available");
+					} else if (pauseSlotsLeft > 0) {
+						// No cores, but a pause slot is left. Pause it.
+						pauseSlotsLeft--;
+						applyAction(search, ServerLoadQueryAction.PAUSE, "no cores left");
+					} else {
+						// No cores or pause slots. Abort the search.
+						applyAction(search, ServerLoadQueryAction.ABORT, "no cores or pause slots left");
+					}
+				}
+			}
 
-		//------------------
-		// STEP 1: remove least worthy, finished searches from cache
+			// Paused searches don't need their slot anymore; see if queued searches can use it
+			jobScheduler.dispatch();
+		} finally {
+			loadManagementLock.unlock();
+		}
+	}
 
-		calculateSizeBytes(searches);
+	/**
+	 * Remove finished searches from the cache, least worthy (i.e. least
+	 * recently accessed) first, while the cache is too big, searches are too
+	 * old or we're low on memory.
+	 *
+	 * Only searches that are not referred to by anything but the cache are
+	 * removed. Keys that are out of date (because the search was accessed
+	 * again or finished) are moved to their new place in the index as we get to them.
+	 *
+	 * NOTE: called with loadManagementLock held
+	 */
+	private void removeLeastRecentlyAccessed() {
+		calculateSizeBytes(cachedSearches.values());
 
 		// If we're low on memory, always remove a few searches from cache.
 		int minSearchesToRemove = 0;
@@ -328,113 +579,62 @@ public class SearchCache {
 			minSearchesToRemove = cacheConfig.getNumberOfJobsToPurgeWhenBelowTargetMem();
 		}
 
-		// Look at searches from least worthy to worthiest.
-		// Get rid of old searches
-		List<Job> removed = new ArrayList<>();
-		boolean lookAtCacheSizeAndSearchAccessTime = true;
-		for (int i = searches.size() - 1; i >= 0; i--) {
-			Job search1 = searches.get(i);
+		Iterator<EvictionKey> it = evictionIndex.iterator();
+		while (it.hasNext()) {
+			EvictionKey key = it.next();
+			Job search1 = key.job;
+			if (evictionKeys.get(search1) != key) {
+				// Search was removed or moved already
+				it.remove();
+				continue;
+			}
+			if (key.isOutOfDate()) {
+				// Search was accessed since we indexed it; move it to its new place
+				// (we'll get to it again later, if we get that far)
+				EvictionKey newKey = new EvictionKey(search1);
+				evictionKeys.put(search1, newKey);
+				it.remove();
+				evictionIndex.add(newKey);
+				continue;
+			}
+			if (!search1.finished() || search1.getRefCount() != 1)
+				continue; // running or in use; can't remove it
+
+			// Finished search that is not referred to by anything but this cache it is in
+			boolean tooManySearches = cacheConfig.getMaxNumberOfJobs() >= 0 && cachedSearches.size() > cacheConfig.getMaxNumberOfJobs();
+			long cacheSizeMegs = cacheSizeBytes / 1000000;
+			boolean tooMuchMemory = cacheConfig.getMaxSizeMegs() >= 0 && cacheSizeMegs > cacheConfig.getMaxSizeMegs();
+			boolean isCacheTooBig = tooManySearches || tooMuchMemory;
+			boolean isSearchTooOld = false;
+			if (!isCacheTooBig) {
+				boolean tooOld = cacheConfig.getMaxJobAgeSec() >= 0 && search1.cacheAge() > cacheConfig.getMaxJobAgeSec();
+				isSearchTooOld = tooOld;
+			}
+			if (minSearchesToRemove <= 0 && !isCacheTooBig && !isSearchTooOld) {
+				// Cache is no longer too big and the remaining searches are more recently
+				// accessed, so not too old. We're done.
+				break;
+			}
 
-			if (!search1.finished() && search1.userWaitTime() > cacheConfig.getMaxSearchTimeSec()) {
-				// Search is taking too long. Cancel it.
+			// Search is too old or cache is too big. Keep removing searches until that's no
+			// longer the case
+			// logger.debug("Remove from cache: " + search);
+			synchronized (lockForSearch(search1.getDescription().uniqueIdentifier())) {
+				// (holding the search's lock, so it can't be handed out while we remove it)
+				if (search1.getRefCount() != 1)
+					continue; // was just handed out again; keep it
 				if (BlsConfig.traceCache) {
-					logger.debug("Search is taking too long (time " + search1.userWaitTime() + "s > max time " + cacheConfig.getMaxSearchTimeSec() + "s)");
-					logger.debug("  Cancelling searchjob: " + search1);
-				}
-				abortSearch(search1);
-				removed.add(search1);
-
-			} else if (search1.finished() && search1.getRefCount() == 1) {
-				// Finished search that is not referred to by anything but this cache it is in
-				boolean removeBecauseOfCacheSizeOrAge = false;
-				boolean isCacheTooBig = false;
-				boolean isSearchTooOld = false;
-				long cacheSizeMegs = 0;
-				if (lookAtCacheSizeAndSearchAccessTime) {
-					boolean tooManySearches = cacheConfig.getMaxNumberOfJobs() >= 0 && cachedSearches.size() > cacheConfig.getMaxNumberOfJobs();
-					cacheSizeMegs = cacheSizeBytes / 1000000;
-					boolean tooMuchMemory = cacheConfig.getMaxSizeMegs() >= 0 && cacheSizeMegs > cacheConfig.getMaxSizeMegs();
-					isCacheTooBig = tooManySearches || tooMuchMemory;
-					isSearchTooOld = false;
-					if (!isCacheTooBig) {
-						boolean tooOld = cacheConfig.getMaxJobAgeSec() >= 0 && search1.cacheAge() > cacheConfig.getMaxJobAgeSec();
-						isSearchTooOld = tooOld;
-					}
-					removeBecauseOfCacheSizeOrAge = isCacheTooBig || isSearchTooOld;
-				}
-				if (minSearchesToRemove > 0 || removeBecauseOfCacheSizeOrAge) {
-					// Search is too old or cache is too big. Keep removing searches until that's no
-					// longer the case
-					// logger.debug("Remove from cache: " + search);
-					if (BlsConfig.traceCache) {
-						if (minSearchesToRemove > 0)
-							logger.debug("Not enough free mem (free " + freeMegs + "M < min free " + cacheConfig.getMinFreeMemTargetMegs() + "M)");
-						else if (isCacheTooBig)
-							logger.debug("Cache too large (size " + cacheSizeMegs + "M > max size " + cacheConfig.getMaxSizeMegs() + "M)");
-						else
-							logger.debug("Searchjob too old (age " + (int)search1.cacheAge() + "s > max age " + cacheConfig.getMaxJobAgeSec() + "s)");
-						logger.debug("  Removing searchjob: " + search1);
-					}
-					removeFromCache(search1);
-					removed.add(search1);
-
-					minSearchesToRemove--;
-				} else {
-					// Cache is no longer too big and these searches are not too old. Stop checking
-					// that,
-					// just check for long-running searches
-					lookAtCacheSizeAndSearchAccessTime = false;
-				}
-			}
-		}
-		// Make sure we don't look at the searches we removed again in the next step
-		for (Job r: removed) {
-			searches.remove(r);
-		}
-		// NOTE: we used to hint the Java GC to run, but this caused severe
-		// slowdowns. It's better to rely on the incremental garbage collection.
-
-		//------------------
-		// STEP 2: make sure the most worthy searches get the CPU, and pause
-		//         any others to avoid bringing down the server.
-
-		int coresLeft = cacheConfig.getMaxConcurrentSearches();
-		int pauseSlotsLeft = cacheConfig.getMaxPausedSearches();
-		for (Job search: searches) {
-			if (search.finished()) {
-				// Finished search. Keep in cache?
-
-				// NOTE: we'll leave this to removeOldSearches() for now.
-				// Later we'll integrate the two.
-			} else if (search.isWaitingForOtherJob()) {
-				// Waiting, not taking up any CPU. Can run normally, but doesn't take a core.
-				applyAction(search, ServerLoadQueryAction.RUN_NORMALLY, "waiting for other job");
-			} else {
-				// Running search. Run, pause or abort?
-				boolean isCount = search instanceof JobHitsTotal || search instanceof JobDocsTotal;
-				if (isCount && search.timeSinceLastAccess() > cacheConfig.getAbandonedCountPauseTimeSec() && pauseSlotsLeft > 0) {
-					// This is a long-running count that seems to have been abandoned by the client.
-					// First we'll pause it so it doesn't consume CPU resources. Eventually we'll
-					// abort it so its memory is freed up.
-					if (search.timeSinceLastAccess() <= cacheConfig.getAbandonedCountAbortTimeSec()) {
-						pauseSlotsLeft--;
-						applyAction(search, ServerLoadQueryAction.PAUSE, "abandoned count");
-					} else {
-						applyAction(search, ServerLoadQueryAction.ABORT, "abandoned count");
-					}
-				} else if (coresLeft > 0) {
-					// A core is available. Run the search.
-					coresLeft--;
-					applyAction(search, ServerLoadQueryAction.RUN_NORMALLY, "core available");
-				} else if (pauseSlotsLeft > 0) {
-					// No cores, but a pause slot is left. Pause it.
-					pauseSlotsLeft--;
-					applyAction(search, ServerLoadQueryAction.PAUSE, "no cores left");
-				} else {
-					// No cores or pause slots. Abort the search.
-					applyAction(search, ServerLoadQueryAction.ABORT, "no cores or pause slots left");
+					if (minSearchesToRemove > 0)
+						logger.debug("Not enough free mem (free " + freeMegs + "M < min free " + cacheConfig.getMinFreeMemTargetMegs() + "M)");
+					else if (isCacheTooBig)
+						logger.debug("Cache too large (size " + cacheSizeMegs + "M > max size " + cacheConfig.getMaxSizeMegs() + "M)");
+					else
+						logger.debug("Searchjob too old (age " + (int)search1.cacheAge() + "s > max age " + cacheConfig.getMaxJobAgeSec() + "s)");
+					logger.debug("  Removing searchjob: " + search1);
 				}
+				removeFromCache(search1);
 			}
+			minSearchesToRemove--;
 		}
 	}
 
@@ -449,13 +649,19 @@ public class SearchCache {
 		// See what to do with the current search
 		switch (action) {
 		case RUN_NORMALLY:
-			if (search.getPriorityLevel() != Level.RUNNING) {
+			if (jobScheduler.isQueued(search)) {
+				if (BlsConfig.traceCache) logger.debug("LOADMGR: Starting queued search: " + search + " (" + reason + ")");
+				jobScheduler.start(search);
+			} else if (search.getPriorityLevel() != Level.RUNNING) {
 				if (BlsConfig.traceCache) logger.debug("LOADMGR: Resuming search: " + search + " (" + reason + ")");
 				search.setPriorityLevel(Level.RUNNING);
+				jobScheduler.resume(search); // (if it gave up its worker while paused)
 			}
 			break;
 		case PAUSE:
-			if (search.getPriorityLevel() != Level.PAUSED) {
+			if (jobScheduler.isQueued(search)) {
+				// Not started yet; leave it in the queue
+			} else if (search.getPriorityLevel() != Level.PAUSED) {
 				if (BlsConfig.traceCache) logger.debug("LOADMGR: Pausing search: " + search + " (was: " + search.getPriorityLevel() + ") (" + reason + ")");
 				search.setPriorityLevel(Level.PAUSED);
 			}
@@ -474,15 +680,24 @@ public class SearchCache {
 		}
 	}
 
-	private synchronized void removeFromCache(Job search) {
+	/**
+	 * Remove a search from the cache.
+	 *
+	 * NOTE: called with loadManagementLock held
+	 *
+	 * @param search the search to remove
+	 */
+	private void removeFromCache(Job search) {
 		String identifier = search.getDescription().uniqueIdentifier();
-		Job removed = cachedSearches.remove(identifier);
-		if (removed == null) {
-			logger.error("Tried to remove search, but not found: " + identifier);
-		}
-		removed.decrRef();
-		if (search != removed) {
-            logger.error("##### Tried to remove " + search + " but instead removed " + removed + ", with same identifier?");
+		synchronized (lockForSearch(identifier)) {
+			EvictionKey key = evictionKeys.remove(search);
+			if (key != null)
+				evictionIndex.remove(key);
+			if (!cachedSearches.remove(identifier, search)) {
+				logger.error("Tried to remove search, but not found: " + identifier);
+				return;
+			}
+			search.decrRef();
 		}
 		cacheSizeBytes -= search.estimateSizeBytes();
 	}
@@ -492,24 +707,34 @@ public class SearchCache {
 		removeFromCache(search);
 	}
 
+	/**
+	 * Get the running jobs for a user, removing the ones that have finished.
+	 *
+	 * NOTE: the set returned must only be accessed while synchronized on runningJobsPerUser
+	 *
+	 * @param uniqueId the user's unique id
+	 * @return the user's running jobs
+	 */
 	private Set<Job> updateRunningJobs(String uniqueId) {
-		Set<Job> runningJobs = runningJobsPerUser.get(uniqueId);
-		Set<Job> newRunningJobs = new HashSet<>();
-		if (runningJobs != null) {
-			for (Job runningJob: runningJobs) {
-				if (!runningJob.finished()) {
-					newRunningJobs.add(runningJob);
-				}
+		synchronized (runningJobsPerUser) {
+			Set<Job> runningJobs = runningJobsPerUser.get(uniqueId);
+			if (runningJobs == null) {
+				runningJobs = new HashSet<>();
+				runningJobsPerUser.put(uniqueId, runningJobs);
+			}
+			Iterator<Job> it = runningJobs.iterator();
+			while (it.hasNext()) {
+				if (it.next().finished())
+					it.remove();
 			}
+			return runningJobs;
 		}
-		runningJobsPerUser.put(uniqueId, newRunningJobs);
-		return newRunningJobs;
 	}
 
 	private void checkFreeMemory() throws ServiceUnavailable {
 		long freeMegs = MemoryUtil.getFree() / 1000000;
 		if (freeMegs < cacheConfig.getMinFreeMemForSearchMegs()) {
-			performLoadManagement(null); //removeOldSearches(); // try to free up space for next search
+			tryLoadManagement(null); //removeOldSearches(); // try to free up space for next search
 			logger.warn(
 					"Can't start new search, not enough memory (" + freeMegs + "M < " + cacheConfig.getMinFreeMemForSearchMegs() + "M)");
 			logger.warn("(NOTE: make sure Tomcat's max heap mem is set to an appropriate value!)");
@@ -12,6 +12,7 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 
 import nl.inl.blacklab.externalstorage.ContentStore;
+import nl.inl.blacklab.forwardindex.CharOffsetsStore;
 import nl.inl.blacklab.forwardindex.ForwardIndex;
 import nl.inl.blacklab.search.QueryExecutionContext;
 import nl.inl.blacklab.search.Searcher;
@@ -79,6 +80,11 @@ public class SearcherIsBeingOpened extends Searcher {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	protected CharOffsetsStore openCharOffsetsStore(String fieldName) {
+		return null;
+	}
+
 	@Override
 	public QueryExecutionContext getDefaultExecutionContext(String fieldName) {
 		throw new UnsupportedOperationException();
@@ -18,6 +18,7 @@ import org.mockito.ArgumentMatchers;
 import org.mockito.Mockito;
 
 import nl.inl.blacklab.externalstorage.ContentStore;
+import nl.inl.blacklab.forwardindex.CharOffsetsStore;
 import nl.inl.blacklab.forwardindex.ForwardIndex;
 import nl.inl.blacklab.perdocument.DocResults;
 import nl.inl.blacklab.search.QueryExecutionContext;
@@ -79,6 +80,11 @@ public class MockSearcher extends Searcher {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	protected CharOffsetsStore openCharOffsetsStore(String fieldName) {
+		return null;
+	}
+
 	@Override
 	public ContentStore openContentStore(File indexXmlDir, boolean create) {
 		return null;